@@ -0,0 +1,652 @@
+package com.evanhalley.whereip;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Columnar store of locations
+ * IP addresses are kept as ints and coordinates as doubles in parallel arrays, cities and
+ *   countries as indices into dictionaries holding each distinct name once. A stored location
+ *   takes 28 bytes plus it's share of the dictionaries, {@link Location} objects are only built
+ *   when one is read. The store can be written to and read back from a compact binary snapshot
+ * IPv6 addresses don't fit the int column, they are kept in a sparse side table of 128 bit
+ *   addresses keyed by index, so IPv4 locations pay nothing for them
+ * Every array is append only, entries are written past the size and a full array is replaced
+ *   by a larger copy, so a {@link Snapshot} can read the entries below the sizes it recorded
+ *   while the store keeps changing
+ * Not thread safe
+ */
+public class LocationStore implements Parcelable {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // "WIPS" followed by the snapshot format version
+    private static final int SNAPSHOT_MAGIC = 0x57495053;
+    private static final byte SNAPSHOT_VERSION = 2;
+    // version 1 snapshots have no IPv6 table
+    private static final byte SNAPSHOT_VERSION_IPV4 = 1;
+
+    // country indices are stored as unsigned shorts
+    private static final int MAX_COUNTRY_INDEX = 0xFFFF;
+
+    private int mSize;
+    private int[] mIpNumbers;
+    private double[] mLatitudes;
+    private double[] mLongitudes;
+    private int[] mCityIndices;
+    private short[] mCountryIndices;
+
+    // indices of the IPv6 locations in ascending order, with their addresses
+    private int mIp6Size;
+    private int[] mIp6Indices;
+    private long[] mIp6Highs;
+    private long[] mIp6Lows;
+
+    private final StringDictionary mCities;
+    private final StringDictionary mCountries;
+
+    /**
+     * Assigns each distinct string an index, strings are appended like the location columns
+     */
+    private static class StringDictionary {
+
+        private String[] mStrings;
+        private int mSize;
+        private final HashMap<String, Integer> mIndices;
+
+        StringDictionary() {
+            mStrings = new String[INITIAL_CAPACITY];
+            mIndices = new HashMap<>();
+        }
+
+        StringDictionary(ArrayList<String> strings) {
+            mStrings = strings.toArray(new String[strings.size()]);
+            mSize = mStrings.length;
+            mIndices = new HashMap<>(strings.size() * 2);
+
+            for (int i = 0; i < mSize; i++) {
+                mIndices.put(mStrings[i], i);
+            }
+        }
+
+        int intern(String value) {
+            Integer index = mIndices.get(value);
+
+            if (index == null) {
+
+                if (mSize == mStrings.length) {
+                    mStrings = Arrays.copyOf(mStrings, Math.max(INITIAL_CAPACITY, mSize * 2));
+                }
+                index = mSize;
+                mStrings[mSize++] = value;
+                mIndices.put(value, index);
+            }
+            return index;
+        }
+
+        String get(int index) {
+
+            if (index >= mSize) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + mSize);
+            }
+            return mStrings[index];
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        List<String> asList() {
+            return Arrays.asList(Arrays.copyOf(mStrings, mSize));
+        }
+
+        void clear() {
+            mStrings = new String[INITIAL_CAPACITY];
+            mSize = 0;
+            mIndices.clear();
+        }
+    }
+
+    /**
+     * Creates an empty location store
+     */
+    public LocationStore() {
+        mCities = new StringDictionary();
+        mCountries = new StringDictionary();
+        clear();
+    }
+
+    private LocationStore(Parcel in) {
+        mSize = in.readInt();
+        mIpNumbers = in.createIntArray();
+        mLatitudes = in.createDoubleArray();
+        mLongitudes = in.createDoubleArray();
+        mCityIndices = in.createIntArray();
+        int[] countryIndices = in.createIntArray();
+        mCountryIndices = new short[mIpNumbers.length];
+
+        for (int i = 0; i < mSize; i++) {
+            mCountryIndices[i] = (short) countryIndices[i];
+        }
+        mCities = new StringDictionary(in.createStringArrayList());
+        mCountries = new StringDictionary(in.createStringArrayList());
+        mIp6Indices = in.createIntArray();
+        mIp6Highs = in.createLongArray();
+        mIp6Lows = in.createLongArray();
+        mIp6Size = mIp6Indices.length;
+    }
+
+    private LocationStore(int size, int[] ipNumbers, double[] latitudes, double[] longitudes,
+                          int[] cityIndices, short[] countryIndices, ArrayList<String> cities,
+                          ArrayList<String> countries, int[] ip6Indices, long[] ip6Highs,
+                          long[] ip6Lows) {
+        mSize = size;
+        mIpNumbers = ipNumbers;
+        mLatitudes = latitudes;
+        mLongitudes = longitudes;
+        mCityIndices = cityIndices;
+        mCountryIndices = countryIndices;
+        mCities = new StringDictionary(cities);
+        mCountries = new StringDictionary(countries);
+        mIp6Size = ip6Indices.length;
+        mIp6Indices = ip6Indices;
+        mIp6Highs = ip6Highs;
+        mIp6Lows = ip6Lows;
+    }
+
+    /**
+     * Reads a store written by {@link #writeSnapshot(OutputStream)}
+     * Performs I/O, do not call from the main thread
+     * @param in stream holding the snapshot, closed when done
+     * @return store
+     * @throws IOException if the snapshot can't be read or is not a location store snapshot
+     */
+    public static LocationStore readSnapshot(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+
+        try {
+
+            if (data.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a location store snapshot");
+            }
+            byte version = data.readByte();
+
+            if (version != SNAPSHOT_VERSION && version != SNAPSHOT_VERSION_IPV4) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            ArrayList<String> cities = readStrings(data);
+            ArrayList<String> countries = readStrings(data);
+            int size = data.readInt();
+
+            if (size < 0) {
+                throw new IOException("Negative location count " + size);
+            }
+            int[] ipNumbers = new int[size];
+            double[] latitudes = new double[size];
+            double[] longitudes = new double[size];
+            int[] cityIndices = new int[size];
+            short[] countryIndices = new short[size];
+
+            for (int i = 0; i < size; i++) {
+                ipNumbers[i] = data.readInt();
+                latitudes[i] = data.readDouble();
+                longitudes[i] = data.readDouble();
+                cityIndices[i] = data.readInt();
+                countryIndices[i] = data.readShort();
+
+                if (cityIndices[i] < 0 || cityIndices[i] >= cities.size()
+                        || (countryIndices[i] & 0xFFFF) >= countries.size()) {
+                    throw new IOException("Dictionary index out of range at location " + i);
+                }
+            }
+            int ip6Size = version == SNAPSHOT_VERSION ? data.readInt() : 0;
+
+            if (ip6Size < 0 || ip6Size > size) {
+                throw new IOException("Invalid IPv6 location count " + ip6Size);
+            }
+            int[] ip6Indices = new int[ip6Size];
+            long[] ip6Highs = new long[ip6Size];
+            long[] ip6Lows = new long[ip6Size];
+
+            for (int i = 0; i < ip6Size; i++) {
+                ip6Indices[i] = data.readInt();
+                ip6Highs[i] = data.readLong();
+                ip6Lows[i] = data.readLong();
+
+                if (ip6Indices[i] < 0 || ip6Indices[i] >= size
+                        || (i > 0 && ip6Indices[i] <= ip6Indices[i - 1])) {
+                    throw new IOException("IPv6 location index out of order at " + i);
+                }
+            }
+            return new LocationStore(size, ipNumbers, latitudes, longitudes, cityIndices,
+                    countryIndices, cities, countries, ip6Indices, ip6Highs, ip6Lows);
+        } finally {
+            data.close();
+        }
+    }
+
+    /**
+     * Writes a binary snapshot of the store, 26 bytes per location plus the dictionaries and
+     *   20 bytes per IPv6 address
+     * Performs I/O, do not call from the main thread
+     * @param out stream to write to, closed when done
+     * @throws IOException
+     */
+    public void writeSnapshot(OutputStream out) throws IOException {
+        snapshot().write(out);
+    }
+
+    /**
+     * Records the current size of the store, so the locations stored so far can be written out
+     *   on another thread while this one keeps adding to the store
+     * Nothing is copied, the snapshot shares the append only arrays of the store
+     * @return snapshot of the locations stored so far
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Locations held by a store when the snapshot was taken
+     * Reads the arrays of the store up to the sizes recorded, locations added later are written
+     *   past them or into new arrays, and clearing the store replaces the arrays
+     * Immutable
+     */
+    public static class Snapshot {
+
+        private final int mSize;
+        private final int[] mIpNumbers;
+        private final double[] mLatitudes;
+        private final double[] mLongitudes;
+        private final int[] mCityIndices;
+        private final short[] mCountryIndices;
+        private final int mIp6Size;
+        private final int[] mIp6Indices;
+        private final long[] mIp6Highs;
+        private final long[] mIp6Lows;
+        private final String[] mCities;
+        private final int mCityCount;
+        private final String[] mCountries;
+        private final int mCountryCount;
+
+        private Snapshot(LocationStore store) {
+            mSize = store.mSize;
+            mIpNumbers = store.mIpNumbers;
+            mLatitudes = store.mLatitudes;
+            mLongitudes = store.mLongitudes;
+            mCityIndices = store.mCityIndices;
+            mCountryIndices = store.mCountryIndices;
+            mIp6Size = store.mIp6Size;
+            mIp6Indices = store.mIp6Indices;
+            mIp6Highs = store.mIp6Highs;
+            mIp6Lows = store.mIp6Lows;
+            mCities = store.mCities.mStrings;
+            mCityCount = store.mCities.mSize;
+            mCountries = store.mCountries.mStrings;
+            mCountryCount = store.mCountries.mSize;
+        }
+
+        /**
+         * @return number of locations in the snapshot
+         */
+        public int size() {
+            return mSize;
+        }
+
+        /**
+         * Writes the snapshot in the format read by {@link #readSnapshot(InputStream)}
+         * Performs I/O, do not call from the main thread
+         * @param out stream to write to, closed when done
+         * @throws IOException
+         */
+        public void write(OutputStream out) throws IOException {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+
+            try {
+                data.writeInt(SNAPSHOT_MAGIC);
+                data.writeByte(SNAPSHOT_VERSION);
+                writeStrings(data, mCities, mCityCount);
+                writeStrings(data, mCountries, mCountryCount);
+                data.writeInt(mSize);
+
+                for (int i = 0; i < mSize; i++) {
+                    data.writeInt(mIpNumbers[i]);
+                    data.writeDouble(mLatitudes[i]);
+                    data.writeDouble(mLongitudes[i]);
+                    data.writeInt(mCityIndices[i]);
+                    data.writeShort(mCountryIndices[i]);
+                }
+                data.writeInt(mIp6Size);
+
+                for (int i = 0; i < mIp6Size; i++) {
+                    data.writeInt(mIp6Indices[i]);
+                    data.writeLong(mIp6Highs[i]);
+                    data.writeLong(mIp6Lows[i]);
+                }
+            } finally {
+                data.close();
+            }
+        }
+    }
+
+    private static void writeStrings(DataOutputStream data, String[] strings, int count)
+            throws IOException {
+        data.writeInt(count);
+
+        for (int i = 0; i < count; i++) {
+            data.writeUTF(strings[i]);
+        }
+    }
+
+    private static ArrayList<String> readStrings(DataInputStream data) throws IOException {
+        int count = data.readInt();
+
+        if (count < 0) {
+            throw new IOException("Negative string count " + count);
+        }
+        ArrayList<String> strings = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            strings.add(data.readUTF());
+        }
+        return strings;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        int[] countryIndices = new int[mSize];
+
+        for (int i = 0; i < mSize; i++) {
+            countryIndices[i] = mCountryIndices[i] & 0xFFFF;
+        }
+        dest.writeInt(mSize);
+        dest.writeIntArray(trim(mIpNumbers));
+        dest.writeDoubleArray(trim(mLatitudes));
+        dest.writeDoubleArray(trim(mLongitudes));
+        dest.writeIntArray(trim(mCityIndices));
+        dest.writeIntArray(countryIndices);
+        dest.writeStringList(mCities.asList());
+        dest.writeStringList(mCountries.asList());
+        dest.writeIntArray(trimIp6(mIp6Indices));
+        dest.writeLongArray(trimIp6(mIp6Highs));
+        dest.writeLongArray(trimIp6(mIp6Lows));
+    }
+
+    public static final Parcelable.Creator<LocationStore> CREATOR =
+            new Parcelable.Creator<LocationStore>() {
+        public LocationStore createFromParcel(Parcel in) {
+            return new LocationStore(in);
+        }
+
+        public LocationStore[] newArray(int size) {
+            return new LocationStore[size];
+        }
+    };
+
+    /**
+     * Adds a location
+     * @param location location to add
+     * @return index of the location
+     */
+    public int add(Location location) {
+
+        if (location == null) {
+            throw new IllegalArgumentException("Location is null");
+        }
+        String ipAddress = location.getIpAddress();
+        long ipNumber = LookupHelper.parseIpAddress(ipAddress, 0, ipAddress.length());
+        Ip6Address ip6Address = ipNumber < 0 ? Ip6Address.fromString(ipAddress) : null;
+        int countryIndex = mCountries.intern(location.getCountryName());
+
+        if (countryIndex > MAX_COUNTRY_INDEX) {
+            throw new IllegalStateException("Too many distinct countries");
+        }
+
+        if (mSize == mIpNumbers.length) {
+            grow();
+        }
+
+        if (ip6Address != null) {
+            addIp6Address(mSize, ip6Address);
+            ipNumber = 0;
+        }
+        mIpNumbers[mSize] = (int) ipNumber;
+        mLatitudes[mSize] = location.getLatitude();
+        mLongitudes[mSize] = location.getLongitude();
+        mCityIndices[mSize] = mCities.intern(location.getCity());
+        mCountryIndices[mSize] = (short) countryIndex;
+        return mSize++;
+    }
+
+    /**
+     * Adds every location in the list
+     * @param locations locations to add
+     */
+    public void addAll(List<Location> locations) {
+
+        for (int i = 0; i < locations.size(); i++) {
+            add(locations.get(i));
+        }
+    }
+
+    /**
+     * Builds the location at an index
+     * @param index index of the location
+     * @return location
+     */
+    public Location get(int index) {
+        checkIndex(index);
+        return new Location.Builder()
+                .setIpAddress(getIpAddress(index))
+                .setLatitude(mLatitudes[index])
+                .setLongitude(mLongitudes[index])
+                .setCity(mCities.get(mCityIndices[index]))
+                .setCountryName(mCountries.get(mCountryIndices[index] & 0xFFFF))
+                .build();
+    }
+
+    /**
+     * @param index index of the location
+     * @return IP address of the location, IPv4 or IPv6
+     */
+    public String getIpAddress(int index) {
+        checkIndex(index);
+        int ip6Index = findIp6Index(index);
+
+        if (ip6Index >= 0) {
+            return Ip6Address.appendIpAddress(mIp6Highs[ip6Index], mIp6Lows[ip6Index],
+                    new StringBuilder(Ip6Address.MAX_IP6_ADDRESS_LENGTH)).toString();
+        }
+        return LookupHelper.ipNumberToString(mIpNumbers[index] & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param index index of the location
+     * @return number representation of the IPv4 address, or -1 if the location is IPv6
+     */
+    public long getIpNumber(int index) {
+        checkIndex(index);
+        return findIp6Index(index) >= 0 ? -1 : mIpNumbers[index] & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return number of IPv6 locations stored
+     */
+    public int getIp6Count() {
+        return mIp6Size;
+    }
+
+    public double getLatitude(int index) {
+        checkIndex(index);
+        return mLatitudes[index];
+    }
+
+    public double getLongitude(int index) {
+        checkIndex(index);
+        return mLongitudes[index];
+    }
+
+    public String getCity(int index) {
+        checkIndex(index);
+        return mCities.get(mCityIndices[index]);
+    }
+
+    public String getCountryName(int index) {
+        checkIndex(index);
+        return mCountries.get(mCountryIndices[index] & 0xFFFF);
+    }
+
+    /**
+     * @return number of locations stored
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return number of distinct cities stored
+     */
+    public int getCityCount() {
+        return mCities.size();
+    }
+
+    /**
+     * @return number of distinct countries stored
+     */
+    public int getCountryCount() {
+        return mCountries.size();
+    }
+
+    /**
+     * Removes every location
+     */
+    public void clear() {
+        mSize = 0;
+        mIpNumbers = new int[INITIAL_CAPACITY];
+        mLatitudes = new double[INITIAL_CAPACITY];
+        mLongitudes = new double[INITIAL_CAPACITY];
+        mCityIndices = new int[INITIAL_CAPACITY];
+        mCountryIndices = new short[INITIAL_CAPACITY];
+        mIp6Size = 0;
+        mIp6Indices = new int[0];
+        mIp6Highs = new long[0];
+        mIp6Lows = new long[0];
+        mCities.clear();
+        mCountries.clear();
+    }
+
+    /**
+     * Returns a read only view of the store, locations are built as they are read
+     * @return list of locations
+     */
+    public List<Location> asList() {
+        return new LocationList();
+    }
+
+    private class LocationList extends AbstractList<Location> implements RandomAccess {
+
+        @Override
+        public Location get(int index) {
+            return LocationStore.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+    }
+
+    private void grow() {
+        int capacity = Math.max(INITIAL_CAPACITY, mIpNumbers.length * 2);
+        int[] ipNumbers = new int[capacity];
+        double[] latitudes = new double[capacity];
+        double[] longitudes = new double[capacity];
+        int[] cityIndices = new int[capacity];
+        short[] countryIndices = new short[capacity];
+        System.arraycopy(mIpNumbers, 0, ipNumbers, 0, mSize);
+        System.arraycopy(mLatitudes, 0, latitudes, 0, mSize);
+        System.arraycopy(mLongitudes, 0, longitudes, 0, mSize);
+        System.arraycopy(mCityIndices, 0, cityIndices, 0, mSize);
+        System.arraycopy(mCountryIndices, 0, countryIndices, 0, mSize);
+        mIpNumbers = ipNumbers;
+        mLatitudes = latitudes;
+        mLongitudes = longitudes;
+        mCityIndices = cityIndices;
+        mCountryIndices = countryIndices;
+    }
+
+    private void addIp6Address(int index, Ip6Address address) {
+
+        if (mIp6Size == mIp6Indices.length) {
+            int capacity = Math.max(4, mIp6Size * 2);
+            int[] indices = new int[capacity];
+            long[] highs = new long[capacity];
+            long[] lows = new long[capacity];
+            System.arraycopy(mIp6Indices, 0, indices, 0, mIp6Size);
+            System.arraycopy(mIp6Highs, 0, highs, 0, mIp6Size);
+            System.arraycopy(mIp6Lows, 0, lows, 0, mIp6Size);
+            mIp6Indices = indices;
+            mIp6Highs = highs;
+            mIp6Lows = lows;
+        }
+        // locations are only appended, so the indices stay sorted
+        mIp6Indices[mIp6Size] = index;
+        mIp6Highs[mIp6Size] = address.getHigh();
+        mIp6Lows[mIp6Size] = address.getLow();
+        mIp6Size++;
+    }
+
+    private int findIp6Index(int index) {
+        return mIp6Size == 0 ? -1 : Arrays.binarySearch(mIp6Indices, 0, mIp6Size, index);
+    }
+
+    private int[] trimIp6(int[] values) {
+        int[] trimmed = new int[mIp6Size];
+        System.arraycopy(values, 0, trimmed, 0, mIp6Size);
+        return trimmed;
+    }
+
+    private long[] trimIp6(long[] values) {
+        long[] trimmed = new long[mIp6Size];
+        System.arraycopy(values, 0, trimmed, 0, mIp6Size);
+        return trimmed;
+    }
+
+    private int[] trim(int[] values) {
+        int[] trimmed = new int[mSize];
+        System.arraycopy(values, 0, trimmed, 0, mSize);
+        return trimmed;
+    }
+
+    private double[] trim(double[] values) {
+        double[] trimmed = new double[mSize];
+        System.arraycopy(values, 0, trimmed, 0, mSize);
+        return trimmed;
+    }
+
+    private void checkIndex(int index) {
+
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + mSize);
+        }
+    }
+}
@@ -3,9 +3,16 @@ package com.evanhalley.whereip;
 import android.app.IntentService;
 import android.content.Intent;
 import android.content.Context;
+import android.net.Uri;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 
@@ -18,13 +25,38 @@ public class LookupService extends IntentService {
     private static final String TAG = "LookupService";
 
     private static final String ACTION_LOOKUP_IP = "com.evanhalley.whereip.action.lookupIp";
-    public static final String ACTION_NEW_LOCATION = "com.evanhalley.whereip.newLocation";
+    private static final String ACTION_IMPORT_DATABASE =
+            "com.evanhalley.whereip.action.importDatabase";
+    private static final String ACTION_CANCEL_LOOKUP =
+            "com.evanhalley.whereip.action.cancelLookup";
+    public static final String ACTION_NEW_LOCATIONS = "com.evanhalley.whereip.newLocations";
     public static final String ACTION_PROCESSING_STARTED = "com.evanhalley.whereip.processingStarted";
     public static final String ACTION_PROCESSING_FINISHED = "com.evanhalley.whereip.processingFinished";
+    public static final String ACTION_DATABASE_IMPORTED =
+            "com.evanhalley.whereip.databaseImported";
 
-    private static final String EXTRA_PARAM_IP_RANGE_START = "com.evanhalley.whereip.extra.ipRangeStart";
-    private static final String EXTRA_PARAM_IP_RANGE_END = "com.evanhalley.whereip.extra.ipRangeEnd";
-    public static final String EXTRA_PARAM_LOCATION = "com.evanhalley.whereip.extra.location";
+    private static final String EXTRA_PARAM_IP_RANGES = "com.evanhalley.whereip.extra.ipRanges";
+    private static final String EXTRA_PARAM_SMART_RANGE = "com.evanhalley.whereip.extra.smartRange";
+    private static final String EXTRA_PARAM_SAMPLE = "com.evanhalley.whereip.extra.sample";
+    private static final String EXTRA_PARAM_CSV_URI = "com.evanhalley.whereip.extra.csvUri";
+    public static final String EXTRA_PARAM_LOCATIONS = "com.evanhalley.whereip.extra.locations";
+    public static final String EXTRA_PARAM_PROCESSED_COUNT =
+            "com.evanhalley.whereip.extra.processedCount";
+    public static final String EXTRA_PARAM_TOTAL_COUNT = "com.evanhalley.whereip.extra.totalCount";
+    public static final String EXTRA_PARAM_RANGE_COUNT = "com.evanhalley.whereip.extra.rangeCount";
+
+    private static final String OFFLINE_DATABASE_FILE = "ip_locations.db";
+
+    private static final String PERSISTENT_CACHE_FILE = "locations.cache";
+    private static final long PERSISTENT_CACHE_TIME_TO_LIVE_MS = 7 * 24 * 60 * 60 * 1000L;
+    private static final int PERSISTENT_CACHE_BATCH_SIZE = 64;
+    private static final long PERSISTENT_CACHE_FLUSH_INTERVAL_MS = 2000;
+
+    private static final String SCAN_JOB_FILE = "scan.job";
+    private static final int SCAN_JOB_CHECKPOINT_BATCH_SIZE = 256;
+
+    // a fixed seed samples the same addresses each time, so a repeated sample hits the caches
+    private static final long SAMPLE_SEED = 0;
 
     /**
      * Helper function for starting the LookupService with an IP address lookup
@@ -33,6 +65,50 @@ public class LookupService extends IntentService {
      * @param rangeEnd IP address at the end of the range
      */
     public static void lookupIpRange(Context context, String rangeStart, String rangeEnd) {
+        lookupIpRange(context, rangeStart, rangeEnd, false);
+    }
+
+    /**
+     * Helper function for starting the LookupService with an IP address lookup
+     * @param context context
+     * @param rangeStart IP address at the start of the range
+     * @param rangeEnd IP address at the end of the range
+     * @param smartRange true to bisect the range, inferring the location of blocks whose ends
+     *   share a location instead of looking up every address
+     */
+    public static void lookupIpRange(Context context, String rangeStart, String rangeEnd,
+                                     boolean smartRange) {
+        lookupIpRanges(context, rangeStart + "-" + rangeEnd, smartRange);
+    }
+
+    /**
+     * Helper function for starting the LookupService with a lookup of a list of IP addresses,
+     *   ranges and CIDR blocks, see {@link LookupHelper#parseIpRanges(String)}
+     * Overlapping entries are merged and addresses already resolved since the process started
+     *   are skipped
+     * @param context context
+     * @param ipRanges list of IP addresses, ranges and CIDR blocks
+     * @param smartRange true to bisect the ranges, inferring the location of blocks whose ends
+     *   share a location instead of looking up every address
+     */
+    public static void lookupIpRanges(Context context, String ipRanges, boolean smartRange) {
+        lookupIpRanges(context, ipRanges, smartRange, false);
+    }
+
+    /**
+     * Helper function for starting the LookupService with a lookup of a list of IP addresses,
+     *   ranges and CIDR blocks, see {@link LookupHelper#parseIpRanges(String)}
+     * A sampled lookup picks a few addresses from every block of the IPv4 ranges, see
+     *   {@link StratifiedSampler}, it takes precedence over smart range. Sampled addresses are
+     *   not checkpointed and the ranges are not remembered as resolved
+     * @param context context
+     * @param ipRanges list of IP addresses, ranges and CIDR blocks
+     * @param smartRange true to bisect the ranges, inferring the location of blocks whose ends
+     *   share a location instead of looking up every address
+     * @param sample true to look up a stratified sample of the IPv4 ranges
+     */
+    public static void lookupIpRanges(Context context, String ipRanges, boolean smartRange,
+                                      boolean sample) {
 
         if (context == null) {
             throw new IllegalArgumentException("Context is null");
@@ -40,13 +116,371 @@ public class LookupService extends IntentService {
 
         Intent intent = new Intent(context, LookupService.class);
         intent.setAction(ACTION_LOOKUP_IP);
-        intent.putExtra(EXTRA_PARAM_IP_RANGE_START, rangeStart);
-        intent.putExtra(EXTRA_PARAM_IP_RANGE_END, rangeEnd);
+        intent.putExtra(EXTRA_PARAM_IP_RANGES, ipRanges);
+        intent.putExtra(EXTRA_PARAM_SMART_RANGE, smartRange);
+        intent.putExtra(EXTRA_PARAM_SAMPLE, sample);
+        context.startService(intent);
+    }
+
+    /**
+     * Cancels the IP lookup in progress, lookups already in flight complete first and
+     *   {@link #ACTION_PROCESSING_FINISHED} is broadcast as usual
+     * The scan job is checkpointed, requesting the same ranges again resumes it
+     * @param context context
+     */
+    public static void cancelLookup(Context context) {
+
+        if (context == null) {
+            throw new IllegalArgumentException("Context is null");
+        }
+
+        Intent intent = new Intent(context, LookupService.class);
+        intent.setAction(ACTION_CANCEL_LOOKUP);
         context.startService(intent);
     }
 
+    /**
+     * @param context context
+     * @param ip6Ranges IPv6 ranges of a lookup
+     * @return true if the IPv6 ranges cover more addresses than one lookup may scan
+     */
+    public static boolean exceedsIp6Limit(Context context, List<Ip6Range> ip6Ranges) {
+        return LookupHelper.countIp6Addresses(ip6Ranges)
+                > context.getResources().getInteger(R.integer.lookup_max_ip6_addresses);
+    }
+
+    /**
+     * @param context context
+     * @return sampler of sampled lookups
+     */
+    public static StratifiedSampler createSampler(Context context) {
+        return new StratifiedSampler(
+                context.getResources().getInteger(R.integer.lookup_sample_prefix_length),
+                context.getResources().getInteger(R.integer.lookup_samples_per_block),
+                SAMPLE_SEED);
+    }
+
+    /**
+     * Smart range lookups are never over the limit, bisection looks up an unknown number of
+     *   addresses
+     * @param context context
+     * @param ranges merged IPv4 ranges of a lookup
+     * @param smartRange true if the ranges are bisected
+     * @param sample true if the ranges are sampled
+     * @return true if the lookup would look up more IPv4 addresses than one lookup may
+     */
+    public static boolean exceedsLookupLimit(Context context, List<IpRange> ranges,
+                                             boolean smartRange, boolean sample) {
+
+        if (smartRange && !sample) {
+            return false;
+        }
+        long count = sample ? createSampler(context).countSamples(ranges)
+                : LookupHelper.countIpAddresses(ranges);
+        return count > context.getResources().getInteger(R.integer.lookup_max_lookups);
+    }
+
+    /**
+     * Helper function for starting the LookupService with an import of an IP2Location Lite style
+     *   CSV into the offline location database, once imported IPv4 lookups use the network only
+     *   for addresses the database has no range for
+     * {@link #ACTION_DATABASE_IMPORTED} is broadcast once done, with the number of imported
+     *   ranges in {@link #EXTRA_PARAM_RANGE_COUNT}, -1 if the import failed
+     * @param context context
+     * @param csvUri content or file URI of the CSV, as returned by a document picker
+     */
+    public static void importOfflineDatabase(Context context, Uri csvUri) {
+
+        if (context == null) {
+            throw new IllegalArgumentException("Context is null");
+        }
+
+        if (csvUri == null) {
+            throw new IllegalArgumentException("CSV URI is null");
+        }
+
+        Intent intent = new Intent(context, LookupService.class);
+        intent.setAction(ACTION_IMPORT_DATABASE);
+        intent.putExtra(EXTRA_PARAM_CSV_URI, csvUri);
+        context.startService(intent);
+    }
+
+    // ranges looked up since the process started, merged and sorted, only used by the worker thread
+    private static List<IpRange> sResolvedRanges = new ArrayList<>();
+
+    private GeoProvider mProvider;
+    private HedgedGeoProvider mHedgedProvider;
+    private LookupClient mSecondaryClient;
+    private LookupEngine.Resolver mResolver;
+    private LookupEngine mLookupEngine;
+    private volatile OfflineLocationDatabase mOfflineDatabase;
+    private PersistentLocationCache mPersistentCache;
+
+    // the worker thread running a cancelable lookup, interrupted to cancel it
+    private final Object mLookupLock = new Object();
+    private Thread mLookupThread;
+    private boolean mLookupCancelled;
+
     public LookupService() {
         super(TAG);
+
+        // a lookup interrupted by process death is redelivered and resumes from it's checkpoint
+        setIntentRedelivery(true);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        String apiKey = getString(R.string.ipinfo_key);
+        LookupClient client = LookupClient.getInstance();
+        client.setMaxRequestsPerSecond(
+                getResources().getInteger(R.integer.lookup_max_requests_per_second),
+                getResources().getInteger(R.integer.lookup_request_burst));
+        mProvider = new IpInfoDbProvider(client, apiKey);
+        String secondaryUrl = getString(R.string.ipinfo_secondary_url);
+
+        // slow lookups are repeated against the secondary endpoint, the first answer wins
+        if (secondaryUrl.length() > 0) {
+            mSecondaryClient = new LookupClient(secondaryUrl);
+            mSecondaryClient.setCache(client.getCache());
+            mSecondaryClient.setMaxRequestsPerSecond(
+                    getResources().getInteger(R.integer.lookup_max_requests_per_second),
+                    getResources().getInteger(R.integer.lookup_request_burst));
+            mHedgedProvider = new HedgedGeoProvider(mProvider,
+                    new IpInfoDbProvider(mSecondaryClient, apiKey),
+                    getResources().getInteger(R.integer.lookup_hedge_percentile),
+                    getResources().getInteger(R.integer.lookup_hedge_initial_delay_ms));
+            mProvider = mHedgedProvider;
+        }
+        int concurrency = getResources().getInteger(R.integer.lookup_concurrency);
+
+        // network lookups back off when the provider slows down or fails, the engine's
+        //   concurrency is the most the limiter grows to
+        final AdaptiveResolver networkResolver = new AdaptiveResolver(
+                new LookupEngine.Resolver() {
+                    @Override
+                    public Location resolve(String ipAddress) throws Exception {
+                        Log.i(TAG, String.format("Performing lookup of IP address %s",
+                                ipAddress));
+                        return mProvider.getLocationByIp(ipAddress, null);
+                    }
+                },
+                new AimdLimiter(getResources().getInteger(R.integer.lookup_min_concurrency),
+                        concurrency,
+                        getResources().getInteger(R.integer.lookup_latency_threshold_ms), 0.5),
+                new CircuitBreaker(
+                        getResources().getInteger(R.integer.lookup_circuit_failure_threshold),
+                        getResources().getInteger(R.integer.lookup_circuit_open_ms)),
+                new RetryPolicy(getResources().getInteger(R.integer.lookup_max_attempts),
+                        getResources().getInteger(R.integer.lookup_retry_base_delay_ms),
+                        getResources().getInteger(R.integer.lookup_retry_max_delay_ms)));
+        mResolver = new LookupEngine.Resolver() {
+            @Override
+            public Location resolve(String ipAddress) throws Exception {
+                OfflineLocationDatabase offlineDatabase = mOfflineDatabase;
+
+                // the offline database only holds IPv4 ranges
+                if (offlineDatabase != null && ipAddress.indexOf(':') < 0) {
+                    LookupMetrics metrics = LookupClient.getInstance().getMetrics();
+                    long startTime = metrics.lookupStarted();
+                    Location location = offlineDatabase.getLocationByIp(ipAddress);
+                    metrics.lookupFinished(startTime, location != null
+                            ? LookupMetrics.Outcome.LOCATED : LookupMetrics.Outcome.NOT_FOUND);
+
+                    // the database may not cover every range, a miss is asked of the network
+                    if (location != null) {
+                        return location;
+                    }
+                }
+                return networkResolver.resolve(ipAddress);
+            }
+        };
+        mLookupEngine = new LookupEngine(mResolver, concurrency);
+    }
+
+    @Override
+    public void onDestroy() {
+        mLookupEngine.shutdown();
+
+        if (mHedgedProvider != null) {
+            mHedgedProvider.shutdown();
+        }
+        closeOfflineDatabase();
+        super.onDestroy();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+
+        // a cancel can't wait in the queue behind the lookup it cancels, the intent is still
+        //   queued so the service stops once it is reached
+        if (intent != null && ACTION_CANCEL_LOOKUP.equals(intent.getAction())) {
+            cancelRunningLookup();
+        }
+        return super.onStartCommand(intent, flags, startId);
+    }
+
+    private void cancelRunningLookup() {
+
+        synchronized (mLookupLock) {
+
+            if (mLookupThread != null) {
+                Log.i(TAG, "Cancelling IP address lookup");
+                mLookupCancelled = true;
+                mLookupThread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Ends the cancelable part of a lookup, no interrupt is delivered to the worker thread after
+     *   this returns
+     * @return true if the lookup was cancelled
+     */
+    private boolean finishCancelableLookup() {
+
+        synchronized (mLookupLock) {
+            mLookupThread = null;
+            return mLookupCancelled;
+        }
+    }
+
+    /**
+     * Opens the persistent cache and hands it to the lookup clients, if not done already
+     * Called from the worker thread since opening the cache reads it from disk
+     */
+    private void openPersistentCacheIfNeeded() {
+
+        if (mPersistentCache == null) {
+
+            try {
+                mPersistentCache = new PersistentLocationCache(
+                        new PersistentLocationCache.FileStorage(
+                                new File(getFilesDir(), PERSISTENT_CACHE_FILE)),
+                        PERSISTENT_CACHE_TIME_TO_LIVE_MS, PERSISTENT_CACHE_BATCH_SIZE,
+                        PERSISTENT_CACHE_FLUSH_INTERVAL_MS);
+                LookupClient.getInstance().setPersistentCache(mPersistentCache);
+
+                if (mSecondaryClient != null) {
+                    mSecondaryClient.setPersistentCache(mPersistentCache);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to open the persistent cache", e);
+            }
+        }
+    }
+
+    /**
+     * Writes the pending entries of the persistent cache and closes it
+     * Called from the worker thread once an intent is handled, the next intent reopens the cache
+     */
+    private void closePersistentCache() {
+
+        if (mPersistentCache != null) {
+            LookupClient.getInstance().setPersistentCache(null);
+
+            if (mSecondaryClient != null) {
+                mSecondaryClient.setPersistentCache(null);
+            }
+
+            try {
+                mPersistentCache.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error occurred closing the persistent cache", e);
+            }
+            mPersistentCache = null;
+        }
+    }
+
+    /**
+     * Opens the offline location database if one has been imported and it isn't open already
+     */
+    private void openOfflineDatabaseIfNeeded() {
+        File file = new File(getFilesDir(), OFFLINE_DATABASE_FILE);
+
+        if (mOfflineDatabase == null && file.exists()) {
+
+            try {
+                mOfflineDatabase = new OfflineLocationDatabase(file);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to open the offline location database", e);
+            }
+        }
+    }
+
+    private void closeOfflineDatabase() {
+
+        if (mOfflineDatabase != null) {
+
+            try {
+                mOfflineDatabase.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error occurred closing the offline location database", e);
+            }
+            mOfflineDatabase = null;
+        }
+    }
+
+    /**
+     * Resumes the stored scan job if it scans the same ranges, otherwise starts a new one
+     * @param ranges IP ranges to scan
+     * @param smartRange true if the ranges are bisected
+     * @return scan job, or null if the job storage is unusable
+     */
+    private ScanJob openScanJob(List<IpRange> ranges, boolean smartRange) {
+        PersistentLocationCache.Storage storage = new PersistentLocationCache.FileStorage(
+                new File(getFilesDir(), SCAN_JOB_FILE));
+
+        try {
+            ScanJob job = ScanJob.resume(storage, SCAN_JOB_CHECKPOINT_BATCH_SIZE);
+
+            if (job != null && job.isSmartRange() == smartRange && job.getRanges().equals(ranges)) {
+                Log.i(TAG, String.format("Resuming scan with %d of %d IP addresses completed",
+                        job.getCompletedCount(), job.getTotalCount()));
+                return job;
+            }
+            return ScanJob.create(storage, ranges, smartRange, SCAN_JOB_CHECKPOINT_BATCH_SIZE);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to checkpoint the scan, it will not be resumable", e);
+            return null;
+        }
+    }
+
+    /**
+     * Imports a CSV into the offline location database, replacing any existing database
+     * @param csvUri content or file URI of the CSV
+     */
+    private void performDatabaseImport(Uri csvUri) {
+        File temp = new File(getFilesDir(), OFFLINE_DATABASE_FILE + ".tmp");
+        int rangeCount = -1;
+
+        try {
+            Reader csv = new InputStreamReader(getContentResolver().openInputStream(csvUri),
+                    "UTF-8");
+
+            int importedCount;
+
+            try {
+                importedCount = OfflineLocationDatabase.importCsv(csv, temp);
+            } finally {
+                csv.close();
+            }
+            closeOfflineDatabase();
+
+            if (!temp.renameTo(new File(getFilesDir(), OFFLINE_DATABASE_FILE))) {
+                throw new IOException("Unable to replace the offline location database");
+            }
+            rangeCount = importedCount;
+            Log.i(TAG, String.format("Imported %d IP ranges into the offline location database",
+                    rangeCount));
+        } catch (IOException e) {
+            Log.w(TAG, "Error occurred importing the offline location database", e);
+            temp.delete();
+        } finally {
+            Intent intent = new Intent(ACTION_DATABASE_IMPORTED);
+            intent.putExtra(EXTRA_PARAM_RANGE_COUNT, rangeCount);
+            LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+        }
     }
 
     @Override
@@ -55,42 +489,280 @@ public class LookupService extends IntentService {
         if (intent != null) {
             final String action = intent.getAction();
 
-            if (ACTION_LOOKUP_IP.equals(action)) {
-                final String ipRangeStart = intent.getStringExtra(EXTRA_PARAM_IP_RANGE_START);
-                final String ipRangeEnd = intent.getStringExtra(EXTRA_PARAM_IP_RANGE_END);
-                performIpLookup(ipRangeStart, ipRangeEnd);
+            try {
+
+                if (ACTION_LOOKUP_IP.equals(action)) {
+                    final String ipRanges = intent.getStringExtra(EXTRA_PARAM_IP_RANGES);
+                    final boolean smartRange = intent.getBooleanExtra(EXTRA_PARAM_SMART_RANGE,
+                            false);
+                    final boolean sample = intent.getBooleanExtra(EXTRA_PARAM_SAMPLE, false);
+                    performIpLookup(ipRanges, smartRange, sample);
+                } else if (ACTION_IMPORT_DATABASE.equals(action)) {
+                    performDatabaseImport((Uri) intent.getParcelableExtra(EXTRA_PARAM_CSV_URI));
+                }
+            } finally {
+                // closing writes to disk, which onDestroy can't do on the main thread
+                closePersistentCache();
             }
         }
     }
 
     /**
      * Performs the IP lookup and broadcasts the location to the appropriate subscriber
-     * @param ipRangeStart start of the IP range
-     * @param ipRangeEnd end of the IP range
-     */
-    private void performIpLookup(String ipRangeStart, String ipRangeEnd) {
-        List<String> ipAddresses = LookupHelper.getIpAddressesInRange(ipRangeStart, ipRangeEnd);
-
-        if (ipAddresses != null && ipAddresses.size() > 0) {
-            LocalBroadcastManager.getInstance(this).sendBroadcast(
-                    new Intent(ACTION_PROCESSING_STARTED));
-
-            for (int i = 0; i < ipAddresses.size(); i++) {
-                Log.i(TAG, String.format("Performing lookup of IP address %s", ipAddresses.get(i)));
-
-                try {
-                    Location location = LookupHelper.getLocationByIp(ipAddresses.get(i),
-                            getString(R.string.ipinfo_key));
-                    Intent intent = new Intent(ACTION_NEW_LOCATION);
-                    intent.putExtra(EXTRA_PARAM_LOCATION, location);
-                    LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
-                } catch (Exception e) {
+     * Lookups run in parallel on the lookup engine, locations are broadcast as they arrive. Only
+     *   addresses that weren't resolved by an earlier lookup and aren't reserved are processed
+     * IPv6 ranges are scanned after the IPv4 ones, one address at a time from a cursor so a range
+     *   is never materialized. They are always looked up address by address, are not
+     *   checkpointed and are not remembered as resolved, all of which are keyed by IPv4 number
+     * @param ipRanges list of IP addresses, ranges and CIDR blocks
+     * @param smartRange true to bisect the ranges instead of looking up every address
+     * @param sample true to look up a stratified sample of the IPv4 ranges, takes precedence
+     *   over smart range
+     */
+    private void performIpLookup(String ipRanges, boolean smartRange, boolean sample) {
+        final List<IpRange> requestedRanges;
+        final List<Ip6Range> ip6Ranges = new ArrayList<>();
+
+        try {
+            requestedRanges = LookupHelper.parseIpRanges(ipRanges, ip6Ranges);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, String.format("Ignoring malformed IP range list %s", ipRanges), e);
+            return;
+        }
+
+        // also checked by the UI, a redelivered intent must not start an unbounded scan either
+        if (exceedsIp6Limit(this, ip6Ranges)) {
+            Log.w(TAG, String.format("Ignoring IP range list %s, it has %d IPv6 addresses",
+                    ipRanges, LookupHelper.countIp6Addresses(ip6Ranges)));
+            return;
+        }
+        List<IpRange> unresolvedRanges =
+                LookupHelper.subtractIpRanges(requestedRanges, sResolvedRanges);
+        final List<IpRange> remainingRanges = ReservedIpRanges.subtract(unresolvedRanges);
+
+        // exhaustive and sampled lookups make one lookup per address, a /8 would never finish
+        if (exceedsLookupLimit(this, remainingRanges, smartRange, sample)) {
+            Log.w(TAG, String.format("Ignoring IP range list %s, it has too many IPv4 addresses "
+                    + "to look up", ipRanges));
+            return;
+        }
+        final StratifiedSampler sampler = sample ? createSampler(this) : null;
+        final long remainingCount = LookupHelper.countIpAddresses(remainingRanges);
+        final long ip4Count = sampler != null ? sampler.countSamples(remainingRanges)
+                : remainingCount;
+        final long ip6Count = LookupHelper.countIp6Addresses(ip6Ranges);
+        final long totalCount = ip6Count > Long.MAX_VALUE - ip4Count ? Long.MAX_VALUE
+                : ip4Count + ip6Count;
+        Log.i(TAG, String.format("Looking up %d of %d requested IP addresses, skipped %d reserved"
+                + ", and %d IPv6 addresses", ip4Count,
+                LookupHelper.countIpAddresses(requestedRanges),
+                LookupHelper.countIpAddresses(unresolvedRanges) - remainingCount, ip6Count));
+        openPersistentCacheIfNeeded();
+        openOfflineDatabaseIfNeeded();
+
+        // a sample is quick to repeat and covers only part of each range, it isn't checkpointed
+        final ScanJob job = sampler != null ? null : openScanJob(remainingRanges, smartRange);
+        final LookupMetrics metrics = LookupClient.getInstance().getMetrics();
+        metrics.startScan();
+
+        if (mSecondaryClient != null) {
+            mSecondaryClient.getMetrics().startScan();
+        }
+        final LocalBroadcastManager broadcastManager = LocalBroadcastManager.getInstance(this);
+        Intent startedIntent = new Intent(ACTION_PROCESSING_STARTED);
+        startedIntent.putExtra(EXTRA_PARAM_TOTAL_COUNT, totalCount);
+        broadcastManager.sendBroadcast(startedIntent);
+
+        // results are coalesced so the UI handles one broadcast per batch instead of per IP
+        final LocationBatcher batcher = new LocationBatcher(
+                getResources().getInteger(R.integer.lookup_batch_size),
+                getResources().getInteger(R.integer.lookup_batch_interval_ms),
+                new LocationBatcher.Listener() {
+                    @Override
+                    public void onBatch(ArrayList<Location> locations, long processedCount) {
+                        LocationStore store = new LocationStore();
+                        store.addAll(locations);
+                        Intent intent = new Intent(ACTION_NEW_LOCATIONS);
+                        intent.putExtra(EXTRA_PARAM_LOCATIONS, store);
+                        intent.putExtra(EXTRA_PARAM_PROCESSED_COUNT, processedCount);
+                        intent.putExtra(EXTRA_PARAM_TOTAL_COUNT, totalCount);
+                        broadcastManager.sendBroadcast(intent);
+                    }
+                });
+
+        if (job != null && job.getCompletedCount() > 0) {
+            batcher.addProcessed(job.getCompletedCount());
+        }
+
+        // failed addresses are left out of the resolved ranges so a later lookup retries them
+        final List<IpRange> failedRanges = Collections.synchronizedList(new ArrayList<IpRange>());
+        LookupEngine.Listener listener = new LookupEngine.Listener() {
+            @Override
+            public void onLocationResolved(String ipAddress, Location location) {
+
+                // no OK status is not an answer, the address is retried like a failed one
+                if (location == null) {
+                    Log.w(TAG, String.format("No location returned for IP address %s",
+                            ipAddress));
+                    failedRanges.add(IpRange.fromAddresses(ipAddress, ipAddress));
+                } else if (job != null) {
+                    job.markCompleted(LookupHelper.ipStringToNumber(ipAddress));
+                }
+                batcher.add(location);
+                metrics.addScanned(1);
+            }
+
+            @Override
+            public void onLookupFailed(String ipAddress, Exception e) {
+
+                // an address without a location is resolved, it is not looked up again
+                if (e instanceof InvalidLocationException) {
+
+                    if (job != null) {
+                        job.markCompleted(LookupHelper.ipStringToNumber(ipAddress));
+                    }
+                } else {
                     Log.w(TAG, "Error occurred during IP address lookup", e);
+                    failedRanges.add(IpRange.fromAddresses(ipAddress, ipAddress));
                 }
+                batcher.add(null);
+                metrics.addScanned(1);
+            }
+        };
+
+        LookupEngine.Listener ip6Listener = new LookupEngine.Listener() {
+            @Override
+            public void onLocationResolved(String ipAddress, Location location) {
+                batcher.add(location);
+                metrics.addScanned(1);
             }
 
-            LocalBroadcastManager.getInstance(this).sendBroadcast(
-                    new Intent(ACTION_PROCESSING_FINISHED));
+            @Override
+            public void onLookupFailed(String ipAddress, Exception e) {
+                Log.w(TAG, "Error occurred during IPv6 address lookup", e);
+                batcher.add(null);
+                metrics.addScanned(1);
+            }
+        };
+
+        // a resumed job skips the addresses completed before the process died, a sample scans
+        //   none of the ranges whole
+        List<IpRange> scanRanges = sampler != null ? Collections.<IpRange>emptyList()
+                : job != null ? job.getRemainingRanges() : remainingRanges;
+
+        synchronized (mLookupLock) {
+            mLookupThread = Thread.currentThread();
+            mLookupCancelled = false;
+        }
+
+        try {
+
+            // sampled addresses aren't remembered as resolved, the rest of each block is not
+            if (sampler != null) {
+                mLookupEngine.lookup(sampler.sample(remainingRanges), listener);
+            }
+
+            for (int i = 0; i < scanRanges.size(); i++) {
+                IpRange ipRange = scanRanges.get(i);
+
+                if (smartRange) {
+                    performSmartRangeLookup(ipRange, batcher, failedRanges, job, metrics);
+                } else {
+                    mLookupEngine.lookup(ipRange, listener);
+                }
+                List<IpRange> resolvedRanges = new ArrayList<>(sResolvedRanges);
+                List<IpRange> failed = LookupHelper.mergeIpRanges(failedRanges);
+                resolvedRanges.addAll(LookupHelper.subtractIpRanges(
+                        Collections.singletonList(ipRange), failed));
+                sResolvedRanges = LookupHelper.mergeIpRanges(resolvedRanges);
+                failedRanges.clear();
+            }
+
+            for (int i = 0; i < ip6Ranges.size(); i++) {
+                mLookupEngine.lookup(ip6Ranges.get(i), ip6Listener);
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "IP address lookup interrupted", e);
+            Thread.currentThread().interrupt();
+        } finally {
+
+            // the worker thread handles the next intent, the cancel must not interrupt it
+            if (finishCancelableLookup()) {
+                Thread.interrupted();
+                Log.i(TAG, "IP address lookup cancelled");
+            }
+            batcher.close();
+            broadcastManager.sendBroadcast(new Intent(ACTION_PROCESSING_FINISHED));
+            checkpointScanJob(job);
+            Log.i(TAG, String.format("IP address lookup metrics: %s", metrics.snapshot()));
+
+            if (mSecondaryClient != null) {
+                Log.i(TAG, String.format("Secondary IP address lookup metrics: %s",
+                        mSecondaryClient.getMetrics().snapshot()));
+            }
+        }
+    }
+
+    /**
+     * Locates the IP range by bisection, only measured locations are delivered since inferred
+     *   addresses share the coordinates of a measured one
+     * @param ipRange IP range
+     * @param batcher receives the results
+     * @param failedRanges receives the addresses whose lookup failed
+     * @param job scan job to mark measured and inferred addresses complete in, may be null
+     * @param metrics receives the number of measured and inferred addresses
+     * @throws InterruptedException if the lookup was interrupted
+     */
+    private void performSmartRangeLookup(IpRange ipRange, final LocationBatcher batcher,
+                                         final List<IpRange> failedRanges, final ScanJob job,
+                                         final LookupMetrics metrics)
+            throws InterruptedException {
+        RangeBisector bisector = new RangeBisector(mResolver);
+        bisector.bisect(ipRange, new RangeBisector.Listener() {
+            @Override
+            public void onLocationMeasured(String ipAddress, Location location) {
+                batcher.add(location);
+                metrics.addScanned(1);
+
+                if (job != null) {
+                    job.markCompleted(LookupHelper.ipStringToNumber(ipAddress));
+                }
+            }
+
+            @Override
+            public void onRangeInferred(IpRange inferred, Location location) {
+                Log.i(TAG, String.format("Inferred location of %s as %s", inferred,
+                        location != null ? location.getCity() + ", " + location.getCountryName()
+                                : "not found"));
+                batcher.addProcessed(inferred.size());
+                metrics.addScanned(inferred.size());
+
+                if (job != null) {
+                    job.markCompleted(inferred);
+                }
+            }
+
+            @Override
+            public void onLookupFailed(String ipAddress, Exception e) {
+                Log.w(TAG, "Error occurred during IP address lookup", e);
+                failedRanges.add(IpRange.fromAddresses(ipAddress, ipAddress));
+                batcher.add(null);
+                metrics.addScanned(1);
+            }
+        });
+        Log.i(TAG, String.format("Smart range lookup of %s measured %d and inferred %d addresses",
+                ipRange, bisector.getLookupCount(), bisector.getInferredCount()));
+    }
+
+    private void checkpointScanJob(ScanJob job) {
+
+        if (job != null) {
+
+            try {
+                job.checkpoint();
+            } catch (IOException e) {
+                Log.w(TAG, "Error occurred checkpointing the scan", e);
+            }
         }
     }
 }
@@ -11,48 +11,101 @@ import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.TextInputLayout;
 import android.support.v4.app.FragmentActivity;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.content.LocalBroadcastManager;
 import android.text.TextUtils;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
+import android.widget.CheckBox;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.SupportMapFragment;
+import com.google.android.gms.maps.model.BitmapDescriptor;
 import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.CameraPosition;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.MarkerOptions;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MapActivity extends FragmentActivity implements View.OnClickListener,
-        DialogInterface.OnShowListener {
+        DialogInterface.OnShowListener, GoogleMap.OnCameraChangeListener {
 
-    private static final String EXTRA_PARAM_LOCATIONS = "com.evanhalley.whereip.locations";
+    private static final String TAG = "MapActivity";
+
+    private static final String EXTRA_PARAM_SNAPSHOT = "com.evanhalley.whereip.snapshot";
+
+    private static final int REQUEST_CODE_IMPORT_DATABASE = 1;
+
+    // markers closer than this on screen are grouped into one cluster
+    private static final int CLUSTER_CELL_SIZE_DP = 48;
+
+    // space kept between a batch of new locations and the edge of the map
+    private static final int CAMERA_PADDING_DP = 48;
+
+    // restored locations are clustered in chunks so markers show while the rest are added
+    private static final int RESTORE_CHUNK_SIZE = 2000;
+
+    // snapshots are written and read in order on one thread shared by every activity instance,
+    //   so a recreated activity never races the one it replaced for the same file
+    private static final ExecutorService sSnapshotExecutor = Executors.newSingleThreadExecutor();
 
     private GoogleMap mMap;
     private AlertDialog mDialog;
     private int mNewLocationsAdded = 0;
 
-    // use the location list to store locations already on the map
-    private ArrayList<Location> mLocationList = new ArrayList<>();
-    private HashSet<String> mCoordinateSet = new HashSet<>();
+    // use the location store to keep locations already on the map
+    private LocationStore mLocationStore = new LocationStore();
+
+    // clusters are computed on a background thread and rendered for the visible region only
+    private LocationClusterer mClusterer;
+    private final ExecutorService mClusterExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private MarkerRenderer mMarkerRenderer;
+
+    // every marker shares one icon, decoded once
+    private BitmapDescriptor mMarkerIcon;
+    private volatile int mClusterGeneration = 0;
+
+    // only a handle to the snapshot file goes into the saved instance state
+    private File mSnapshotFile;
+    private int mSnapshotSize = 0;
+    private boolean mRestoring = false;
+    private boolean mRetained = false;
 
     private FloatingActionButton mLocateButton;
     private ProgressDialog mProgressDialog;
 
-    private BroadcastReceiver mNewLocationReceiver = new BroadcastReceiver() {
+    private BroadcastReceiver mNewLocationsReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            Location location = intent.getParcelableExtra(LookupService.EXTRA_PARAM_LOCATION);
+            LocationStore store = intent.getParcelableExtra(LookupService.EXTRA_PARAM_LOCATIONS);
+
+            if (store != null && store.size() > 0) {
+                List<Location> locations = store.asList();
+                mNewLocationsAdded += locations.size();
+                mLocationStore.addAll(locations);
+                addLocationsToMap(locations);
+            }
 
-            if (location != null) {
-                mNewLocationsAdded++;
-                mLocationList.add(location);
-                addLocationToMap(location);
+            if (mProgressDialog != null) {
+                mProgressDialog.setMessage(getString(R.string.dialog_processing_progress,
+                        intent.getLongExtra(LookupService.EXTRA_PARAM_PROCESSED_COUNT, 0),
+                        intent.getLongExtra(LookupService.EXTRA_PARAM_TOTAL_COUNT, 0)));
             }
         }
     };
@@ -60,9 +113,19 @@ public class MapActivity extends FragmentActivity implements View.OnClickListene
     private BroadcastReceiver mProcessingStartedReciever = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            mProgressDialog = ProgressDialog.show(MapActivity.this,
-                    getString(R.string.dialog_processing_title),
-                    getString(R.string.dialog_processing_message));
+            mProgressDialog = new ProgressDialog(MapActivity.this);
+            mProgressDialog.setTitle(R.string.dialog_processing_title);
+            mProgressDialog.setMessage(getString(R.string.dialog_processing_message));
+            mProgressDialog.setCancelable(false);
+
+            // the locate button stays disabled until the lookups in flight have finished
+            mProgressDialog.setButton(DialogInterface.BUTTON_NEGATIVE,
+                    getString(R.string.button_cancel), new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            LookupService.cancelLookup(MapActivity.this);
+                        }
+                    });
             mProgressDialog.show();
 
             if (mLocateButton != null) {
@@ -88,13 +151,46 @@ public class MapActivity extends FragmentActivity implements View.OnClickListene
         }
     };
 
+    private BroadcastReceiver mDatabaseImportedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int rangeCount = intent.getIntExtra(LookupService.EXTRA_PARAM_RANGE_COUNT, -1);
+
+            if (rangeCount >= 0) {
+                Toast.makeText(MapActivity.this,
+                        getString(R.string.status_database_imported, rangeCount),
+                        Toast.LENGTH_LONG).show();
+            } else {
+                Toast.makeText(MapActivity.this, R.string.error_database_import_failed,
+                        Toast.LENGTH_LONG).show();
+            }
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_map);
+        RetainedState retained = (RetainedState) getLastCustomNonConfigurationInstance();
+
+        // after a configuration change the locations and clusters are handed over as they are
+        if (retained != null) {
+            mRetained = true;
+            mLocationStore = retained.mLocationStore;
+            mClusterer = retained.mClusterer;
+            mSnapshotFile = retained.mSnapshotFile;
+            mSnapshotSize = retained.mSnapshotSize;
+        } else {
+            mClusterer = new LocationClusterer(
+                    (int) (CLUSTER_CELL_SIZE_DP * getResources().getDisplayMetrics().density));
+        }
         setUpMapIfNeeded();
         findViewById(R.id.locate_ip).setOnClickListener(this);
         mLocateButton = (FloatingActionButton) findViewById(R.id.locate_ip);
+
+        if (mRetained) {
+            requestClustering();
+        }
     }
 
     @Override
@@ -107,6 +203,7 @@ public class MapActivity extends FragmentActivity implements View.OnClickListene
                         .setView(LayoutInflater.from(this).inflate(R.layout.dialog_locate_ip, null))
                         .setPositiveButton(R.string.button_find, null)
                         .setNegativeButton(R.string.button_cancel, null)
+                        .setNeutralButton(R.string.button_import_database, null)
                         .create();
                 mDialog.setOnShowListener(this);
                 mDialog.show();
@@ -122,25 +219,46 @@ public class MapActivity extends FragmentActivity implements View.OnClickListene
                     public void onClick(View v) {
                         String ipAddressStart = ((TextView) mDialog
                                 .findViewById(R.id.ip_address_start))
-                                .getText().toString();
-
-                        if (!runIpValidation(ipAddressStart, R.id.ip_address_start_input_layout)) {
-                            return;
-                        }
+                                .getText().toString().trim();
 
                         String ipAddressEnd = ((TextView) mDialog
                                 .findViewById(R.id.ip_address_end))
-                                .getText().toString();
-
+                                .getText().toString().trim();
+                        boolean smartRange = ((CheckBox) mDialog
+                                .findViewById(R.id.smart_range))
+                                .isChecked();
+                        boolean sample = ((CheckBox) mDialog
+                                .findViewById(R.id.sample))
+                                .isChecked();
+                        String ipRanges;
+
+                        // without an end address the first field holds a list of addresses,
+                        //   ranges and CIDR blocks
                         if (TextUtils.isEmpty(ipAddressEnd)) {
-                            ipAddressEnd = ipAddressStart;
+
+                            if (!runIpRangeValidation(ipAddressStart, smartRange, sample,
+                                    R.id.ip_address_start_input_layout)) {
+                                return;
+                            }
+                            ipRanges = ipAddressStart;
                         } else {
-                            if (!runIpValidation(ipAddressEnd, R.id.ip_address_end_input_layout)) {
+
+                            if (!runIpValidation(ipAddressStart,
+                                    R.id.ip_address_start_input_layout) ||
+                                    !runIpValidation(ipAddressEnd,
+                                            R.id.ip_address_end_input_layout)) {
+                                return;
+                            }
+                            ipRanges = ipAddressStart + "-" + ipAddressEnd;
+
+                            // both ends must be of the same family, IPv4 or IPv6
+                            if (!runIpRangeValidation(ipRanges, smartRange, sample,
+                                    R.id.ip_address_end_input_layout)) {
                                 return;
                             }
                         }
-                        LookupService.lookupIpRange(MapActivity.this,
-                                ipAddressStart, ipAddressEnd);
+                        LookupService.lookupIpRanges(MapActivity.this, ipRanges, smartRange,
+                                sample);
                         mDialog.dismiss();
                     }
                 });
@@ -153,11 +271,40 @@ public class MapActivity extends FragmentActivity implements View.OnClickListene
                     }
                 }
         );
+
+        // an IP2Location Lite style CSV picked here replaces the offline location database
+        mDialog.getButton(DialogInterface.BUTTON_NEUTRAL).setOnClickListener(
+                new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                        intent.setType("*/*");
+                        intent.addCategory(Intent.CATEGORY_OPENABLE);
+                        startActivityForResult(Intent.createChooser(intent,
+                                getString(R.string.title_import_database)),
+                                REQUEST_CODE_IMPORT_DATABASE);
+                        mDialog.dismiss();
+                    }
+                }
+        );
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+
+        if (requestCode == REQUEST_CODE_IMPORT_DATABASE) {
+
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                LookupService.importOfflineDatabase(this, data.getData());
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
     }
 
     private boolean runIpValidation(String ipAddess, int inputLayoutResId) {
 
-        if (!LookupHelper.validateIpAddress(ipAddess)) {
+        if (!LookupHelper.validateIpAddress(ipAddess) && !Ip6Address.validate(ipAddess)) {
             TextInputLayout inputLayout = ((TextInputLayout) mDialog.findViewById(inputLayoutResId));
             inputLayout.setErrorEnabled(true);
             inputLayout.setError(MapActivity.this
@@ -167,58 +314,218 @@ public class MapActivity extends FragmentActivity implements View.OnClickListene
         return true;
     }
 
+    private boolean runIpRangeValidation(String ipRanges, boolean smartRange, boolean sample,
+                                         int inputLayoutResId) {
+        List<Ip6Range> ip6Ranges = new ArrayList<>();
+        String error = null;
+
+        try {
+            List<IpRange> ranges = LookupHelper.parseIpRanges(ipRanges, ip6Ranges);
+
+            // IPv6 ranges are scanned address by address, a /64 would never finish
+            if (LookupService.exceedsIp6Limit(this, ip6Ranges)) {
+                error = getString(R.string.error_ip6_range_too_large,
+                        getResources().getInteger(R.integer.lookup_max_ip6_addresses));
+            } else if (LookupService.exceedsLookupLimit(this, ReservedIpRanges.subtract(ranges),
+                    smartRange, sample)) {
+                error = getString(R.string.error_too_many_lookups,
+                        getResources().getInteger(R.integer.lookup_max_lookups));
+            }
+        } catch (IllegalArgumentException e) {
+            error = getString(R.string.error_invalid_ip_range);
+        }
+
+        if (error != null) {
+            TextInputLayout inputLayout = ((TextInputLayout) mDialog.findViewById(inputLayoutResId));
+            inputLayout.setErrorEnabled(true);
+            inputLayout.setError(error);
+            return false;
+        }
+        return true;
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
         setUpMapIfNeeded();
-        LocalBroadcastManager.getInstance(this).registerReceiver(mNewLocationReceiver,
-                new IntentFilter(LookupService.ACTION_NEW_LOCATION));
+        LocalBroadcastManager.getInstance(this).registerReceiver(mNewLocationsReceiver,
+                new IntentFilter(LookupService.ACTION_NEW_LOCATIONS));
         LocalBroadcastManager.getInstance(this).registerReceiver(mProcessingStartedReciever,
                 new IntentFilter(LookupService.ACTION_PROCESSING_STARTED));
         LocalBroadcastManager.getInstance(this).registerReceiver(mProcessingFinishedReciever,
                 new IntentFilter(LookupService.ACTION_PROCESSING_FINISHED));
+        LocalBroadcastManager.getInstance(this).registerReceiver(mDatabaseImportedReceiver,
+                new IntentFilter(LookupService.ACTION_DATABASE_IMPORTED));
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        LocalBroadcastManager.getInstance(this).unregisterReceiver(mNewLocationReceiver);
+        LocalBroadcastManager.getInstance(this).unregisterReceiver(mNewLocationsReceiver);
         LocalBroadcastManager.getInstance(this).unregisterReceiver(mProcessingFinishedReciever);
         LocalBroadcastManager.getInstance(this).unregisterReceiver(mProcessingStartedReciever);
+        LocalBroadcastManager.getInstance(this).unregisterReceiver(mDatabaseImportedReceiver);
+    }
+
+    @Override
+    protected void onDestroy() {
+        mClusterExecutor.shutdownNow();
+
+        if (isFinishing()) {
+            deleteSnapshot();
+        }
+        super.onDestroy();
+    }
+
+    @Override
+    public void onCameraChange(CameraPosition cameraPosition) {
+        requestClustering();
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+
+        // a half restored store is not handed over, the next activity restores the snapshot
+        if (mRestoring) {
+            return null;
+        }
+        return new RetainedState(mLocationStore, mClusterer, mSnapshotFile, mSnapshotSize);
     }
 
     @Override
     protected void onSaveInstanceState(Bundle outState) {
-        outState.putParcelableArrayList(EXTRA_PARAM_LOCATIONS, mLocationList);
+
+        // the snapshot on disk is only replaced once it has been fully read
+        if (!mRestoring && mLocationStore.size() != mSnapshotSize) {
+            writeSnapshot();
+        }
+
+        if (mSnapshotFile != null) {
+            outState.putString(EXTRA_PARAM_SNAPSHOT, mSnapshotFile.getPath());
+        }
         super.onSaveInstanceState(outState);
     }
 
     @Override
     protected void onRestoreInstanceState(Bundle savedInstanceState) {
         super.onRestoreInstanceState(savedInstanceState);
-        mLocationList = savedInstanceState.getParcelableArrayList(EXTRA_PARAM_LOCATIONS);
-        mCoordinateSet = new HashSet<>();
+        String snapshotPath = savedInstanceState.getString(EXTRA_PARAM_SNAPSHOT);
 
-        if (mLocationList == null) {
-            mLocationList = new ArrayList<>();
+        if (!mRetained && snapshotPath != null) {
+            restoreSnapshot(new File(snapshotPath));
         }
+    }
+
+    /**
+     * Writes the locations to the snapshot file on the snapshot thread, the main thread only
+     *   records the size of the location store
+     */
+    private void writeSnapshot() {
 
-        for (int i = 0; i < mLocationList.size(); i++) {
-            addLocationToMap(mLocationList.get(i));
+        if (mSnapshotFile == null) {
+            mSnapshotFile = new File(getCacheDir(), "locations-" + UUID.randomUUID() + ".snapshot");
         }
+        final File file = mSnapshotFile;
+        final LocationStore.Snapshot snapshot = mLocationStore.snapshot();
+        mSnapshotSize = snapshot.size();
+        sSnapshotExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File tempFile = new File(file.getPath() + ".tmp");
+
+                try {
+                    snapshot.write(new FileOutputStream(tempFile));
+
+                    // a snapshot interrupted by process death never replaces a complete one
+                    if (!tempFile.renameTo(file)) {
+                        throw new IOException("Unable to rename " + tempFile + " to " + file);
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to write the location snapshot", e);
+                }
+            }
+        });
     }
 
-    private void addToCoordinateSet(Location location) {
-        String key = String.valueOf(location.getLatitude() + "_" + location.getLongitude());
+    /**
+     * Reads the snapshot file on the snapshot thread, clustering the locations as they are read
+     *   and adding them to the location store once done
+     * @param file snapshot file
+     */
+    private void restoreSnapshot(final File file) {
+        mRestoring = true;
+        mSnapshotFile = file;
+        sSnapshotExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                LocationStore restored;
+                int snapshotSize;
+
+                try {
+                    restored = LocationStore.readSnapshot(new FileInputStream(file));
+                    snapshotSize = restored.size();
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to read the location snapshot", e);
+                    restored = new LocationStore();
+                    snapshotSize = -1;
+                }
+
+                for (int i = 0; i < restored.size(); i++) {
+                    mClusterer.add(restored.get(i));
 
-        if (!mCoordinateSet.contains(key)) {
-            mCoordinateSet.add(key);
+                    if ((i + 1) % RESTORE_CHUNK_SIZE == 0) {
+                        postClustering();
+                    }
+                }
+                final LocationStore locations = restored;
+                final int size = snapshotSize;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        finishRestore(locations, size);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Adopts the restored locations, keeping the ones that arrived while the snapshot was read
+     * @param restored locations read from the snapshot
+     * @param snapshotSize number of locations in the snapshot file, -1 if it was unreadable
+     */
+    private void finishRestore(LocationStore restored, int snapshotSize) {
+        restored.addAll(mLocationStore.asList());
+        mLocationStore = restored;
+        mSnapshotSize = snapshotSize;
+        mRestoring = false;
+        requestClustering();
+    }
+
+    private void deleteSnapshot() {
+
+        if (mSnapshotFile == null) {
+            return;
         }
+        final File file = mSnapshotFile;
+        sSnapshotExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                file.delete();
+            }
+        });
     }
 
-    private boolean locationAtCoordinatesExists(Location location) {
-        String key = String.valueOf(location.getLatitude() + "_" + location.getLongitude());
-        return mCoordinateSet.contains(key);
+    private void postClustering() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+
+                if (!isFinishing()) {
+                    requestClustering();
+                }
+            }
+        });
     }
 
     private void setUpMapIfNeeded() {
@@ -236,22 +543,122 @@ public class MapActivity extends FragmentActivity implements View.OnClickListene
             }
             mMap.setMapType(GoogleMap.MAP_TYPE_NORMAL);
             mMap.getUiSettings().setMapToolbarEnabled(false);
+            mMap.setOnCameraChangeListener(this);
+            mMarkerIcon = BitmapDescriptorFactory.fromResource(R.drawable.ic_map_marker);
+            mMarkerRenderer = new MarkerRenderer(mMap);
+        }
+    }
+
+    /**
+     * Adds the locations to the clusterer and moves the camera once, to fit the new locations
+     * @param locations locations to add
+     */
+    private void addLocationsToMap(List<Location> locations) {
+        LatLngBounds.Builder bounds = new LatLngBounds.Builder();
+        int newCount = 0;
+        LatLng lastPosition = null;
+
+        for (int i = 0; i < locations.size(); i++) {
+            Location location = locations.get(i);
+
+            // only locations at new coordinates are added
+            if (mClusterer.add(location)) {
+                lastPosition = new LatLng(location.getLatitude(), location.getLongitude());
+                bounds.include(lastPosition);
+                newCount++;
+            }
+        }
+
+        if (newCount == 1) {
+            mMap.animateCamera(CameraUpdateFactory.newLatLng(lastPosition));
+        } else if (newCount > 1) {
+            mMap.animateCamera(CameraUpdateFactory.newLatLngBounds(bounds.build(),
+                    (int) (CAMERA_PADDING_DP * getResources().getDisplayMetrics().density)));
         }
+        requestClustering();
     }
 
-    private void addLocationToMap(Location location) {
+    /**
+     * Re-clusters the locations for the current camera position on the cluster thread, only the
+     *   result of the latest request is rendered
+     */
+    private void requestClustering() {
+
+        if (mMap == null) {
+            return;
+        }
+        final int generation = ++mClusterGeneration;
+        final int zoom = (int) mMap.getCameraPosition().zoom;
+        final LatLngBounds bounds = mMap.getProjection().getVisibleRegion().latLngBounds;
+        final BitmapDescriptor icon = mMarkerIcon;
+        mClusterExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+
+                if (generation != mClusterGeneration) {
+                    return;
+                }
+                List<LocationClusterer.Cluster> clusters = mClusterer.getClusters(zoom,
+                        bounds.southwest.latitude, bounds.southwest.longitude,
+                        bounds.northeast.latitude, bounds.northeast.longitude);
+                final List<MarkerRenderer.PendingMarker> markers = buildMarkers(clusters, icon);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+
+                        if (generation == mClusterGeneration && !isFinishing()) {
+                            mMarkerRenderer.render(markers);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * State kept across a configuration change instead of being serialized
+     */
+    private static class RetainedState {
+
+        private final LocationStore mLocationStore;
+        private final LocationClusterer mClusterer;
+        private final File mSnapshotFile;
+        private final int mSnapshotSize;
+
+        RetainedState(LocationStore locationStore, LocationClusterer clusterer, File snapshotFile,
+                      int snapshotSize) {
+            mLocationStore = locationStore;
+            mClusterer = clusterer;
+            mSnapshotFile = snapshotFile;
+            mSnapshotSize = snapshotSize;
+        }
+    }
 
-        // does a marker already exist that these coordinates, if not add it
-        if (!locationAtCoordinatesExists(location)) {
-            addToCoordinateSet(location);
-            LatLng latLng = new LatLng(location.getLatitude(), location.getLongitude());
+    /**
+     * Builds the markers for the clusters, runs on the cluster thread
+     * @param clusters visible clusters
+     * @param icon marker icon
+     * @return markers keyed by position and title
+     */
+    private List<MarkerRenderer.PendingMarker> buildMarkers(
+            List<LocationClusterer.Cluster> clusters, BitmapDescriptor icon) {
+        List<MarkerRenderer.PendingMarker> markers = new ArrayList<>(clusters.size());
+
+        for (int i = 0; i < clusters.size(); i++) {
+            LocationClusterer.Cluster cluster = clusters.get(i);
+            Location location = cluster.getLocation();
+            String title = cluster.getSize() == 1 ?
+                    String.format("%s @ %s, %s", location.getIpAddress(), location.getCity(),
+                            location.getCountryName()) :
+                    getString(R.string.marker_cluster_title, cluster.getSize(),
+                            location.getCity(), location.getCountryName());
             MarkerOptions marker = new MarkerOptions()
-                    .position(latLng)
-                    .title(String.format("%s @ %s, %s", location.getIpAddress(), location.getCity(),
-                            location.getCountryName()))
-                    .icon(BitmapDescriptorFactory.fromResource(R.drawable.ic_map_marker));
-            mMap.addMarker(marker);
-            mMap.animateCamera(CameraUpdateFactory.newLatLng(marker.getPosition()));
+                    .position(new LatLng(cluster.getLatitude(), cluster.getLongitude()))
+                    .title(title)
+                    .icon(icon);
+            markers.add(new MarkerRenderer.PendingMarker(cluster.getLatitude() + ","
+                    + cluster.getLongitude() + " " + title, marker));
         }
+        return markers;
     }
-}
\ No newline at end of file
+}
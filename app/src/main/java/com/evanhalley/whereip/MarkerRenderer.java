@@ -0,0 +1,170 @@
+package com.evanhalley.whereip;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Draws markers on the map a few at a time, within a time budget per frame
+ * Markers are prepared off the main thread, {@link #render(List)} only works out which markers
+ *   changed. Markers that are already on the map are kept, the rest are added and removed by a
+ *   queue drained once per frame until the frame's budget is spent, so thousands of markers
+ *   never stall a frame
+ * Not thread safe, must be used from the main thread
+ */
+class MarkerRenderer {
+
+    // time spent adding and removing markers per frame, half of a 60 fps frame
+    private static final long FRAME_BUDGET_NANOS = 8000000;
+    private static final long FRAME_INTERVAL_MS = 16;
+
+    /**
+     * A marker ready to be drawn
+     * Immutable
+     */
+    static class PendingMarker {
+
+        private final String mKey;
+        private final MarkerOptions mOptions;
+
+        /**
+         * @param key identifies the marker across renders, such as it's position and title
+         * @param options marker
+         */
+        PendingMarker(String key, MarkerOptions options) {
+            mKey = key;
+            mOptions = options;
+        }
+    }
+
+    private final GoogleMap mMap;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private Map<String, Marker> mMarkers = new HashMap<>();
+    private List<PendingMarker> mPendingAdds = new ArrayList<>();
+    private int mNextAdd;
+    private final List<Marker> mPendingRemovals = new ArrayList<>();
+    private boolean mFrameScheduled;
+    private Object mFrameCallback;
+
+    private final Runnable mFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            doFrame();
+        }
+    };
+
+    MarkerRenderer(GoogleMap map) {
+
+        if (map == null) {
+            throw new IllegalArgumentException("Map is null");
+        }
+        mMap = map;
+    }
+
+    /**
+     * Replaces the markers on the map, drawing starts on the next frame
+     * @param markers markers to show
+     */
+    void render(List<PendingMarker> markers) {
+        Map<String, Marker> kept = new HashMap<>(markers.size() * 2);
+        List<PendingMarker> adds = new ArrayList<>();
+
+        for (int i = 0; i < markers.size(); i++) {
+            PendingMarker marker = markers.get(i);
+            Marker shown = mMarkers.remove(marker.mKey);
+
+            if (shown != null) {
+                kept.put(marker.mKey, shown);
+            } else {
+                adds.add(marker);
+            }
+        }
+        mPendingRemovals.addAll(mMarkers.values());
+        mMarkers = kept;
+        mPendingAdds = adds;
+        mNextAdd = 0;
+        scheduleFrame();
+    }
+
+    /**
+     * Removes every marker from the map now and drops the pending ones
+     */
+    void clear() {
+
+        for (Marker marker : mMarkers.values()) {
+            marker.remove();
+        }
+
+        for (int i = 0; i < mPendingRemovals.size(); i++) {
+            mPendingRemovals.get(i).remove();
+        }
+        mMarkers.clear();
+        mPendingRemovals.clear();
+        mPendingAdds = new ArrayList<>();
+        mNextAdd = 0;
+    }
+
+    private void doFrame() {
+        mFrameScheduled = false;
+        long deadline = System.nanoTime() + FRAME_BUDGET_NANOS;
+
+        // stale markers go first, removing from the end keeps each removal constant time
+        while (!mPendingRemovals.isEmpty() && System.nanoTime() < deadline) {
+            mPendingRemovals.remove(mPendingRemovals.size() - 1).remove();
+        }
+
+        while (mPendingRemovals.isEmpty() && mNextAdd < mPendingAdds.size()
+                && System.nanoTime() < deadline) {
+            PendingMarker marker = mPendingAdds.get(mNextAdd++);
+
+            // the same key twice would leave an untracked marker on the map
+            if (!mMarkers.containsKey(marker.mKey)) {
+                mMarkers.put(marker.mKey, mMap.addMarker(marker.mOptions));
+            }
+        }
+
+        if (!mPendingRemovals.isEmpty() || mNextAdd < mPendingAdds.size()) {
+            scheduleFrame();
+        }
+    }
+
+    private void scheduleFrame() {
+
+        if (mFrameScheduled) {
+            return;
+        }
+        mFrameScheduled = true;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            postFrameCallback();
+        } else {
+            mHandler.postDelayed(mFrameRunnable, FRAME_INTERVAL_MS);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback() {
+
+        // created on first use, the interface does not exist before Jelly Bean
+        if (mFrameCallback == null) {
+            mFrameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    MarkerRenderer.this.doFrame();
+                }
+            };
+        }
+        Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+    }
+}
@@ -0,0 +1,178 @@
+package com.evanhalley.whereip;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class LocationStoreTest {
+
+    private static Location buildLocation(String ipAddress, String city, String countryName,
+                                          double latitude, double longitude) {
+        return new Location.Builder()
+                .setCity(city)
+                .setCountryName(countryName)
+                .setIpAddress(ipAddress)
+                .setLatitude(latitude)
+                .setLongitude(longitude)
+                .build();
+    }
+
+    @Test
+    public void addTest() {
+        LocationStore store = new LocationStore();
+        assertEquals(0, store.add(buildLocation("108.197.13.169", "Raleigh", "United States",
+                35.7721, -78.6386)));
+        assertEquals(1, store.add(buildLocation("255.255.255.255", "Z\u00fcrich", "Switzerland",
+                47.36667, 8.55)));
+
+        Location location = store.get(0);
+        assertEquals("108.197.13.169", location.getIpAddress());
+        assertEquals("Raleigh", location.getCity());
+        assertEquals("United States", location.getCountryName());
+        assertEquals(35.7721, location.getLatitude(), 0);
+        assertEquals(-78.6386, location.getLongitude(), 0);
+
+        assertEquals(0xFFFFFFFFL, store.getIpNumber(1));
+        assertEquals("Z\u00fcrich", store.getCity(1));
+        assertEquals("Switzerland", store.getCountryName(1));
+        assertEquals(47.36667, store.getLatitude(1), 0);
+        assertEquals(8.55, store.getLongitude(1), 0);
+    }
+
+    @Test
+    public void internTest() {
+        LocationStore store = new LocationStore();
+        String[] cities = {"Raleigh", "Durham", "Cary"};
+
+        // enough locations to grow the columns a few times
+        for (int i = 0; i < 1000; i++) {
+            store.add(buildLocation(LookupHelper.ipNumberToString(i), cities[i % cities.length],
+                    "United States", 35 + i / 1000.0, -78));
+        }
+        assertEquals(1000, store.size());
+        assertEquals(3, store.getCityCount());
+        assertEquals(1, store.getCountryCount());
+
+        List<Location> locations = store.asList();
+        assertEquals(1000, locations.size());
+        assertEquals("0.0.3.231", locations.get(999).getIpAddress());
+        assertEquals("Raleigh", locations.get(999).getCity());
+        assertEquals(35.999, locations.get(999).getLatitude(), 0);
+
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(0, store.getCityCount());
+        assertEquals(0, store.asList().size());
+    }
+
+    @Test
+    public void snapshotTest() throws IOException {
+        LocationStore store = new LocationStore();
+
+        for (int i = 0; i < 1000; i++) {
+            store.add(buildLocation(LookupHelper.ipNumberToString(0xC0000000L + i),
+                    i % 2 == 0 ? "Raleigh" : "Cary", "United States", 35 + i / 1000.0, -78.6386));
+        }
+        store.add(buildLocation("255.255.255.255", "Z\u00fcrich", "Switzerland", 47.36667, 8.55));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        store.writeSnapshot(out);
+        // 26 bytes per location plus the dictionaries
+        assertEquals(true, out.size() < 1001 * 26 + 100);
+
+        LocationStore restored = LocationStore.readSnapshot(
+                new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(1001, restored.size());
+        assertEquals(3, restored.getCityCount());
+        assertEquals(2, restored.getCountryCount());
+        assertEquals("192.0.3.231", restored.get(999).getIpAddress());
+        assertEquals("Cary", restored.getCity(999));
+        assertEquals(35.998, restored.getLatitude(998), 0);
+        assertEquals("Z\u00fcrich", restored.getCity(1000));
+        assertEquals("Switzerland", restored.getCountryName(1000));
+        assertEquals(0xFFFFFFFFL, restored.getIpNumber(1000));
+
+        // the restored store keeps growing and interning
+        restored.add(buildLocation("108.197.13.169", "Raleigh", "United States", 35.7721,
+                -78.6386));
+        assertEquals(3, restored.getCityCount());
+        assertEquals(1002, restored.size());
+    }
+
+    @Test
+    public void ip6Test() throws IOException {
+        LocationStore store = new LocationStore();
+        store.add(buildLocation("108.197.13.169", "Raleigh", "United States", 35.7721, -78.6386));
+        store.add(buildLocation("2001:DB8::1", "Z\u00fcrich", "Switzerland", 47.36667, 8.55));
+        store.add(buildLocation("192.0.2.1", "Cary", "United States", 35.79, -78.78));
+        assertEquals(1, store.getIp6Count());
+        assertEquals("2001:db8::1", store.get(1).getIpAddress());
+        assertEquals(-1, store.getIpNumber(1));
+        assertEquals("192.0.2.1", store.getIpAddress(2));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        store.snapshot().write(out);
+        LocationStore restored = LocationStore.readSnapshot(
+                new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(store.asList(), restored.asList());
+        assertEquals("2001:db8::1", restored.getIpAddress(1));
+        assertEquals("Z\u00fcrich", restored.getCity(1));
+        assertEquals(0xC0000201L, restored.getIpNumber(2));
+    }
+
+    @Test(expected = IOException.class)
+    public void snapshotInvalidTest() throws IOException {
+        LocationStore.readSnapshot(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5}));
+    }
+
+    @Test
+    public void concurrentSnapshotTest() throws IOException {
+        LocationStore store = new LocationStore();
+        store.add(buildLocation("108.197.13.169", "Raleigh", "United States", 35.7721, -78.6386));
+        store.add(buildLocation("2001:DB8::1", "Z\u00fcrich", "Switzerland", 47.36667, 8.55));
+        LocationStore.Snapshot snapshot = store.snapshot();
+        List<Location> expected = new ArrayList<>(store.asList());
+
+        // the store keeps growing after the snapshot, past the capacity of every column and
+        //   dictionary
+        for (int i = 0; i < 1000; i++) {
+            store.add(buildLocation(LookupHelper.ipNumberToString(i), "City " + i,
+                    "Country " + i, 0, 0));
+            store.add(buildLocation("2001:DB8::" + Integer.toHexString(i + 2), "Cary",
+                    "United States", 35.79, -78.78));
+        }
+        assertEquals(2, snapshot.size());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        snapshot.write(out);
+        LocationStore restored = LocationStore.readSnapshot(
+                new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(expected, restored.asList());
+        assertEquals(2, restored.getCityCount());
+        assertEquals(1, restored.getIp6Count());
+
+        // clearing the store doesn't touch the snapshot either
+        store.clear();
+        out = new ByteArrayOutputStream();
+        snapshot.write(out);
+        assertEquals(expected, LocationStore.readSnapshot(
+                new ByteArrayInputStream(out.toByteArray())).asList());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void indexTest() {
+        LocationStore store = new LocationStore();
+        store.add(buildLocation("108.197.13.169", "Raleigh", "United States", 35.7721, -78.6386));
+        store.get(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidIpAddressTest() {
+        new LocationStore().add(buildLocation("108.197.13", "Raleigh", "United States", 0, 0));
+    }
+}
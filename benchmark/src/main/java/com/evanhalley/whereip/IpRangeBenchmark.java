@@ -0,0 +1,68 @@
+package com.evanhalley.whereip;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to walk every address of a range, from a /24 up to a /8
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IpRangeBenchmark {
+
+    @Param({"24", "16", "8"})
+    public int prefixLength;
+
+    private String mRangeStart;
+    private String mRangeEnd;
+
+    @Setup
+    public void setUp() {
+        IpRange range = LookupHelper.cidrToRange("10.0.0.0/" + prefixLength);
+        mRangeStart = LookupHelper.ipNumberToString(range.getStart());
+        mRangeEnd = LookupHelper.ipNumberToString(range.getEnd());
+    }
+
+    /**
+     * The list the lookup service used to iterate, one string per address
+     */
+    @Benchmark
+    public void getIpAddressesInRange(Blackhole blackhole) {
+        List<String> addresses = LookupHelper.getIpAddressesInRange(mRangeStart, mRangeEnd);
+
+        for (int i = 0; i < addresses.size(); i++) {
+            blackhole.consume(addresses.get(i));
+        }
+    }
+
+    /**
+     * Formatting every address into one reusable builder
+     */
+    @Benchmark
+    public void cursorAppendIpAddress(Blackhole blackhole) {
+        IpRange.Cursor cursor = IpRange.fromAddresses(mRangeStart, mRangeEnd).cursor();
+        StringBuilder builder = new StringBuilder(LookupHelper.MAX_IP_ADDRESS_LENGTH);
+
+        while (cursor.moveToNext()) {
+            builder.setLength(0);
+            blackhole.consume(cursor.appendIpAddress(builder).length());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.evanhalley.whereip;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the per address helpers in {@link LookupHelper} and of turning an IP Info DB
+ *   response into a {@link Location}
+ * Inputs cycle through a fixed set of random addresses so branch prediction can't learn a
+ *   single value
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupHelperBenchmark {
+
+    private static final int INPUT_COUNT = 1024;
+
+    private static final String LOCATION_JSON = "{\n\t\"statusCode\" : \"OK\",\n" +
+            "\t\"statusMessage\" : \"\",\n\t\"ipAddress\" : \"108.197.13.169\",\n" +
+            "\t\"countryCode\" : \"US\",\n\t\"countryName\" : \"United States\",\n" +
+            "\t\"regionName\" : \"North Carolina\",\n\t\"cityName\" : \"Raleigh\",\n" +
+            "\t\"zipCode\" : \"27601\",\n\t\"latitude\" : \"35.7721\",\n" +
+            "\t\"longitude\" : \"-78.6386\",\n\t\"timeZone\" : \"-04:00\"\n}";
+
+    private final String[] mIpAddresses = new String[INPUT_COUNT];
+    private final long[] mIpNumbers = new long[INPUT_COUNT];
+    private final LocationJsonParser mParser = new LocationJsonParser();
+    private byte[] mLocationBytes;
+    private JSONObject mLocationJson;
+    private int mIndex;
+
+    @Setup
+    public void setUp() throws JSONException {
+        Random random = new Random(42);
+
+        for (int i = 0; i < INPUT_COUNT; i++) {
+            mIpNumbers[i] = random.nextInt() & 0xFFFFFFFFL;
+            mIpAddresses[i] = LookupHelper.ipNumberToString(mIpNumbers[i]);
+        }
+        mLocationBytes = LOCATION_JSON.getBytes(Charset.forName("UTF-8"));
+        mLocationJson = new JSONObject(LOCATION_JSON);
+    }
+
+    private int nextIndex() {
+        mIndex = (mIndex + 1) & (INPUT_COUNT - 1);
+        return mIndex;
+    }
+
+    @Benchmark
+    public boolean validateIpAddress() {
+        return LookupHelper.validateIpAddress(mIpAddresses[nextIndex()]);
+    }
+
+    @Benchmark
+    public long ipStringToNumber() {
+        return LookupHelper.ipStringToNumber(mIpAddresses[nextIndex()]);
+    }
+
+    @Benchmark
+    public String ipNumberToString() {
+        return LookupHelper.ipNumberToString(mIpNumbers[nextIndex()]);
+    }
+
+    @Benchmark
+    public String toBinaryString() {
+        return LookupHelper.toBinaryString(mIpNumbers[nextIndex()], 32);
+    }
+
+    /**
+     * The pre-parsed JSON object, as the original lookup path used it
+     */
+    @Benchmark
+    public Location jsonToLocation() throws JSONException {
+        return LookupHelper.jsonToLocation(mLocationJson);
+    }
+
+    /**
+     * Parsing the response text with org.json and converting it
+     */
+    @Benchmark
+    public Location parseAndJsonToLocation() throws JSONException {
+        return LookupHelper.jsonToLocation(new JSONObject(LOCATION_JSON));
+    }
+
+    /**
+     * Streaming the response bytes straight into a location, as {@link LookupClient} does
+     */
+    @Benchmark
+    public Location streamLocationJson() throws IOException {
+        return mParser.parse(new ByteArrayInputStream(mLocationBytes), "108.197.13.169");
+    }
+}
@@ -0,0 +1,420 @@
+package com.evanhalley.whereip;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Geolocates every IP address in a list file and streams the results to a result writer
+ * Entries are read lazily, only as fast as lookup slots free up, addresses that appear more than
+ *   once in the file are looked up once
+ * Not thread safe
+ */
+public class BatchGeolocator {
+
+    private final LookupEngine mEngine;
+
+    /**
+     * Creates a batch geolocator
+     * @param resolver resolves individual IP addresses, a null location counts as a failed
+     *   lookup, {@link InvalidLocationException} marks an address with no location
+     * @param concurrency maximum number of lookups in flight
+     */
+    public BatchGeolocator(LookupEngine.Resolver resolver, int concurrency) {
+        mEngine = new LookupEngine(resolver, concurrency);
+    }
+
+    /**
+     * Geolocates the IP addresses in the input file, blocking until every lookup has completed
+     * @param input IP list file, see {@link IpListReader}
+     * @param writer receives the result of each lookup
+     * @return summary of the run
+     * @throws IOException if the input could not be read or the output could not be written
+     * @throws InterruptedException
+     */
+    public Summary geolocate(File input, final ResultWriter writer)
+            throws IOException, InterruptedException {
+
+        if (writer == null) {
+            throw new IllegalArgumentException("Writer is null");
+        }
+        final AtomicLong located = new AtomicLong();
+        final AtomicLong notFound = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        long startTime = System.nanoTime();
+        DistinctAddressIterator addresses = new DistinctAddressIterator(new IpListReader(input));
+
+        try {
+            mEngine.lookup(addresses, new LookupEngine.Listener() {
+                @Override
+                public void onLocationResolved(String ipAddress, Location location) {
+
+                    if (location != null) {
+                        located.incrementAndGet();
+                        writer.writeLocated(location);
+                    } else {
+                        // no OK status is not an answer, only InvalidLocationException is
+                        failed.incrementAndGet();
+                        writer.writeFailed(ipAddress, new LookupException(
+                                LookupMetrics.Outcome.BAD_STATUS, String.format(
+                                "No OK status for IP address %s", ipAddress), null, false));
+                    }
+                }
+
+                @Override
+                public void onLookupFailed(String ipAddress, Exception e) {
+
+                    if (e instanceof InvalidLocationException) {
+                        notFound.incrementAndGet();
+                        writer.writeNotFound(ipAddress);
+                    } else {
+                        failed.incrementAndGet();
+                        writer.writeFailed(ipAddress, e);
+                    }
+                }
+            });
+        } finally {
+            addresses.close();
+        }
+        addresses.checkError();
+        writer.checkError();
+        return new Summary(located.get(), notFound.get(), failed.get(),
+                addresses.getDuplicateCount(), addresses.getMalformedCount(),
+                addresses.getFirstMalformedLine(), System.nanoTime() - startTime);
+    }
+
+    /**
+     * Geolocates a stratified sample of the IP addresses in the input file and writes the
+     *   location distribution of every sampled block, blocking until every lookup has completed
+     * Entries are merged before sampling, so overlapping entries are sampled once
+     * @param input IP list file, see {@link IpListReader}
+     * @param sampler picks the addresses to look up
+     * @param writer receives the distribution of each block once every lookup has completed
+     * @return summary of the run, duplicates are always 0
+     * @throws IOException if the input could not be read or the output could not be written
+     * @throws InterruptedException
+     */
+    public Summary sample(File input, StratifiedSampler sampler, BlockReportWriter writer)
+            throws IOException, InterruptedException {
+
+        if (sampler == null) {
+            throw new IllegalArgumentException("Sampler is null");
+        }
+
+        if (writer == null) {
+            throw new IllegalArgumentException("Writer is null");
+        }
+        long startTime = System.nanoTime();
+        IpListReader reader = new IpListReader(input);
+        List<IpRange> entries = new ArrayList<>();
+
+        try {
+            IpRange range;
+
+            while ((range = reader.next()) != null) {
+                entries.add(range);
+            }
+        } finally {
+            reader.close();
+        }
+        List<IpRange> ranges = LookupHelper.mergeIpRanges(entries);
+        final SamplingReport report = new SamplingReport(sampler, ranges);
+        final AtomicLong located = new AtomicLong();
+        final AtomicLong notFound = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        mEngine.lookup(sampler.sample(ranges), new LookupEngine.Listener() {
+            @Override
+            public void onLocationResolved(String ipAddress, Location location) {
+
+                if (location != null) {
+                    located.incrementAndGet();
+                    report.addLocated(ipAddress, location);
+                } else {
+                    failed.incrementAndGet();
+                    report.addFailed(ipAddress);
+                }
+            }
+
+            @Override
+            public void onLookupFailed(String ipAddress, Exception e) {
+
+                if (e instanceof InvalidLocationException) {
+                    notFound.incrementAndGet();
+                    report.addNotFound(ipAddress);
+                } else {
+                    failed.incrementAndGet();
+                    report.addFailed(ipAddress);
+                }
+            }
+        });
+        List<SamplingReport.BlockDistribution> blocks = report.getBlocks();
+
+        for (int i = 0; i < blocks.size(); i++) {
+            writer.writeBlock(blocks.get(i));
+        }
+        return new Summary(located.get(), notFound.get(), failed.get(), 0,
+                reader.getMalformedCount(), reader.getFirstMalformedLine(),
+                System.nanoTime() - startTime);
+    }
+
+    /**
+     * Stops the worker threads, the batch geolocator cannot be used afterwards
+     */
+    public void shutdown() {
+        mEngine.shutdown();
+    }
+
+    /**
+     * Expands the entries of an IP list into distinct IP addresses
+     * Ranges are merged into a set of seen intervals and only the parts not seen before are
+     *   expanded, so memory grows with the number of entries rather than addresses. Single
+     *   addresses are kept in a hash set
+     * Read errors end the iteration and are reported by {@link #checkError()}, the lookup engine
+     *   only knows about runtime exceptions
+     */
+    private static class DistinctAddressIterator implements Iterator<String> {
+
+        private final IpListReader mReader;
+        private final IpNumberSet mSeenAddresses = new IpNumberSet();
+        // start of each seen range to it's end, merged
+        private final TreeMap<Long, Long> mSeenRanges = new TreeMap<>();
+        private final Queue<IpRange> mUnseenRanges = new ArrayDeque<>();
+        private final StringBuilder mBuilder = new StringBuilder(15);
+
+        private IpRange.Cursor mCursor;
+        private String mNext;
+        private long mDuplicateCount;
+        private IOException mError;
+
+        DistinctAddressIterator(IpListReader reader) {
+            mReader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+
+            while (mNext == null && mError == null) {
+
+                if (mCursor == null || !mCursor.moveToNext()) {
+
+                    if (!mUnseenRanges.isEmpty()) {
+                        mCursor = mUnseenRanges.remove().cursor();
+                        continue;
+                    }
+                    IpRange range;
+
+                    try {
+                        range = mReader.next();
+                    } catch (IOException e) {
+                        mError = e;
+                        return false;
+                    }
+
+                    if (range == null) {
+                        return false;
+                    }
+
+                    if (range.size() == 1) {
+                        long ipNumber = range.getStart();
+
+                        if (!isSeenRange(ipNumber) && mSeenAddresses.add(ipNumber)) {
+                            mNext = LookupHelper.ipNumberToString(ipNumber);
+                        } else {
+                            mDuplicateCount++;
+                        }
+                        mCursor = null;
+                    } else {
+                        addSeenRange(range);
+                    }
+                    continue;
+                }
+
+                // single addresses seen before the range are not in the seen ranges
+                if (mSeenAddresses.contains(mCursor.getIpNumber())) {
+                    mDuplicateCount++;
+                } else {
+                    mBuilder.setLength(0);
+                    mNext = mCursor.appendIpAddress(mBuilder).toString();
+                }
+            }
+            return mNext != null;
+        }
+
+        @Override
+        public String next() {
+
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String next = mNext;
+            mNext = null;
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        long getDuplicateCount() {
+            return mDuplicateCount;
+        }
+
+        private boolean isSeenRange(long ipNumber) {
+            Map.Entry<Long, Long> seen = mSeenRanges.floorEntry(ipNumber);
+            return seen != null && seen.getValue() >= ipNumber;
+        }
+
+        /**
+         * Queues the parts of the range that were not seen yet and merges it into the seen ranges
+         */
+        private void addSeenRange(IpRange range) {
+            long start = range.getStart();
+            long end = range.getEnd();
+            long mergedStart = start;
+            long mergedEnd = end;
+            // first address of the range not accounted for yet
+            long next = start;
+            Map.Entry<Long, Long> seen = mSeenRanges.floorEntry(start);
+
+            if (seen == null || seen.getValue() + 1 < start) {
+                seen = mSeenRanges.higherEntry(start);
+            }
+
+            // every seen range that overlaps or touches the range
+            while (seen != null && seen.getKey() <= end + 1) {
+
+                if (seen.getKey() > next) {
+                    mUnseenRanges.add(IpRange.fromNumbers(next, seen.getKey() - 1));
+                }
+                next = Math.max(next, seen.getValue() + 1);
+                mergedStart = Math.min(mergedStart, seen.getKey());
+                mergedEnd = Math.max(mergedEnd, seen.getValue());
+                mSeenRanges.remove(seen.getKey());
+                seen = mSeenRanges.higherEntry(seen.getKey());
+            }
+
+            if (next <= end) {
+                mUnseenRanges.add(IpRange.fromNumbers(next, end));
+            }
+            mSeenRanges.put(mergedStart, mergedEnd);
+            mDuplicateCount += range.size();
+
+            for (IpRange unseen : mUnseenRanges) {
+                mDuplicateCount -= unseen.size();
+            }
+        }
+
+        long getMalformedCount() {
+            return mReader.getMalformedCount();
+        }
+
+        long getFirstMalformedLine() {
+            return mReader.getFirstMalformedLine();
+        }
+
+        void checkError() throws IOException {
+
+            if (mError != null) {
+                throw mError;
+            }
+        }
+
+        void close() throws IOException {
+            mReader.close();
+        }
+    }
+
+    /**
+     * Counts and throughput of a batch run
+     * Immutable
+     */
+    public static class Summary {
+
+        private final long mLocatedCount;
+        private final long mNotFoundCount;
+        private final long mFailedCount;
+        private final long mDuplicateCount;
+        private final long mMalformedCount;
+        private final long mFirstMalformedLine;
+        private final long mElapsedNanos;
+
+        Summary(long locatedCount, long notFoundCount, long failedCount, long duplicateCount,
+                long malformedCount, long firstMalformedLine, long elapsedNanos) {
+            mLocatedCount = locatedCount;
+            mNotFoundCount = notFoundCount;
+            mFailedCount = failedCount;
+            mDuplicateCount = duplicateCount;
+            mMalformedCount = malformedCount;
+            mFirstMalformedLine = firstMalformedLine;
+            mElapsedNanos = elapsedNanos;
+        }
+
+        public long getLocatedCount() {
+            return mLocatedCount;
+        }
+
+        public long getNotFoundCount() {
+            return mNotFoundCount;
+        }
+
+        public long getFailedCount() {
+            return mFailedCount;
+        }
+
+        /**
+         * @return number of distinct IP addresses looked up
+         */
+        public long getLookupCount() {
+            return mLocatedCount + mNotFoundCount + mFailedCount;
+        }
+
+        /**
+         * @return number of IP addresses skipped because they were looked up already
+         */
+        public long getDuplicateCount() {
+            return mDuplicateCount;
+        }
+
+        /**
+         * @return number of entries skipped because they could not be parsed
+         */
+        public long getMalformedCount() {
+            return mMalformedCount;
+        }
+
+        /**
+         * @return line number of the first malformed entry, 0 if there was none
+         */
+        public long getFirstMalformedLine() {
+            return mFirstMalformedLine;
+        }
+
+        public long getElapsedNanos() {
+            return mElapsedNanos;
+        }
+
+        /**
+         * @return lookups completed per second of the run
+         */
+        public double getAddressesPerSecond() {
+            return mElapsedNanos > 0 ? getLookupCount() * 1e9 / mElapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d located, %d not found, %d failed, %d duplicates, "
+                    + "%d malformed in %.1f s (%.1f addresses/s)", mLocatedCount,
+                    mNotFoundCount, mFailedCount, mDuplicateCount, mMalformedCount,
+                    mElapsedNanos / 1e9, getAddressesPerSecond());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.evanhalley.whereip;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes the location distribution of sampled blocks to CSV or JSON lines, one row per block
+ * Columns are block, addresses, sampled, located, not_found, failed, coverage, city, country,
+ *   latitude, longitude (of the most common location), share, confidence and locations, every
+ *   location of the block with the number of samples found there
+ * Not thread safe
+ */
+public class BlockReportWriter implements Closeable {
+
+    private final ResultWriter.Format mFormat;
+    private final Writer mWriter;
+
+    /**
+     * Creates a block report writer, the CSV header is written right away
+     * @param format output format
+     * @param writer destination, closed with the block report writer
+     * @throws IOException
+     */
+    public BlockReportWriter(ResultWriter.Format format, Writer writer) throws IOException {
+
+        if (format == null) {
+            throw new IllegalArgumentException("Format is null");
+        }
+
+        if (writer == null) {
+            throw new IllegalArgumentException("Writer is null");
+        }
+        mFormat = format;
+        mWriter = new BufferedWriter(writer);
+
+        if (format == ResultWriter.Format.CSV) {
+            mWriter.write("block,addresses,sampled,located,not_found,failed,coverage,city,country,"
+                    + "latitude,longitude,share,confidence,locations\n");
+        }
+    }
+
+    /**
+     * Writes the distribution of a block
+     * @param block distribution of the block
+     * @throws IOException
+     */
+    public void writeBlock(SamplingReport.BlockDistribution block) throws IOException {
+        IpRange range = block.getBlock();
+        String cidr = LookupHelper.ipNumberToString(range.getStart()) + "/"
+                + (32 - Long.numberOfTrailingZeros(range.size()));
+        Location location = block.getDominantLocation();
+        List<SamplingReport.LocationShare> locations = block.getLocations();
+
+        if (mFormat == ResultWriter.Format.CSV) {
+            mWriter.write(String.format(Locale.US, "%s,%d,%d,%d,%d,%d,%.6f,", cidr,
+                    block.getAddressCount(), block.getSampleCount(), block.getLocatedCount(),
+                    block.getNotFoundCount(), block.getFailedCount(), block.getCoverage()));
+
+            if (location != null) {
+                ResultWriter.writeCsvField(mWriter, location.getCity());
+                mWriter.write(',');
+                ResultWriter.writeCsvField(mWriter, location.getCountryName());
+                mWriter.write(',');
+                mWriter.write(Double.toString(location.getLatitude()));
+                mWriter.write(',');
+                mWriter.write(Double.toString(location.getLongitude()));
+                mWriter.write(String.format(Locale.US, ",%.4f,%.4f,", block.getDominantShare(),
+                        block.getConfidence()));
+            } else {
+                mWriter.write(",,,,0.0000,0.0000,");
+            }
+            // City, Country=3; City, Country=1
+            StringBuilder shares = new StringBuilder();
+
+            for (int i = 0; i < locations.size(); i++) {
+                Location shareLocation = locations.get(i).getLocation();
+
+                if (i > 0) {
+                    shares.append("; ");
+                }
+                shares.append(shareLocation.getCity()).append(", ")
+                        .append(shareLocation.getCountryName()).append('=')
+                        .append(locations.get(i).getCount());
+            }
+            ResultWriter.writeCsvField(mWriter, shares.toString());
+        } else {
+            mWriter.write(String.format(Locale.US, "{\"block\":\"%s\",\"addresses\":%d,"
+                    + "\"sampled\":%d,\"located\":%d,\"not_found\":%d,\"failed\":%d,"
+                    + "\"coverage\":%.6f,\"share\":%.4f,\"confidence\":%.4f,\"locations\":[",
+                    cidr, block.getAddressCount(), block.getSampleCount(),
+                    block.getLocatedCount(), block.getNotFoundCount(), block.getFailedCount(),
+                    block.getCoverage(), block.getDominantShare(), block.getConfidence()));
+
+            for (int i = 0; i < locations.size(); i++) {
+                Location shareLocation = locations.get(i).getLocation();
+
+                if (i > 0) {
+                    mWriter.write(',');
+                }
+                mWriter.write("{\"city\":");
+                ResultWriter.writeJsonString(mWriter, shareLocation.getCity());
+                mWriter.write(",\"country\":");
+                ResultWriter.writeJsonString(mWriter, shareLocation.getCountryName());
+                mWriter.write(",\"latitude\":");
+                mWriter.write(Double.toString(shareLocation.getLatitude()));
+                mWriter.write(",\"longitude\":");
+                mWriter.write(Double.toString(shareLocation.getLongitude()));
+                mWriter.write(",\"count\":");
+                mWriter.write(Long.toString(locations.get(i).getCount()));
+                mWriter.write('}');
+            }
+            mWriter.write("]}");
+        }
+        mWriter.write('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWriter.close();
+    }
+}
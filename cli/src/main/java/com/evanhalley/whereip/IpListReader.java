@@ -0,0 +1,148 @@
+package com.evanhalley.whereip;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streams IP addresses, ranges and CIDR blocks out of a text file
+ * The file is read through a fixed size buffer, so files of any size use the same memory. Each
+ *   line holds entries separated by commas, semicolons or whitespace, see
+ *   {@link LookupHelper#parseIpRanges(String)}, text after a # is a comment. Malformed entries are
+ *   counted and skipped
+ * Not thread safe
+ */
+public class IpListReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // longer than any well formed entry, 255.255.255.255-255.255.255.255, longer ones are cut off
+    private static final int MAX_ENTRY_LENGTH = 64;
+
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer;
+    private final StringBuilder mEntry = new StringBuilder(64);
+
+    private boolean mEndOfFile;
+    private boolean mInComment;
+    private long mLineNumber = 1;
+    private long mMalformedCount;
+    private long mFirstMalformedLine;
+
+    /**
+     * Opens an IP list file
+     * @param file file to read
+     * @throws IOException
+     */
+    public IpListReader(File file) throws IOException {
+
+        if (file == null) {
+            throw new IllegalArgumentException("File is null");
+        }
+        mChannel = new FileInputStream(file).getChannel();
+        mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        mBuffer.flip();
+    }
+
+    /**
+     * Reads the next well formed entry
+     * @return IP range of the entry, a single address is a range of one, or null at the end of
+     *   the file
+     * @throws IOException
+     */
+    public IpRange next() throws IOException {
+
+        while (true) {
+
+            if (!mBuffer.hasRemaining()) {
+
+                if (mEndOfFile || !fill()) {
+                    mEndOfFile = true;
+                    // the last entry may not end with a separator
+                    return endEntry();
+                }
+            }
+            byte b = mBuffer.get();
+
+            if (b == '\n') {
+                mInComment = false;
+                IpRange range = endEntry();
+                mLineNumber++;
+
+                if (range != null) {
+                    return range;
+                }
+            } else if (mInComment) {
+                continue;
+            } else if (b == '#') {
+                mInComment = true;
+                IpRange range = endEntry();
+
+                if (range != null) {
+                    return range;
+                }
+            } else if (b == ',' || b == ';' || b == ' ' || b == '\t' || b == '\r') {
+                IpRange range = endEntry();
+
+                if (range != null) {
+                    return range;
+                }
+            } else if (mEntry.length() < MAX_ENTRY_LENGTH) {
+                // non ASCII bytes make the entry malformed, they never appear in an address
+                mEntry.append(b >= 0 ? (char) b : '?');
+            }
+        }
+    }
+
+    /**
+     * Parses and clears the current entry
+     * @return IP range, or null if the entry is empty or malformed
+     */
+    private IpRange endEntry() {
+
+        if (mEntry.length() == 0) {
+            return null;
+        }
+
+        try {
+            return LookupHelper.parseIpRange(mEntry, 0, mEntry.length());
+        } catch (IllegalArgumentException e) {
+
+            if (mMalformedCount++ == 0) {
+                mFirstMalformedLine = mLineNumber;
+            }
+            return null;
+        } finally {
+            mEntry.setLength(0);
+        }
+    }
+
+    private boolean fill() throws IOException {
+        mBuffer.clear();
+        int read = mChannel.read(mBuffer);
+        mBuffer.flip();
+        return read > 0;
+    }
+
+    /**
+     * @return number of malformed entries skipped so far
+     */
+    public long getMalformedCount() {
+        return mMalformedCount;
+    }
+
+    /**
+     * @return line number of the first malformed entry, 0 if there was none
+     */
+    public long getFirstMalformedLine() {
+        return mFirstMalformedLine;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+}
@@ -0,0 +1,94 @@
+package com.evanhalley.whereip;
+
+/**
+ * Set of IP numbers, used to skip single addresses that were seen already
+ * Open addressing over an int array, about 8 bytes per address at the maximum load, with no
+ *   object per entry. Ranges are deduplicated as intervals instead of address by address
+ * Not thread safe
+ */
+public class IpNumberSet {
+
+    // 0.0.0.0 marks a free slot, the address itself is tracked separately
+    private static final int FREE = 0;
+    // largest power of two length of an int array
+    private static final int MAX_SLOTS = 1 << 30;
+
+    private int[] mSlots = new int[1024];
+    private int mSize;
+    private boolean mContainsZero;
+
+    /**
+     * Adds an IP number
+     * @param ipNumber number representation of an IP address
+     * @return true if the IP number was not in the set yet
+     */
+    public boolean add(long ipNumber) {
+
+        if (ipNumber < 0 || ipNumber > 0xFFFFFFFFL) {
+            throw new IllegalArgumentException("IP number is out of range");
+        }
+        int key = (int) ipNumber;
+
+        if (key == FREE) {
+            boolean added = !mContainsZero;
+            mContainsZero = true;
+            return added;
+        }
+
+        // keep the table at most half full while it can grow, one slot is always left free
+        if ((mSize + 1) * 2 > mSlots.length && mSlots.length < MAX_SLOTS) {
+            int[] slots = mSlots;
+            mSlots = new int[slots.length * 2];
+
+            for (int slot : slots) {
+
+                if (slot != FREE) {
+                    mSlots[findSlot(mSlots, slot)] = slot;
+                }
+            }
+        }
+        int slot = findSlot(mSlots, key);
+
+        if (mSlots[slot] == key) {
+            return false;
+        }
+
+        if (mSize + 1 >= mSlots.length) {
+            throw new IllegalStateException("IP number set is full");
+        }
+        mSlots[slot] = key;
+        mSize++;
+        return true;
+    }
+
+    /**
+     * @param ipNumber number representation of an IP address
+     * @return true if the IP number is in the set
+     */
+    public boolean contains(long ipNumber) {
+        int key = (int) ipNumber;
+
+        if (key == FREE) {
+            return mContainsZero;
+        }
+        return mSlots[findSlot(mSlots, key)] == key;
+    }
+
+    /**
+     * @return number of IP numbers in the set
+     */
+    public long size() {
+        return mSize + (mContainsZero ? 1 : 0);
+    }
+
+    private static int findSlot(int[] slots, int key) {
+        int mask = slots.length - 1;
+        int hash = key * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+
+        while (slots[slot] != FREE && slots[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
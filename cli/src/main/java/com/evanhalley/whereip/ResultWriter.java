@@ -0,0 +1,229 @@
+package com.evanhalley.whereip;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streams lookup results to CSV or JSON lines, one row per IP address
+ * Rows are written as results arrive so nothing is held in memory beyond the write buffer.
+ *   Columns are ip_address, status (located, not_found or failed), city, country, latitude,
+ *   longitude and error
+ * Thread safe
+ */
+public class ResultWriter implements Closeable {
+
+    public enum Format {
+        CSV, JSON_LINES
+    }
+
+    public static final String STATUS_LOCATED = "located";
+    public static final String STATUS_NOT_FOUND = "not_found";
+    public static final String STATUS_FAILED = "failed";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Format mFormat;
+    private final Writer mWriter;
+    private IOException mError;
+
+    /**
+     * Creates a result writer, the CSV header is written right away
+     * @param format output format
+     * @param writer destination, closed with the result writer
+     * @throws IOException
+     */
+    public ResultWriter(Format format, Writer writer) throws IOException {
+
+        if (format == null) {
+            throw new IllegalArgumentException("Format is null");
+        }
+
+        if (writer == null) {
+            throw new IllegalArgumentException("Writer is null");
+        }
+        mFormat = format;
+        mWriter = new BufferedWriter(writer, BUFFER_SIZE);
+
+        if (format == Format.CSV) {
+            mWriter.write("ip_address,status,city,country,latitude,longitude,error\n");
+        }
+    }
+
+    /**
+     * Writes a located address
+     * @param location location
+     */
+    public synchronized void writeLocated(Location location) {
+        writeRow(location.getIpAddress(), STATUS_LOCATED, location, null);
+    }
+
+    /**
+     * Writes an address IP Info DB has no location for
+     * @param ipAddress IP address
+     */
+    public synchronized void writeNotFound(String ipAddress) {
+        writeRow(ipAddress, STATUS_NOT_FOUND, null, null);
+    }
+
+    /**
+     * Writes an address whose lookup failed
+     * @param ipAddress IP address
+     * @param e cause of the failure
+     */
+    public synchronized void writeFailed(String ipAddress, Exception e) {
+        String message = e.getMessage();
+        writeRow(ipAddress, STATUS_FAILED, null,
+                message != null ? message : e.getClass().getSimpleName());
+    }
+
+    /**
+     * Write errors are kept instead of thrown to the lookup threads, they are reported here and
+     *   by {@link #close()}
+     * @throws IOException if a write has failed
+     */
+    public synchronized void checkError() throws IOException {
+
+        if (mError != null) {
+            throw mError;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+
+        try {
+            mWriter.close();
+        } catch (IOException e) {
+
+            if (mError == null) {
+                mError = e;
+            }
+        }
+        checkError();
+    }
+
+    private void writeRow(String ipAddress, String status, Location location, String error) {
+
+        if (mError != null) {
+            return;
+        }
+
+        try {
+
+            if (mFormat == Format.CSV) {
+                mWriter.write(ipAddress);
+                mWriter.write(',');
+                mWriter.write(status);
+                mWriter.write(',');
+
+                if (location != null) {
+                    writeCsvField(location.getCity());
+                    mWriter.write(',');
+                    writeCsvField(location.getCountryName());
+                    mWriter.write(',');
+                    mWriter.write(Double.toString(location.getLatitude()));
+                    mWriter.write(',');
+                    mWriter.write(Double.toString(location.getLongitude()));
+                } else {
+                    mWriter.write(",,,");
+                }
+                mWriter.write(',');
+
+                if (error != null) {
+                    writeCsvField(error);
+                }
+            } else {
+                mWriter.write("{\"ip_address\":\"");
+                mWriter.write(ipAddress);
+                mWriter.write("\",\"status\":\"");
+                mWriter.write(status);
+                mWriter.write('"');
+
+                if (location != null) {
+                    mWriter.write(",\"city\":");
+                    writeJsonString(location.getCity());
+                    mWriter.write(",\"country\":");
+                    writeJsonString(location.getCountryName());
+                    mWriter.write(",\"latitude\":");
+                    mWriter.write(Double.toString(location.getLatitude()));
+                    mWriter.write(",\"longitude\":");
+                    mWriter.write(Double.toString(location.getLongitude()));
+                }
+
+                if (error != null) {
+                    mWriter.write(",\"error\":");
+                    writeJsonString(error);
+                }
+                mWriter.write('}');
+            }
+            mWriter.write('\n');
+        } catch (IOException e) {
+            mError = e;
+        }
+    }
+
+    private void writeCsvField(String value) throws IOException {
+        writeCsvField(mWriter, value);
+    }
+
+    private void writeJsonString(String value) throws IOException {
+        writeJsonString(mWriter, value);
+    }
+
+    /**
+     * Writes a CSV field, quoted if it holds a comma, quote or line break
+     * @param writer destination
+     * @param value field value
+     * @throws IOException
+     */
+    static void writeCsvField(Writer writer, String value) throws IOException {
+        boolean quote = false;
+
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    /**
+     * Writes a JSON string literal
+     * @param writer destination
+     * @param value string value
+     * @throws IOException
+     */
+    static void writeJsonString(Writer writer, String value) throws IOException {
+        writer.write('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20) {
+                writer.write(String.format("\\u%04x", (int) c));
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+}
@@ -0,0 +1,269 @@
+package com.evanhalley.whereip;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Command line entry point, geolocates an IP list file without the Android app
+ *   whereip [options] <input> <output>
+ * Exits with 0 on success, 1 on an I/O error and 2 on a usage error
+ */
+public class WhereIpCli {
+
+    static final int EXIT_OK = 0;
+    static final int EXIT_IO_ERROR = 1;
+    static final int EXIT_USAGE = 2;
+
+    private static final String API_KEY_ENV = "WHEREIP_API_KEY";
+    private static final int DEFAULT_CONCURRENCY = 8;
+
+    private static final String USAGE =
+            "Usage: whereip [options] <input> <output>\n"
+            + "Geolocates the IP addresses, ranges and CIDR blocks listed in <input>\n"
+            + "\n"
+            + "Options:\n"
+            + "  --key <key>          IP Info DB API key, defaults to $" + API_KEY_ENV + "\n"
+            + "  --database <file>    offline location database, used instead of IP Info DB\n"
+            + "  --format csv|jsonl   output format, defaults to the output file extension\n"
+            + "  --concurrency <n>    lookups in flight, defaults to " + DEFAULT_CONCURRENCY + "\n"
+            + "  --rate <n>           maximum IP Info DB requests per second\n"
+            + "  --sample <n>         look up n addresses per block and write the location\n"
+            + "                       distribution of each block instead of every address\n"
+            + "  --sample-prefix <n>  prefix length of the sampled blocks, defaults to "
+            + StratifiedSampler.DEFAULT_PREFIX_LENGTH + "\n"
+            + "  --seed <n>           seed of the sampled addresses, defaults to 0\n"
+            + "  --help               prints this message\n";
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.getenv(API_KEY_ENV), System.err));
+    }
+
+    /**
+     * Runs the command line tool
+     * @param args command line arguments
+     * @param defaultApiKey API key used when --key is not given, may be null
+     * @param err receives the summary and error messages
+     * @return exit code
+     */
+    static int run(String[] args, String defaultApiKey, PrintStream err) {
+        String apiKey = defaultApiKey;
+        String database = null;
+        String format = null;
+        int concurrency = DEFAULT_CONCURRENCY;
+        double rate = 0;
+        int samplesPerBlock = 0;
+        int samplePrefixLength = StratifiedSampler.DEFAULT_PREFIX_LENGTH;
+        long seed = 0;
+        String input = null;
+        String output = null;
+
+        try {
+
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+
+                if (arg.equals("--help")) {
+                    err.print(USAGE);
+                    return EXIT_OK;
+                } else if (arg.equals("--key")) {
+                    apiKey = value(args, ++i, arg);
+                } else if (arg.equals("--database")) {
+                    database = value(args, ++i, arg);
+                } else if (arg.equals("--format")) {
+                    format = value(args, ++i, arg);
+                } else if (arg.equals("--concurrency")) {
+                    concurrency = Integer.parseInt(value(args, ++i, arg));
+                } else if (arg.equals("--rate")) {
+                    rate = Double.parseDouble(value(args, ++i, arg));
+                } else if (arg.equals("--sample")) {
+                    samplesPerBlock = Integer.parseInt(value(args, ++i, arg));
+
+                    if (samplesPerBlock < 1) {
+                        throw new IllegalArgumentException("Samples per block must be at least 1");
+                    }
+                } else if (arg.equals("--sample-prefix")) {
+                    samplePrefixLength = Integer.parseInt(value(args, ++i, arg));
+
+                    if (samplePrefixLength < 0 || samplePrefixLength > 32) {
+                        throw new IllegalArgumentException("Sample prefix must be 0 to 32");
+                    }
+                } else if (arg.equals("--seed")) {
+                    seed = Long.parseLong(value(args, ++i, arg));
+                } else if (arg.startsWith("--")) {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                } else if (input == null) {
+                    input = arg;
+                } else if (output == null) {
+                    output = arg;
+                } else {
+                    throw new IllegalArgumentException("Unexpected argument " + arg);
+                }
+            }
+
+            if (input == null || output == null) {
+                throw new IllegalArgumentException("Input and output files are required");
+            }
+
+            if (concurrency < 1) {
+                throw new IllegalArgumentException("Concurrency must be at least 1");
+            }
+
+            if (database == null && (apiKey == null || apiKey.trim().length() == 0)) {
+                throw new IllegalArgumentException("Missing IP Info DB API key, pass --key or set "
+                        + API_KEY_ENV);
+            }
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException included
+            err.println(e.getMessage());
+            err.print(USAGE);
+            return EXIT_USAGE;
+        }
+        ResultWriter.Format resultFormat = parseFormat(format, output);
+
+        if (resultFormat == null) {
+            err.println("Unknown format " + format);
+            err.print(USAGE);
+            return EXIT_USAGE;
+        }
+        OfflineLocationDatabase offlineDatabase = null;
+        LookupClient client = null;
+
+        try {
+            LookupEngine.Resolver resolver;
+
+            if (database != null) {
+                offlineDatabase = new OfflineLocationDatabase(new File(database));
+                resolver = databaseResolver(offlineDatabase);
+            } else {
+                client = LookupClient.getInstance();
+                client.getMetrics().startScan();
+
+                if (rate > 0) {
+                    client.setMaxRequestsPerSecond(rate);
+                }
+                resolver = clientResolver(client, apiKey);
+            }
+            BatchGeolocator geolocator = new BatchGeolocator(resolver, concurrency);
+
+            try {
+                Writer outputWriter = new OutputStreamWriter(new FileOutputStream(output),
+                        Charset.forName("UTF-8"));
+                BatchGeolocator.Summary summary;
+
+                if (samplesPerBlock > 0) {
+                    BlockReportWriter writer = new BlockReportWriter(resultFormat, outputWriter);
+
+                    try {
+                        summary = geolocator.sample(new File(input), new StratifiedSampler(
+                                samplePrefixLength, samplesPerBlock, seed), writer);
+                    } finally {
+                        writer.close();
+                    }
+                } else {
+                    ResultWriter writer = new ResultWriter(resultFormat, outputWriter);
+
+                    try {
+                        summary = geolocator.geolocate(new File(input), writer);
+                    } finally {
+                        writer.close();
+                    }
+                }
+                err.println(summary);
+
+                if (client != null) {
+                    err.println(client.getMetrics().snapshot());
+                }
+
+                if (summary.getMalformedCount() > 0) {
+                    err.println("Skipped malformed entries, see line "
+                            + summary.getFirstMalformedLine() + " of " + input);
+                }
+            } finally {
+                geolocator.shutdown();
+            }
+            return EXIT_OK;
+        } catch (IOException e) {
+            err.println("I/O error: " + e.getMessage());
+            return EXIT_IO_ERROR;
+        } catch (InterruptedException e) {
+            err.println("Interrupted");
+            return EXIT_IO_ERROR;
+        } finally {
+
+            if (offlineDatabase != null) {
+
+                try {
+                    offlineDatabase.close();
+                } catch (IOException e) {
+                    // nothing left to do with the database
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolves the output format
+     * @param format format option, null to derive it from the output file name
+     * @param output output file name
+     * @return output format, or null if the format option is unknown
+     */
+    static ResultWriter.Format parseFormat(String format, String output) {
+
+        if (format == null) {
+            return output.endsWith(".jsonl") || output.endsWith(".json")
+                    ? ResultWriter.Format.JSON_LINES : ResultWriter.Format.CSV;
+        }
+
+        if (format.equals("csv")) {
+            return ResultWriter.Format.CSV;
+        }
+
+        if (format.equals("jsonl")) {
+            return ResultWriter.Format.JSON_LINES;
+        }
+        return null;
+    }
+
+    private static String value(String[] args, int index, String option) {
+
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[index];
+    }
+
+    private static LookupEngine.Resolver databaseResolver(final OfflineLocationDatabase database) {
+        return new LookupEngine.Resolver() {
+            @Override
+            public Location resolve(String ipAddress) {
+                Location location = database.getLocationByIp(ipAddress);
+
+                // an address outside every range has no location, it has not failed
+                if (location == null) {
+                    throw new InvalidLocationException(ipAddress);
+                }
+                return location;
+            }
+        };
+    }
+
+    private static LookupEngine.Resolver clientResolver(final LookupClient client,
+                                                        final String apiKey) {
+        return new LookupEngine.Resolver() {
+            @Override
+            public Location resolve(String ipAddress) throws Exception {
+
+                try {
+                    return client.getLocationByIp(ipAddress, apiKey);
+                } finally {
+                    client.getMetrics().addScanned(1);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,200 @@
+package com.evanhalley.whereip;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchGeolocatorTest {
+
+    private static final LookupEngine.Resolver RESOLVER = new LookupEngine.Resolver() {
+        @Override
+        public Location resolve(String ipAddress) throws Exception {
+
+            if (ipAddress.startsWith("10.")) {
+                throw new InvalidLocationException(ipAddress);
+            }
+
+            if (ipAddress.startsWith("127.")) {
+                throw new IOException("Connection refused");
+            }
+
+            // IP Info DB answered without an OK status
+            if (ipAddress.startsWith("192.0.2.")) {
+                return null;
+            }
+            return new Location.Builder()
+                    .setIpAddress(ipAddress)
+                    .setCity("Washington, D.C.")
+                    .setCountryName("United States")
+                    .setLatitude(38.5)
+                    .setLongitude(-77.25)
+                    .build();
+        }
+    };
+
+    private File mFile;
+    private BatchGeolocator mGeolocator;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("ip_list", ".txt");
+        mGeolocator = new BatchGeolocator(RESOLVER, 4);
+    }
+
+    @After
+    public void tearDown() {
+        mGeolocator.shutdown();
+        mFile.delete();
+    }
+
+    @Test
+    public void geolocateCsvTest() throws Exception {
+        write("8.8.8.0/30\n8.8.8.1\n10.0.0.1 127.0.0.1\n8.8.8.2-8.8.8.5\nbogus\n");
+        StringWriter out = new StringWriter();
+        ResultWriter writer = new ResultWriter(ResultWriter.Format.CSV, out);
+        BatchGeolocator.Summary summary = mGeolocator.geolocate(mFile, writer);
+        writer.close();
+
+        assertEquals(6, summary.getLocatedCount());
+        assertEquals(1, summary.getNotFoundCount());
+        assertEquals(1, summary.getFailedCount());
+        assertEquals(8, summary.getLookupCount());
+        // 8.8.8.1 on its own line and 8.8.8.2, 8.8.8.3 again in the range
+        assertEquals(3, summary.getDuplicateCount());
+        assertEquals(1, summary.getMalformedCount());
+        assertEquals(5, summary.getFirstMalformedLine());
+
+        List<String> lines = Arrays.asList(out.toString().split("\n"));
+        assertEquals("ip_address,status,city,country,latitude,longitude,error", lines.get(0));
+        assertTrue(lines.contains(
+                "8.8.8.5,located,\"Washington, D.C.\",United States,38.5,-77.25,"));
+        assertTrue(lines.contains("10.0.0.1,not_found,,,,,"));
+        assertTrue(lines.contains("127.0.0.1,failed,,,,,Connection refused"));
+        assertEquals(9, lines.size());
+    }
+
+    @Test
+    public void geolocateJsonLinesTest() throws Exception {
+        write("8.8.8.8\n10.0.0.1\n");
+        StringWriter out = new StringWriter();
+        ResultWriter writer = new ResultWriter(ResultWriter.Format.JSON_LINES, out);
+        mGeolocator.geolocate(mFile, writer);
+        writer.close();
+
+        Set<String> lines = new HashSet<>(Arrays.asList(out.toString().split("\n")));
+        assertEquals(2, lines.size());
+        assertTrue(lines.contains("{\"ip_address\":\"8.8.8.8\",\"status\":\"located\","
+                + "\"city\":\"Washington, D.C.\",\"country\":\"United States\","
+                + "\"latitude\":38.5,\"longitude\":-77.25}"));
+        assertTrue(lines.contains("{\"ip_address\":\"10.0.0.1\",\"status\":\"not_found\"}"));
+    }
+
+    @Test
+    public void geolocateOverlappingRangesTest() throws Exception {
+        write("8.8.8.0-8.8.8.9\n8.8.8.3 8.8.8.20\n8.8.8.5-8.8.8.14\n8.8.8.15-8.8.8.25\n"
+                + "8.8.8.0/27\n");
+        StringWriter out = new StringWriter();
+        ResultWriter writer = new ResultWriter(ResultWriter.Format.CSV, out);
+        BatchGeolocator.Summary summary = mGeolocator.geolocate(mFile, writer);
+        writer.close();
+
+        // every address of 8.8.8.0/27 once, whatever order the entries overlap in
+        assertEquals(32, summary.getLocatedCount());
+        assertEquals(32, summary.getLookupCount());
+        // 8.8.8.3, 8.8.8.5 - 8.8.8.9, 8.8.8.20 and 8.8.8.0 - 8.8.8.25 again
+        assertEquals(1 + 5 + 1 + 26, summary.getDuplicateCount());
+
+        Set<String> ipAddresses = new HashSet<>();
+        List<String> lines = Arrays.asList(out.toString().split("\n"));
+
+        for (int i = 1; i < lines.size(); i++) {
+            assertTrue(ipAddresses.add(lines.get(i).substring(0, lines.get(i).indexOf(','))));
+        }
+        assertEquals(32, ipAddresses.size());
+    }
+
+    @Test
+    public void geolocateNoStatusTest() throws Exception {
+        write("192.0.2.1\n10.0.0.1\n");
+        StringWriter out = new StringWriter();
+        ResultWriter writer = new ResultWriter(ResultWriter.Format.CSV, out);
+        BatchGeolocator.Summary summary = mGeolocator.geolocate(mFile, writer);
+        writer.close();
+
+        assertEquals(0, summary.getLocatedCount());
+        assertEquals(1, summary.getNotFoundCount());
+        assertEquals(1, summary.getFailedCount());
+
+        List<String> lines = Arrays.asList(out.toString().split("\n"));
+        assertTrue(lines.contains("192.0.2.1,failed,,,,,No OK status for IP address 192.0.2.1"));
+        assertTrue(lines.contains("10.0.0.1,not_found,,,,,"));
+    }
+
+    @Test
+    public void sampleNoStatusTest() throws Exception {
+        write("192.0.2.0/24\n");
+        StringWriter out = new StringWriter();
+        BlockReportWriter writer = new BlockReportWriter(ResultWriter.Format.CSV, out);
+        BatchGeolocator.Summary summary = mGeolocator.sample(mFile,
+                new StratifiedSampler(24, 4, 42), writer);
+        writer.close();
+
+        assertEquals(0, summary.getNotFoundCount());
+        assertEquals(4, summary.getFailedCount());
+        assertEquals("192.0.2.0/24,256,4,0,0,4,0.015625,,,,,0.0000,0.0000,",
+                out.toString().split("\n")[1]);
+    }
+
+    @Test
+    public void sampleTest() throws Exception {
+        write("8.0.0.0/16\n10.0.0.0/24 8.0.0.5\nbogus\n");
+        StringWriter out = new StringWriter();
+        BlockReportWriter writer = new BlockReportWriter(ResultWriter.Format.CSV, out);
+        BatchGeolocator.Summary summary = mGeolocator.sample(mFile,
+                new StratifiedSampler(24, 4, 42), writer);
+        writer.close();
+
+        // 4 addresses from each of 257 blocks instead of 65792 lookups
+        assertEquals(1024, summary.getLocatedCount());
+        assertEquals(4, summary.getNotFoundCount());
+        assertEquals(1028, summary.getLookupCount());
+        assertEquals(1, summary.getMalformedCount());
+
+        List<String> lines = Arrays.asList(out.toString().split("\n"));
+        assertEquals("block,addresses,sampled,located,not_found,failed,coverage,city,country,"
+                + "latitude,longitude,share,confidence,locations", lines.get(0));
+        assertEquals("8.0.0.0/24,256,4,4,0,0,0.015625,\"Washington, D.C.\",United States,38.5,"
+                + "-77.25,1.0000,0.5101,\"Washington, D.C., United States=4\"", lines.get(1));
+        assertEquals("10.0.0.0/24,256,4,0,4,0,0.015625,,,,,0.0000,0.0000,", lines.get(257));
+        assertEquals(258, lines.size());
+    }
+
+    @Test(expected = IOException.class)
+    public void geolocateMissingInputTest() throws Exception {
+        mFile.delete();
+        mGeolocator.geolocate(mFile, new ResultWriter(ResultWriter.Format.CSV,
+                new StringWriter()));
+    }
+
+    private void write(String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+
+        try {
+            out.write(content.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.evanhalley.whereip;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class IpListReaderTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("ip_list", ".txt");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void nextTest() throws IOException {
+        write("# scan targets\n"
+                + "10.0.0.1\r\n"
+                + "10.0.0.2, 10.0.0.3;10.0.1.0/30\t192.168.0.1-192.168.0.2 # office\n"
+                + "\n"
+                + "8.8.8.8");
+        List<IpRange> ranges = readAll();
+        assertEquals(6, ranges.size());
+        assertEquals(IpRange.fromAddresses("10.0.0.1", "10.0.0.1"), ranges.get(0));
+        assertEquals(IpRange.fromAddresses("10.0.0.3", "10.0.0.3"), ranges.get(2));
+        assertEquals(IpRange.fromAddresses("10.0.1.0", "10.0.1.3"), ranges.get(3));
+        assertEquals(IpRange.fromAddresses("192.168.0.1", "192.168.0.2"), ranges.get(4));
+        assertEquals(IpRange.fromAddresses("8.8.8.8", "8.8.8.8"), ranges.get(5));
+    }
+
+    @Test
+    public void malformedTest() throws IOException {
+        write("10.0.0.1\n"
+                + "10.0.0.256\n"
+                + "not-an-address 10.0.0.2\n"
+                + "10.0.0.1/33\n");
+        IpListReader reader = new IpListReader(mFile);
+
+        try {
+            assertEquals(1, reader.next().size());
+            assertEquals(IpRange.fromAddresses("10.0.0.2", "10.0.0.2"), reader.next());
+            assertNull(reader.next());
+            assertEquals(3, reader.getMalformedCount());
+            assertEquals(2, reader.getFirstMalformedLine());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void largeFileTest() throws IOException {
+        // spans several read buffers, entries are cut at buffer boundaries
+        StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < 20000; i++) {
+            builder.append(LookupHelper.ipNumberToString(0x0A000000L + i)).append('\n');
+        }
+        write(builder.toString());
+        List<IpRange> ranges = readAll();
+        assertEquals(20000, ranges.size());
+
+        for (int i = 0; i < ranges.size(); i++) {
+            assertEquals(0x0A000000L + i, ranges.get(i).getStart());
+        }
+    }
+
+    @Test
+    public void emptyFileTest() throws IOException {
+        write("");
+        assertEquals(0, readAll().size());
+    }
+
+    private void write(String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+
+        try {
+            out.write(content.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private List<IpRange> readAll() throws IOException {
+        List<IpRange> ranges = new ArrayList<>();
+        IpListReader reader = new IpListReader(mFile);
+
+        try {
+            IpRange range;
+
+            while ((range = reader.next()) != null) {
+                ranges.add(range);
+            }
+        } finally {
+            reader.close();
+        }
+        return ranges;
+    }
+}
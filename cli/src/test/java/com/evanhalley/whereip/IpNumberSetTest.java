@@ -0,0 +1,46 @@
+package com.evanhalley.whereip;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IpNumberSetTest {
+
+    @Test
+    public void addTest() {
+        IpNumberSet set = new IpNumberSet();
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertTrue(set.add(0xFFFFFFFFL));
+        assertFalse(set.add(0xFFFFFFFFL));
+
+        // grows past the initial table
+        for (long ipNumber = 1; ipNumber <= 100000; ipNumber++) {
+            assertTrue(set.add(ipNumber * 251));
+        }
+
+        for (long ipNumber = 1; ipNumber <= 100000; ipNumber++) {
+            assertFalse(set.add(ipNumber * 251));
+        }
+        assertEquals(100002, set.size());
+    }
+
+    @Test
+    public void containsTest() {
+        IpNumberSet set = new IpNumberSet();
+        assertFalse(set.contains(0));
+        assertFalse(set.contains(134744072));
+        set.add(0);
+        set.add(134744072);
+        assertTrue(set.contains(0));
+        assertTrue(set.contains(134744072));
+        assertFalse(set.contains(134744073));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addOutOfRangeTest() {
+        new IpNumberSet().add(0x100000000L);
+    }
+}
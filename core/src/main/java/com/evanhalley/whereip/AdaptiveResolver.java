@@ -0,0 +1,102 @@
+package com.evanhalley.whereip;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolver that paces lookups to what the provider can take
+ * Lookups wait on the circuit breaker, so a scan pauses while the provider is down, and on the
+ *   AIMD limiter, so fewer run at once while the provider is slow or failing. Transient failures
+ *   are retried with jittered exponential backoff, holding the lookup's slot. An invalid location
+ *   counts as a healthy answer
+ * Thread safe
+ */
+public class AdaptiveResolver implements LookupEngine.Resolver {
+
+    private final LookupEngine.Resolver mResolver;
+    private final AimdLimiter mLimiter;
+    private final CircuitBreaker mCircuitBreaker;
+    private final RetryPolicy mRetryPolicy;
+    private final ThreadLocal<Random> mRandom = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    /**
+     * Creates an adaptive resolver
+     * @param resolver resolves individual IP addresses
+     * @param limiter limits the lookups in flight
+     * @param circuitBreaker pauses lookups while the provider is down
+     * @param retryPolicy retries transient failures
+     */
+    public AdaptiveResolver(LookupEngine.Resolver resolver, AimdLimiter limiter,
+                            CircuitBreaker circuitBreaker, RetryPolicy retryPolicy) {
+
+        if (resolver == null) {
+            throw new IllegalArgumentException("Resolver is null");
+        }
+
+        if (limiter == null) {
+            throw new IllegalArgumentException("Limiter is null");
+        }
+
+        if (circuitBreaker == null) {
+            throw new IllegalArgumentException("Circuit breaker is null");
+        }
+
+        if (retryPolicy == null) {
+            throw new IllegalArgumentException("Retry policy is null");
+        }
+        mResolver = resolver;
+        mLimiter = limiter;
+        mCircuitBreaker = circuitBreaker;
+        mRetryPolicy = retryPolicy;
+    }
+
+    @Override
+    public Location resolve(String ipAddress) throws Exception {
+        mLimiter.acquire();
+
+        try {
+
+            for (int attempt = 1; ; attempt++) {
+                mCircuitBreaker.awaitPermission();
+                long startTime = System.nanoTime();
+
+                try {
+                    Location location = mResolver.resolve(ipAddress);
+                    mLimiter.onSample(System.nanoTime() - startTime, false);
+                    mCircuitBreaker.onSuccess();
+                    return location;
+                } catch (Exception e) {
+
+                    if (!mRetryPolicy.isRetryable(e)) {
+                        // the provider answered, it is healthy
+                        mLimiter.onSample(System.nanoTime() - startTime, false);
+                        mCircuitBreaker.onSuccess();
+                        throw e;
+                    }
+                    mLimiter.onSample(System.nanoTime() - startTime, true);
+                    mCircuitBreaker.onFailure();
+
+                    if (attempt >= mRetryPolicy.getMaxAttempts()) {
+                        throw e;
+                    }
+                }
+                TimeUnit.NANOSECONDS.sleep(mRetryPolicy.getDelayNanos(attempt, mRandom.get()));
+            }
+        } finally {
+            mLimiter.release();
+        }
+    }
+
+    public AimdLimiter getLimiter() {
+        return mLimiter;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return mCircuitBreaker;
+    }
+}
@@ -0,0 +1,108 @@
+package com.evanhalley.whereip;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrency limit that adapts to the provider by additive increase, multiplicative decrease
+ * Every lookup that completes in time raises the limit by one over the current limit, so about
+ *   one per round of lookups. A failed or slow lookup cuts the limit by the backoff ratio, at most
+ *   once per latency threshold so a burst of failures from the same round counts once
+ * Thread safe
+ */
+public class AimdLimiter {
+
+    private final int mMinLimit;
+    private final int mMaxLimit;
+    private final long mLatencyThresholdNanos;
+    private final double mBackoffRatio;
+
+    private double mLimit;
+    private int mInFlight;
+    private long mLastDecreaseNanos;
+
+    /**
+     * Creates an AIMD limiter, starting at the maximum limit
+     * @param minLimit lowest limit
+     * @param maxLimit highest limit
+     * @param latencyThresholdMs latency above which a lookup counts as congested
+     * @param backoffRatio factor the limit is multiplied by on congestion, between 0 and 1
+     */
+    public AimdLimiter(int minLimit, int maxLimit, long latencyThresholdMs, double backoffRatio) {
+
+        if (minLimit < 1) {
+            throw new IllegalArgumentException("Min limit must be at least 1");
+        }
+
+        if (maxLimit < minLimit) {
+            throw new IllegalArgumentException("Max limit must be at least the min limit");
+        }
+
+        if (latencyThresholdMs < 1) {
+            throw new IllegalArgumentException("Latency threshold must be positive");
+        }
+
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("Backoff ratio must be between 0 and 1");
+        }
+        mMinLimit = minLimit;
+        mMaxLimit = maxLimit;
+        mLatencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMs);
+        mBackoffRatio = backoffRatio;
+        mLimit = maxLimit;
+        mLastDecreaseNanos = System.nanoTime() - mLatencyThresholdNanos;
+    }
+
+    /**
+     * Blocks until the number of lookups in flight is below the limit
+     * @throws InterruptedException
+     */
+    public synchronized void acquire() throws InterruptedException {
+
+        while (mInFlight >= (int) mLimit) {
+            wait();
+        }
+        mInFlight++;
+    }
+
+    /**
+     * Ends a lookup started with {@link #acquire()}
+     */
+    public synchronized void release() {
+        mInFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Adjusts the limit with the result of a lookup attempt
+     * @param latencyNanos latency of the attempt
+     * @param failed true if the attempt failed in a way that suggests an overloaded provider
+     */
+    public synchronized void onSample(long latencyNanos, boolean failed) {
+
+        if (failed || latencyNanos > mLatencyThresholdNanos) {
+            long now = System.nanoTime();
+
+            if (now - mLastDecreaseNanos >= mLatencyThresholdNanos) {
+                mLimit = Math.max(mMinLimit, mLimit * mBackoffRatio);
+                mLastDecreaseNanos = now;
+            }
+        } else if (mLimit < mMaxLimit) {
+            mLimit = Math.min(mMaxLimit, mLimit + 1 / mLimit);
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return current concurrency limit
+     */
+    public synchronized int getLimit() {
+        return (int) mLimit;
+    }
+
+    /**
+     * @return number of lookups in flight
+     */
+    public synchronized int getInFlight() {
+        return mInFlight;
+    }
+}
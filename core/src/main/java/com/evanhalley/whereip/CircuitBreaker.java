@@ -0,0 +1,117 @@
+package com.evanhalley.whereip;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops lookups while the provider is down instead of failing every remaining address
+ * After a run of consecutive failures the circuit opens and callers wait. Once the open duration
+ *   has passed a single probe lookup is let through, it's success closes the circuit and it's
+ *   failure opens it again
+ * Thread safe
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int mFailureThreshold;
+    private final long mOpenDurationNanos;
+
+    private State mState = State.CLOSED;
+    private int mConsecutiveFailures;
+    private long mOpenedNanos;
+    private boolean mProbeInFlight;
+    private long mOpenCount;
+
+    /**
+     * Creates a circuit breaker
+     * @param failureThreshold consecutive failures that open the circuit
+     * @param openDurationMs time the circuit stays open before a probe is let through
+     */
+    public CircuitBreaker(int failureThreshold, long openDurationMs) {
+
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("Failure threshold must be at least 1");
+        }
+
+        if (openDurationMs < 0) {
+            throw new IllegalArgumentException("Open duration cannot be negative");
+        }
+        mFailureThreshold = failureThreshold;
+        mOpenDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMs);
+    }
+
+    /**
+     * Blocks while the circuit is open, or while another caller is probing it
+     * Every caller let through must report the result with {@link #onSuccess()} or
+     *   {@link #onFailure()}
+     * @throws InterruptedException
+     */
+    public synchronized void awaitPermission() throws InterruptedException {
+
+        while (true) {
+
+            if (mState == State.CLOSED) {
+                return;
+            }
+
+            if (mState == State.OPEN) {
+                long remainingNanos = mOpenedNanos + mOpenDurationNanos - System.nanoTime();
+
+                if (remainingNanos > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+                    continue;
+                }
+                mState = State.HALF_OPEN;
+            }
+
+            if (!mProbeInFlight) {
+                mProbeInFlight = true;
+                return;
+            }
+            wait();
+        }
+    }
+
+    /**
+     * Reports a successful lookup, closing the circuit
+     */
+    public synchronized void onSuccess() {
+        mConsecutiveFailures = 0;
+        mProbeInFlight = false;
+
+        if (mState != State.CLOSED) {
+            mState = State.CLOSED;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Reports a failed lookup, opening the circuit after enough consecutive failures or a failed
+     *   probe
+     */
+    public synchronized void onFailure() {
+        mConsecutiveFailures++;
+
+        if (mState == State.HALF_OPEN || (mState == State.CLOSED
+                && mConsecutiveFailures >= mFailureThreshold)) {
+            mState = State.OPEN;
+            mOpenedNanos = System.nanoTime();
+            mOpenCount++;
+        }
+        mProbeInFlight = false;
+        notifyAll();
+    }
+
+    public synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * @return number of times the circuit has opened
+     */
+    public synchronized long getOpenCount() {
+        return mOpenCount;
+    }
+}
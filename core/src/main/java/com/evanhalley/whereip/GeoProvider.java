@@ -0,0 +1,25 @@
+package com.evanhalley.whereip;
+
+/**
+ * Source of IP address locations, such as IP Info DB or another geolocation service
+ * Implementations must be thread safe
+ */
+public interface GeoProvider {
+
+    /**
+     * Returns the location of the IP address
+     * @param ipAddress IP address to find a location for
+     * @param tag identifies the lookup to {@link #cancel(Object)}, may be null
+     * @return location, or null if the provider did not return a usable answer
+     * @throws InvalidLocationException if the provider has no location for the IP address
+     * @throws Exception
+     */
+    Location getLocationByIp(String ipAddress, Object tag) throws Exception;
+
+    /**
+     * Cancels the lookups made with the tag on other threads, best effort, a cancelled lookup
+     *   fails with an exception
+     * @param tag tag passed to {@link #getLocationByIp(String, Object)}
+     */
+    void cancel(Object tag);
+}
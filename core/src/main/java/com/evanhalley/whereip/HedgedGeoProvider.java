@@ -0,0 +1,274 @@
+package com.evanhalley.whereip;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Geolocation provider that hedges slow lookups with a second provider
+ * A lookup goes to the primary provider first. If the primary has not answered within a
+ *   percentile of it's observed latency, the same lookup is sent to the secondary provider,
+ *   the first answer wins and the other lookup is cancelled. A primary that fails outright is
+ *   retried on the secondary straight away. Until enough primary latencies have been observed the
+ *   initial delay is used
+ * Thread safe
+ */
+public class HedgedGeoProvider implements GeoProvider {
+
+    // primary latencies observed before the percentile is trusted over the initial delay
+    private static final int MIN_SAMPLE_COUNT = 20;
+    private static final int DELAY_UPDATE_INTERVAL = 16;
+
+    private final GeoProvider mPrimary;
+    private final GeoProvider mSecondary;
+    private final double mPercentile;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final ConcurrentHashMap<Object, Hedge> mHedges = new ConcurrentHashMap<>();
+    private final LatencyHistogram mPrimaryLatency = new LatencyHistogram();
+    private final AtomicLong mPrimaryCount = new AtomicLong();
+    private final AtomicLong mHedgeCount = new AtomicLong();
+    private final AtomicLong mSecondaryWinCount = new AtomicLong();
+    private volatile long mHedgeDelayNanos;
+
+    /**
+     * Creates a hedged provider
+     * @param primary provider every lookup goes to first
+     * @param secondary provider slow or failed lookups are repeated on
+     * @param percentile percentile of the primary's latency after which a lookup is hedged, 95
+     *   hedges about one in twenty lookups
+     * @param initialDelayMs delay before a lookup is hedged until the primary's latency is known
+     */
+    public HedgedGeoProvider(GeoProvider primary, GeoProvider secondary, double percentile,
+                             long initialDelayMs) {
+
+        if (primary == null) {
+            throw new IllegalArgumentException("Primary provider is null");
+        }
+
+        if (secondary == null) {
+            throw new IllegalArgumentException("Secondary provider is null");
+        }
+
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be above 0 and at most 100");
+        }
+
+        if (initialDelayMs < 0) {
+            throw new IllegalArgumentException("Initial delay cannot be negative");
+        }
+        mPrimary = primary;
+        mSecondary = secondary;
+        mPercentile = percentile;
+        mHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(initialDelayMs);
+    }
+
+    @Override
+    public Location getLocationByIp(String ipAddress, Object tag) throws Exception {
+        Hedge hedge = new Hedge(ipAddress);
+
+        if (tag != null) {
+            mHedges.put(tag, hedge);
+        }
+
+        try {
+            return hedge.run();
+        } finally {
+
+            if (tag != null) {
+                mHedges.remove(tag, hedge);
+            }
+            // the loser, if any, is still in flight
+            hedge.cancel();
+        }
+    }
+
+    @Override
+    public void cancel(Object tag) {
+        Hedge hedge = mHedges.get(tag);
+
+        if (hedge != null) {
+            hedge.mCancelled = true;
+            hedge.cancel();
+        }
+    }
+
+    /**
+     * @return time a lookup waits on the primary before it is hedged, in nanoseconds
+     */
+    public long getHedgeDelayNanos() {
+        return mHedgeDelayNanos;
+    }
+
+    /**
+     * @return number of lookups sent to the secondary provider
+     */
+    public long getHedgeCount() {
+        return mHedgeCount.get();
+    }
+
+    /**
+     * @return number of lookups answered by the secondary provider
+     */
+    public long getSecondaryWinCount() {
+        return mSecondaryWinCount.get();
+    }
+
+    /**
+     * Stops the worker threads, the provider cannot be used afterwards
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    private void recordPrimaryLatency(long nanos) {
+        mPrimaryLatency.record(nanos);
+        long count = mPrimaryCount.incrementAndGet();
+
+        if (count >= MIN_SAMPLE_COUNT && count % DELAY_UPDATE_INTERVAL == 0) {
+            mHedgeDelayNanos = mPrimaryLatency.snapshot().getPercentile(mPercentile);
+        }
+    }
+
+    private static Location getResult(Future<Location> future) throws Exception {
+
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * A single lookup, raced between the providers
+     */
+    private class Hedge {
+
+        private final String mIpAddress;
+        private final CompletionService<Location> mCompletionService =
+                new ExecutorCompletionService<>(mExecutor);
+        private volatile Attempt mPrimaryAttempt;
+        private volatile Attempt mSecondaryAttempt;
+        private volatile boolean mCancelled;
+
+        Hedge(String ipAddress) {
+            mIpAddress = ipAddress;
+        }
+
+        Location run() throws Exception {
+            mPrimaryAttempt = submit(mPrimary, true);
+            Future<Location> first = mCompletionService.poll(mHedgeDelayNanos,
+                    TimeUnit.NANOSECONDS);
+
+            if (first == null) {
+                hedge();
+                first = mCompletionService.take();
+            }
+
+            try {
+                return getWinner(first);
+            } catch (InvalidLocationException | CancellationException e) {
+                // an answer, or the lookup was cancelled
+                throw e;
+            } catch (Exception e) {
+
+                if (mCancelled) {
+                    throw e;
+                }
+
+                if (mSecondaryAttempt == null) {
+                    hedge();
+                }
+                return getWinner(mCompletionService.take());
+            }
+        }
+
+        private Location getWinner(Future<Location> future) throws Exception {
+            Location location = getResult(future);
+
+            if (mSecondaryAttempt != null && future == mSecondaryAttempt.mFuture) {
+                mSecondaryWinCount.incrementAndGet();
+            }
+            return location;
+        }
+
+        private void hedge() {
+            mHedgeCount.incrementAndGet();
+            mSecondaryAttempt = submit(mSecondary, false);
+        }
+
+        private Attempt submit(GeoProvider provider, boolean primary) {
+            Attempt attempt = new Attempt(provider, mIpAddress, primary);
+            attempt.mFuture = mCompletionService.submit(attempt);
+            return attempt;
+        }
+
+        void cancel() {
+            Attempt primary = mPrimaryAttempt;
+            Attempt secondary = mSecondaryAttempt;
+
+            if (primary != null) {
+                primary.cancel();
+            }
+
+            if (secondary != null) {
+                secondary.cancel();
+            }
+        }
+    }
+
+    /**
+     * A lookup on one provider
+     */
+    private class Attempt implements Callable<Location> {
+
+        private final GeoProvider mProvider;
+        private final String mIpAddress;
+        private final boolean mPrimary;
+        private final Object mTag = new Object();
+        private volatile Future<Location> mFuture;
+
+        Attempt(GeoProvider provider, String ipAddress, boolean primary) {
+            mProvider = provider;
+            mIpAddress = ipAddress;
+            mPrimary = primary;
+        }
+
+        @Override
+        public Location call() throws Exception {
+            long startTime = System.nanoTime();
+
+            try {
+                return mProvider.getLocationByIp(mIpAddress, mTag);
+            } finally {
+
+                // a cancelled primary records when it lost, which keeps slow answers in the
+                //   percentile instead of biasing it towards the fast ones
+                if (mPrimary) {
+                    recordPrimaryLatency(System.nanoTime() - startTime);
+                }
+            }
+        }
+
+        void cancel() {
+            Future<Location> future = mFuture;
+
+            if (future != null && !future.isDone()) {
+                mProvider.cancel(mTag);
+                future.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.evanhalley.whereip;
+
+/**
+ * Thrown when IP Info DB has no location for an IP address, such as private or reserved addresses
+ */
+public class InvalidLocationException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public InvalidLocationException(String ipAddress) {
+        super(String.format("Invalidate location encountered for IP address %s", ipAddress));
+    }
+}
@@ -0,0 +1,299 @@
+package com.evanhalley.whereip;
+
+/**
+ * Represents a 128 bit IPv6 address as two longs, the high and low 64 bits
+ * Parsing accepts the full form, the :: compressed form and a trailing dotted quad
+ *   (::ffff:192.0.2.1) in a single pass, formatting produces the canonical form of RFC 5952
+ * Immutable
+ */
+public class Ip6Address implements Comparable<Ip6Address> {
+
+    // longest IPv6 address, eight groups of four hex digits and seven colons
+    public static final int MAX_IP6_ADDRESS_LENGTH = 45;
+
+    private static final int GROUP_COUNT = 8;
+
+    private final long mHigh;
+    private final long mLow;
+
+    private Ip6Address(long high, long low) {
+        mHigh = high;
+        mLow = low;
+    }
+
+    /**
+     * @param high high 64 bits of the address
+     * @param low low 64 bits of the address
+     * @return IPv6 address
+     */
+    public static Ip6Address fromLongs(long high, long low) {
+        return new Ip6Address(high, low);
+    }
+
+    /**
+     * Converts an IPv6 address string to an address
+     * @param ipAddress IPv6 address
+     * @return IPv6 address
+     */
+    public static Ip6Address fromString(String ipAddress) {
+
+        if (ipAddress == null) {
+            throw new IllegalArgumentException("IP address is null");
+        }
+        Ip6Address address = parse(ipAddress, 0, ipAddress.length());
+
+        if (address == null) {
+            throw new IllegalArgumentException("IPv6 address is malformed");
+        }
+        return address;
+    }
+
+    /**
+     * Validates an IPv6 address
+     * @param ipAddress IP address to validate
+     * @return true if the IP address is a valid IPv6 address
+     */
+    public static boolean validate(String ipAddress) {
+        return ipAddress != null && parse(ipAddress, 0, ipAddress.length()) != null;
+    }
+
+    /**
+     * Parses and validates an IPv6 address in a single pass, the address is the only allocation
+     * @param chars characters containing the IP address
+     * @param start index of the first character of the IP address
+     * @param end index after the last character of the IP address
+     * @return IPv6 address, or null if the IP address is malformed
+     */
+    public static Ip6Address parse(CharSequence chars, int start, int end) {
+
+        if (end - start < 2) {
+            return null;
+        }
+        // groups before the :: are shifted into head, groups after it into tail
+        long headHigh = 0;
+        long headLow = 0;
+        int headCount = 0;
+        long tailHigh = 0;
+        long tailLow = 0;
+        int tailCount = 0;
+        boolean compressed = false;
+        int i = start;
+
+        if (chars.charAt(i) == ':') {
+
+            if (chars.charAt(i + 1) != ':') {
+                return null;
+            }
+            compressed = true;
+            i += 2;
+        }
+
+        while (i < end) {
+            int groupStart = i;
+            int group = 0;
+            int digits = 0;
+
+            while (i < end && digits <= 4) {
+                int digit = hexDigit(chars.charAt(i));
+
+                if (digit < 0) {
+                    break;
+                }
+                group = (group << 4) | digit;
+                digits++;
+                i++;
+            }
+
+            if (digits > 4) {
+                return null;
+            }
+            int groupCount = 1;
+            long value = group;
+
+            // a dotted quad takes the place of the last two groups
+            if (i < end && chars.charAt(i) == '.') {
+                value = LookupHelper.parseIpAddress(chars, groupStart, end);
+
+                if (value < 0) {
+                    return null;
+                }
+                groupCount = 2;
+                i = end;
+            } else if (digits == 0) {
+                return null;
+            }
+
+            if (compressed) {
+                tailHigh = (tailHigh << (16 * groupCount)) | (tailLow >>> (64 - 16 * groupCount));
+                tailLow = (tailLow << (16 * groupCount)) | value;
+                tailCount += groupCount;
+            } else {
+                headHigh = (headHigh << (16 * groupCount)) | (headLow >>> (64 - 16 * groupCount));
+                headLow = (headLow << (16 * groupCount)) | value;
+                headCount += groupCount;
+            }
+
+            if (headCount + tailCount > GROUP_COUNT) {
+                return null;
+            }
+
+            if (i == end) {
+                break;
+            }
+
+            if (chars.charAt(i) != ':' || ++i == end) {
+                return null;
+            }
+
+            if (chars.charAt(i) == ':') {
+
+                if (compressed) {
+                    return null;
+                }
+                compressed = true;
+                i++;
+            }
+        }
+
+        // a :: stands for at least one group
+        if (compressed ? headCount + tailCount == GROUP_COUNT : headCount != GROUP_COUNT) {
+            return null;
+        }
+        // the head's groups move to the top of the address, above the compressed zeros
+        int shift = 16 * (GROUP_COUNT - headCount);
+
+        if (shift >= 128) {
+            headHigh = 0;
+            headLow = 0;
+        } else if (shift >= 64) {
+            headHigh = headLow << (shift - 64);
+            headLow = 0;
+        } else if (shift > 0) {
+            headHigh = (headHigh << shift) | (headLow >>> (64 - shift));
+            headLow <<= shift;
+        }
+        return new Ip6Address(headHigh | tailHigh, headLow | tailLow);
+    }
+
+    /**
+     * @return high 64 bits of the address
+     */
+    public long getHigh() {
+        return mHigh;
+    }
+
+    /**
+     * @return low 64 bits of the address
+     */
+    public long getLow() {
+        return mLow;
+    }
+
+    /**
+     * Appends the canonical form of an IPv6 address to a (reusable) string builder
+     * @param high high 64 bits of the address
+     * @param low low 64 bits of the address
+     * @param builder string builder to append to
+     * @return the string builder
+     */
+    public static StringBuilder appendIpAddress(long high, long low, StringBuilder builder) {
+
+        // IPv4 mapped addresses keep their dotted quad
+        if (high == 0 && (low >>> 32) == 0xFFFF) {
+            builder.append("::ffff:");
+            return LookupHelper.appendIpAddress(low & 0xFFFFFFFFL, builder);
+        }
+        // the longest run of two or more zero groups is compressed, the first one on a tie
+        int runStart = -1;
+        int runLength = 1;
+
+        for (int i = 0; i < GROUP_COUNT; ) {
+
+            if (getGroup(high, low, i) != 0) {
+                i++;
+                continue;
+            }
+            int j = i;
+
+            while (j < GROUP_COUNT && getGroup(high, low, j) == 0) {
+                j++;
+            }
+
+            if (j - i > runLength) {
+                runStart = i;
+                runLength = j - i;
+            }
+            i = j;
+        }
+
+        for (int i = 0; i < GROUP_COUNT; i++) {
+
+            if (i == runStart) {
+                builder.append("::");
+                i += runLength - 1;
+                continue;
+            }
+
+            if (i > 0 && i != runStart + runLength) {
+                builder.append(':');
+            }
+            builder.append(Integer.toHexString(getGroup(high, low, i)));
+        }
+        return builder;
+    }
+
+    private static int hexDigit(char c) {
+
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static int getGroup(long high, long low, int index) {
+        long half = index < 4 ? high : low;
+        return (int) (half >>> (48 - 16 * (index & 3))) & 0xFFFF;
+    }
+
+    /**
+     * Compares two 64 bit halves as unsigned numbers
+     */
+    static int compareUnsigned(long lhs, long rhs) {
+        return Long.compare(lhs ^ Long.MIN_VALUE, rhs ^ Long.MIN_VALUE);
+    }
+
+    @Override
+    public int compareTo(Ip6Address another) {
+        int result = compareUnsigned(mHigh, another.mHigh);
+        return result != 0 ? result : compareUnsigned(mLow, another.mLow);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Ip6Address that = (Ip6Address) o;
+
+        return mHigh == that.mHigh && mLow == that.mLow;
+    }
+
+    @Override
+    public int hashCode() {
+        long hash = mHigh * 31 + mLow;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return appendIpAddress(mHigh, mLow, new StringBuilder(MAX_IP6_ADDRESS_LENGTH)).toString();
+    }
+}
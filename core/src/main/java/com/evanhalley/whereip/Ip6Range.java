@@ -0,0 +1,283 @@
+package com.evanhalley.whereip;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Represents an inclusive range of IPv6 addresses
+ * Only the first and last address are stored, as two longs each, addresses are produced lazily
+ *   by a cursor so even a /32 uses the same amount of memory as a single address
+ * Immutable
+ */
+public class Ip6Range {
+
+    private final long mStartHigh;
+    private final long mStartLow;
+    private final long mEndHigh;
+    private final long mEndLow;
+
+    private Ip6Range(long startHigh, long startLow, long endHigh, long endLow) {
+        mStartHigh = startHigh;
+        mStartLow = startLow;
+        mEndHigh = endHigh;
+        mEndLow = endLow;
+    }
+
+    /**
+     * Creates a range from two IPv6 addresses, if the end is smaller than the start the
+     *   addresses are reversed
+     * @param start first IPv6 address
+     * @param end last IPv6 address
+     * @return IPv6 range
+     */
+    public static Ip6Range fromAddresses(Ip6Address start, Ip6Address end) {
+
+        if (start == null || end == null) {
+            throw new IllegalArgumentException("IP address is null");
+        }
+
+        if (end.compareTo(start) < 0) {
+            Ip6Address temp = end;
+            end = start;
+            start = temp;
+        }
+        return new Ip6Range(start.getHigh(), start.getLow(), end.getHigh(), end.getLow());
+    }
+
+    /**
+     * Creates the range covered by a prefix, host bits set in the address are ignored
+     * @param address address within the prefix
+     * @param prefixLength number of leading bits of the prefix, 0 to 128
+     * @return IPv6 range covering the prefix
+     */
+    public static Ip6Range fromPrefix(Ip6Address address, int prefixLength) {
+
+        if (address == null) {
+            throw new IllegalArgumentException("IP address is null");
+        }
+
+        if (prefixLength < 0 || prefixLength > 128) {
+            throw new IllegalArgumentException("Prefix length is out of range");
+        }
+        int hostBits = 128 - prefixLength;
+        long hostHigh;
+        long hostLow;
+
+        if (hostBits >= 64) {
+            hostHigh = hostBits == 128 ? -1L : (1L << (hostBits - 64)) - 1;
+            hostLow = -1L;
+        } else {
+            hostHigh = 0;
+            hostLow = hostBits == 0 ? 0 : (1L << hostBits) - 1;
+        }
+        long startHigh = address.getHigh() & ~hostHigh;
+        long startLow = address.getLow() & ~hostLow;
+        return new Ip6Range(startHigh, startLow, startHigh | hostHigh, startLow | hostLow);
+    }
+
+    /**
+     * Parses a single IPv6 address, range (2001:db8::1-2001:db8::9) or CIDR block (2001:db8::/32)
+     * @param chars characters containing the entry
+     * @param start index of the first character of the entry
+     * @param end index after the last character of the entry
+     * @return IPv6 range
+     */
+    public static Ip6Range parse(CharSequence chars, int start, int end) {
+
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+
+            if (c == '-') {
+                Ip6Address first = Ip6Address.parse(chars, start, i);
+                Ip6Address last = Ip6Address.parse(chars, i + 1, end);
+
+                if (first == null || last == null) {
+                    throw new IllegalArgumentException("IPv6 range is malformed");
+                }
+                return fromAddresses(first, last);
+            } else if (c == '/') {
+                Ip6Address address = Ip6Address.parse(chars, start, i);
+                int prefixLength = 0;
+
+                if (address == null || i + 1 == end || end - i > 4) {
+                    throw new IllegalArgumentException("CIDR block is malformed");
+                }
+
+                for (int j = i + 1; j < end; j++) {
+                    char digit = chars.charAt(j);
+
+                    if (digit < '0' || digit > '9') {
+                        throw new IllegalArgumentException("CIDR block is malformed");
+                    }
+                    prefixLength = prefixLength * 10 + (digit - '0');
+                }
+                return fromPrefix(address, prefixLength);
+            }
+        }
+        Ip6Address address = Ip6Address.parse(chars, start, end);
+
+        if (address == null) {
+            throw new IllegalArgumentException("IPv6 address is malformed");
+        }
+        return new Ip6Range(address.getHigh(), address.getLow(), address.getHigh(),
+                address.getLow());
+    }
+
+    /**
+     * @return first IPv6 address in the range
+     */
+    public Ip6Address getStart() {
+        return Ip6Address.fromLongs(mStartHigh, mStartLow);
+    }
+
+    /**
+     * @return last IPv6 address in the range
+     */
+    public Ip6Address getEnd() {
+        return Ip6Address.fromLongs(mEndHigh, mEndLow);
+    }
+
+    /**
+     * @return number of IPv6 addresses in the range, or Long.MAX_VALUE if there are more
+     */
+    public long size() {
+        long borrow = Ip6Address.compareUnsigned(mEndLow, mStartLow) < 0 ? 1 : 0;
+        long differenceHigh = mEndHigh - mStartHigh - borrow;
+        long differenceLow = mEndLow - mStartLow;
+
+        if (differenceHigh != 0 || differenceLow < 0 || differenceLow == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return differenceLow + 1;
+    }
+
+    /**
+     * Returns true if the address falls in this range
+     * @param address IPv6 address
+     * @return true if the address is in the range
+     */
+    public boolean contains(Ip6Address address) {
+        return compare(address.getHigh(), address.getLow(), mStartHigh, mStartLow) >= 0
+                && compare(address.getHigh(), address.getLow(), mEndHigh, mEndLow) <= 0;
+    }
+
+    /**
+     * Returns a cursor positioned before the first address of the range
+     * @return cursor
+     */
+    public Cursor cursor() {
+        return new Cursor(this);
+    }
+
+    private static int compare(long lhsHigh, long lhsLow, long rhsHigh, long rhsLow) {
+        int result = Ip6Address.compareUnsigned(lhsHigh, rhsHigh);
+        return result != 0 ? result : Ip6Address.compareUnsigned(lhsLow, rhsLow);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Ip6Range range = (Ip6Range) o;
+
+        return mStartHigh == range.mStartHigh && mStartLow == range.mStartLow
+                && mEndHigh == range.mEndHigh && mEndLow == range.mEndLow;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * getStart().hashCode() + getEnd().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        Ip6Address.appendIpAddress(mStartHigh, mStartLow, builder).append('-');
+        return Ip6Address.appendIpAddress(mEndHigh, mEndLow, builder).toString();
+    }
+
+    /**
+     * Iterates over the addresses in a range without allocating per address, 128 bit
+     *   arithmetic is done on the two halves
+     * Not thread safe
+     */
+    public static class Cursor {
+
+        private final Ip6Range mRange;
+        private long mHigh;
+        private long mLow;
+        private boolean mStarted;
+        private boolean mFinished;
+
+        private Cursor(Ip6Range range) {
+            mRange = range;
+        }
+
+        /**
+         * Moves the cursor to the next address in the range
+         * @return false if the cursor is past the last address
+         */
+        public boolean moveToNext() {
+
+            if (mFinished) {
+                return false;
+            }
+
+            if (!mStarted) {
+                mStarted = true;
+                mHigh = mRange.mStartHigh;
+                mLow = mRange.mStartLow;
+            } else if (mHigh == mRange.mEndHigh && mLow == mRange.mEndLow) {
+                mFinished = true;
+            } else {
+                mLow++;
+
+                if (mLow == 0) {
+                    mHigh++;
+                }
+            }
+            return !mFinished;
+        }
+
+        /**
+         * @return high 64 bits of the address under the cursor
+         */
+        public long getHigh() {
+            checkPosition();
+            return mHigh;
+        }
+
+        /**
+         * @return low 64 bits of the address under the cursor
+         */
+        public long getLow() {
+            checkPosition();
+            return mLow;
+        }
+
+        /**
+         * @return address under the cursor
+         */
+        public String getIpAddress() {
+            return appendIpAddress(new StringBuilder(Ip6Address.MAX_IP6_ADDRESS_LENGTH))
+                    .toString();
+        }
+
+        /**
+         * Appends the address under the cursor to a (reusable) string builder
+         * @param builder string builder to append to
+         * @return the string builder
+         */
+        public StringBuilder appendIpAddress(StringBuilder builder) {
+            checkPosition();
+            return Ip6Address.appendIpAddress(mHigh, mLow, builder);
+        }
+
+        private void checkPosition() {
+
+            if (!mStarted || mFinished) {
+                throw new NoSuchElementException("Cursor is not positioned on an IP address");
+            }
+        }
+    }
+}
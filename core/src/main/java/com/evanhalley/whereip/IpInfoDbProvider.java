@@ -0,0 +1,35 @@
+package com.evanhalley.whereip;
+
+/**
+ * Geolocation provider backed by IP Info DB, or any endpoint that speaks it's API
+ * Thread safe
+ */
+public class IpInfoDbProvider implements GeoProvider {
+
+    private final LookupClient mClient;
+    private final String mApiKey;
+
+    /**
+     * Creates an IP Info DB provider
+     * @param client client performing the lookups, see {@link LookupClient#getInstance()}
+     * @param apiKey API key to IP Info DB, validated on each lookup
+     */
+    public IpInfoDbProvider(LookupClient client, String apiKey) {
+
+        if (client == null) {
+            throw new IllegalArgumentException("Client is null");
+        }
+        mClient = client;
+        mApiKey = apiKey;
+    }
+
+    @Override
+    public Location getLocationByIp(String ipAddress, Object tag) throws Exception {
+        return mClient.getLocationByIp(ipAddress, mApiKey, tag);
+    }
+
+    @Override
+    public void cancel(Object tag) {
+        mClient.cancel(tag);
+    }
+}
@@ -0,0 +1,222 @@
+package com.evanhalley.whereip;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * Represents an inclusive range of IPv4 addresses
+ * Only the start and end of the range are stored (as unsigned 32 bit ints), addresses are
+ *   produced lazily so a range uses the same amount of memory regardless of it's size
+ * Immutable
+ */
+public class IpRange {
+
+    private static final long IP_MASK = 0xFFFFFFFFL;
+
+    private final int mStart;
+    private final int mEnd;
+
+    private IpRange(int start, int end) {
+        mStart = start;
+        mEnd = end;
+    }
+
+    /**
+     * Creates a range from two IP numbers, if the end is smaller than the start the numbers
+     *   are reversed
+     * @param ipNumberStart number representation of the first IP address
+     * @param ipNumberEnd number representation of the last IP address
+     * @return IP range
+     */
+    public static IpRange fromNumbers(long ipNumberStart, long ipNumberEnd) {
+
+        if (ipNumberStart < 0 || ipNumberStart > IP_MASK ||
+                ipNumberEnd < 0 || ipNumberEnd > IP_MASK) {
+            throw new IllegalArgumentException("IP number is out of range");
+        }
+
+        if (ipNumberEnd < ipNumberStart) {
+            long temp = ipNumberEnd;
+            ipNumberEnd = ipNumberStart;
+            ipNumberStart = temp;
+        }
+        return new IpRange((int) ipNumberStart, (int) ipNumberEnd);
+    }
+
+    /**
+     * Creates a range from two IP addresses, if the end is smaller than the start the addresses
+     *   are reversed
+     * @param ipAddressStart starting IP address
+     * @param ipAddressEnd ending IP address
+     * @return IP range
+     */
+    public static IpRange fromAddresses(String ipAddressStart, String ipAddressEnd) {
+        return fromNumbers(LookupHelper.ipStringToNumber(ipAddressStart),
+                LookupHelper.ipStringToNumber(ipAddressEnd));
+    }
+
+    /**
+     * @return number representation of the first IP address in the range
+     */
+    public long getStart() {
+        return mStart & IP_MASK;
+    }
+
+    /**
+     * @return number representation of the last IP address in the range
+     */
+    public long getEnd() {
+        return mEnd & IP_MASK;
+    }
+
+    /**
+     * @return number of IP addresses in the range, at most 2^32
+     */
+    public long size() {
+        return getEnd() - getStart() + 1;
+    }
+
+    /**
+     * Returns true if the IP number falls in this range
+     * @param ipNumber number representation of an IP address
+     * @return true if the IP number is in the range
+     */
+    public boolean contains(long ipNumber) {
+        return ipNumber >= getStart() && ipNumber <= getEnd();
+    }
+
+    /**
+     * Returns the IP number at the specified offset from the start of the range
+     * @param index offset from the start of the range
+     * @return number representation of the IP address
+     */
+    public long getIpNumber(long index) {
+
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " is outside of the range");
+        }
+        return getStart() + index;
+    }
+
+    /**
+     * Returns a cursor positioned before the first IP address of the range
+     * @return cursor
+     */
+    public Cursor cursor() {
+        return new Cursor(this);
+    }
+
+    /**
+     * Returns a read only list view of the range, IP address strings are created on access
+     * @return list of IP addresses in the range
+     */
+    public List<String> asList() {
+
+        if (size() > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Range is too large to be viewed as a list");
+        }
+        return new IpAddressList(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        IpRange ipRange = (IpRange) o;
+
+        return mStart == ipRange.mStart && mEnd == ipRange.mEnd;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mStart + mEnd;
+    }
+
+    @Override
+    public String toString() {
+        return LookupHelper.ipNumberToString(getStart()) + "-" +
+                LookupHelper.ipNumberToString(getEnd());
+    }
+
+    /**
+     * Iterates over the IP addresses in a range without allocating per address
+     * Not thread safe
+     */
+    public static class Cursor {
+
+        private final IpRange mRange;
+        private long mPosition = -1;
+
+        private Cursor(IpRange range) {
+            mRange = range;
+        }
+
+        /**
+         * Moves the cursor to the next IP address in the range
+         * @return false if the cursor is past the last IP address
+         */
+        public boolean moveToNext() {
+
+            if (mPosition < mRange.size()) {
+                mPosition++;
+            }
+            return mPosition < mRange.size();
+        }
+
+        /**
+         * @return offset of the cursor from the start of the range
+         */
+        public long getPosition() {
+            return mPosition;
+        }
+
+        /**
+         * @return number representation of the IP address under the cursor
+         */
+        public long getIpNumber() {
+
+            if (mPosition < 0 || mPosition >= mRange.size()) {
+                throw new NoSuchElementException("Cursor is not positioned on an IP address");
+            }
+            return mRange.getStart() + mPosition;
+        }
+
+        /**
+         * @return IP address under the cursor
+         */
+        public String getIpAddress() {
+            return LookupHelper.ipNumberToString(getIpNumber());
+        }
+
+        /**
+         * Appends the IP address under the cursor to a (reusable) string builder
+         * @param builder string builder to append to
+         * @return the string builder
+         */
+        public StringBuilder appendIpAddress(StringBuilder builder) {
+            return LookupHelper.appendIpAddress(getIpNumber(), builder);
+        }
+    }
+
+    private static class IpAddressList extends AbstractList<String> implements RandomAccess {
+
+        private final IpRange mRange;
+
+        private IpAddressList(IpRange range) {
+            mRange = range;
+        }
+
+        @Override
+        public String get(int index) {
+            return LookupHelper.ipNumberToString(mRange.getIpNumber(index));
+        }
+
+        @Override
+        public int size() {
+            return (int) mRange.size();
+        }
+    }
+}
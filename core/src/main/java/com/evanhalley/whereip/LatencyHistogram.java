@@ -0,0 +1,167 @@
+package com.evanhalley.whereip;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds with a fixed relative precision, in the style of
+ *   HdrHistogram
+ * Each power of two is split into 32 linear buckets so any recorded value is reported within
+ *   about 3% of its true value, from a nanosecond up to hours, in a fixed 15 KB of counts.
+ *   Recording is lock free and allocation free
+ * Thread safe
+ */
+public class LatencyHistogram {
+
+    // 2^5 sub buckets per power of two, a relative error of at most 1/32
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mTotalCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Records a latency
+     * @param nanos latency in nanoseconds, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        mCounts.incrementAndGet(bucketIndex(value));
+        mTotalCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max = mMax.get();
+
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    /**
+     * Clears every recorded latency, values recorded concurrently may or may not be kept
+     */
+    public void reset() {
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0);
+        }
+        mTotalCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    /**
+     * @return copy of the recorded latencies
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        long totalCount = 0;
+
+        // summed from the copied buckets so the percentiles are consistent with the count
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mCounts.get(i);
+            totalCount += counts[i];
+        }
+        return new Snapshot(counts, totalCount, mSum.get(), mMax.get());
+    }
+
+    static int bucketIndex(long value) {
+
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) | (int) ((value >>> shift) & SUB_BUCKET_MASK);
+    }
+
+    /**
+     * @param index bucket index
+     * @return largest value that falls into the bucket
+     */
+    static long bucketUpperBound(int index) {
+
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long lowerBound = (long) (SUB_BUCKET_COUNT | (index & SUB_BUCKET_MASK)) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    /**
+     * Point in time copy of a latency histogram
+     * Immutable
+     */
+    public static class Snapshot {
+
+        private final long[] mCounts;
+        private final long mTotalCount;
+        private final long mSum;
+        private final long mMax;
+
+        Snapshot(long[] counts, long totalCount, long sum, long max) {
+            mCounts = counts;
+            mTotalCount = totalCount;
+            mSum = sum;
+            mMax = max;
+        }
+
+        /**
+         * @return number of recorded latencies
+         */
+        public long getCount() {
+            return mTotalCount;
+        }
+
+        /**
+         * @return mean latency in nanoseconds, 0 if nothing was recorded
+         */
+        public double getMean() {
+            return mTotalCount > 0 ? (double) mSum / mTotalCount : 0;
+        }
+
+        /**
+         * @return largest recorded latency in nanoseconds
+         */
+        public long getMax() {
+            return mMax;
+        }
+
+        /**
+         * Returns the latency at or below which the given percentage of recorded latencies fall
+         * @param percentile percentile between 0 and 100
+         * @return latency in nanoseconds, 0 if nothing was recorded
+         */
+        public long getPercentile(double percentile) {
+
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Percentile must be between 0 and 100");
+            }
+
+            if (mTotalCount == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * mTotalCount));
+            long seen = 0;
+
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), mMax);
+                }
+            }
+            return mMax;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.1fms p50=%.1fms p90=%.1fms p99=%.1fms "
+                    + "max=%.1fms", mTotalCount, getMean() / 1e6, getPercentile(50) / 1e6,
+                    getPercentile(90) / 1e6, getPercentile(99) / 1e6, mMax / 1e6);
+        }
+    }
+}
@@ -1,14 +1,13 @@
 package com.evanhalley.whereip;
 
-import android.os.Parcel;
-import android.os.Parcelable;
-
 /**
  * Represents a location composed of the IP address, city, country, and GPS coordinates
+ * Plain Java so the core module stays free of Android, the app parcels locations in a
+ *   LocationStore
  * Immutable
  * Created by evan on 8/15/15.
  */
-public class Location implements Parcelable {
+public class Location {
 
     private final String mIpAddress;
     private final double mLatitude;
@@ -16,14 +15,6 @@ public class Location implements Parcelable {
     private final String mCountryName;
     private final String mCity;
 
-    public Location(Parcel in) {
-        mIpAddress = in.readString();
-        mLatitude = in.readDouble();
-        mLongitude = in.readDouble();
-        mCity = in.readString();
-        mCountryName = in.readString();
-    }
-
     private Location(String city, String countryName, String ipAddress, double latitude,
                      double longitude) {
         mCity = city;
@@ -33,30 +24,6 @@ public class Location implements Parcelable {
         mLongitude = longitude;
     }
 
-    @Override
-    public int describeContents() {
-        return 0;
-    }
-
-    @Override
-    public void writeToParcel(Parcel dest, int flags) {
-        dest.writeString(mIpAddress);
-        dest.writeDouble(mLatitude);
-        dest.writeDouble(mLongitude);
-        dest.writeString(mCity);
-        dest.writeString(mCountryName);
-    }
-
-    public static final Parcelable.Creator CREATOR = new Parcelable.Creator() {
-        public Location createFromParcel(Parcel in) {
-            return new Location(in);
-        }
-
-        public Location[] newArray(int size) {
-            return new Location[size];
-        }
-    };
-
     public String getCity() {
         return mCity;
     }
@@ -0,0 +1,140 @@
+package com.evanhalley.whereip;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces lookup results into batches delivered at a bounded rate
+ * A batch is delivered once it holds the maximum number of locations or the oldest pending
+ *   result has waited the maximum delay, whichever comes first. Each batch carries the running
+ *   count of processed IP addresses, including those without a location
+ * Thread safe
+ */
+public class LocationBatcher {
+
+    /**
+     * Receives batches, called from the thread that filled the batch or from the batcher's timer
+     */
+    public interface Listener {
+
+        /**
+         * @param locations locations resolved since the previous batch, may be empty
+         * @param processedCount number of IP addresses processed so far
+         */
+        void onBatch(ArrayList<Location> locations, long processedCount);
+    }
+
+    private final int mMaxBatchSize;
+    private final long mMaxDelayMs;
+    private final Listener mListener;
+    private final ScheduledExecutorService mTimer;
+
+    private ArrayList<Location> mPending;
+    private long mProcessedCount;
+    private long mDeliveredCount;
+    private ScheduledFuture<?> mScheduledFlush;
+    private boolean mClosed;
+
+    /**
+     * Creates a location batcher
+     * @param maxBatchSize maximum number of locations per batch
+     * @param maxDelayMs maximum time a result waits before it's batch is delivered, in milliseconds
+     * @param listener receives the batches
+     */
+    public LocationBatcher(int maxBatchSize, long maxDelayMs, Listener listener) {
+
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Max batch size must be at least 1");
+        }
+
+        if (maxDelayMs < 1) {
+            throw new IllegalArgumentException("Max delay must be positive");
+        }
+
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener is null");
+        }
+        mMaxBatchSize = maxBatchSize;
+        mMaxDelayMs = maxDelayMs;
+        mListener = listener;
+        mPending = new ArrayList<>(maxBatchSize);
+        mTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "LocationBatcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Adds the result of a lookup
+     * @param location resolved location, or null if the IP address could not be located
+     */
+    public synchronized void add(Location location) {
+
+        if (location != null) {
+            mPending.add(location);
+        }
+        addProcessed(1);
+    }
+
+    /**
+     * Counts IP addresses that were processed without a lookup, for example inferred addresses
+     * @param count number of IP addresses
+     */
+    public synchronized void addProcessed(long count) {
+
+        if (mClosed) {
+            throw new IllegalStateException("Batcher is closed");
+        }
+        mProcessedCount += count;
+
+        if (mPending.size() >= mMaxBatchSize) {
+            flush();
+        } else if (mScheduledFlush == null) {
+            mScheduledFlush = mTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, mMaxDelayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Delivers the pending results now, if there are any
+     */
+    public synchronized void flush() {
+
+        if (mScheduledFlush != null) {
+            mScheduledFlush.cancel(false);
+            mScheduledFlush = null;
+        }
+
+        if (mPending.isEmpty() && mProcessedCount == mDeliveredCount) {
+            return;
+        }
+        ArrayList<Location> batch = mPending;
+        mPending = new ArrayList<>(mMaxBatchSize);
+        mDeliveredCount = mProcessedCount;
+        mListener.onBatch(batch, mProcessedCount);
+    }
+
+    /**
+     * Delivers the pending results and stops the timer, the batcher cannot be used afterwards
+     */
+    public synchronized void close() {
+
+        if (!mClosed) {
+            flush();
+            mClosed = true;
+            mTimer.shutdownNow();
+        }
+    }
+}
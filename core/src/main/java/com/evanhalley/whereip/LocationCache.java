@@ -0,0 +1,166 @@
+package com.evanhalley.whereip;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded in memory cache of lookup results keyed by the 32 bit IP number
+ * Least recently used entries are evicted once the cache is full, entries older than the time
+ *   to live are treated as missing. IP addresses that IP Info DB reported as having no location
+ *   are cached as invalid entries so they aren't looked up again
+ * Thread safe
+ */
+public class LocationCache {
+
+    private final int mMaxEntries;
+    private final long mTimeToLiveMs;
+    private final LinkedHashMap<Integer, Entry> mEntries;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    /**
+     * Creates a location cache
+     * @param maxEntries maximum number of entries before the least recently used is evicted
+     * @param timeToLiveMs how long an entry stays valid, in milliseconds
+     */
+    public LocationCache(int maxEntries, long timeToLiveMs) {
+
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Max entries must be at least 1");
+        }
+
+        if (timeToLiveMs < 1) {
+            throw new IllegalArgumentException("Time to live must be positive");
+        }
+        mMaxEntries = maxEntries;
+        mTimeToLiveMs = timeToLiveMs;
+        mEntries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, LocationCache.Entry> eldest) {
+
+                if (size() > mMaxEntries) {
+                    mEvictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached entry for an IP number
+     * @param ipNumber number representation of an IP address
+     * @return entry, or null if the IP number is not cached or it's entry expired
+     */
+    public synchronized Entry get(long ipNumber) {
+        Integer key = (int) ipNumber;
+        Entry entry = mEntries.get(key);
+
+        if (entry != null && entry.mExpiresAt <= currentTimeMillis()) {
+            mEntries.remove(key);
+            entry = null;
+        }
+
+        if (entry == null) {
+            mMissCount++;
+        } else {
+            mHitCount++;
+        }
+        return entry;
+    }
+
+    /**
+     * Caches the location of an IP number
+     * @param ipNumber number representation of an IP address
+     * @param location location of the IP address
+     */
+    public synchronized void put(long ipNumber, Location location) {
+
+        if (location == null) {
+            throw new IllegalArgumentException("Location is null");
+        }
+        mEntries.put((int) ipNumber, new Entry(location, currentTimeMillis() + mTimeToLiveMs));
+    }
+
+    /**
+     * Caches an entry loaded from another cache, keeping it's expiry time
+     * @param ipNumber number representation of an IP address
+     * @param entry cached entry
+     */
+    synchronized void put(long ipNumber, Entry entry) {
+        mEntries.put((int) ipNumber, entry);
+    }
+
+    /**
+     * Caches an IP number as having no valid location
+     * @param ipNumber number representation of an IP address
+     */
+    public synchronized void putInvalid(long ipNumber) {
+        mEntries.put((int) ipNumber, new Entry(null, currentTimeMillis() + mTimeToLiveMs));
+    }
+
+    /**
+     * Removes every entry, counters are kept
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * A cached lookup result
+     * Immutable
+     */
+    public static class Entry {
+
+        private final Location mLocation;
+        private final long mExpiresAt;
+
+        Entry(Location location, long expiresAt) {
+            mLocation = location;
+            mExpiresAt = expiresAt;
+        }
+
+        /**
+         * @return the cached location, null if the entry is invalid
+         */
+        public Location getLocation() {
+            return mLocation;
+        }
+
+        /**
+         * @return true if IP Info DB reported no location for the IP address
+         */
+        public boolean isInvalid() {
+            return mLocation == null;
+        }
+
+        /**
+         * @return time the entry expires at, in milliseconds since the epoch
+         */
+        public long getExpiresAt() {
+            return mExpiresAt;
+        }
+    }
+}
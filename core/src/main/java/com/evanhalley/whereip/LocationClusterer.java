@@ -0,0 +1,286 @@
+package com.evanhalley.whereip;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups locations into clusters per map zoom level so only a bounded number of markers is drawn
+ * Locations are indexed on a grid of fixed size screen cells in Web Mercator space, every cell
+ *   holding locations becomes one cluster at the centroid of it's locations. Clusters are
+ *   computed once per zoom level and reused until new locations are added. Locations at the
+ *   same coordinates are stored once, keyed by their coordinates packed into a long
+ * Thread safe, clustering is meant to run off the main thread
+ */
+public class LocationClusterer {
+
+    // width of a map tile in pixels at zoom 0
+    private static final double TILE_SIZE = 256;
+    private static final double MAX_LATITUDE = 85.05112878;
+    private static final int MAX_ZOOM = 21;
+
+    private static final long EMPTY_KEY = Long.MIN_VALUE;
+
+    private final int mCellSizePx;
+
+    private Location[] mLocations = new Location[64];
+    private int mLocationCount;
+    private long[] mCoordinateKeys = new long[128];
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final List<Cluster>[] mClustersByZoom = new List[MAX_ZOOM + 1];
+
+    /**
+     * A group of locations shown as one marker
+     * Immutable
+     */
+    public static class Cluster {
+
+        private final double mLatitude;
+        private final double mLongitude;
+        private final int mSize;
+        private final Location mLocation;
+
+        private Cluster(double latitude, double longitude, int size, Location location) {
+            mLatitude = latitude;
+            mLongitude = longitude;
+            mSize = size;
+            mLocation = location;
+        }
+
+        public double getLatitude() {
+            return mLatitude;
+        }
+
+        public double getLongitude() {
+            return mLongitude;
+        }
+
+        /**
+         * @return number of distinct coordinates in the cluster
+         */
+        public int getSize() {
+            return mSize;
+        }
+
+        /**
+         * @return one of the locations in the cluster
+         */
+        public Location getLocation() {
+            return mLocation;
+        }
+    }
+
+    /**
+     * Creates a location clusterer
+     * @param cellSizePx width of a grid cell in screen pixels, locations closer than this on
+     *   screen are likely to be clustered
+     */
+    public LocationClusterer(int cellSizePx) {
+
+        if (cellSizePx < 1) {
+            throw new IllegalArgumentException("Cell size must be at least 1 pixel");
+        }
+        mCellSizePx = cellSizePx;
+        clear();
+    }
+
+    /**
+     * Adds a location, unless a location at the same coordinates was added already
+     * @param location location to add
+     * @return true if the location was added
+     */
+    public synchronized boolean add(Location location) {
+
+        if (!addCoordinateKey(toCoordinateKey(location.getLatitude(), location.getLongitude()))) {
+            return false;
+        }
+
+        if (mLocationCount == mLocations.length) {
+            Location[] locations = new Location[mLocations.length * 2];
+            System.arraycopy(mLocations, 0, locations, 0, mLocationCount);
+            mLocations = locations;
+        }
+        mLocations[mLocationCount++] = location;
+
+        for (int i = 0; i < mClustersByZoom.length; i++) {
+            mClustersByZoom[i] = null;
+        }
+        return true;
+    }
+
+    /**
+     * @return number of distinct coordinates added
+     */
+    public synchronized int size() {
+        return mLocationCount;
+    }
+
+    /**
+     * Removes every location
+     */
+    public synchronized void clear() {
+        mLocations = new Location[64];
+        mLocationCount = 0;
+        mCoordinateKeys = new long[128];
+
+        for (int i = 0; i < mCoordinateKeys.length; i++) {
+            mCoordinateKeys[i] = EMPTY_KEY;
+        }
+
+        for (int i = 0; i < mClustersByZoom.length; i++) {
+            mClustersByZoom[i] = null;
+        }
+    }
+
+    /**
+     * Returns the clusters at a zoom level that fall inside the viewport
+     * @param zoom map zoom level
+     * @param south southern edge of the viewport
+     * @param west western edge of the viewport
+     * @param north northern edge of the viewport
+     * @param east eastern edge of the viewport, smaller than west if the viewport crosses the
+     *   antimeridian
+     * @return visible clusters
+     */
+    public List<Cluster> getClusters(int zoom, double south, double west, double north,
+                                     double east) {
+        List<Cluster> clusters = getClusters(Math.max(0, Math.min(MAX_ZOOM, zoom)));
+        List<Cluster> visible = new ArrayList<>();
+
+        for (int i = 0; i < clusters.size(); i++) {
+            Cluster cluster = clusters.get(i);
+            double longitude = cluster.getLongitude();
+            boolean inLongitude = west <= east ?
+                    longitude >= west && longitude <= east :
+                    longitude >= west || longitude <= east;
+
+            if (inLongitude && cluster.getLatitude() >= south && cluster.getLatitude() <= north) {
+                visible.add(cluster);
+            }
+        }
+        return visible;
+    }
+
+    /**
+     * Returns every cluster at a zoom level, computing them if needed
+     */
+    private synchronized List<Cluster> getClusters(int zoom) {
+
+        if (mClustersByZoom[zoom] != null) {
+            return mClustersByZoom[zoom];
+        }
+        double worldSize = TILE_SIZE * (1L << zoom);
+        long cellsPerAxis = (long) Math.ceil(worldSize / mCellSizePx);
+        Map<Long, int[]> cells = new HashMap<>();
+        List<int[]> cellList = new ArrayList<>();
+        int[] next = new int[mLocationCount];
+
+        // group the locations by cell as linked lists threaded through next[]
+        for (int i = 0; i < mLocationCount; i++) {
+            Location location = mLocations[i];
+            long x = (long) (toWorldX(location.getLongitude()) * worldSize) / mCellSizePx;
+            long y = (long) (toWorldY(location.getLatitude()) * worldSize) / mCellSizePx;
+            Long cellKey = Math.min(x, cellsPerAxis - 1) * cellsPerAxis +
+                    Math.min(y, cellsPerAxis - 1);
+            int[] cell = cells.get(cellKey);
+
+            if (cell == null) {
+                // head index, member count
+                cell = new int[] {i, 1};
+                cells.put(cellKey, cell);
+                cellList.add(cell);
+                next[i] = -1;
+            } else {
+                next[i] = cell[0];
+                cell[0] = i;
+                cell[1]++;
+            }
+        }
+        List<Cluster> clusters = new ArrayList<>(cellList.size());
+
+        for (int i = 0; i < cellList.size(); i++) {
+            int[] cell = cellList.get(i);
+            double latitude = 0;
+            double longitude = 0;
+
+            for (int member = cell[0]; member != -1; member = next[member]) {
+                latitude += mLocations[member].getLatitude();
+                longitude += mLocations[member].getLongitude();
+            }
+            clusters.add(new Cluster(latitude / cell[1], longitude / cell[1], cell[1],
+                    mLocations[cell[0]]));
+        }
+        mClustersByZoom[zoom] = clusters;
+        return clusters;
+    }
+
+    /**
+     * @return longitude as a fraction of the world width, 0 at -180
+     */
+    private static double toWorldX(double longitude) {
+        return Math.min(1, Math.max(0, (longitude + 180) / 360));
+    }
+
+    /**
+     * @return latitude as a fraction of the Web Mercator world height, 0 at the top
+     */
+    private static double toWorldY(double latitude) {
+        double clamped = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude));
+        double sin = Math.sin(Math.toRadians(clamped));
+        double y = 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+        return Math.min(1, Math.max(0, y));
+    }
+
+    /**
+     * Packs coordinates, rounded to millionths of a degree, into a long
+     */
+    static long toCoordinateKey(double latitude, double longitude) {
+        long latitudeE6 = Math.round(latitude * 1e6);
+        long longitudeE6 = Math.round(longitude * 1e6);
+        return (latitudeE6 << 32) | (longitudeE6 & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Adds a key to the open addressing coordinate set
+     * @return false if the key was present already
+     */
+    private boolean addCoordinateKey(long key) {
+
+        // keep the table at most half full
+        if ((mLocationCount + 1) * 2 > mCoordinateKeys.length) {
+            long[] keys = mCoordinateKeys;
+            mCoordinateKeys = new long[keys.length * 2];
+
+            for (int i = 0; i < mCoordinateKeys.length; i++) {
+                mCoordinateKeys[i] = EMPTY_KEY;
+            }
+
+            for (int i = 0; i < keys.length; i++) {
+
+                if (keys[i] != EMPTY_KEY) {
+                    mCoordinateKeys[findSlot(mCoordinateKeys, keys[i])] = keys[i];
+                }
+            }
+        }
+        int slot = findSlot(mCoordinateKeys, key);
+
+        if (mCoordinateKeys[slot] == key) {
+            return false;
+        }
+        mCoordinateKeys[slot] = key;
+        return true;
+    }
+
+    private static int findSlot(long[] keys, long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        int mask = keys.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+
+        while (keys[slot] != EMPTY_KEY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,476 @@
+package com.evanhalley.whereip;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streams an IP Info DB JSON response straight into a {@link Location}
+ * Only the fields the location needs are decoded, everything else is skipped without building
+ *   strings or a JSON tree, and parsing stops as soon as a status code other than OK is read.
+ *   Buffers are reused between responses
+ * Not thread safe, use one parser per thread
+ */
+public class LocationJsonParser {
+
+    private static final int FIELD_UNKNOWN = -1;
+    private static final int FIELD_STATUS_CODE = 0;
+    private static final int FIELD_COUNTRY_CODE = 1;
+    private static final int FIELD_COUNTRY_NAME = 2;
+    private static final int FIELD_CITY_NAME = 3;
+    private static final int FIELD_IP_ADDRESS = 4;
+    private static final int FIELD_LATITUDE = 5;
+    private static final int FIELD_LONGITUDE = 6;
+    private static final int FIELD_TIME_ZONE = 7;
+
+    private static final String[] FIELD_NAMES = {"statusCode", "countryCode", "countryName",
+            "cityName", "ipAddress", "latitude", "longitude", "timeZone"};
+
+    // powers of ten that are exactly representable as doubles
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8,
+            1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final byte[] mBuffer = new byte[2048];
+    private char[] mChars = new char[128];
+
+    private InputStream mIn;
+    private int mPosition;
+    private int mLimit;
+    private int mCharCount;
+
+    private boolean mStatusOk;
+    private boolean mCountryCodeMissing;
+    private boolean mCountryNameMissing;
+    private boolean mTimeZoneMissing;
+    private boolean mLatitudeZero;
+    private String mCountryName;
+    private String mCityName;
+    private String mIpAddress;
+    private double mLatitude;
+    private double mLongitude;
+    private boolean mHasLatitude;
+    private boolean mHasLongitude;
+
+    /**
+     * Parses a response, the stream is read up to the end of the JSON object
+     * @param in response body
+     * @param ipAddress IP address that was looked up, used in error messages
+     * @return location, or null if the status code is missing or not OK
+     * @throws InvalidLocationException if IP Info DB has no location for the IP address
+     * @throws IOException if the response is not a JSON object with valid location fields
+     */
+    public Location parse(InputStream in, String ipAddress) throws IOException {
+        reset(in);
+
+        try {
+            skipWhitespace();
+            expect('{');
+            skipWhitespace();
+
+            if (peek() == '}') {
+                read();
+                return null;
+            }
+
+            while (true) {
+                skipWhitespace();
+                expect('"');
+                readString();
+                int field = matchField();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                int c = peek();
+
+                if (c == '{' || c == '[') {
+                    skipComposite();
+                } else {
+
+                    if (c == '"') {
+                        read();
+                        readString();
+                    } else {
+                        readLiteral();
+                    }
+
+                    if (!readField(field)) {
+                        return null;
+                    }
+                }
+                skipWhitespace();
+                c = read();
+
+                if (c == '}') {
+                    break;
+                } else if (c != ',') {
+                    throw new IOException("Malformed location JSON, expected , or }");
+                }
+            }
+
+            if (mCountryCodeMissing && mCountryNameMissing && mTimeZoneMissing && mLatitudeZero) {
+                throw new InvalidLocationException(ipAddress);
+            }
+
+            if (!mStatusOk) {
+                return null;
+            }
+
+            if (!mHasLatitude || !mHasLongitude) {
+                throw new IOException("Malformed location JSON, missing coordinates");
+            }
+
+            try {
+                return new Location.Builder()
+                        .setCity(mCityName)
+                        .setCountryName(mCountryName)
+                        .setIpAddress(mIpAddress)
+                        .setLatitude(mLatitude)
+                        .setLongitude(mLongitude)
+                        .build();
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Malformed location JSON, " + e.getMessage());
+            }
+        } finally {
+            mIn = null;
+            mCountryName = null;
+            mCityName = null;
+            mIpAddress = null;
+        }
+    }
+
+    private void reset(InputStream in) {
+        mIn = in;
+        mPosition = 0;
+        mLimit = 0;
+        mStatusOk = false;
+        mCountryCodeMissing = false;
+        mCountryNameMissing = false;
+        mTimeZoneMissing = false;
+        mLatitudeZero = false;
+        mHasLatitude = false;
+        mHasLongitude = false;
+    }
+
+    /**
+     * Stores the value in the character buffer in the field it belongs to
+     * @param field field index
+     * @return false if parsing should stop because the status code is not OK
+     * @throws IOException
+     */
+    private boolean readField(int field) throws IOException {
+
+        switch (field) {
+            case FIELD_STATUS_CODE:
+                mStatusOk = charsEqual("OK");
+                return mStatusOk;
+            case FIELD_COUNTRY_CODE:
+                mCountryCodeMissing = charsEqual("-");
+                break;
+            case FIELD_COUNTRY_NAME:
+                mCountryNameMissing = charsEqual("-");
+                mCountryName = new String(mChars, 0, mCharCount);
+                break;
+            case FIELD_CITY_NAME:
+                mCityName = new String(mChars, 0, mCharCount);
+                break;
+            case FIELD_IP_ADDRESS:
+                mIpAddress = new String(mChars, 0, mCharCount);
+                break;
+            case FIELD_LATITUDE:
+                mLatitudeZero = charsEqual("0");
+                mLatitude = parseDouble();
+                mHasLatitude = true;
+                break;
+            case FIELD_LONGITUDE:
+                mLongitude = parseDouble();
+                mHasLongitude = true;
+                break;
+            case FIELD_TIME_ZONE:
+                mTimeZoneMissing = charsEqual("-");
+                break;
+        }
+        return true;
+    }
+
+    private int matchField() {
+
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+
+            if (charsEqual(FIELD_NAMES[i])) {
+                return i;
+            }
+        }
+        return FIELD_UNKNOWN;
+    }
+
+    private boolean charsEqual(String value) {
+
+        if (value.length() != mCharCount) {
+            return false;
+        }
+
+        for (int i = 0; i < mCharCount; i++) {
+
+            if (mChars[i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the decimal number in the character buffer
+     * Plain decimals with up to 15 significant digits are computed exactly from the digits,
+     *   anything else falls back to {@link Double#parseDouble(String)}
+     * @return number
+     * @throws IOException if the buffer does not hold a number
+     */
+    private double parseDouble() throws IOException {
+        int i = 0;
+        boolean negative = false;
+
+        if (mCharCount > 0 && (mChars[0] == '-' || mChars[0] == '+')) {
+            negative = mChars[0] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean fraction = false;
+        boolean simple = i < mCharCount;
+
+        for (; i < mCharCount && simple; i++) {
+            char c = mChars[i];
+
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+
+                if (mantissa != 0 && ++digits > 15) {
+                    simple = false;
+                }
+
+                if (fraction) {
+                    fractionDigits++;
+                }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                simple = false;
+            }
+        }
+
+        if (simple && fractionDigits < POWERS_OF_TEN.length) {
+            double value = mantissa / POWERS_OF_TEN[fractionDigits];
+            return negative ? -value : value;
+        }
+
+        try {
+            return Double.parseDouble(new String(mChars, 0, mCharCount));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed location JSON, invalid number");
+        }
+    }
+
+    /**
+     * Reads a string, the opening quote already consumed, into the character buffer
+     * @throws IOException
+     */
+    private void readString() throws IOException {
+        mCharCount = 0;
+
+        while (true) {
+            int b = read();
+
+            if (b == '"') {
+                return;
+            } else if (b == '\\') {
+                readEscape();
+            } else if (b < 0x80) {
+                appendChar((char) b);
+            } else {
+                readUtf8(b);
+            }
+        }
+    }
+
+    private void readEscape() throws IOException {
+        int c = read();
+
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                appendChar((char) c);
+                break;
+            case 'b':
+                appendChar('\b');
+                break;
+            case 'f':
+                appendChar('\f');
+                break;
+            case 'n':
+                appendChar('\n');
+                break;
+            case 'r':
+                appendChar('\r');
+                break;
+            case 't':
+                appendChar('\t');
+                break;
+            case 'u':
+                int value = 0;
+
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+
+                    if (digit < 0) {
+                        throw new IOException("Malformed location JSON, invalid unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                appendChar((char) value);
+                break;
+            default:
+                throw new IOException("Malformed location JSON, invalid escape");
+        }
+    }
+
+    private void readUtf8(int lead) throws IOException {
+        int count;
+        int codePoint;
+
+        if ((lead & 0xE0) == 0xC0) {
+            count = 1;
+            codePoint = lead & 0x1F;
+        } else if ((lead & 0xF0) == 0xE0) {
+            count = 2;
+            codePoint = lead & 0x0F;
+        } else if ((lead & 0xF8) == 0xF0) {
+            count = 3;
+            codePoint = lead & 0x07;
+        } else {
+            throw new IOException("Malformed location JSON, invalid UTF-8");
+        }
+
+        for (int i = 0; i < count; i++) {
+            int b = read();
+
+            if ((b & 0xC0) != 0x80) {
+                throw new IOException("Malformed location JSON, invalid UTF-8");
+            }
+            codePoint = (codePoint << 6) | (b & 0x3F);
+        }
+
+        if (codePoint >= 0x10000) {
+            appendChar(Character.highSurrogate(codePoint));
+            appendChar(Character.lowSurrogate(codePoint));
+        } else {
+            appendChar((char) codePoint);
+        }
+    }
+
+    /**
+     * Reads a number, true, false or null into the character buffer
+     * @throws IOException
+     */
+    private void readLiteral() throws IOException {
+        mCharCount = 0;
+
+        while (true) {
+            int c = peek();
+
+            if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\t' || c == '\n' ||
+                    c == '\r') {
+                break;
+            }
+            appendChar((char) read());
+        }
+
+        if (mCharCount == 0) {
+            throw new IOException("Malformed location JSON, missing value");
+        }
+    }
+
+    /**
+     * Skips a nested object or array
+     * @throws IOException
+     */
+    private void skipComposite() throws IOException {
+        int depth = 0;
+
+        do {
+            int c = read();
+
+            if (c == '"') {
+                skipString();
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            }
+        } while (depth > 0);
+    }
+
+    private void skipString() throws IOException {
+
+        while (true) {
+            int c = read();
+
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                read();
+            }
+        }
+    }
+
+    private void appendChar(char c) {
+
+        if (mCharCount == mChars.length) {
+            char[] chars = new char[mChars.length * 2];
+            System.arraycopy(mChars, 0, chars, 0, mCharCount);
+            mChars = chars;
+        }
+        mChars[mCharCount++] = c;
+    }
+
+    private void skipWhitespace() throws IOException {
+        int c = peek();
+
+        while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+            read();
+            c = peek();
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+
+        if (read() != expected) {
+            throw new IOException("Malformed location JSON, expected " + expected);
+        }
+    }
+
+    private int peek() throws IOException {
+
+        if (mPosition == mLimit && !fill()) {
+            throw new IOException("Malformed location JSON, unexpected end of input");
+        }
+        return mBuffer[mPosition] & 0xFF;
+    }
+
+    private int read() throws IOException {
+        int c = peek();
+        mPosition++;
+        return c;
+    }
+
+    private boolean fill() throws IOException {
+        mPosition = 0;
+        mLimit = mIn.read(mBuffer, 0, mBuffer.length);
+
+        if (mLimit <= 0) {
+            mLimit = 0;
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,551 @@
+package com.evanhalley.whereip;
+
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Performs location lookups against IP Info DB over a single, shared HTTP client
+ * The client is configured once with a connection pool so consecutive lookups reuse warm
+ *   keep-alive connections to the IP Info DB host, requests can optionally be capped per host.
+ *   Concurrent lookups of the same IP address share one request. Every lookup is recorded in the
+ *   client's {@link LookupMetrics}
+ * Thread safe
+ */
+public class LookupClient {
+
+    public static final String IP_INFO_DB_URL =
+            "http://api.ipinfodb.com/v3/ip-city/?key=|KEY|&ip=|IP|&format=json";
+
+    private static final long CONNECT_TIMEOUT_MS = 10000;
+    private static final long READ_TIMEOUT_MS = 15000;
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_DURATION_MS = 5 * 60 * 1000;
+    private static final int CACHE_MAX_ENTRIES = 10000;
+    private static final long CACHE_TIME_TO_LIVE_MS = 24 * 60 * 60 * 1000;
+
+    private static LookupClient sInstance;
+
+    private final ThreadLocal<LocationJsonParser> mParser = new ThreadLocal<LocationJsonParser>() {
+        @Override
+        protected LocationJsonParser initialValue() {
+            return new LocationJsonParser();
+        }
+    };
+
+    private final OkHttpClient mHttpClient;
+    private final String mUrlTemplate;
+    private final Map<String, RateLimiter> mRateLimiters = new HashMap<>();
+    private final LookupMetrics mMetrics = new LookupMetrics();
+    private final SingleFlight<Location> mSingleFlight = new SingleFlight<>();
+    private final Set<Exchange> mExchanges =
+            Collections.newSetFromMap(new ConcurrentHashMap<Exchange, Boolean>());
+    private double mMaxRequestsPerSecond;
+    private int mBurst = 1;
+    private volatile LocationCache mCache;
+    private volatile PersistentLocationCache mPersistentCache;
+
+    /**
+     * Returns the lookup client shared by the application
+     * @return lookup client
+     */
+    public static synchronized LookupClient getInstance() {
+
+        if (sInstance == null) {
+            sInstance = new LookupClient(IP_INFO_DB_URL);
+            sInstance.setCache(new LocationCache(CACHE_MAX_ENTRIES, CACHE_TIME_TO_LIVE_MS));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Creates a lookup client
+     * @param urlTemplate lookup URL containing |KEY| and |IP| place holders
+     */
+    public LookupClient(String urlTemplate) {
+
+        if (urlTemplate == null) {
+            throw new IllegalArgumentException("URL template is null");
+        }
+        mUrlTemplate = urlTemplate;
+        mHttpClient = new OkHttpClient();
+        mHttpClient.setConnectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        mHttpClient.setReadTimeout(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        mHttpClient.setConnectionPool(
+                new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION_MS));
+    }
+
+    /**
+     * Sets the cache consulted before going to the network
+     * @param cache location cache, null to disable caching
+     */
+    public void setCache(LocationCache cache) {
+        mCache = cache;
+    }
+
+    /**
+     * @return location cache, null if caching is disabled
+     */
+    public LocationCache getCache() {
+        return mCache;
+    }
+
+    /**
+     * Sets the persistent cache consulted after the in memory cache, before going to the network
+     * @param persistentCache persistent location cache, null to disable
+     */
+    public void setPersistentCache(PersistentLocationCache persistentCache) {
+        mPersistentCache = persistentCache;
+    }
+
+    /**
+     * Cancels the requests made with the tag, they fail with an IOException
+     * @param tag tag passed to {@link #getLocationByIp(String, String, Object)}
+     */
+    public void cancel(Object tag) {
+
+        if (tag == null) {
+            throw new IllegalArgumentException("Tag is null");
+        }
+        for (Exchange exchange : mExchanges) {
+
+            if (tag.equals(exchange.mTag)) {
+                exchange.cancel();
+            }
+        }
+    }
+
+    /**
+     * @return metrics of the lookups performed by this client
+     */
+    public LookupMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Caps the number of requests sent to any single host
+     * @param maxRequestsPerSecond maximum requests per second per host, 0 for no cap
+     */
+    public void setMaxRequestsPerSecond(double maxRequestsPerSecond) {
+        setMaxRequestsPerSecond(maxRequestsPerSecond, 1);
+    }
+
+    /**
+     * Caps the number of requests sent to any single host, allowing bursts after idle periods
+     * @param maxRequestsPerSecond maximum requests per second per host on average, 0 for no cap
+     * @param burst maximum number of requests sent at once to a host that has been idle
+     */
+    public synchronized void setMaxRequestsPerSecond(double maxRequestsPerSecond, int burst) {
+
+        if (maxRequestsPerSecond < 0) {
+            throw new IllegalArgumentException("Max requests per second cannot be negative");
+        }
+
+        if (burst < 1) {
+            throw new IllegalArgumentException("Burst must be at least 1");
+        }
+        mMaxRequestsPerSecond = maxRequestsPerSecond;
+        mBurst = burst;
+        mRateLimiters.clear();
+    }
+
+    /**
+     * Returns the rate limiter for a host
+     * @param host host name
+     * @return rate limiter, or null if requests are not capped
+     */
+    private synchronized RateLimiter getRateLimiter(String host) {
+
+        if (mMaxRequestsPerSecond == 0) {
+            return null;
+        }
+        RateLimiter rateLimiter = mRateLimiters.get(host);
+
+        if (rateLimiter == null) {
+            rateLimiter = new RateLimiter(mMaxRequestsPerSecond, mBurst);
+            mRateLimiters.put(host, rateLimiter);
+        }
+        return rateLimiter;
+    }
+
+    /**
+     * @return the underlying HTTP client
+     */
+    OkHttpClient getHttpClient() {
+        return mHttpClient;
+    }
+
+    /**
+     * Returns the location of the IP address
+     * @param ipAddress IP address to find a location for
+     * @param apiKey API key to IP Info DB
+     * @return location, or null if IP Info DB did not return an OK status
+     * @throws InvalidLocationException if IP Info DB has no location for the IP address
+     * @throws Exception
+     */
+    public Location getLocationByIp(String ipAddress, String apiKey) throws Exception {
+        return getLocationByIp(ipAddress, apiKey, null);
+    }
+
+    /**
+     * Returns the location of the IP address, the request can be cancelled from another thread
+     * A lookup that joined another caller's request for the same IP address is not cancelled by
+     *   it's tag, only by interrupting it's thread
+     * IPv6 addresses are sent in their canonical form and are not cached or shared, the caches
+     *   are keyed by IPv4 number, IPv4 mapped addresses (::ffff:192.0.2.1) are looked up as IPv4
+     * @param ipAddress IP address to find a location for
+     * @param apiKey API key to IP Info DB
+     * @param tag identifies the request to {@link #cancel(Object)}, may be null
+     * @return location, or null if IP Info DB did not return an OK status
+     * @throws InvalidLocationException if IP Info DB has no location for the IP address
+     * @throws Exception
+     */
+    public Location getLocationByIp(String ipAddress, String apiKey, Object tag)
+            throws Exception {
+        long ipNumber = ipAddress == null ? -1 : LookupHelper.parseIpAddress(ipAddress, 0,
+                ipAddress.length());
+        Ip6Address ip6Address = null;
+
+        if (ipNumber < 0 && ipAddress != null) {
+            ip6Address = Ip6Address.parse(ipAddress, 0, ipAddress.length());
+
+            if (ip6Address != null && ip6Address.getHigh() == 0
+                    && (ip6Address.getLow() >>> 32) == 0xFFFF) {
+                ipNumber = ip6Address.getLow() & 0xFFFFFFFFL;
+                ipAddress = LookupHelper.ipNumberToString(ipNumber);
+                ip6Address = null;
+            }
+        }
+
+        if (ipNumber < 0 && ip6Address == null) {
+            throw new IllegalArgumentException("Missing valid IP address");
+        }
+
+        if (apiKey == null || apiKey.trim().length() == 0) {
+            throw new IllegalArgumentException("Missing valid IP Info DB API key");
+        }
+        long startTime = mMetrics.lookupStarted();
+        LookupMetrics.Outcome outcome = LookupMetrics.Outcome.FAILED;
+
+        try {
+            Location location = ip6Address != null
+                    ? fetchLocation(ip6Address.toString(), apiKey, tag)
+                    : lookupLocation(ipNumber, ipAddress, apiKey, tag);
+            outcome = location != null ? LookupMetrics.Outcome.LOCATED
+                    : LookupMetrics.Outcome.BAD_STATUS;
+            return location;
+        } catch (InvalidLocationException e) {
+            outcome = LookupMetrics.Outcome.NOT_FOUND;
+            throw e;
+        } catch (LookupException e) {
+            outcome = e.getOutcome();
+            throw e;
+        } catch (IOException e) {
+            outcome = LookupMetrics.Outcome.NETWORK_ERROR;
+            throw e;
+        } finally {
+            mMetrics.lookupFinished(startTime, outcome);
+        }
+    }
+
+    /**
+     * Returns the location of the IP address from the caches, or IP Info DB on a cache miss
+     * @param ipNumber number representation of the IP address
+     * @param ipAddress IP address to find a location for
+     * @param apiKey API key to IP Info DB
+     * @param tag identifies the request, may be null
+     * @return location, or null if IP Info DB did not return an OK status
+     * @throws Exception
+     */
+    private Location lookupLocation(long ipNumber, String ipAddress, String apiKey, Object tag)
+            throws Exception {
+
+        // reserved addresses never have a location, no need to ask
+        if (ReservedIpRanges.contains(ipNumber)) {
+            throw new InvalidLocationException(ipAddress);
+        }
+        LocationCache cache = mCache;
+        PersistentLocationCache persistentCache = mPersistentCache;
+        LocationCache.Entry entry = cache != null ? cache.get(ipNumber) : null;
+
+        if (entry == null && persistentCache != null) {
+            entry = persistentCache.get(ipNumber);
+
+            if (entry != null && cache != null) {
+                cache.put(ipNumber, entry);
+            }
+        }
+
+        if (entry != null) {
+            mMetrics.recordCacheHit();
+
+            if (entry.isInvalid()) {
+                throw new InvalidLocationException(ipAddress);
+            }
+            return entry.getLocation();
+        }
+
+        while (true) {
+            LocationLoader loader = new LocationLoader(ipNumber, ipAddress, apiKey, tag);
+
+            try {
+                return mSingleFlight.get(ipNumber, loader);
+            } catch (LookupException e) {
+
+                // the shared request was cancelled by it's own caller, not by this one
+                if (loader.mLoaded || e.getOutcome() != LookupMetrics.Outcome.CANCELLED) {
+                    throw e;
+                }
+            } finally {
+
+                if (!loader.mLoaded) {
+                    mMetrics.recordSharedLookup();
+                }
+            }
+        }
+    }
+
+    /**
+     * Retrieves the location of the IP address from IP Info DB and caches the result
+     * @param ipNumber number representation of the IP address
+     * @param ipAddress IP address to find a location for
+     * @param apiKey API key to IP Info DB
+     * @param tag identifies the request, may be null
+     * @return location, or null if IP Info DB did not return an OK status
+     * @throws Exception
+     */
+    private Location fetchAndCache(long ipNumber, String ipAddress, String apiKey, Object tag)
+            throws Exception {
+        LocationCache cache = mCache;
+        PersistentLocationCache persistentCache = mPersistentCache;
+
+        try {
+            Location location = fetchLocation(ipAddress, apiKey, tag);
+
+            if (location != null) {
+
+                if (cache != null) {
+                    cache.put(ipNumber, location);
+                }
+
+                if (persistentCache != null) {
+                    persistentCache.put(ipNumber, location);
+                }
+            }
+            return location;
+        } catch (InvalidLocationException e) {
+
+            if (cache != null) {
+                cache.putInvalid(ipNumber);
+            }
+
+            if (persistentCache != null) {
+                persistentCache.putInvalid(ipNumber);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Retrieves the location of the IP address from IP Info DB
+     * @param ipAddress IP address to find a location for
+     * @param apiKey API key to IP Info DB
+     * @param tag identifies the request, may be null
+     * @return location, or null if IP Info DB did not return an OK status
+     * @throws Exception
+     */
+    private Location fetchLocation(String ipAddress, String apiKey, Object tag)
+            throws Exception {
+        String url = mUrlTemplate.replace("|IP|", ipAddress).replace("|KEY|", apiKey);
+        Request request = new Request.Builder()
+                .url(url)
+                .build();
+        Exchange exchange = new Exchange(tag);
+
+        if (tag != null) {
+            mExchanges.add(exchange);
+        }
+
+        try {
+            RateLimiter rateLimiter = getRateLimiter(request.httpUrl().host());
+
+            if (rateLimiter != null) {
+                rateLimiter.acquire();
+            }
+            exchange.mCall = mHttpClient.newCall(request);
+            return fetchLocation(exchange, ipAddress);
+        } catch (IOException e) {
+
+            if (exchange.mCancelled) {
+                throw new LookupException(LookupMetrics.Outcome.CANCELLED, String.format(
+                        "Lookup of IP address %s cancelled", ipAddress), e, false);
+            }
+            throw e;
+        } finally {
+
+            if (tag != null) {
+                mExchanges.remove(exchange);
+            }
+        }
+    }
+
+    /**
+     * Executes a lookup request
+     * @param exchange lookup request
+     * @param ipAddress IP address to find a location for
+     * @return location, or null if IP Info DB did not return an OK status
+     * @throws IOException
+     */
+    private Location fetchLocation(Exchange exchange, String ipAddress) throws IOException {
+
+        if (exchange.mCancelled) {
+            throw new IOException("Cancelled");
+        }
+        long startTime = System.nanoTime();
+        Response response = exchange.mCall.execute();
+        long headersTime = System.nanoTime();
+        mMetrics.recordPhase(LookupMetrics.Phase.CONNECT, headersTime - startTime);
+        ResponseBody body = response.body();
+
+        // the body must always be consumed / closed so the connection returns to the pool
+        try {
+
+            if (!response.isSuccessful()) {
+                // server errors and throttling pass, client errors will not
+                int code = response.code();
+                throw new LookupException(LookupMetrics.Outcome.BAD_STATUS, String.format(
+                        "Unexpected response code %d for IP address %s", code, ipAddress), null,
+                        code >= 500 || code == 429);
+            }
+            // the body is parsed as it streams in, time spent reading is transfer time
+            TimedInputStream in = new TimedInputStream(body.byteStream());
+
+            try {
+                return mParser.get().parse(in, ipAddress);
+            } catch (IOException e) {
+
+                if (in.mReadFailed) {
+                    throw e;
+                }
+                throw new LookupException(LookupMetrics.Outcome.PARSE_ERROR, e.getMessage(), e,
+                        false);
+            } finally {
+
+                if (!in.mReadFailed) {
+                    mMetrics.recordPhase(LookupMetrics.Phase.TRANSFER, in.mReadNanos);
+                    mMetrics.recordPhase(LookupMetrics.Phase.PARSE,
+                            System.nanoTime() - headersTime - in.mReadNanos);
+                }
+            }
+        } finally {
+            body.close();
+        }
+    }
+
+    /**
+     * Fetches a location for the single flight, noting whether this caller's load ran
+     * Not thread safe
+     */
+    private class LocationLoader implements Callable<Location> {
+
+        private final long mIpNumber;
+        private final String mIpAddress;
+        private final String mApiKey;
+        private final Object mTag;
+        private boolean mLoaded;
+
+        LocationLoader(long ipNumber, String ipAddress, String apiKey, Object tag) {
+            mIpNumber = ipNumber;
+            mIpAddress = ipAddress;
+            mApiKey = apiKey;
+            mTag = tag;
+        }
+
+        @Override
+        public Location call() throws Exception {
+            mLoaded = true;
+            return fetchAndCache(mIpNumber, mIpAddress, mApiKey, mTag);
+        }
+    }
+
+    /**
+     * A tagged request in flight
+     * Registered before the request waits on the rate limiter, so a cancel that arrives before
+     *   the call exists is not lost
+     */
+    private static class Exchange {
+
+        private final Object mTag;
+        private volatile Call mCall;
+        private volatile boolean mCancelled;
+
+        Exchange(Object tag) {
+            mTag = tag;
+        }
+
+        void cancel() {
+            mCancelled = true;
+            Call call = mCall;
+
+            if (call != null) {
+                call.cancel();
+            }
+        }
+    }
+
+    /**
+     * Times reads from the underlying stream and notes whether one failed
+     * Not thread safe
+     */
+    private static class TimedInputStream extends FilterInputStream {
+
+        private long mReadNanos;
+        private boolean mReadFailed;
+
+        TimedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long startTime = System.nanoTime();
+
+            try {
+                return super.read();
+            } catch (IOException e) {
+                mReadFailed = true;
+                throw e;
+            } finally {
+                mReadNanos += System.nanoTime() - startTime;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long startTime = System.nanoTime();
+
+            try {
+                return super.read(buffer, offset, count);
+            } catch (IOException e) {
+                mReadFailed = true;
+                throw e;
+            } finally {
+                mReadNanos += System.nanoTime() - startTime;
+            }
+        }
+    }
+}
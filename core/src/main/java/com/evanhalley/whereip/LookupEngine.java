@@ -0,0 +1,211 @@
+package com.evanhalley.whereip;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Resolves the IP addresses in a range with a bounded number of lookups in flight
+ * Results are handed to the listener as they complete, on the worker thread that resolved them,
+ *   so they may arrive out of order
+ * Thread safe, one scan runs at a time per engine
+ */
+public class LookupEngine {
+
+    /**
+     * Resolves a single IP address to a location
+     */
+    public interface Resolver {
+
+        /**
+         * @param ipAddress IP address to resolve
+         * @return location, or null if the IP address could not be located
+         * @throws Exception
+         */
+        Location resolve(String ipAddress) throws Exception;
+    }
+
+    /**
+     * Receives lookup results, called from worker threads
+     */
+    public interface Listener {
+
+        void onLocationResolved(String ipAddress, Location location);
+
+        void onLookupFailed(String ipAddress, Exception e);
+    }
+
+    private final Resolver mResolver;
+    private final int mConcurrency;
+    private final ExecutorService mExecutor;
+
+    /**
+     * Creates a lookup engine
+     * @param resolver resolves individual IP addresses
+     * @param concurrency maximum number of lookups in flight
+     */
+    public LookupEngine(Resolver resolver, int concurrency) {
+
+        if (resolver == null) {
+            throw new IllegalArgumentException("Resolver is null");
+        }
+
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+        mResolver = resolver;
+        mConcurrency = concurrency;
+        mExecutor = Executors.newFixedThreadPool(concurrency);
+    }
+
+    /**
+     * @return maximum number of lookups in flight
+     */
+    public int getConcurrency() {
+        return mConcurrency;
+    }
+
+    /**
+     * Resolves every IP address in the range, blocking until all lookups have completed
+     * @param ipRange IP addresses to resolve
+     * @param listener receives the result of each lookup
+     * @throws InterruptedException if the scan was interrupted, lookups already in flight
+     *   still report to the listener
+     */
+    public void lookup(IpRange ipRange, Listener listener) throws InterruptedException {
+
+        if (ipRange == null) {
+            throw new IllegalArgumentException("IP range is null");
+        }
+        final IpRange.Cursor cursor = ipRange.cursor();
+        lookup(new Iterator<String>() {
+
+            private boolean mHasNext = cursor.moveToNext();
+
+            @Override
+            public boolean hasNext() {
+                return mHasNext;
+            }
+
+            @Override
+            public String next() {
+
+                if (!mHasNext) {
+                    throw new NoSuchElementException();
+                }
+                String ipAddress = cursor.getIpAddress();
+                mHasNext = cursor.moveToNext();
+                return ipAddress;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        }, listener);
+    }
+
+    /**
+     * Resolves every IPv6 address in the range, blocking until all lookups have completed
+     * Addresses are produced one at a time as lookup slots free up, the range is never
+     *   materialized
+     * @param ip6Range IPv6 addresses to resolve
+     * @param listener receives the result of each lookup
+     * @throws InterruptedException if the scan was interrupted, lookups already in flight
+     *   still report to the listener
+     */
+    public void lookup(Ip6Range ip6Range, Listener listener) throws InterruptedException {
+
+        if (ip6Range == null) {
+            throw new IllegalArgumentException("IP range is null");
+        }
+        final Ip6Range.Cursor cursor = ip6Range.cursor();
+        lookup(new Iterator<String>() {
+
+            private boolean mHasNext = cursor.moveToNext();
+
+            @Override
+            public boolean hasNext() {
+                return mHasNext;
+            }
+
+            @Override
+            public String next() {
+
+                if (!mHasNext) {
+                    throw new NoSuchElementException();
+                }
+                String ipAddress = cursor.getIpAddress();
+                mHasNext = cursor.moveToNext();
+                return ipAddress;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        }, listener);
+    }
+
+    /**
+     * Resolves every IP address the iterator returns, blocking until all lookups have completed
+     * The iterator is advanced on the calling thread only when a lookup slot is free, so it can
+     *   lazily produce addresses from a source of any size
+     * @param ipAddresses IP addresses to resolve
+     * @param listener receives the result of each lookup
+     * @throws InterruptedException if the scan was interrupted, lookups already in flight
+     *   still report to the listener
+     */
+    public synchronized void lookup(Iterator<String> ipAddresses, final Listener listener)
+            throws InterruptedException {
+
+        if (ipAddresses == null) {
+            throw new IllegalArgumentException("IP addresses are null");
+        }
+
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener is null");
+        }
+        final Semaphore inFlight = new Semaphore(mConcurrency);
+
+        try {
+
+            while (ipAddresses.hasNext()) {
+                inFlight.acquire();
+
+                try {
+                    final String ipAddress = ipAddresses.next();
+                    mExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+
+                            try {
+                                listener.onLocationResolved(ipAddress,
+                                        mResolver.resolve(ipAddress));
+                            } catch (Exception e) {
+                                listener.onLookupFailed(ipAddress, e);
+                            } finally {
+                                inFlight.release();
+                            }
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    inFlight.release();
+                    throw e;
+                }
+            }
+        } finally {
+            // wait for the lookups still in flight before returning
+            inFlight.acquireUninterruptibly(mConcurrency);
+        }
+    }
+
+    /**
+     * Stops the worker threads, the engine cannot be used afterwards
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+}
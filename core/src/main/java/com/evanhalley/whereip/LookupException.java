@@ -0,0 +1,44 @@
+package com.evanhalley.whereip;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a lookup reached the provider but did not produce a location, the outcome says why
+ * Other IOExceptions thrown by lookups are network errors
+ */
+public class LookupException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final LookupMetrics.Outcome mOutcome;
+    private final boolean mTransient;
+
+    /**
+     * Creates a lookup exception
+     * @param outcome how the lookup ended
+     * @param message detail message
+     * @param cause cause, may be null
+     * @param isTransient true if the same lookup may succeed when retried
+     */
+    public LookupException(LookupMetrics.Outcome outcome, String message, Throwable cause,
+                           boolean isTransient) {
+        super(message, cause);
+
+        if (outcome == null) {
+            throw new IllegalArgumentException("Outcome is null");
+        }
+        mOutcome = outcome;
+        mTransient = isTransient;
+    }
+
+    public LookupMetrics.Outcome getOutcome() {
+        return mOutcome;
+    }
+
+    /**
+     * @return true if the same lookup may succeed when retried, such as after a server error
+     */
+    public boolean isTransient() {
+        return mTransient;
+    }
+}
@@ -0,0 +1,457 @@
+package com.evanhalley.whereip;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Provides convenience functions for retrieving IP addresses and their locations
+ * Created by evan on 8/15/15.
+ */
+public class LookupHelper {
+
+    // longest dotted quad IP address, 255.255.255.255
+    public static final int MAX_IP_ADDRESS_LENGTH = 15;
+
+    private static final long MAX_IP_NUMBER = 0xFFFFFFFFL;
+
+    private static final Comparator<IpRange> IP_RANGE_START_ORDER = new Comparator<IpRange>() {
+        @Override
+        public int compare(IpRange lhs, IpRange rhs) {
+            return lhs.getStart() < rhs.getStart() ? -1 :
+                    (lhs.getStart() == rhs.getStart() ? 0 : 1);
+        }
+    };
+
+    /**
+     * Validates the validity of an IP address, returns true if IP address is valid
+     * @param ipAddress IP address to validate
+     * @return true if the IP address is valid
+     */
+    public static boolean validateIpAddress(String ipAddress) {
+        return ipAddress != null && parseIpAddress(ipAddress, 0, ipAddress.length()) >= 0;
+    }
+
+    /**
+     * Returns a list of IP addresses between the start and end IP address
+     * The list is a lazy view over an {@link IpRange}, addresses are created on access
+     * @param ipAddressStart starting IP address
+     * @param ipAddressEnd ending IP address
+     * @return list of IP addresses in the range
+     */
+    public static List<String> getIpAddressesInRange(String ipAddressStart, String ipAddressEnd) {
+        return IpRange.fromAddresses(ipAddressStart, ipAddressEnd).asList();
+    }
+
+    /**
+     * Converts an ip address to it's integer equivalent
+     * @param ipAddress IP address
+     * @return number representation of the IP address
+     */
+    public static long ipStringToNumber(String ipAddress) {
+
+        if (ipAddress == null) {
+            throw new IllegalArgumentException("IP address is null");
+        }
+
+        long ipNumber = parseIpAddress(ipAddress, 0, ipAddress.length());
+
+        if (ipNumber < 0) {
+            throw new IllegalArgumentException("IP address is malformed");
+        }
+        return ipNumber;
+    }
+
+    /**
+     * Parses and validates a dotted quad IP address in a single pass without allocating
+     * @param chars characters containing the IP address
+     * @param start index of the first character of the IP address
+     * @param end index after the last character of the IP address
+     * @return number representation of the IP address, or -1 if the IP address is malformed
+     */
+    public static long parseIpAddress(CharSequence chars, int start, int end) {
+        long ipNumber = 0;
+        int octet = 0;
+        int digits = 0;
+        int octets = 0;
+
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+
+            if (c >= '0' && c <= '9') {
+                octet = octet * 10 + (c - '0');
+
+                if (++digits > 3 || octet > 255) {
+                    return -1;
+                }
+            } else if (c == '.') {
+
+                if (digits == 0 || ++octets > 3) {
+                    return -1;
+                }
+                ipNumber = (ipNumber << 8) | octet;
+                octet = 0;
+                digits = 0;
+            } else {
+                return -1;
+            }
+        }
+
+        if (digits == 0 || octets != 3) {
+            return -1;
+        }
+        return (ipNumber << 8) | octet;
+    }
+
+    /**
+     * Converts a number to a legitimate IP address
+     * @param ipNumber number representation of an IP address
+     * @return IP address
+     */
+    public static String ipNumberToString(long ipNumber) {
+        char[] buffer = new char[MAX_IP_ADDRESS_LENGTH];
+        int length = formatIpAddress(ipNumber, buffer, 0);
+        return new String(buffer, 0, length);
+    }
+
+    /**
+     * Appends the dotted quad form of an IP number to a (reusable) string builder
+     * @param ipNumber number representation of an IP address
+     * @param builder string builder to append to
+     * @return the string builder
+     */
+    public static StringBuilder appendIpAddress(long ipNumber, StringBuilder builder) {
+        checkIpNumber(ipNumber);
+
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            builder.append((int) ((ipNumber >>> shift) & 0xFF));
+
+            if (shift > 0) {
+                builder.append('.');
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * Writes the dotted quad form of an IP number into a (reusable) character buffer
+     * @param ipNumber number representation of an IP address
+     * @param buffer buffer with at least {@link #MAX_IP_ADDRESS_LENGTH} characters after offset
+     * @param offset index in the buffer to start writing at
+     * @return number of characters written
+     */
+    public static int formatIpAddress(long ipNumber, char[] buffer, int offset) {
+        checkIpNumber(ipNumber);
+        int position = offset;
+
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            int octet = (int) ((ipNumber >>> shift) & 0xFF);
+
+            if (octet >= 100) {
+                buffer[position++] = (char) ('0' + octet / 100);
+            }
+
+            if (octet >= 10) {
+                buffer[position++] = (char) ('0' + (octet / 10) % 10);
+            }
+            buffer[position++] = (char) ('0' + octet % 10);
+
+            if (shift > 0) {
+                buffer[position++] = '.';
+            }
+        }
+        return position - offset;
+    }
+
+    /**
+     * Parses a list of IP addresses, ranges and CIDR blocks into a merged, sorted list of ranges
+     * Entries are separated by commas, semicolons or whitespace and each one is an IP address
+     *   (10.0.0.1), a range (10.0.0.1-10.0.0.9) or a CIDR block (10.0.0.0/24)
+     * @param input list of entries
+     * @return merged and sorted IP ranges
+     */
+    public static List<IpRange> parseIpRanges(String input) {
+        return parseIpRanges(input, null);
+    }
+
+    /**
+     * Parses a list of IPv4 and IPv6 addresses, ranges and CIDR blocks
+     * Entries containing a colon are IPv6 (2001:db8::/64) and are added to the IPv6 list in the
+     *   order they appear, the rest are merged into the returned IPv4 ranges
+     * @param input list of entries
+     * @param ip6Ranges receives the IPv6 ranges, or null if IPv6 entries are not accepted
+     * @return merged and sorted IPv4 ranges, empty if the list has only IPv6 entries
+     */
+    public static List<IpRange> parseIpRanges(String input, List<Ip6Range> ip6Ranges) {
+
+        if (input == null) {
+            throw new IllegalArgumentException("IP range list is null");
+        }
+        List<IpRange> ranges = new ArrayList<>();
+        int length = input.length();
+        int i = 0;
+
+        while (i < length) {
+
+            while (i < length && isIpRangeSeparator(input.charAt(i))) {
+                i++;
+            }
+            int start = i;
+
+            while (i < length && !isIpRangeSeparator(input.charAt(i))) {
+                i++;
+            }
+
+            if (i > start) {
+
+                if (ip6Ranges != null && isIp6Entry(input, start, i)) {
+                    ip6Ranges.add(Ip6Range.parse(input, start, i));
+                } else {
+                    ranges.add(parseIpRange(input, start, i));
+                }
+            }
+        }
+
+        if (ranges.isEmpty() && (ip6Ranges == null || ip6Ranges.isEmpty())) {
+            throw new IllegalArgumentException("IP range list is empty");
+        }
+        return mergeIpRanges(ranges);
+    }
+
+    private static boolean isIpRangeSeparator(char c) {
+        return c == ',' || c == ';' || Character.isWhitespace(c);
+    }
+
+    private static boolean isIp6Entry(CharSequence chars, int start, int end) {
+
+        for (int i = start; i < end; i++) {
+
+            if (chars.charAt(i) == ':') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a single IP address, range or CIDR block
+     * @param chars characters containing the entry
+     * @param start index of the first character of the entry
+     * @param end index after the last character of the entry
+     * @return IP range
+     */
+    public static IpRange parseIpRange(CharSequence chars, int start, int end) {
+
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+
+            if (c == '-') {
+                long ipNumberStart = parseIpAddress(chars, start, i);
+                long ipNumberEnd = parseIpAddress(chars, i + 1, end);
+
+                if (ipNumberStart < 0 || ipNumberEnd < 0) {
+                    throw new IllegalArgumentException("IP range is malformed");
+                }
+                return IpRange.fromNumbers(ipNumberStart, ipNumberEnd);
+            } else if (c == '/') {
+                return parseCidr(chars, start, i, end);
+            }
+        }
+        long ipNumber = parseIpAddress(chars, start, end);
+
+        if (ipNumber < 0) {
+            throw new IllegalArgumentException("IP address is malformed");
+        }
+        return IpRange.fromNumbers(ipNumber, ipNumber);
+    }
+
+    /**
+     * Converts a CIDR block to an IP range, host bits set in the address are ignored
+     * @param cidr CIDR block, for example 10.0.0.0/24
+     * @return IP range covering the block
+     */
+    public static IpRange cidrToRange(String cidr) {
+
+        if (cidr == null) {
+            throw new IllegalArgumentException("CIDR block is null");
+        }
+        int slash = cidr.indexOf('/');
+
+        if (slash < 0) {
+            throw new IllegalArgumentException("CIDR block is malformed");
+        }
+        return parseCidr(cidr, 0, slash, cidr.length());
+    }
+
+    private static IpRange parseCidr(CharSequence chars, int start, int slash, int end) {
+        long ipNumber = parseIpAddress(chars, start, slash);
+        int prefixLength = 0;
+
+        if (ipNumber < 0 || end - slash < 2 || end - slash > 3) {
+            throw new IllegalArgumentException("CIDR block is malformed");
+        }
+
+        for (int i = slash + 1; i < end; i++) {
+            char c = chars.charAt(i);
+
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("CIDR block is malformed");
+            }
+            prefixLength = prefixLength * 10 + (c - '0');
+        }
+
+        if (prefixLength > 32) {
+            throw new IllegalArgumentException("CIDR prefix length is out of range");
+        }
+        long hostMask = MAX_IP_NUMBER >>> prefixLength;
+        return IpRange.fromNumbers(ipNumber & ~hostMask, (ipNumber & ~hostMask) | hostMask);
+    }
+
+    /**
+     * Sorts IP ranges and merges the ones that overlap or are adjacent
+     * @param ranges IP ranges in any order
+     * @return new list of disjoint, non adjacent ranges sorted by start
+     */
+    public static List<IpRange> mergeIpRanges(List<IpRange> ranges) {
+        List<IpRange> sorted = new ArrayList<>(ranges);
+        Collections.sort(sorted, IP_RANGE_START_ORDER);
+        List<IpRange> merged = new ArrayList<>(sorted.size());
+
+        for (int i = 0; i < sorted.size(); i++) {
+            IpRange range = sorted.get(i);
+            int last = merged.size() - 1;
+
+            if (last >= 0 && range.getStart() <= merged.get(last).getEnd() + 1) {
+
+                if (range.getEnd() > merged.get(last).getEnd()) {
+                    merged.set(last, IpRange.fromNumbers(merged.get(last).getStart(),
+                            range.getEnd()));
+                }
+            } else {
+                merged.add(range);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Removes the addresses of one set of ranges from another
+     * @param ranges ranges to subtract from, as returned by {@link #mergeIpRanges(List)}
+     * @param excluded ranges to remove, as returned by {@link #mergeIpRanges(List)}
+     * @return new list of sorted ranges holding the addresses in ranges but not in excluded
+     */
+    public static List<IpRange> subtractIpRanges(List<IpRange> ranges, List<IpRange> excluded) {
+        List<IpRange> remainder = new ArrayList<>(ranges.size());
+        int e = 0;
+
+        for (int i = 0; i < ranges.size(); i++) {
+            IpRange range = ranges.get(i);
+            long start = range.getStart();
+
+            // skip excluded ranges that end before this one starts
+            while (e < excluded.size() && excluded.get(e).getEnd() < start) {
+                e++;
+            }
+            int j = e;
+
+            while (start <= range.getEnd() && j < excluded.size() &&
+                    excluded.get(j).getStart() <= range.getEnd()) {
+                IpRange exclusion = excluded.get(j);
+
+                if (exclusion.getStart() > start) {
+                    remainder.add(IpRange.fromNumbers(start, exclusion.getStart() - 1));
+                }
+                start = Math.max(start, exclusion.getEnd() + 1);
+                j++;
+            }
+
+            if (start <= range.getEnd()) {
+                remainder.add(IpRange.fromNumbers(start, range.getEnd()));
+            }
+        }
+        return remainder;
+    }
+
+    /**
+     * @param ranges disjoint IP ranges
+     * @return number of IP addresses in the ranges
+     */
+    public static long countIpAddresses(List<IpRange> ranges) {
+        long count = 0;
+
+        for (int i = 0; i < ranges.size(); i++) {
+            count += ranges.get(i).size();
+        }
+        return count;
+    }
+
+    /**
+     * @param ranges IPv6 ranges
+     * @return number of IPv6 addresses in the ranges, or Long.MAX_VALUE if there are more
+     */
+    public static long countIp6Addresses(List<Ip6Range> ranges) {
+        long count = 0;
+
+        for (int i = 0; i < ranges.size(); i++) {
+            long size = ranges.get(i).size();
+            count = size > Long.MAX_VALUE - count ? Long.MAX_VALUE : count + size;
+        }
+        return count;
+    }
+
+    private static void checkIpNumber(long ipNumber) {
+
+        if (ipNumber < 0 || ipNumber > MAX_IP_NUMBER) {
+            throw new IllegalArgumentException("IP number is out of range");
+        }
+    }
+
+    /**
+     * Converts a number to a 0 padded binary string
+     * @param value number
+     * @param length padding
+     * @return binary string
+     */
+    public static String toBinaryString(long value, int length) {
+        String binaryStr = Long.toBinaryString(value);
+        int paddingLength = length - binaryStr.length();
+        char[] padding = new char[paddingLength];
+
+        for (int i = 0; i < paddingLength; i++) {
+            padding[i] = '0';
+        }
+        return String.valueOf(padding) + binaryStr;
+    }
+
+    /**
+     * Returns the location of the IP address using the shared {@link LookupClient}
+     * @param ipAddress IP address to find a location for
+     * @param apiKey API key to IP Info DB
+     * @return location
+     * @throws Exception
+     */
+    public static Location getLocationByIp(String ipAddress, String apiKey) throws Exception {
+        return LookupClient.getInstance().getLocationByIp(ipAddress, apiKey);
+    }
+
+    /**
+     * Converts a JSON Object to a location object
+     * @param json
+     * @return
+     * @throws JSONException
+     */
+    public static Location jsonToLocation(JSONObject json) throws JSONException {
+
+        return new Location.Builder()
+                .setCity(json.getString("cityName"))
+                .setCountryName(json.getString("countryName"))
+                .setIpAddress(json.getString("ipAddress"))
+                .setLatitude(Double.parseDouble(json.getString("latitude")))
+                .setLongitude(Double.parseDouble(json.getString("longitude")))
+                .build();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,274 @@
+package com.evanhalley.whereip;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency, outcome and throughput metrics of IP address lookups
+ * The lookup client records every lookup it performs, scans record how many addresses they have
+ *   processed. Metrics accumulate until the next {@link #startScan()}, a {@link #snapshot()}
+ *   taken at the end of a scan covers just that scan
+ * Thread safe
+ */
+public class LookupMetrics {
+
+    /**
+     * Phases of a lookup that are timed separately
+     */
+    public enum Phase {
+        /** sending the request until the response headers arrive, connection setup included */
+        CONNECT,
+        /** reading the response body */
+        TRANSFER,
+        /** decoding the response body into a location */
+        PARSE,
+        /** the whole lookup, cache hits and rate limiting included */
+        TOTAL
+    }
+
+    /**
+     * How a lookup ended
+     */
+    public enum Outcome {
+        /** a location was returned */
+        LOCATED,
+        /** IP Info DB has no location for the address, such as a reserved address */
+        NOT_FOUND,
+        /** IP Info DB answered with an HTTP error or a status code other than OK */
+        BAD_STATUS,
+        /** the request could not be sent or the response could not be read */
+        NETWORK_ERROR,
+        /** the response was not valid location JSON */
+        PARSE_ERROR,
+        /** the lookup was cancelled, such as the slower of two hedged requests */
+        CANCELLED,
+        /** any other failure, such as an interrupted lookup */
+        FAILED
+    }
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[Phase.values().length];
+    private final AtomicLongArray mOutcomes = new AtomicLongArray(Outcome.values().length);
+    private final AtomicLong mCacheHitCount = new AtomicLong();
+    private final AtomicLong mSharedCount = new AtomicLong();
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    private final AtomicInteger mMaxInFlight = new AtomicInteger();
+    private final AtomicLong mScannedCount = new AtomicLong();
+    private volatile long mScanStartTime = System.nanoTime();
+
+    public LookupMetrics() {
+
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Clears the recorded metrics and starts timing a new scan, lookups in flight are kept
+     */
+    public void startScan() {
+
+        for (LatencyHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+
+        for (int i = 0; i < mOutcomes.length(); i++) {
+            mOutcomes.set(i, 0);
+        }
+        mCacheHitCount.set(0);
+        mSharedCount.set(0);
+        mMaxInFlight.set(mInFlight.get());
+        mScannedCount.set(0);
+        mScanStartTime = System.nanoTime();
+    }
+
+    /**
+     * Counts addresses processed by the current scan, looked up or otherwise resolved
+     * @param count number of addresses
+     */
+    public void addScanned(long count) {
+        mScannedCount.addAndGet(count);
+    }
+
+    /**
+     * Marks the start of a lookup
+     * @return start time to pass to {@link #lookupFinished(long, Outcome)}
+     */
+    public long lookupStarted() {
+        int inFlight = mInFlight.incrementAndGet();
+        int max = mMaxInFlight.get();
+
+        while (inFlight > max && !mMaxInFlight.compareAndSet(max, inFlight)) {
+            max = mMaxInFlight.get();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Marks the end of a lookup, recording it's total latency and outcome
+     * @param startTime value returned by {@link #lookupStarted()}
+     * @param outcome how the lookup ended
+     */
+    public void lookupFinished(long startTime, Outcome outcome) {
+        mInFlight.decrementAndGet();
+        mHistograms[Phase.TOTAL.ordinal()].record(System.nanoTime() - startTime);
+        mOutcomes.incrementAndGet(outcome.ordinal());
+    }
+
+    /**
+     * Records the latency of one phase of a network lookup
+     * @param phase phase
+     * @param nanos latency in nanoseconds
+     */
+    public void recordPhase(Phase phase, long nanos) {
+        mHistograms[phase.ordinal()].record(nanos);
+    }
+
+    /**
+     * Counts a lookup answered by a cache without going to the network
+     */
+    public void recordCacheHit() {
+        mCacheHitCount.incrementAndGet();
+    }
+
+    /**
+     * Counts a lookup answered by another caller's request for the same IP address
+     */
+    public void recordSharedLookup() {
+        mSharedCount.incrementAndGet();
+    }
+
+    /**
+     * @return number of lookups currently in flight
+     */
+    public int getInFlight() {
+        return mInFlight.get();
+    }
+
+    /**
+     * @return copy of the metrics recorded since the scan started
+     */
+    public Snapshot snapshot() {
+        LatencyHistogram.Snapshot[] histograms = new LatencyHistogram.Snapshot[mHistograms.length];
+
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = mHistograms[i].snapshot();
+        }
+        long[] outcomes = new long[mOutcomes.length()];
+
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = mOutcomes.get(i);
+        }
+        return new Snapshot(histograms, outcomes, mCacheHitCount.get(), mSharedCount.get(),
+                mInFlight.get(), mMaxInFlight.get(), mScannedCount.get(),
+                System.nanoTime() - mScanStartTime);
+    }
+
+    /**
+     * Point in time copy of the lookup metrics
+     * Immutable
+     */
+    public static class Snapshot {
+
+        private final LatencyHistogram.Snapshot[] mHistograms;
+        private final long[] mOutcomes;
+        private final long mCacheHitCount;
+        private final long mSharedCount;
+        private final int mInFlight;
+        private final int mMaxInFlight;
+        private final long mScannedCount;
+        private final long mElapsedNanos;
+
+        Snapshot(LatencyHistogram.Snapshot[] histograms, long[] outcomes, long cacheHitCount,
+                 long sharedCount, int inFlight, int maxInFlight, long scannedCount,
+                 long elapsedNanos) {
+            mHistograms = histograms;
+            mOutcomes = outcomes;
+            mCacheHitCount = cacheHitCount;
+            mSharedCount = sharedCount;
+            mInFlight = inFlight;
+            mMaxInFlight = maxInFlight;
+            mScannedCount = scannedCount;
+            mElapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @param phase lookup phase
+         * @return latencies of the phase
+         */
+        public LatencyHistogram.Snapshot getLatency(Phase phase) {
+            return mHistograms[phase.ordinal()];
+        }
+
+        /**
+         * @param outcome lookup outcome
+         * @return number of lookups that ended with the outcome
+         */
+        public long getCount(Outcome outcome) {
+            return mOutcomes[outcome.ordinal()];
+        }
+
+        /**
+         * @return number of lookups answered by a cache
+         */
+        public long getCacheHitCount() {
+            return mCacheHitCount;
+        }
+
+        /**
+         * @return number of lookups that shared another caller's request
+         */
+        public long getSharedCount() {
+            return mSharedCount;
+        }
+
+        public int getInFlight() {
+            return mInFlight;
+        }
+
+        /**
+         * @return largest number of lookups in flight at once during the scan
+         */
+        public int getMaxInFlight() {
+            return mMaxInFlight;
+        }
+
+        /**
+         * @return number of addresses the scan has processed
+         */
+        public long getScannedCount() {
+            return mScannedCount;
+        }
+
+        public long getElapsedNanos() {
+            return mElapsedNanos;
+        }
+
+        /**
+         * @return addresses processed per second since the scan started
+         */
+        public double getAddressesPerSecond() {
+            return mElapsedNanos > 0 ? mScannedCount * 1e9 / mElapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(String.format("scanned=%d in %.1fs (%.1f addresses/s) in flight=%d "
+                    + "max in flight=%d cache hits=%d shared=%d", mScannedCount,
+                    mElapsedNanos / 1e9, getAddressesPerSecond(), mInFlight, mMaxInFlight,
+                    mCacheHitCount, mSharedCount));
+
+            for (Outcome outcome : Outcome.values()) {
+                builder.append(String.format(" %s=%d", outcome.name().toLowerCase(),
+                        mOutcomes[outcome.ordinal()]));
+            }
+
+            for (Phase phase : Phase.values()) {
+                builder.append('\n').append(phase.name().toLowerCase()).append(": ")
+                        .append(mHistograms[phase.ordinal()]);
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.evanhalley.whereip;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves IP addresses to locations without the network using a local IP range table
+ * The table is a file of fixed size records sorted by the start of their IP range, memory mapped
+ *   so a lookup is a binary search over the mapped records. City and country names are stored
+ *   once in a dictionary at the end of the file and referenced by index
+ * Thread safe once opened
+ */
+public class OfflineLocationDatabase implements Closeable {
+
+    // "WIPD" followed by the format version
+    private static final int MAGIC = 0x57495044;
+    private static final int VERSION = 1;
+
+    // magic, version, record count, dictionary offset
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+
+    // start, end, city index, country index, latitude, longitude
+    private static final int RECORD_SIZE = 4 + 4 + 4 + 4 + 4 + 4;
+
+    private static final long IP_MASK = 0xFFFFFFFFL;
+
+    private final RandomAccessFile mFile;
+    private final ByteBuffer mRecords;
+    private final int mRecordCount;
+    private final String[] mDictionary;
+
+    /**
+     * Opens a range table created by {@link #importCsv(Reader, File)}
+     * Performs I/O, do not call from the main thread
+     * @param file range table
+     * @throws IOException if the file is not a valid range table
+     */
+    public OfflineLocationDatabase(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+
+        try {
+            FileChannel channel = mFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+
+            if (channel.size() < HEADER_SIZE || buffer.getInt(0) != MAGIC ||
+                    buffer.getInt(4) != VERSION) {
+                throw new IOException("Not an offline location database");
+            }
+            mRecordCount = buffer.getInt(8);
+            long dictionaryOffset = buffer.getLong(12);
+
+            if (mRecordCount < 0 ||
+                    dictionaryOffset != HEADER_SIZE + (long) mRecordCount * RECORD_SIZE) {
+                throw new IOException("Offline location database is corrupt");
+            }
+            mDictionary = readDictionary(mFile, dictionaryOffset);
+            buffer.position(HEADER_SIZE);
+            buffer.limit((int) dictionaryOffset);
+            mRecords = buffer.slice();
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return number of IP ranges in the table
+     */
+    public int getRangeCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * Returns the location of the IP address
+     * @param ipAddress IP address to find a location for
+     * @return location, or null if the IP address is not in any range
+     */
+    public Location getLocationByIp(String ipAddress) {
+        long ipNumber = ipAddress == null ? -1 : LookupHelper.parseIpAddress(ipAddress, 0,
+                ipAddress.length());
+
+        if (ipNumber < 0) {
+            throw new IllegalArgumentException("Missing valid IP address");
+        }
+        int index = findRecord(ipNumber);
+
+        if (index < 0) {
+            return null;
+        }
+        int offset = index * RECORD_SIZE;
+        return new Location.Builder()
+                .setIpAddress(ipAddress)
+                .setCity(mDictionary[mRecords.getInt(offset + 8)])
+                .setCountryName(mDictionary[mRecords.getInt(offset + 12)])
+                .setLatitude(mRecords.getFloat(offset + 16))
+                .setLongitude(mRecords.getFloat(offset + 20))
+                .build();
+    }
+
+    /**
+     * Binary searches for the range containing the IP number
+     * @param ipNumber number representation of an IP address
+     * @return record index, or -1 if no range contains the IP number
+     */
+    private int findRecord(long ipNumber) {
+        int low = 0;
+        int high = mRecordCount - 1;
+
+        // find the last range that starts at or before the IP number
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+
+            if ((mRecords.getInt(mid * RECORD_SIZE) & IP_MASK) <= ipNumber) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        if (high < 0 || (mRecords.getInt(high * RECORD_SIZE + 4) & IP_MASK) < ipNumber) {
+            return -1;
+        }
+        return high;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+
+    private static String[] readDictionary(RandomAccessFile file, long offset) throws IOException {
+        file.seek(offset);
+        int count = file.readInt();
+
+        if (count < 0) {
+            throw new IOException("Offline location database is corrupt");
+        }
+        String[] dictionary = new String[count];
+
+        for (int i = 0; i < count; i++) {
+            dictionary[i] = file.readUTF();
+        }
+        return dictionary;
+    }
+
+    /**
+     * Converts an IP2Location Lite style CSV (ip_from, ip_to, country_code, country_name,
+     *   region_name, city_name, latitude, longitude) into a range table
+     * The CSV is streamed a line at a time and must be sorted by ip_from with no overlapping
+     *   ranges, as the IP2Location files are. Ranges without a country are skipped
+     * Performs I/O, do not call from the main thread
+     * @param csv CSV to import
+     * @param destination file to write the range table to
+     * @return number of IP ranges imported
+     * @throws IOException if the CSV is malformed or out of order
+     */
+    public static int importCsv(Reader csv, File destination) throws IOException {
+        BufferedReader reader = new BufferedReader(csv);
+        Map<String, Integer> dictionaryIndex = new HashMap<>();
+        List<String> dictionary = new ArrayList<>();
+        List<String> fields = new ArrayList<>();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(destination)));
+        int recordCount = 0;
+        long previousEnd = -1;
+        int lineNumber = 0;
+
+        try {
+            // placeholder, rewritten once the record count is known
+            out.write(new byte[HEADER_SIZE]);
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+
+                if (line.trim().length() == 0) {
+                    continue;
+                }
+                splitCsvLine(line, fields);
+
+                if (fields.size() < 8) {
+                    throw new IOException("Malformed CSV at line " + lineNumber);
+                }
+                long start;
+                long end;
+                float latitude;
+                float longitude;
+
+                try {
+                    start = Long.parseLong(fields.get(0));
+                    end = Long.parseLong(fields.get(1));
+                    latitude = Float.parseFloat(fields.get(6));
+                    longitude = Float.parseFloat(fields.get(7));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed CSV at line " + lineNumber);
+                }
+
+                if (start < 0 || end > IP_MASK || end < start) {
+                    throw new IOException("Invalid IP range at line " + lineNumber);
+                }
+
+                if (start <= previousEnd) {
+                    throw new IOException("CSV is not sorted by IP range at line " + lineNumber);
+                }
+                previousEnd = end;
+                String countryName = fields.get(3);
+
+                if (countryName.length() == 0 || countryName.equals("-")) {
+                    continue;
+                }
+                out.writeInt((int) start);
+                out.writeInt((int) end);
+                out.writeInt(intern(fields.get(5), dictionaryIndex, dictionary));
+                out.writeInt(intern(countryName, dictionaryIndex, dictionary));
+                out.writeFloat(latitude);
+                out.writeFloat(longitude);
+                recordCount++;
+            }
+            out.writeInt(dictionary.size());
+
+            for (int i = 0; i < dictionary.size(); i++) {
+                out.writeUTF(dictionary.get(i));
+            }
+        } finally {
+            out.close();
+            reader.close();
+        }
+
+        RandomAccessFile file = new RandomAccessFile(destination, "rw");
+
+        try {
+            file.writeInt(MAGIC);
+            file.writeInt(VERSION);
+            file.writeInt(recordCount);
+            file.writeLong(HEADER_SIZE + (long) recordCount * RECORD_SIZE);
+        } finally {
+            file.close();
+        }
+        return recordCount;
+    }
+
+    private static int intern(String value, Map<String, Integer> dictionaryIndex,
+                              List<String> dictionary) {
+        Integer index = dictionaryIndex.get(value);
+
+        if (index == null) {
+            index = dictionary.size();
+            dictionary.add(value);
+            dictionaryIndex.put(value, index);
+        }
+        return index;
+    }
+
+    /**
+     * Splits a CSV line into it's fields, fields may be wrapped in double quotes
+     * @param line CSV line
+     * @param fields list the fields are written to, cleared first
+     */
+    static void splitCsvLine(String line, List<String> fields) {
+        fields.clear();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+
+            if (quoted) {
+
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+    }
+}
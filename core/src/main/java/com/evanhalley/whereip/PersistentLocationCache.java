@@ -0,0 +1,462 @@
+package com.evanhalley.whereip;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup results keyed by IP number that survive process death
+ * Entries are loaded into memory when the cache is opened, new entries are written behind in
+ *   batches on a background thread so callers never block on storage. Records are appended to
+ *   the storage in a compact binary format, expired and superseded records are dropped when the
+ *   storage is compacted on open
+ * Thread safe
+ */
+public class PersistentLocationCache implements Closeable {
+
+    /**
+     * Where the cache records are kept
+     */
+    public interface Storage {
+
+        /**
+         * @return stream over the stored records, null if nothing has been stored yet
+         * @throws IOException
+         */
+        InputStream openInput() throws IOException;
+
+        /**
+         * @param append true to append to the stored records, false to replace them, the stored
+         *   records must stay intact until the returned stream is closed
+         * @return stream to write records to
+         * @throws IOException
+         */
+        OutputStream openOutput(boolean append) throws IOException;
+    }
+
+    /**
+     * Stores the cache records in a file
+     * Replacements are written to a temporary file that is renamed over the file once it's
+     *   complete, so a crash part way through keeps the previous contents
+     */
+    public static class FileStorage implements Storage {
+
+        private final File mFile;
+
+        public FileStorage(File file) {
+
+            if (file == null) {
+                throw new IllegalArgumentException("File is null");
+            }
+            mFile = file;
+        }
+
+        @Override
+        public InputStream openInput() throws IOException {
+            return mFile.exists() ? new FileInputStream(mFile) : null;
+        }
+
+        @Override
+        public OutputStream openOutput(boolean append) throws IOException {
+
+            if (append) {
+                return new FileOutputStream(mFile, append);
+            }
+            final File tempFile = new File(mFile.getPath() + ".tmp");
+            return new FilterOutputStream(new FileOutputStream(tempFile)) {
+
+                private boolean mFailed;
+
+                @Override
+                public void write(int b) throws IOException {
+
+                    try {
+                        out.write(b);
+                    } catch (IOException e) {
+                        mFailed = true;
+                        throw e;
+                    }
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+
+                    try {
+                        out.write(b, off, len);
+                    } catch (IOException e) {
+                        mFailed = true;
+                        throw e;
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+
+                    try {
+                        super.close();
+                    } catch (IOException e) {
+                        mFailed = true;
+                        throw e;
+                    } finally {
+
+                        // a replacement that failed part way never reaches the file
+                        if (mFailed) {
+                            tempFile.delete();
+                        } else if (!tempFile.renameTo(mFile)) {
+                            throw new IOException("Unable to rename " + tempFile + " to "
+                                    + mFile);
+                        }
+                    }
+                }
+            };
+        }
+    }
+
+    // "WIPC" followed by the format version
+    private static final int MAGIC = 0x57495043;
+    private static final byte VERSION = 1;
+
+    private static final byte FLAG_INVALID = 1;
+
+    private final Storage mStorage;
+    private final long mTimeToLiveMs;
+    private final int mBatchSize;
+    private final Map<Integer, LocationCache.Entry> mEntries = new HashMap<>();
+    private final Object mWriteLock = new Object();
+    private final ScheduledExecutorService mWriter;
+
+    private List<Integer> mPendingKeys = new ArrayList<>();
+    private boolean mFlushQueued;
+    private boolean mHeaderWritten;
+    private boolean mClosed;
+
+    /**
+     * Opens a persistent location cache, loading the stored records
+     * Performs I/O, do not call from the main thread
+     * @param storage where the records are kept
+     * @param timeToLiveMs how long an entry stays valid, in milliseconds
+     * @param batchSize number of new entries that triggers a write
+     * @param flushIntervalMs maximum time a new entry waits before being written, in milliseconds
+     * @throws IOException
+     */
+    public PersistentLocationCache(Storage storage, long timeToLiveMs, int batchSize,
+                                   long flushIntervalMs) throws IOException {
+
+        if (storage == null) {
+            throw new IllegalArgumentException("Storage is null");
+        }
+
+        if (timeToLiveMs < 1) {
+            throw new IllegalArgumentException("Time to live must be positive");
+        }
+
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+
+        if (flushIntervalMs < 1) {
+            throw new IllegalArgumentException("Flush interval must be positive");
+        }
+        mStorage = storage;
+        mTimeToLiveMs = timeToLiveMs;
+        mBatchSize = batchSize;
+        load();
+        mWriter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PersistentLocationCache");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mWriter.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flushQuietly();
+            }
+        }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the cached entry for an IP number
+     * @param ipNumber number representation of an IP address
+     * @return entry, or null if the IP number is not cached or it's entry expired
+     */
+    public synchronized LocationCache.Entry get(long ipNumber) {
+        LocationCache.Entry entry = mEntries.get((int) ipNumber);
+
+        if (entry != null && entry.getExpiresAt() <= currentTimeMillis()) {
+            mEntries.remove((int) ipNumber);
+            entry = null;
+        }
+        return entry;
+    }
+
+    /**
+     * Caches the location of an IP number
+     * @param ipNumber number representation of an IP address
+     * @param location location of the IP address
+     */
+    public void put(long ipNumber, Location location) {
+
+        if (location == null) {
+            throw new IllegalArgumentException("Location is null");
+        }
+        add((int) ipNumber, new LocationCache.Entry(location, currentTimeMillis() + mTimeToLiveMs));
+    }
+
+    /**
+     * Caches an IP number as having no valid location
+     * @param ipNumber number representation of an IP address
+     */
+    public void putInvalid(long ipNumber) {
+        add((int) ipNumber, new LocationCache.Entry(null, currentTimeMillis() + mTimeToLiveMs));
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    private synchronized void add(int key, LocationCache.Entry entry) {
+
+        if (mClosed) {
+            throw new IllegalStateException("Cache is closed");
+        }
+        mEntries.put(key, entry);
+        mPendingKeys.add(key);
+
+        if (mPendingKeys.size() >= mBatchSize && !mFlushQueued) {
+            mFlushQueued = true;
+            mWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flushQuietly();
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes every pending entry to storage
+     * Performs I/O, do not call from the main thread
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+
+        synchronized (mWriteLock) {
+            List<Integer> keys;
+            List<LocationCache.Entry> entries = new ArrayList<>();
+
+            synchronized (this) {
+                keys = mPendingKeys;
+                mPendingKeys = new ArrayList<>();
+                mFlushQueued = false;
+
+                for (int i = 0; i < keys.size(); i++) {
+                    entries.add(mEntries.get(keys.get(i)));
+                }
+            }
+
+            if (keys.isEmpty()) {
+                return;
+            }
+
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        mStorage.openOutput(mHeaderWritten)));
+
+                try {
+
+                    if (!mHeaderWritten) {
+                        writeHeader(out);
+                    }
+
+                    for (int i = 0; i < keys.size(); i++) {
+
+                        if (entries.get(i) != null) {
+                            writeRecord(out, keys.get(i), entries.get(i));
+                        }
+                    }
+                } finally {
+                    out.close();
+                }
+                mHeaderWritten = true;
+            } catch (IOException e) {
+
+                // put the keys back so the next flush retries them
+                synchronized (this) {
+                    keys.addAll(mPendingKeys);
+                    mPendingKeys = keys;
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Writes the pending entries and stops the background writer
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+
+        synchronized (this) {
+
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+        }
+        mWriter.shutdown();
+        flush();
+    }
+
+    private void flushQuietly() {
+
+        try {
+            flush();
+        } catch (IOException e) {
+            // pending entries are retried on the next flush
+        }
+    }
+
+    /**
+     * Loads the stored records, rewriting the storage if it is corrupt or mostly stale
+     * @throws IOException
+     */
+    private void load() throws IOException {
+        InputStream in = mStorage.openInput();
+
+        if (in == null) {
+            return;
+        }
+        long now = currentTimeMillis();
+        int recordCount = 0;
+        boolean corrupt = false;
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+
+        try {
+
+            if (data.readInt() != MAGIC || data.readByte() != VERSION) {
+                corrupt = true;
+            } else {
+
+                while (true) {
+                    int key;
+
+                    try {
+                        key = data.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    LocationCache.Entry entry = readRecord(data, key);
+                    recordCount++;
+
+                    if (entry.getExpiresAt() > now) {
+                        mEntries.put(key, entry);
+                    } else {
+                        mEntries.remove(key);
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            // the process died part way through writing a record, the partial record is dropped
+            corrupt = true;
+        } catch (IllegalArgumentException e) {
+            corrupt = true;
+        } finally {
+            data.close();
+        }
+
+        if (corrupt || recordCount > 2 * mEntries.size()) {
+            compact();
+        } else {
+            mHeaderWritten = true;
+        }
+    }
+
+    /**
+     * Replaces the stored records with the entries currently in memory
+     * @throws IOException
+     */
+    private void compact() throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                mStorage.openOutput(false)));
+
+        try {
+            writeHeader(out);
+
+            for (Map.Entry<Integer, LocationCache.Entry> entry : mEntries.entrySet()) {
+                writeRecord(out, entry.getKey(), entry.getValue());
+            }
+        } finally {
+            out.close();
+        }
+        mHeaderWritten = true;
+    }
+
+    private static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+    }
+
+    private static void writeRecord(DataOutputStream out, int key, LocationCache.Entry entry)
+            throws IOException {
+        out.writeInt(key);
+        out.writeLong(entry.getExpiresAt());
+
+        if (entry.isInvalid()) {
+            out.writeByte(FLAG_INVALID);
+        } else {
+            Location location = entry.getLocation();
+            out.writeByte(0);
+            out.writeDouble(location.getLatitude());
+            out.writeDouble(location.getLongitude());
+            out.writeUTF(location.getCity());
+            out.writeUTF(location.getCountryName());
+        }
+    }
+
+    private static LocationCache.Entry readRecord(DataInputStream in, int key) throws IOException {
+        long expiresAt = in.readLong();
+        byte flags = in.readByte();
+
+        if ((flags & FLAG_INVALID) != 0) {
+            return new LocationCache.Entry(null, expiresAt);
+        }
+        double latitude = in.readDouble();
+        double longitude = in.readDouble();
+        String city = in.readUTF();
+        String countryName = in.readUTF();
+        Location location = new Location.Builder()
+                .setIpAddress(LookupHelper.ipNumberToString(key & 0xFFFFFFFFL))
+                .setLatitude(latitude)
+                .setLongitude(longitude)
+                .setCity(city)
+                .setCountryName(countryName)
+                .build();
+        return new LocationCache.Entry(location, expiresAt);
+    }
+
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,185 @@
+package com.evanhalley.whereip;
+
+/**
+ * Locates an IP range by bisection instead of looking up every address
+ * Providers assign locations to contiguous blocks, so when both ends of a sub-range resolve to
+ *   the same coordinates, or both have no location, the addresses between them are attributed
+ *   to that result without being looked up. When the ends differ, or a lookup failed, the
+ *   sub-range is split in half and each half is examined the same way. The result is an
+ *   estimate, a block with a different location that is surrounded by addresses of one location
+ *   is not detected
+ * Not thread safe
+ */
+public class RangeBisector {
+
+    /**
+     * Receives the measured and inferred results of a bisection
+     */
+    public interface Listener {
+
+        /**
+         * Called for every IP address that was looked up
+         * @param ipAddress IP address
+         * @param location location, or null if the IP address has no location
+         */
+        void onLocationMeasured(String ipAddress, Location location);
+
+        /**
+         * Called for every block of addresses attributed to a location without a lookup
+         * @param ipRange IP addresses that were inferred
+         * @param location measured location of the addresses on either side of the block, or
+         *   null if neither of them could be located
+         */
+        void onRangeInferred(IpRange ipRange, Location location);
+
+        /**
+         * Called for every IP address whose lookup threw or returned a null location, failed
+         *   addresses are never inferred from
+         * @param ipAddress IP address
+         * @param e cause of the failure
+         */
+        void onLookupFailed(String ipAddress, Exception e);
+    }
+
+    // result of a lookup that failed, as opposed to an address without a location
+    private static final Location FAILED = new Location.Builder()
+            .setCity("")
+            .setCountryName("")
+            .setIpAddress("")
+            .build();
+
+    private final LookupEngine.Resolver mResolver;
+
+    private Listener mListener;
+    private long mLookupCount;
+    private long mInferredCount;
+
+    /**
+     * Creates a range bisector
+     * @param resolver resolves individual IP addresses
+     */
+    public RangeBisector(LookupEngine.Resolver resolver) {
+
+        if (resolver == null) {
+            throw new IllegalArgumentException("Resolver is null");
+        }
+        mResolver = resolver;
+    }
+
+    /**
+     * Locates the IP range, looking up as few addresses as possible
+     * @param ipRange IP addresses to locate
+     * @param listener receives the measured and inferred results
+     * @return number of IP addresses that were looked up
+     * @throws InterruptedException if the bisection was interrupted
+     */
+    public long bisect(IpRange ipRange, Listener listener) throws InterruptedException {
+
+        if (ipRange == null) {
+            throw new IllegalArgumentException("IP range is null");
+        }
+
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener is null");
+        }
+        mListener = listener;
+        mLookupCount = 0;
+        mInferredCount = 0;
+        long start = ipRange.getStart();
+        long end = ipRange.getEnd();
+
+        try {
+            Location startLocation = measure(start);
+
+            if (end != start) {
+                bisect(start, startLocation, end, measure(end));
+            }
+        } finally {
+            mListener = null;
+        }
+        return mLookupCount;
+    }
+
+    /**
+     * @return number of IP addresses looked up by the last bisection
+     */
+    public long getLookupCount() {
+        return mLookupCount;
+    }
+
+    /**
+     * @return number of IP addresses inferred by the last bisection
+     */
+    public long getInferredCount() {
+        return mInferredCount;
+    }
+
+    /**
+     * Resolves the addresses strictly between two measured addresses
+     */
+    private void bisect(long start, Location startLocation, long end, Location endLocation)
+            throws InterruptedException {
+
+        if (end - start <= 1) {
+            return;
+        }
+
+        if (sameResult(startLocation, endLocation)) {
+            IpRange inferred = IpRange.fromNumbers(start + 1, end - 1);
+            mInferredCount += inferred.size();
+            mListener.onRangeInferred(inferred, startLocation);
+            return;
+        }
+        long mid = (start + end) >>> 1;
+        Location midLocation = measure(mid);
+        bisect(start, startLocation, mid, midLocation);
+        bisect(mid, midLocation, end, endLocation);
+    }
+
+    /**
+     * @return location of the IP address, null if it has no location or {@link #FAILED} if the
+     *   resolver threw or returned null
+     */
+    private Location measure(long ipNumber) throws InterruptedException {
+        String ipAddress = LookupHelper.ipNumberToString(ipNumber);
+        mLookupCount++;
+        Location location;
+
+        try {
+            location = mResolver.resolve(ipAddress);
+        } catch (InvalidLocationException e) {
+            mListener.onLocationMeasured(ipAddress, null);
+            return null;
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            mListener.onLookupFailed(ipAddress, e);
+            return FAILED;
+        }
+
+        // no OK status says nothing about the address, only InvalidLocationException does
+        if (location == null) {
+            mListener.onLookupFailed(ipAddress, new LookupException(
+                    LookupMetrics.Outcome.BAD_STATUS, String.format(
+                    "No OK status for IP address %s", ipAddress), null, false));
+            return FAILED;
+        }
+        mListener.onLocationMeasured(ipAddress, location);
+        return location;
+    }
+
+    /**
+     * @return true if both addresses have the same coordinates or both have no location
+     */
+    private static boolean sameResult(Location a, Location b) {
+
+        if (a == FAILED || b == FAILED) {
+            return false;
+        }
+
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.getLatitude() == b.getLatitude() && a.getLongitude() == b.getLongitude();
+    }
+}
@@ -0,0 +1,68 @@
+package com.evanhalley.whereip;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket that hands out no more than a fixed number of permits per second on average
+ * Unused permits accumulate up to the burst size, so a provider quota like "2 per second, bursts
+ *   of 10" can be used in full after an idle period. Callers that find the bucket empty are put
+ *   to sleep until their permit comes up
+ * Thread safe
+ */
+public class RateLimiter {
+
+    private final long mIntervalNanos;
+    private final long mBurstNanos;
+    private long mNextPermitNanos;
+
+    /**
+     * Creates a rate limiter that spaces out every permit
+     * @param permitsPerSecond maximum number of permits per second, must be positive
+     */
+    public RateLimiter(double permitsPerSecond) {
+        this(permitsPerSecond, 1);
+    }
+
+    /**
+     * Creates a rate limiter
+     * @param permitsPerSecond maximum number of permits per second on average, must be positive
+     * @param burst maximum number of permits handed out at once after an idle period
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("Permits per second must be positive");
+        }
+
+        if (burst < 1) {
+            throw new IllegalArgumentException("Burst must be at least 1");
+        }
+        mIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        mBurstNanos = (burst - 1) * mIntervalNanos;
+        mNextPermitNanos = System.nanoTime() - mBurstNanos;
+    }
+
+    /**
+     * Blocks until a permit is available
+     * @throws InterruptedException
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Reserves the next free permit
+     * @return nanoseconds the caller has to wait before using the permit
+     */
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        // permits not taken while idle are banked, up to the burst
+        long permitNanos = Math.max(now - mBurstNanos, mNextPermitNanos);
+        mNextPermitNanos = permitNanos + mIntervalNanos;
+        return Math.max(permitNanos - now, 0);
+    }
+}
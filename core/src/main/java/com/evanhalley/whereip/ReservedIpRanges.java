@@ -0,0 +1,93 @@
+package com.evanhalley.whereip;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * IPv4 address space that is private, reserved or otherwise never routed on the public internet
+ *   and so has no location, from the IANA special-purpose address registry
+ * The blocks are merged into a sorted table once, an address is checked with a binary search and
+ *   whole ranges are removed with a single merge pass
+ * Thread safe
+ */
+public class ReservedIpRanges {
+
+    private static final String[] RESERVED_BLOCKS = {
+            "0.0.0.0/8",        // this network
+            "10.0.0.0/8",       // private use
+            "100.64.0.0/10",    // shared address space, carrier grade NAT
+            "127.0.0.0/8",      // loopback
+            "169.254.0.0/16",   // link local
+            "172.16.0.0/12",    // private use
+            "192.0.0.0/24",     // IETF protocol assignments
+            "192.0.2.0/24",     // documentation, TEST-NET-1
+            "192.88.99.0/24",   // deprecated 6to4 relay anycast
+            "192.168.0.0/16",   // private use
+            "198.18.0.0/15",    // benchmarking
+            "198.51.100.0/24",  // documentation, TEST-NET-2
+            "203.0.113.0/24",   // documentation, TEST-NET-3
+            "224.0.0.0/4",      // multicast
+            "240.0.0.0/4",      // reserved, limited broadcast included
+    };
+
+    private static final List<IpRange> sRanges;
+    private static final long[] sStarts;
+    private static final long[] sEnds;
+
+    static {
+        List<IpRange> blocks = new ArrayList<>(RESERVED_BLOCKS.length);
+
+        for (String block : RESERVED_BLOCKS) {
+            blocks.add(LookupHelper.cidrToRange(block));
+        }
+        sRanges = Collections.unmodifiableList(LookupHelper.mergeIpRanges(blocks));
+        sStarts = new long[sRanges.size()];
+        sEnds = new long[sRanges.size()];
+
+        for (int i = 0; i < sRanges.size(); i++) {
+            sStarts[i] = sRanges.get(i).getStart();
+            sEnds[i] = sRanges.get(i).getEnd();
+        }
+    }
+
+    private ReservedIpRanges() {
+    }
+
+    /**
+     * @param ipNumber number representation of an IP address
+     * @return true if the IP address is reserved and has no location
+     */
+    public static boolean contains(long ipNumber) {
+        int low = 0;
+        int high = sStarts.length - 1;
+
+        // last range starting at or before the address
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+
+            if (sStarts[mid] <= ipNumber) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high >= 0 && ipNumber <= sEnds[high];
+    }
+
+    /**
+     * Removes the reserved addresses from IP ranges
+     * @param ranges IP ranges, as returned by {@link LookupHelper#mergeIpRanges(List)}
+     * @return new list of sorted ranges holding only the addresses that may have a location
+     */
+    public static List<IpRange> subtract(List<IpRange> ranges) {
+        return LookupHelper.subtractIpRanges(ranges, sRanges);
+    }
+
+    /**
+     * @return disjoint reserved ranges sorted by start
+     */
+    public static List<IpRange> getRanges() {
+        return sRanges;
+    }
+}
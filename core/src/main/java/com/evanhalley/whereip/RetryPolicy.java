@@ -0,0 +1,76 @@
+package com.evanhalley.whereip;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which failed lookups are retried and how long to back off in between
+ * Backoff is exponential with full jitter, a random delay up to the exponential bound, so lookups
+ *   that failed together don't retry together. Network errors and lookup exceptions flagged as
+ *   transient are retried, an invalid location or malformed response is not
+ * Immutable
+ */
+public class RetryPolicy {
+
+    private final int mMaxAttempts;
+    private final long mBaseDelayNanos;
+    private final long mMaxDelayNanos;
+
+    /**
+     * Creates a retry policy
+     * @param maxAttempts attempts per lookup, the first one included
+     * @param baseDelayMs upper bound of the delay before the first retry, doubled per retry
+     * @param maxDelayMs largest upper bound of a delay
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs) {
+
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Max attempts must be at least 1");
+        }
+
+        if (baseDelayMs < 0 || maxDelayMs < baseDelayMs) {
+            throw new IllegalArgumentException("Delays must satisfy 0 <= base <= max");
+        }
+        mMaxAttempts = maxAttempts;
+        mBaseDelayNanos = TimeUnit.MILLISECONDS.toNanos(baseDelayMs);
+        mMaxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+    }
+
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * @param e cause of a failed lookup
+     * @return true if the failure is transient and the lookup may succeed when retried
+     */
+    public boolean isRetryable(Exception e) {
+
+        if (e instanceof LookupException) {
+            return ((LookupException) e).isTransient();
+        }
+        return e instanceof IOException;
+    }
+
+    /**
+     * Returns the delay before a retry
+     * @param retry number of the retry, starting at 1
+     * @param random source of the jitter
+     * @return delay in nanoseconds
+     */
+    public long getDelayNanos(int retry, Random random) {
+
+        if (retry < 1) {
+            throw new IllegalArgumentException("Retry must be at least 1");
+        }
+        // doubling stops at the max delay, well before the shift overflows
+        long bound = mBaseDelayNanos;
+
+        for (int i = 1; i < retry && bound < mMaxDelayNanos; i++) {
+            bound *= 2;
+        }
+        bound = Math.min(bound, mMaxDelayNanos);
+        return bound > 0 ? (long) (random.nextDouble() * bound) : 0;
+    }
+}
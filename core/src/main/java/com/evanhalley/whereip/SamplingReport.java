@@ -0,0 +1,309 @@
+package com.evanhalley.whereip;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the results of a stratified sample into a location distribution per block
+ * Each block reports how many of it's addresses were sampled, how the located samples split
+ *   between locations, and how confident the sample is in the most common location
+ * Thread safe
+ */
+public class SamplingReport {
+
+    // z score of a 95% confidence interval
+    private static final double CONFIDENCE_Z = 1.96;
+
+    private final StratifiedSampler mSampler;
+    private final List<IpRange> mRanges;
+    private final TreeMap<Long, Tally> mTallies = new TreeMap<>();
+
+    /**
+     * Results of one block as they arrive
+     */
+    private static class Tally {
+
+        private long mLocatedCount;
+        private long mNotFoundCount;
+        private long mFailedCount;
+        private final Map<String, LocationShare> mLocations = new HashMap<>();
+    }
+
+    /**
+     * Creates a sampling report
+     * @param sampler sampler that picked the addresses
+     * @param ranges IP ranges that were sampled, as returned by
+     *   {@link LookupHelper#mergeIpRanges(List)}
+     */
+    public SamplingReport(StratifiedSampler sampler, List<IpRange> ranges) {
+
+        if (sampler == null) {
+            throw new IllegalArgumentException("Sampler is null");
+        }
+
+        if (ranges == null) {
+            throw new IllegalArgumentException("IP ranges are null");
+        }
+        mSampler = sampler;
+        mRanges = ranges;
+    }
+
+    /**
+     * Records a sampled address that was located
+     * @param ipAddress IP address
+     * @param location location of the address
+     */
+    public synchronized void addLocated(String ipAddress, Location location) {
+        Tally tally = getTally(ipAddress);
+        tally.mLocatedCount++;
+        // cities are told apart by name, the first sample of a city gives it's coordinates
+        String key = location.getCity() + '\n' + location.getCountryName();
+        LocationShare share = tally.mLocations.get(key);
+
+        if (share == null) {
+            share = new LocationShare(location);
+            tally.mLocations.put(key, share);
+        }
+        share.mCount++;
+    }
+
+    /**
+     * Records a sampled address that has no location
+     * @param ipAddress IP address
+     */
+    public synchronized void addNotFound(String ipAddress) {
+        getTally(ipAddress).mNotFoundCount++;
+    }
+
+    /**
+     * Records a sampled address whose lookup failed
+     * @param ipAddress IP address
+     */
+    public synchronized void addFailed(String ipAddress) {
+        getTally(ipAddress).mFailedCount++;
+    }
+
+    /**
+     * @return distribution of every block with a recorded sample, in ascending order
+     */
+    public synchronized List<BlockDistribution> getBlocks() {
+        List<BlockDistribution> blocks = new ArrayList<>(mTallies.size());
+
+        for (Map.Entry<Long, Tally> entry : mTallies.entrySet()) {
+            Tally tally = entry.getValue();
+            IpRange block = mSampler.getBlock(entry.getKey());
+            List<LocationShare> locations = new ArrayList<>(tally.mLocations.size());
+
+            for (LocationShare share : tally.mLocations.values()) {
+                locations.add(new LocationShare(share.mLocation, share.mCount));
+            }
+            Collections.sort(locations, new Comparator<LocationShare>() {
+                @Override
+                public int compare(LocationShare lhs, LocationShare rhs) {
+                    return Long.compare(rhs.mCount, lhs.mCount);
+                }
+            });
+            blocks.add(new BlockDistribution(block, countCovered(block), tally.mLocatedCount,
+                    tally.mNotFoundCount, tally.mFailedCount,
+                    Collections.unmodifiableList(locations)));
+        }
+        return blocks;
+    }
+
+    private Tally getTally(String ipAddress) {
+        long blockStart = mSampler.getBlock(LookupHelper.ipStringToNumber(ipAddress)).getStart();
+        Tally tally = mTallies.get(blockStart);
+
+        if (tally == null) {
+            tally = new Tally();
+            mTallies.put(blockStart, tally);
+        }
+        return tally;
+    }
+
+    /**
+     * @return number of addresses of the block covered by the sampled ranges
+     */
+    private long countCovered(IpRange block) {
+        int low = 0;
+        int high = mRanges.size() - 1;
+
+        // first range ending at or after the start of the block
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+
+            if (mRanges.get(mid).getEnd() < block.getStart()) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        long covered = 0;
+
+        for (int i = low; i < mRanges.size() && mRanges.get(i).getStart() <= block.getEnd();
+             i++) {
+            IpRange range = mRanges.get(i);
+            covered += Math.min(range.getEnd(), block.getEnd())
+                    - Math.max(range.getStart(), block.getStart()) + 1;
+        }
+        return covered;
+    }
+
+    /**
+     * Lower bound of the 95% Wilson score interval of a proportion, which stays meaningful for
+     *   the handful of samples a block gets
+     * @param successes number of samples with the property
+     * @param total number of samples
+     * @return lower bound of the proportion, 0 if there are no samples
+     */
+    static double wilsonLowerBound(long successes, long total) {
+
+        if (total == 0) {
+            return 0;
+        }
+        double z2 = CONFIDENCE_Z * CONFIDENCE_Z;
+        double p = (double) successes / total;
+        double center = p + z2 / (2 * total);
+        double margin = CONFIDENCE_Z * Math.sqrt(p * (1 - p) / total + z2 / (4.0 * total * total));
+        return Math.max(0, (center - margin) / (1 + z2 / total));
+    }
+
+    /**
+     * Number of located samples of a block at one location
+     * Immutable once reported
+     */
+    public static class LocationShare {
+
+        private final Location mLocation;
+        private long mCount;
+
+        private LocationShare(Location location) {
+            mLocation = location;
+        }
+
+        private LocationShare(Location location, long count) {
+            mLocation = location;
+            mCount = count;
+        }
+
+        /**
+         * @return location, it's IP address is the first sample found there
+         */
+        public Location getLocation() {
+            return mLocation;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+    }
+
+    /**
+     * Location distribution of the samples of one block
+     * Immutable
+     */
+    public static class BlockDistribution {
+
+        private final IpRange mBlock;
+        private final long mAddressCount;
+        private final long mLocatedCount;
+        private final long mNotFoundCount;
+        private final long mFailedCount;
+        private final List<LocationShare> mLocations;
+
+        BlockDistribution(IpRange block, long addressCount, long locatedCount,
+                          long notFoundCount, long failedCount, List<LocationShare> locations) {
+            mBlock = block;
+            mAddressCount = addressCount;
+            mLocatedCount = locatedCount;
+            mNotFoundCount = notFoundCount;
+            mFailedCount = failedCount;
+            mLocations = locations;
+        }
+
+        public IpRange getBlock() {
+            return mBlock;
+        }
+
+        /**
+         * @return number of addresses of the block covered by the sampled ranges
+         */
+        public long getAddressCount() {
+            return mAddressCount;
+        }
+
+        public long getLocatedCount() {
+            return mLocatedCount;
+        }
+
+        public long getNotFoundCount() {
+            return mNotFoundCount;
+        }
+
+        public long getFailedCount() {
+            return mFailedCount;
+        }
+
+        /**
+         * @return number of addresses sampled
+         */
+        public long getSampleCount() {
+            return mLocatedCount + mNotFoundCount + mFailedCount;
+        }
+
+        /**
+         * @return share of the block's addresses that were sampled
+         */
+        public double getCoverage() {
+            return mAddressCount > 0 ? (double) getSampleCount() / mAddressCount : 0;
+        }
+
+        /**
+         * @return locations of the located samples, most common first
+         */
+        public List<LocationShare> getLocations() {
+            return mLocations;
+        }
+
+        /**
+         * @return most common location of the block, or null if no sample was located
+         */
+        public Location getDominantLocation() {
+            return mLocations.isEmpty() ? null : mLocations.get(0).getLocation();
+        }
+
+        /**
+         * @return share of the located samples at the most common location
+         */
+        public double getDominantShare() {
+            return mLocations.isEmpty() ? 0
+                    : (double) mLocations.get(0).getCount() / mLocatedCount;
+        }
+
+        /**
+         * Confidence that the most common location holds for most of the block, the lower
+         *   bound of the 95% interval of it's share of the located samples
+         * @return confidence from 0 to 1
+         */
+        public double getConfidence() {
+            return mLocations.isEmpty() ? 0
+                    : wilsonLowerBound(mLocations.get(0).getCount(), mLocatedCount);
+        }
+
+        @Override
+        public String toString() {
+            Location location = getDominantLocation();
+            return String.format("%s/%d %d of %d sampled, %d located, %s %.0f%% (confidence "
+                    + "%.2f)", LookupHelper.ipNumberToString(mBlock.getStart()),
+                    32 - Long.numberOfTrailingZeros(mBlock.size()), getSampleCount(),
+                    mAddressCount, mLocatedCount,
+                    location != null ? location.getCity() + ", " + location.getCountryName()
+                            : "unknown", getDominantShare() * 100, getConfidence());
+        }
+    }
+}
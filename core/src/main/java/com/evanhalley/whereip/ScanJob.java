@@ -0,0 +1,341 @@
+package com.evanhalley.whereip;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A scan of a list of IP ranges that can be resumed after the process dies
+ * Completed addresses are kept as sorted, merged intervals of their index in the scan, they can
+ *   complete in any order. Lookups finish close to the order they start in, so the number of
+ *   intervals stays around the number of lookups in flight however large the scan is. Each
+ *   checkpoint stores the ranges and the intervals, a checkpoint is taken every time a batch of
+ *   addresses has completed. After a restart at most one batch, plus the lookups that were in
+ *   flight, is repeated
+ * Thread safe
+ */
+public class ScanJob {
+
+    // "WIPJ" followed by the format version
+    private static final int MAGIC = 0x5749504A;
+    private static final byte VERSION = 2;
+
+    private final PersistentLocationCache.Storage mStorage;
+    private final List<IpRange> mRanges;
+    private final boolean mSmartRange;
+    private final int mCheckpointBatchSize;
+
+    // index in the scan of the first address of each range
+    private final long[] mOffsets;
+    private final long mTotalCount;
+    // start index of each completed interval to the index after it's end
+    private final TreeMap<Long, Long> mCompleted = new TreeMap<>();
+
+    private long mCompletedCount;
+    private long mUncheckpointedCount;
+
+    private ScanJob(PersistentLocationCache.Storage storage, List<IpRange> ranges,
+                    boolean smartRange, int checkpointBatchSize) {
+
+        if (storage == null) {
+            throw new IllegalArgumentException("Storage is null");
+        }
+
+        if (checkpointBatchSize < 1) {
+            throw new IllegalArgumentException("Checkpoint batch size must be at least 1");
+        }
+        mStorage = storage;
+        mRanges = Collections.unmodifiableList(new ArrayList<>(ranges));
+        mSmartRange = smartRange;
+        mCheckpointBatchSize = checkpointBatchSize;
+        mOffsets = new long[ranges.size()];
+        long totalCount = 0;
+
+        for (int i = 0; i < ranges.size(); i++) {
+            mOffsets[i] = totalCount;
+            totalCount += ranges.get(i).size();
+        }
+        mTotalCount = totalCount;
+    }
+
+    /**
+     * Creates a scan job and stores it's first checkpoint, replacing any stored job
+     * Performs I/O, do not call from the main thread
+     * @param storage where the checkpoints are kept
+     * @param ranges IP ranges to scan, as returned by {@link LookupHelper#mergeIpRanges(List)}
+     * @param smartRange true if the ranges are bisected instead of scanned address by address
+     * @param checkpointBatchSize number of completed addresses that triggers a checkpoint
+     * @return scan job
+     * @throws IOException
+     */
+    public static ScanJob create(PersistentLocationCache.Storage storage, List<IpRange> ranges,
+                                 boolean smartRange, int checkpointBatchSize) throws IOException {
+
+        if (ranges == null) {
+            throw new IllegalArgumentException("IP ranges are null");
+        }
+        ScanJob job = new ScanJob(storage, ranges, smartRange, checkpointBatchSize);
+        job.checkpoint();
+        return job;
+    }
+
+    /**
+     * Loads the stored scan job from it's last checkpoint
+     * Performs I/O, do not call from the main thread
+     * @param storage where the checkpoints are kept
+     * @param checkpointBatchSize number of completed addresses that triggers a checkpoint
+     * @return scan job, or null if there is no unfinished job or the checkpoint is unreadable
+     * @throws IOException
+     */
+    public static ScanJob resume(PersistentLocationCache.Storage storage, int checkpointBatchSize)
+            throws IOException {
+
+        if (storage == null) {
+            throw new IllegalArgumentException("Storage is null");
+        }
+        InputStream in = storage.openInput();
+
+        if (in == null) {
+            return null;
+        }
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+
+        try {
+
+            if (data.readInt() != MAGIC || data.readByte() != VERSION) {
+                return null;
+            }
+            boolean smartRange = data.readBoolean();
+            int rangeCount = data.readInt();
+            List<IpRange> ranges = new ArrayList<>(rangeCount);
+
+            for (int i = 0; i < rangeCount; i++) {
+                ranges.add(IpRange.fromNumbers(data.readInt() & 0xFFFFFFFFL,
+                        data.readInt() & 0xFFFFFFFFL));
+            }
+            ScanJob job = new ScanJob(storage, ranges, smartRange, checkpointBatchSize);
+            int intervalCount = data.readInt();
+            long previousEnd = -1;
+
+            for (int i = 0; i < intervalCount; i++) {
+                long start = data.readLong();
+                long end = data.readLong();
+
+                // intervals are stored sorted and merged
+                if (start <= previousEnd || end <= start || end > job.mTotalCount) {
+                    return null;
+                }
+                job.mCompleted.put(start, end);
+                job.mCompletedCount += end - start;
+                previousEnd = end;
+            }
+            return job.isComplete() ? null : job;
+        } catch (EOFException e) {
+            // the process died part way through writing the checkpoint
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        } finally {
+            data.close();
+        }
+    }
+
+    /**
+     * @return IP ranges the job scans
+     */
+    public List<IpRange> getRanges() {
+        return mRanges;
+    }
+
+    public boolean isSmartRange() {
+        return mSmartRange;
+    }
+
+    /**
+     * @return number of addresses in the job
+     */
+    public long getTotalCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * @return number of addresses completed
+     */
+    public synchronized long getCompletedCount() {
+        return mCompletedCount;
+    }
+
+    public synchronized boolean isComplete() {
+        return mCompletedCount == mTotalCount;
+    }
+
+    /**
+     * Returns the addresses that are not complete, as IP ranges
+     * @return sorted IP ranges
+     */
+    public synchronized List<IpRange> getRemainingRanges() {
+        List<IpRange> remaining = new ArrayList<>();
+        long index = 0;
+
+        for (Map.Entry<Long, Long> interval : mCompleted.entrySet()) {
+            addRemaining(remaining, index, interval.getKey());
+            index = interval.getValue();
+        }
+        addRemaining(remaining, index, mTotalCount);
+        return remaining;
+    }
+
+    /**
+     * Marks an address as complete, taking a checkpoint if a batch of addresses has completed
+     * A checkpoint that fails to write is retried with the next batch
+     * @param ipNumber number representation of the IP address
+     */
+    public synchronized void markCompleted(long ipNumber) {
+        markCompleted(IpRange.fromNumbers(ipNumber, ipNumber));
+    }
+
+    /**
+     * Marks every address in a range as complete, taking a checkpoint if a batch of addresses
+     *   has completed
+     * @param ipRange IP range within one of the job's ranges
+     */
+    public synchronized void markCompleted(IpRange ipRange) {
+        int range = findRangeByIpNumber(ipRange.getStart());
+
+        if (range < 0 || !mRanges.get(range).contains(ipRange.getEnd())) {
+            throw new IllegalArgumentException("IP range is not part of the scan");
+        }
+        long start = mOffsets[range] + ipRange.getStart() - mRanges.get(range).getStart();
+        long end = start + ipRange.size();
+        long mergedStart = start;
+        long mergedEnd = end;
+        long alreadyCompleted = 0;
+        Map.Entry<Long, Long> interval = mCompleted.floorEntry(start);
+
+        // merge with the interval the addresses start in or follow on from
+        if (interval != null && interval.getValue() >= start) {
+            mergedStart = interval.getKey();
+            mergedEnd = Math.max(end, interval.getValue());
+            alreadyCompleted += Math.min(end, interval.getValue()) - start;
+            mCompleted.remove(interval.getKey());
+        }
+        interval = mCompleted.ceilingEntry(start);
+
+        // and with every interval that starts within them or right after them
+        while (interval != null && interval.getKey() <= end) {
+            mergedEnd = Math.max(mergedEnd, interval.getValue());
+            alreadyCompleted += Math.min(end, interval.getValue()) - interval.getKey();
+            mCompleted.remove(interval.getKey());
+            interval = mCompleted.ceilingEntry(start);
+        }
+        mCompleted.put(mergedStart, mergedEnd);
+        mCompletedCount += end - start - alreadyCompleted;
+        mUncheckpointedCount += end - start - alreadyCompleted;
+
+        if (mUncheckpointedCount >= mCheckpointBatchSize || isComplete()) {
+
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                // retried with the next batch
+            }
+        }
+    }
+
+    /**
+     * Stores the progress of the job now
+     * Performs I/O, do not call from the main thread
+     * @throws IOException
+     */
+    public synchronized void checkpoint() throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                mStorage.openOutput(false)));
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeBoolean(mSmartRange);
+            out.writeInt(mRanges.size());
+
+            for (int i = 0; i < mRanges.size(); i++) {
+                out.writeInt((int) mRanges.get(i).getStart());
+                out.writeInt((int) mRanges.get(i).getEnd());
+            }
+            out.writeInt(mCompleted.size());
+
+            for (Map.Entry<Long, Long> interval : mCompleted.entrySet()) {
+                out.writeLong(interval.getKey());
+                out.writeLong(interval.getValue());
+            }
+        } finally {
+            out.close();
+        }
+        mUncheckpointedCount = 0;
+    }
+
+    /**
+     * Adds the addresses from one index of the scan up to another as IP ranges, split where
+     *   the job's ranges end
+     */
+    private void addRemaining(List<IpRange> remaining, long start, long end) {
+
+        while (start < end) {
+            int range = findRange(start);
+            IpRange ipRange = mRanges.get(range);
+            long rangeEnd = Math.min(end, mOffsets[range] + ipRange.size());
+            remaining.add(IpRange.fromNumbers(ipRange.getIpNumber(start - mOffsets[range]),
+                    ipRange.getIpNumber(rangeEnd - 1 - mOffsets[range])));
+            start = rangeEnd;
+        }
+    }
+
+    /**
+     * @return index of the range holding the address at an index of the scan
+     */
+    private int findRange(long index) {
+        int low = 0;
+        int high = mOffsets.length - 1;
+
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+
+            if (mOffsets[middle] <= index) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return index of the range holding an IP number, -1 if no range holds it
+     */
+    private int findRangeByIpNumber(long ipNumber) {
+        int low = 0;
+        int high = mRanges.size() - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            IpRange range = mRanges.get(middle);
+
+            if (ipNumber < range.getStart()) {
+                high = middle - 1;
+            } else if (ipNumber > range.getEnd()) {
+                low = middle + 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,64 @@
+package com.evanhalley.whereip;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Collapses concurrent loads of the same key into one
+ * The first caller for a key runs the load on it's own thread, callers that arrive while it is
+ *   in flight wait for and share it's result, or it's exception. Once the load completes the key
+ *   is forgotten, so a later caller loads again
+ * Thread safe
+ */
+public class SingleFlight<V> {
+
+    private final ConcurrentHashMap<Long, FutureTask<V>> mInFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the result of the load for the key, running it unless one is already in flight
+     * @param key key, such as the number representation of an IP address
+     * @param loader load run if no other caller is loading the key
+     * @return result of the load
+     * @throws Exception thrown by the load, every caller sharing it receives the same exception
+     * @throws InterruptedException if interrupted while waiting for another caller's load, the
+     *   load itself continues
+     */
+    public V get(long key, Callable<V> loader) throws Exception {
+
+        if (loader == null) {
+            throw new IllegalArgumentException("Loader is null");
+        }
+        FutureTask<V> task = new FutureTask<>(loader);
+        FutureTask<V> inFlight = mInFlight.putIfAbsent(key, task);
+
+        if (inFlight == null) {
+
+            try {
+                task.run();
+            } finally {
+                mInFlight.remove(key, task);
+            }
+            inFlight = task;
+        }
+
+        try {
+            return inFlight.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * @return number of keys being loaded
+     */
+    public int getInFlightCount() {
+        return mInFlight.size();
+    }
+}
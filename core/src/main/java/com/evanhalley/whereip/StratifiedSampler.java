@@ -0,0 +1,248 @@
+package com.evanhalley.whereip;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Picks a few IP addresses from every block of a prefix length, a /24 by default, so a large
+ *   range can be mapped with a handful of lookups per block instead of one per address
+ * The addresses of a block covered by the ranges are split into as many equal strata as there
+ *   are samples and one address is picked from each stratum, spreading the samples across the
+ *   block. Picks depend only on the seed and the block, so the same seed always samples the same
+ *   addresses, whatever else is scanned
+ * Thread safe
+ */
+public class StratifiedSampler {
+
+    public static final int DEFAULT_PREFIX_LENGTH = 24;
+
+    private static final long MAX_IP_NUMBER = 0xFFFFFFFFL;
+
+    private final int mPrefixLength;
+    private final int mSamplesPerBlock;
+    private final long mSeed;
+    private final long mHostMask;
+
+    /**
+     * Creates a stratified sampler
+     * @param prefixLength prefix length of the blocks, 0 to 32
+     * @param samplesPerBlock number of addresses to pick from each block
+     * @param seed seed of the picks
+     */
+    public StratifiedSampler(int prefixLength, int samplesPerBlock, long seed) {
+
+        if (prefixLength < 0 || prefixLength > 32) {
+            throw new IllegalArgumentException("Prefix length is out of range");
+        }
+
+        if (samplesPerBlock < 1) {
+            throw new IllegalArgumentException("Samples per block must be at least 1");
+        }
+        mPrefixLength = prefixLength;
+        mSamplesPerBlock = samplesPerBlock;
+        mSeed = seed;
+        mHostMask = MAX_IP_NUMBER >>> prefixLength;
+    }
+
+    public int getPrefixLength() {
+        return mPrefixLength;
+    }
+
+    public int getSamplesPerBlock() {
+        return mSamplesPerBlock;
+    }
+
+    public long getSeed() {
+        return mSeed;
+    }
+
+    /**
+     * @param ipNumber number representation of an IP address
+     * @return block the IP address belongs to
+     */
+    public IpRange getBlock(long ipNumber) {
+        long start = ipNumber & ~mHostMask & MAX_IP_NUMBER;
+        return IpRange.fromNumbers(start, start | mHostMask);
+    }
+
+    /**
+     * Counts the addresses {@link #sample(List)} returns without picking them
+     * @param ranges IP ranges, as returned by {@link LookupHelper#mergeIpRanges(List)}
+     * @return number of sampled addresses
+     */
+    public long countSamples(List<IpRange> ranges) {
+        BlockWalker walker = new BlockWalker(ranges);
+        long count = 0;
+
+        while (walker.nextBlock()) {
+            count += Math.min(walker.mCovered, mSamplesPerBlock);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the sampled addresses one block at a time, in ascending order
+     * Addresses are picked lazily as the iterator advances, the ranges may be as large as the
+     *   whole address space
+     * @param ranges IP ranges, as returned by {@link LookupHelper#mergeIpRanges(List)}
+     * @return iterator over the sampled IP addresses
+     */
+    public Iterator<String> sample(List<IpRange> ranges) {
+        final BlockWalker walker = new BlockWalker(ranges);
+
+        return new Iterator<String>() {
+
+            private long mBlockSeed;
+            private long mSampleCount;
+            private long mSampleIndex;
+            private int mFragment;
+            private long mFragmentOffset;
+
+            @Override
+            public boolean hasNext() {
+
+                while (mSampleIndex == mSampleCount) {
+
+                    if (!walker.nextBlock()) {
+                        return false;
+                    }
+                    mBlockSeed = mix(mSeed ^ mix(walker.mBlockStart));
+                    mSampleCount = Math.min(walker.mCovered, mSamplesPerBlock);
+                    mSampleIndex = 0;
+                    mFragment = 0;
+                    mFragmentOffset = 0;
+                }
+                return true;
+            }
+
+            @Override
+            public String next() {
+
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                long offset = pickOffset(walker.mCovered, mSampleIndex++, mBlockSeed);
+
+                // offsets increase within a block, so the fragments are walked once
+                while (offset - mFragmentOffset > walker.mEnds[mFragment]
+                        - walker.mStarts[mFragment]) {
+                    mFragmentOffset += walker.mEnds[mFragment] - walker.mStarts[mFragment] + 1;
+                    mFragment++;
+                }
+                return LookupHelper.ipNumberToString(walker.mStarts[mFragment] + offset
+                        - mFragmentOffset);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Picks the offset of a sample among the covered addresses of a block
+     * @param covered number of addresses of the block covered by the ranges
+     * @param index index of the sample, also the index of it's stratum
+     * @param blockSeed seed of the block
+     * @return offset of the sampled address
+     */
+    private long pickOffset(long covered, long index, long blockSeed) {
+
+        if (covered <= mSamplesPerBlock) {
+            return index;
+        }
+        // floor(index * covered / samples) without overflowing
+        long quotient = covered / mSamplesPerBlock;
+        long remainder = covered % mSamplesPerBlock;
+        long low = index * quotient + index * remainder / mSamplesPerBlock;
+        long high = (index + 1) * quotient + (index + 1) * remainder / mSamplesPerBlock;
+        long pick = mix(blockSeed + index * 0x9E3779B97F4A7C15L) >>> 1;
+        return low + pick % (high - low);
+    }
+
+    /**
+     * SplitMix64 finalizer, spreads every bit of the input over the output
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Walks sorted, disjoint ranges one block at a time, collecting the parts of the ranges that
+     *   fall in each block
+     */
+    private class BlockWalker {
+
+        private final List<IpRange> mRanges;
+        private int mIndex;
+        private long mPosition;
+
+        private long mBlockStart;
+        private long mCovered;
+        private long[] mStarts = new long[4];
+        private long[] mEnds = new long[4];
+        private int mFragmentCount;
+
+        BlockWalker(List<IpRange> ranges) {
+
+            if (ranges == null) {
+                throw new IllegalArgumentException("IP ranges are null");
+            }
+            mRanges = ranges;
+            mPosition = ranges.isEmpty() ? 0 : ranges.get(0).getStart();
+        }
+
+        boolean nextBlock() {
+
+            if (mIndex >= mRanges.size()) {
+                return false;
+            }
+            mBlockStart = mPosition & ~mHostMask & MAX_IP_NUMBER;
+            long blockEnd = mBlockStart | mHostMask;
+            mCovered = 0;
+            mFragmentCount = 0;
+
+            while (mIndex < mRanges.size()) {
+                IpRange range = mRanges.get(mIndex);
+                long start = Math.max(mPosition, range.getStart());
+
+                if (start > blockEnd) {
+                    mPosition = start;
+                    break;
+                }
+                long end = Math.min(range.getEnd(), blockEnd);
+                addFragment(start, end);
+
+                if (end < range.getEnd()) {
+                    mPosition = end + 1;
+                    break;
+                }
+
+                if (++mIndex < mRanges.size()) {
+                    mPosition = mRanges.get(mIndex).getStart();
+                }
+            }
+            return true;
+        }
+
+        private void addFragment(long start, long end) {
+
+            if (mFragmentCount == mStarts.length) {
+                long[] starts = new long[mFragmentCount * 2];
+                long[] ends = new long[mFragmentCount * 2];
+                System.arraycopy(mStarts, 0, starts, 0, mFragmentCount);
+                System.arraycopy(mEnds, 0, ends, 0, mFragmentCount);
+                mStarts = starts;
+                mEnds = ends;
+            }
+            mStarts[mFragmentCount] = start;
+            mEnds[mFragmentCount] = end;
+            mFragmentCount++;
+            mCovered += end - start + 1;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.evanhalley.whereip;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AdaptiveResolverTest {
+
+    private static final String LOCATION_JSON = "{\"statusCode\":\"OK\",\"statusMessage\":\"\"," +
+            "\"ipAddress\":\"108.197.13.169\",\"countryCode\":\"US\"," +
+            "\"countryName\":\"United States\",\"cityName\":\"Raleigh\"," +
+            "\"latitude\":\"35.7721\",\"longitude\":\"-78.6386\",\"timeZone\":\"-04:00\"}";
+
+    private MockWebServer mServer;
+    private AimdLimiter mLimiter;
+    private CircuitBreaker mCircuitBreaker;
+    private AdaptiveResolver mResolver;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+        final LookupClient client = new LookupClient(mServer.getUrl("/").toString() +
+                "?key=|KEY|&ip=|IP|");
+        mLimiter = new AimdLimiter(1, 8, 1000, 0.5);
+        mCircuitBreaker = new CircuitBreaker(3, 200);
+        mResolver = new AdaptiveResolver(new LookupEngine.Resolver() {
+            @Override
+            public Location resolve(String ipAddress) throws Exception {
+                return client.getLocationByIp(ipAddress, "test_key");
+            }
+        }, mLimiter, mCircuitBreaker, new RetryPolicy(3, 10, 50));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void retryTest() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(503));
+        mServer.enqueue(new MockResponse().setResponseCode(429));
+        mServer.enqueue(new MockResponse().setBody(LOCATION_JSON));
+        assertEquals("Raleigh", mResolver.resolve("108.197.13.169").getCity());
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(4, mLimiter.getLimit());
+        assertEquals(0, mLimiter.getInFlight());
+        assertEquals(CircuitBreaker.State.CLOSED, mCircuitBreaker.getState());
+    }
+
+    @Test
+    public void noRetryTest() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(404));
+
+        try {
+            mResolver.resolve("108.197.13.169");
+            fail("Expected the lookup to fail");
+        } catch (LookupException e) {
+            assertEquals(LookupMetrics.Outcome.BAD_STATUS, e.getOutcome());
+        }
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(8, mLimiter.getLimit());
+    }
+
+    @Test
+    public void circuitBreakerTest() throws Exception {
+
+        for (int i = 0; i < 3; i++) {
+            mServer.enqueue(new MockResponse().setResponseCode(500));
+        }
+        mServer.enqueue(new MockResponse().setBody(LOCATION_JSON));
+
+        try {
+            mResolver.resolve("108.197.13.169");
+            fail("Expected the lookup to fail");
+        } catch (LookupException e) {
+            assertTrue(e.isTransient());
+        }
+        assertEquals(CircuitBreaker.State.OPEN, mCircuitBreaker.getState());
+
+        // the next lookup waits for the provider to recover instead of failing straight away
+        long start = System.nanoTime();
+        assertEquals("Raleigh", mResolver.resolve("108.197.13.169").getCity());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+        assertEquals(CircuitBreaker.State.CLOSED, mCircuitBreaker.getState());
+        assertEquals(4, mServer.getRequestCount());
+    }
+}
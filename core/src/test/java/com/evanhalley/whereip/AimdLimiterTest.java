@@ -0,0 +1,80 @@
+package com.evanhalley.whereip;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class AimdLimiterTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+    @Test
+    public void decreaseTest() {
+        AimdLimiter limiter = new AimdLimiter(1, 16, 100, 0.5);
+        assertEquals(16, limiter.getLimit());
+
+        limiter.onSample(FAST, true);
+        assertEquals(8, limiter.getLimit());
+
+        // the rest of the round of failures counts once
+        limiter.onSample(FAST, true);
+        limiter.onSample(SLOW, false);
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void increaseTest() throws InterruptedException {
+        AimdLimiter limiter = new AimdLimiter(2, 4, 50, 0.5);
+        limiter.onSample(SLOW, false);
+        assertEquals(2, limiter.getLimit());
+
+        // 2 + 1/2 + 1/2.5 + 1/2.9, about one per round of lookups
+        limiter.onSample(FAST, false);
+        limiter.onSample(FAST, false);
+        assertEquals(2, limiter.getLimit());
+        limiter.onSample(FAST, false);
+        assertEquals(3, limiter.getLimit());
+
+        for (int i = 0; i < 10; i++) {
+            limiter.onSample(FAST, false);
+        }
+        assertEquals(4, limiter.getLimit());
+
+        // never below the min limit
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(60);
+            limiter.onSample(FAST, true);
+        }
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void acquireTest() throws InterruptedException {
+        final AimdLimiter limiter = new AimdLimiter(1, 2, 1000, 0.5);
+        limiter.acquire();
+        limiter.acquire();
+        assertEquals(2, limiter.getInFlight());
+
+        Thread releaser = new Thread() {
+            @Override
+            public void run() {
+
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                limiter.release();
+            }
+        };
+        releaser.start();
+        long start = System.nanoTime();
+        limiter.acquire();
+        assertEquals(true, System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertEquals(2, limiter.getInFlight());
+        releaser.join();
+    }
+}
@@ -0,0 +1,73 @@
+package com.evanhalley.whereip;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void openTest() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(3, 100);
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(1, breaker.getOpenCount());
+
+        // callers wait out the open duration, then probe
+        long start = System.nanoTime();
+        breaker.awaitPermission();
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void failedProbeTest() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50);
+        breaker.onFailure();
+        breaker.awaitPermission();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getOpenCount());
+    }
+
+    @Test
+    public void singleProbeTest() throws InterruptedException {
+        final CircuitBreaker breaker = new CircuitBreaker(1, 0);
+        breaker.onFailure();
+        breaker.awaitPermission();
+
+        // a second caller waits for the probe's result
+        final long[] waited = new long[1];
+        Thread caller = new Thread() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+
+                try {
+                    breaker.awaitPermission();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                waited[0] = System.nanoTime() - start;
+            }
+        };
+        caller.start();
+        Thread.sleep(50);
+        breaker.onSuccess();
+        caller.join();
+        assertTrue(waited[0] >= TimeUnit.MILLISECONDS.toNanos(40));
+    }
+}
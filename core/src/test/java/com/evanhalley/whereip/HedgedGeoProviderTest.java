@@ -0,0 +1,147 @@
+package com.evanhalley.whereip;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HedgedGeoProviderTest {
+
+    private static final String API_KEY = "test_key";
+
+    private static final String PRIMARY_JSON = "{\"statusCode\":\"OK\",\"statusMessage\":\"\"," +
+            "\"ipAddress\":\"108.197.13.169\",\"countryCode\":\"US\"," +
+            "\"countryName\":\"United States\",\"cityName\":\"Raleigh\"," +
+            "\"latitude\":\"35.7721\",\"longitude\":\"-78.6386\",\"timeZone\":\"-04:00\"}";
+
+    private static final String SECONDARY_JSON = PRIMARY_JSON.replace("Raleigh", "Durham");
+
+    private MockWebServer mPrimaryServer;
+    private MockWebServer mSecondaryServer;
+    private LookupClient mPrimaryClient;
+    private HedgedGeoProvider mProvider;
+
+    @Before
+    public void setUp() throws IOException {
+        mPrimaryServer = new MockWebServer();
+        mPrimaryServer.start();
+        mSecondaryServer = new MockWebServer();
+        mSecondaryServer.start();
+        mPrimaryClient = new LookupClient(mPrimaryServer.getUrl("/").toString() +
+                "?key=|KEY|&ip=|IP|");
+        LookupClient secondaryClient = new LookupClient(mSecondaryServer.getUrl("/").toString() +
+                "?key=|KEY|&ip=|IP|");
+        mProvider = new HedgedGeoProvider(new IpInfoDbProvider(mPrimaryClient, API_KEY),
+                new IpInfoDbProvider(secondaryClient, API_KEY), 95, 200);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mProvider.shutdown();
+        mPrimaryServer.shutdown();
+        mSecondaryServer.shutdown();
+    }
+
+    @Test
+    public void fastPrimaryTest() throws Exception {
+        mPrimaryServer.enqueue(new MockResponse().setBody(PRIMARY_JSON));
+        assertEquals("Raleigh", mProvider.getLocationByIp("108.197.13.169", null).getCity());
+        assertEquals(0, mProvider.getHedgeCount());
+        assertEquals(0, mSecondaryServer.getRequestCount());
+    }
+
+    @Test
+    public void slowPrimaryTest() throws Exception {
+        mPrimaryServer.enqueue(new MockResponse().setBody(PRIMARY_JSON)
+                .setBodyDelay(5, TimeUnit.SECONDS));
+        mSecondaryServer.enqueue(new MockResponse().setBody(SECONDARY_JSON));
+        long startTime = System.nanoTime();
+        assertEquals("Durham", mProvider.getLocationByIp("108.197.13.169", null).getCity());
+        assertTrue(System.nanoTime() - startTime < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(1, mProvider.getHedgeCount());
+        assertEquals(1, mProvider.getSecondaryWinCount());
+
+        // the slow primary lookup was cancelled rather than left running
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+
+        while (mPrimaryClient.getMetrics().getInFlight() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, mPrimaryClient.getMetrics().snapshot()
+                .getCount(LookupMetrics.Outcome.CANCELLED));
+    }
+
+    @Test
+    public void failedPrimaryTest() throws Exception {
+        mPrimaryServer.enqueue(new MockResponse().setResponseCode(503));
+        mSecondaryServer.enqueue(new MockResponse().setBody(SECONDARY_JSON));
+        long startTime = System.nanoTime();
+        assertEquals("Durham", mProvider.getLocationByIp("108.197.13.169", null).getCity());
+        // retried straight away instead of after the hedge delay
+        assertTrue(System.nanoTime() - startTime < TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(1, mProvider.getSecondaryWinCount());
+    }
+
+    @Test
+    public void bothFailedTest() throws Exception {
+        mPrimaryServer.enqueue(new MockResponse().setResponseCode(503));
+        mSecondaryServer.enqueue(new MockResponse().setResponseCode(500));
+
+        try {
+            mProvider.getLocationByIp("108.197.13.169", null);
+            fail("Expected the lookup to fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("500"));
+        }
+    }
+
+    @Test(expected = InvalidLocationException.class)
+    public void invalidLocationTest() throws Exception {
+        mPrimaryServer.enqueue(new MockResponse().setBody("{\"statusCode\":\"OK\"," +
+                "\"countryCode\":\"-\",\"countryName\":\"-\",\"latitude\":\"0\"," +
+                "\"longitude\":\"0\",\"timeZone\":\"-\"}"));
+
+        try {
+            mProvider.getLocationByIp("41.0.0.1", null);
+        } finally {
+            assertEquals(0, mProvider.getHedgeCount());
+        }
+    }
+
+    @Test
+    public void hedgeDelayTest() throws Exception {
+        GeoProvider stub = new GeoProvider() {
+            @Override
+            public Location getLocationByIp(String ipAddress, Object tag) throws Exception {
+                Thread.sleep(5);
+                return null;
+            }
+
+            @Override
+            public void cancel(Object tag) {
+            }
+        };
+        HedgedGeoProvider provider = new HedgedGeoProvider(stub, stub, 90, 10000);
+
+        try {
+
+            for (int i = 0; i < 32; i++) {
+                provider.getLocationByIp("10.0.0.1", null);
+            }
+            // follows the observed latency instead of the initial delay
+            assertTrue(provider.getHedgeDelayNanos() >= TimeUnit.MILLISECONDS.toNanos(5));
+            assertTrue(provider.getHedgeDelayNanos() < TimeUnit.MILLISECONDS.toNanos(1000));
+        } finally {
+            provider.shutdown();
+        }
+    }
+}
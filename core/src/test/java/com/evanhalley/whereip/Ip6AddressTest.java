@@ -0,0 +1,98 @@
+package com.evanhalley.whereip;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class Ip6AddressTest {
+
+    @Test
+    public void parseTest() {
+        Ip6Address address = Ip6Address.fromString("2001:0DB8:0000:0000:0008:0800:200C:417A");
+        assertEquals(0x20010DB800000000L, address.getHigh());
+        assertEquals(0x00080800200C417AL, address.getLow());
+        assertEquals(address, Ip6Address.fromString("2001:db8::8:800:200c:417a"));
+
+        assertEquals(Ip6Address.fromLongs(0, 0), Ip6Address.fromString("::"));
+        assertEquals(Ip6Address.fromLongs(0, 1), Ip6Address.fromString("::1"));
+        assertEquals(Ip6Address.fromLongs(0xFE80000000000000L, 0), Ip6Address.fromString("fe80::"));
+        assertEquals(Ip6Address.fromLongs(0x0001000200030004L, 0x0005000600070008L),
+                Ip6Address.fromString("1:2:3:4:5:6:7:8"));
+        assertEquals(Ip6Address.fromLongs(0x0001000000000000L, 0x0005000600070008L),
+                Ip6Address.fromString("1::5:6:7:8"));
+        assertEquals(Ip6Address.fromLongs(0, 0x0000FFFFC0000201L),
+                Ip6Address.fromString("::ffff:192.0.2.1"));
+        assertEquals(Ip6Address.fromLongs(0x0064FF9B00000000L, 0xC0000201L),
+                Ip6Address.fromString("64:ff9b::192.0.2.1"));
+
+        // parsing a slice of a larger string
+        assertEquals(Ip6Address.fromLongs(0x20010DB800000000L, 1),
+                Ip6Address.parse("[2001:db8::1]", 1, 12));
+    }
+
+    @Test
+    public void parseTestMalformed() {
+        assertNull(Ip6Address.parse("", 0, 0));
+        assertNull(Ip6Address.parse(":", 0, 1));
+        assertNull(Ip6Address.parse(":::", 0, 3));
+        assertNull(Ip6Address.parse("1::2::3", 0, 7));
+        assertNull(Ip6Address.parse(":1:2:3:4:5:6:7", 0, 14));
+        assertNull(Ip6Address.parse("1:2:3:4:5:6:7:", 0, 14));
+        assertNull(Ip6Address.parse("1:2:3:4:5:6:7", 0, 13));
+        assertNull(Ip6Address.parse("1:2:3:4:5:6:7:8:9", 0, 17));
+        // a :: must stand for at least one group
+        assertNull(Ip6Address.parse("1:2:3:4::5:6:7:8", 0, 16));
+        assertNull(Ip6Address.parse("12345::", 0, 7));
+        assertNull(Ip6Address.parse("g::", 0, 3));
+        assertNull(Ip6Address.parse("::ffff:192.0.2.256", 0, 18));
+        assertNull(Ip6Address.parse("::192.0.2.1:1", 0, 13));
+        assertNull(Ip6Address.parse("1:2:3:4:5:6:7:1.2.3.4", 0, 21));
+        assertNull(Ip6Address.parse("192.0.2.1", 0, 9));
+        // full width digits are not hex digits
+        assertNull(Ip6Address.parse("\uff11::", 0, 3));
+
+        assertTrue(Ip6Address.validate("2001:db8::1"));
+        assertFalse(Ip6Address.validate("2001:db8:::1"));
+        assertFalse(Ip6Address.validate(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fromStringTestMalformed() {
+        Ip6Address.fromString("2001:db8::1::");
+    }
+
+    @Test
+    public void toStringTest() {
+        assertEquals("2001:db8::8:800:200c:417a",
+                Ip6Address.fromString("2001:0DB8:0:0:8:800:200C:417A").toString());
+        assertEquals("::", Ip6Address.fromString("0:0:0:0:0:0:0:0").toString());
+        assertEquals("::1", Ip6Address.fromString("0:0:0:0:0:0:0:1").toString());
+        assertEquals("1::", Ip6Address.fromString("1:0:0:0:0:0:0:0").toString());
+        // a single zero group is not compressed
+        assertEquals("2001:db8:0:1:1:1:1:1",
+                Ip6Address.fromString("2001:db8::1:1:1:1:1").toString());
+        // the longest run is compressed, the first one on a tie
+        assertEquals("2001:0:0:1::1", Ip6Address.fromString("2001:0:0:1:0:0:0:1").toString());
+        assertEquals("2001:db8::1:0:0:1", Ip6Address.fromString("2001:db8:0:0:1:0:0:1").toString());
+        assertEquals("1:2:3:4:5:6:7:8", Ip6Address.fromString("1:2:3:4:5:6:7:8").toString());
+        assertEquals("::ffff:192.0.2.1", Ip6Address.fromString("::ffff:c000:201").toString());
+    }
+
+    @Test
+    public void compareToTest() {
+        Ip6Address low = Ip6Address.fromString("::1");
+        Ip6Address middle = Ip6Address.fromString("::8000:0:0:0");
+        Ip6Address high = Ip6Address.fromString("8000::");
+        Ip6Address highest = Ip6Address.fromString("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff");
+
+        // the halves compare as unsigned numbers
+        assertTrue(low.compareTo(middle) < 0);
+        assertTrue(middle.compareTo(high) < 0);
+        assertTrue(high.compareTo(highest) < 0);
+        assertTrue(highest.compareTo(low) > 0);
+        assertEquals(0, middle.compareTo(Ip6Address.fromLongs(0, Long.MIN_VALUE)));
+    }
+}
@@ -0,0 +1,119 @@
+package com.evanhalley.whereip;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Ip6RangeTest {
+
+    private static Ip6Range parse(String entry) {
+        return Ip6Range.parse(entry, 0, entry.length());
+    }
+
+    @Test
+    public void parseTest() {
+        Ip6Range range = parse("2001:db8::/32");
+        assertEquals(Ip6Address.fromString("2001:db8::"), range.getStart());
+        assertEquals(Ip6Address.fromString("2001:db8:ffff:ffff:ffff:ffff:ffff:ffff"),
+                range.getEnd());
+
+        // host bits are ignored
+        assertEquals(parse("2001:db8::/64"), parse("2001:db8::1234/64"));
+        assertEquals(parse("2001:db8::5-2001:db8::7"), parse("2001:db8::7-2001:db8::5"));
+        assertEquals(parse("2001:db8::5-2001:db8::5"), parse("2001:db8::5"));
+        assertEquals(parse("2001:db8::5-2001:db8::5"), parse("2001:db8::5/128"));
+        assertEquals(parse("2001:db8::-2001:db8::ff"), parse("2001:db8::/120"));
+        assertEquals(parse("2001:db8::-2001:db8::1:ffff"), parse("2001:db8::/111"));
+        assertEquals(parse("2001:db8::-2001:db8:0:1:ffff:ffff:ffff:ffff"),
+                parse("2001:db8::/63"));
+    }
+
+    @Test
+    public void parseTestWholeSpace() {
+        Ip6Range range = parse("::/0");
+        assertEquals(Ip6Address.fromLongs(0, 0), range.getStart());
+        assertEquals(Ip6Address.fromLongs(-1, -1), range.getEnd());
+        assertEquals(Long.MAX_VALUE, range.size());
+        assertTrue(range.contains(Ip6Address.fromString("8000::1")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseTestInvalidPrefix() {
+        parse("2001:db8::/129");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseTestMalformedRange() {
+        parse("2001:db8::1-10.0.0.1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseTestMalformedCidr() {
+        parse("2001:db8::/");
+    }
+
+    @Test
+    public void sizeTest() {
+        assertEquals(1, parse("2001:db8::1").size());
+        assertEquals(256, parse("2001:db8::/120").size());
+        assertEquals(1L << 62, parse("2001:db8::/66").size());
+        // 2^63 addresses no longer fit a long
+        assertEquals(Long.MAX_VALUE, parse("2001:db8::/65").size());
+        assertEquals(Long.MAX_VALUE, parse("2001:db8::/32").size());
+        // a borrow from the high half
+        assertEquals(2, parse("::ffff:ffff:ffff:ffff-::1:0:0:0:0").size());
+    }
+
+    @Test
+    public void containsTest() {
+        Ip6Range range = parse("2001:db8::/32");
+        assertTrue(range.contains(Ip6Address.fromString("2001:db8:1234::1")));
+        assertFalse(range.contains(Ip6Address.fromString("2001:db9::")));
+        assertFalse(range.contains(Ip6Address.fromString("2001:db7:ffff::")));
+    }
+
+    @Test
+    public void cursorTest() {
+        // crosses the boundary between the low and high halves
+        Ip6Range.Cursor cursor = parse("::ffff:ffff:ffff:fffe-::1:0:0:0:1").cursor();
+        List<String> ipAddresses = new ArrayList<>();
+        StringBuilder builder = new StringBuilder();
+
+        while (cursor.moveToNext()) {
+            builder.setLength(0);
+            ipAddresses.add(cursor.appendIpAddress(builder).toString());
+        }
+        assertEquals(Arrays.asList("::ffff:ffff:ffff:fffe", "::ffff:ffff:ffff:ffff",
+                "0:0:0:1::", "::1:0:0:0:1"), ipAddresses);
+        assertFalse(cursor.moveToNext());
+    }
+
+    @Test
+    public void cursorTestEndOfSpace() {
+        Ip6Range.Cursor cursor = parse("ffff:ffff:ffff:ffff:ffff:ffff:ffff:fffe/127").cursor();
+        assertTrue(cursor.moveToNext());
+        assertEquals(-2, cursor.getLow());
+        assertTrue(cursor.moveToNext());
+        assertEquals(-1, cursor.getLow());
+        assertEquals(-1, cursor.getHigh());
+        // the last address does not wrap around to ::
+        assertFalse(cursor.moveToNext());
+    }
+
+    @Test
+    public void cursorTestLargePrefix() {
+        // only the addresses read are produced, the /32 is never materialized
+        Ip6Range.Cursor cursor = parse("2001:db8::/32").cursor();
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(cursor.moveToNext());
+        }
+        assertEquals("2001:db8::2", cursor.getIpAddress());
+    }
+}
@@ -0,0 +1,78 @@
+package com.evanhalley.whereip;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IpRangeTest {
+
+    @Test
+    public void fromAddressesTest() {
+        IpRange range = IpRange.fromAddresses("192.168.1.255", "192.168.1.0");
+        assertEquals(LookupHelper.ipStringToNumber("192.168.1.0"), range.getStart());
+        assertEquals(LookupHelper.ipStringToNumber("192.168.1.255"), range.getEnd());
+        assertEquals(256, range.size());
+        assertEquals("192.168.1.0-192.168.1.255", range.toString());
+    }
+
+    @Test
+    public void sizeTest() {
+        assertEquals(1, IpRange.fromAddresses("10.0.0.1", "10.0.0.1").size());
+        assertEquals(16777216, IpRange.fromAddresses("10.0.0.0", "10.255.255.255").size());
+        assertEquals(4294967296L, IpRange.fromAddresses("0.0.0.0", "255.255.255.255").size());
+    }
+
+    @Test
+    public void containsTest() {
+        IpRange range = IpRange.fromAddresses("255.255.255.0", "255.255.255.255");
+        assertTrue(range.contains(LookupHelper.ipStringToNumber("255.255.255.128")));
+        assertTrue(range.contains(4294967295L));
+        assertFalse(range.contains(LookupHelper.ipStringToNumber("255.255.254.255")));
+    }
+
+    @Test
+    public void cursorTest() {
+        IpRange.Cursor cursor = IpRange.fromAddresses("255.255.255.254", "255.255.255.255")
+                .cursor();
+        assertTrue(cursor.moveToNext());
+        assertEquals("255.255.255.254", cursor.getIpAddress());
+        assertTrue(cursor.moveToNext());
+        assertEquals(4294967295L, cursor.getIpNumber());
+        assertFalse(cursor.moveToNext());
+        assertFalse(cursor.moveToNext());
+    }
+
+    @Test
+    public void cursorLargeRangeTest() {
+        IpRange.Cursor cursor = IpRange.fromAddresses("10.0.0.0", "10.255.255.255").cursor();
+        long count = 0;
+
+        while (cursor.moveToNext()) {
+            count++;
+        }
+        assertEquals(16777216, count);
+    }
+
+    @Test
+    public void asListTest() {
+        List<String> addresses = IpRange.fromAddresses("192.168.1.0", "192.168.1.255").asList();
+        assertEquals(256, addresses.size());
+        assertEquals("192.168.1.0", addresses.get(0));
+        assertEquals("192.168.1.128", addresses.get(128));
+        assertEquals("192.168.1.255", addresses.get(255));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void asListOutOfBoundsTest() {
+        IpRange.fromAddresses("192.168.1.0", "192.168.1.255").asList().get(256);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void asListTooLargeTest() {
+        IpRange.fromAddresses("0.0.0.0", "255.255.255.255").asList();
+    }
+}
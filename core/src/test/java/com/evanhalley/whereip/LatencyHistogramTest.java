@@ -0,0 +1,57 @@
+package com.evanhalley.whereip;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketIndexTest() {
+        // every value falls into the bucket whose bounds contain it
+        long[] values = {0, 1, 31, 32, 33, 63, 64, 65, 1000, 123456789L, Long.MAX_VALUE};
+
+        for (long value : values) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(LatencyHistogram.bucketUpperBound(index) >= value);
+            assertTrue(index == 0 || LatencyHistogram.bucketUpperBound(index - 1) < value);
+        }
+        assertEquals(31, LatencyHistogram.bucketIndex(31));
+        assertEquals(32, LatencyHistogram.bucketIndex(32));
+        assertEquals(64, LatencyHistogram.bucketIndex(64));
+        assertEquals(64, LatencyHistogram.bucketIndex(65));
+    }
+
+    @Test
+    public void percentileTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (long millis = 1; millis <= 100; millis++) {
+            histogram.record(millis * 1000000);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(50.5e6, snapshot.getMean(), 1);
+        assertEquals(100000000, snapshot.getMax());
+        assertEquals(50e6, snapshot.getPercentile(50), 50e6 / 32);
+        assertEquals(99e6, snapshot.getPercentile(99), 99e6 / 32);
+        assertEquals(100000000, snapshot.getPercentile(100));
+        assertEquals(1e6, snapshot.getPercentile(0), 1e6 / 32);
+    }
+
+    @Test
+    public void resetTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5000);
+        histogram.record(-1);
+        assertEquals(2, histogram.snapshot().getCount());
+        assertEquals(0, histogram.snapshot().getPercentile(50));
+
+        histogram.reset();
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.getPercentile(99));
+    }
+}
@@ -0,0 +1,85 @@
+package com.evanhalley.whereip;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class LocationBatcherTest {
+
+    private static class RecordingListener implements LocationBatcher.Listener {
+
+        final List<Integer> mBatchSizes = new ArrayList<>();
+        final List<Long> mProcessedCounts = new ArrayList<>();
+
+        @Override
+        public synchronized void onBatch(ArrayList<Location> locations, long processedCount) {
+            mBatchSizes.add(locations.size());
+            mProcessedCounts.add(processedCount);
+        }
+
+        synchronized int getBatchCount() {
+            return mBatchSizes.size();
+        }
+    }
+
+    private static Location buildLocation(String ipAddress) {
+        return new Location.Builder()
+                .setCity("Raleigh")
+                .setCountryName("United States")
+                .setIpAddress(ipAddress)
+                .build();
+    }
+
+    @Test
+    public void batchSizeTest() {
+        RecordingListener listener = new RecordingListener();
+        LocationBatcher batcher = new LocationBatcher(10, 60000, listener);
+
+        for (int i = 0; i < 25; i++) {
+            batcher.add(buildLocation(LookupHelper.ipNumberToString(i)));
+        }
+        assertEquals(2, listener.getBatchCount());
+        batcher.close();
+
+        assertEquals(3, listener.getBatchCount());
+        assertEquals(Integer.valueOf(10), listener.mBatchSizes.get(0));
+        assertEquals(Integer.valueOf(10), listener.mBatchSizes.get(1));
+        assertEquals(Integer.valueOf(5), listener.mBatchSizes.get(2));
+        assertEquals(Long.valueOf(10), listener.mProcessedCounts.get(0));
+        assertEquals(Long.valueOf(25), listener.mProcessedCounts.get(2));
+    }
+
+    @Test
+    public void maxDelayTest() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        LocationBatcher batcher = new LocationBatcher(100, 20, listener);
+        batcher.add(buildLocation("0.0.0.1"));
+        batcher.add(null);
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (listener.getBatchCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, listener.getBatchCount());
+        assertEquals(Integer.valueOf(1), listener.mBatchSizes.get(0));
+        assertEquals(Long.valueOf(2), listener.mProcessedCounts.get(0));
+
+        // nothing new to deliver
+        batcher.close();
+        assertEquals(1, listener.getBatchCount());
+    }
+
+    @Test
+    public void progressOnlyTest() {
+        RecordingListener listener = new RecordingListener();
+        LocationBatcher batcher = new LocationBatcher(10, 60000, listener);
+        batcher.addProcessed(500);
+        batcher.close();
+        assertEquals(1, listener.getBatchCount());
+        assertEquals(Integer.valueOf(0), listener.mBatchSizes.get(0));
+        assertEquals(Long.valueOf(500), listener.mProcessedCounts.get(0));
+    }
+}
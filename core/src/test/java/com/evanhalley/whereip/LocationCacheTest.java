@@ -0,0 +1,90 @@
+package com.evanhalley.whereip;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LocationCacheTest {
+
+    private static class TestLocationCache extends LocationCache {
+
+        private long mNow = 1000;
+
+        TestLocationCache(int maxEntries, long timeToLiveMs) {
+            super(maxEntries, timeToLiveMs);
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return mNow;
+        }
+    }
+
+    private static Location buildLocation(String ipAddress) {
+        return new Location.Builder()
+                .setCity("Raleigh")
+                .setCountryName("United States")
+                .setIpAddress(ipAddress)
+                .setLatitude(35.7721)
+                .setLongitude(-78.6386)
+                .build();
+    }
+
+    @Test
+    public void getPutTest() {
+        LocationCache cache = new TestLocationCache(10, 1000);
+        Location location = buildLocation("108.197.13.169");
+        assertNull(cache.get(1824853417));
+        cache.put(1824853417, location);
+        assertSame(location, cache.get(1824853417).getLocation());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void highIpNumberTest() {
+        LocationCache cache = new TestLocationCache(10, 1000);
+        Location location = buildLocation("255.255.255.255");
+        cache.put(4294967295L, location);
+        assertSame(location, cache.get(4294967295L).getLocation());
+        assertNull(cache.get(2147483647L));
+    }
+
+    @Test
+    public void lruEvictionTest() {
+        LocationCache cache = new TestLocationCache(2, 1000);
+        cache.put(1, buildLocation("0.0.0.1"));
+        cache.put(2, buildLocation("0.0.0.2"));
+        cache.get(1);
+        cache.put(3, buildLocation("0.0.0.3"));
+
+        // 2 was the least recently used entry
+        assertNull(cache.get(2));
+        assertEquals("0.0.0.1", cache.get(1).getLocation().getIpAddress());
+        assertEquals("0.0.0.3", cache.get(3).getLocation().getIpAddress());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void timeToLiveTest() {
+        TestLocationCache cache = new TestLocationCache(10, 1000);
+        cache.put(1, buildLocation("0.0.0.1"));
+        cache.mNow += 999;
+        assertEquals("0.0.0.1", cache.get(1).getLocation().getIpAddress());
+        cache.mNow += 1;
+        assertNull(cache.get(1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void invalidEntryTest() {
+        LocationCache cache = new TestLocationCache(10, 1000);
+        cache.putInvalid(167772161);
+        assertTrue(cache.get(167772161).isInvalid());
+        assertNull(cache.get(167772161).getLocation());
+    }
+}
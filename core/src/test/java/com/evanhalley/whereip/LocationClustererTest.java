@@ -0,0 +1,100 @@
+package com.evanhalley.whereip;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LocationClustererTest {
+
+    private static Location buildLocation(String city, double latitude, double longitude) {
+        return new Location.Builder()
+                .setCity(city)
+                .setCountryName("United States")
+                .setIpAddress("108.197.13.169")
+                .setLatitude(latitude)
+                .setLongitude(longitude)
+                .build();
+    }
+
+    private static int countLocations(List<LocationClusterer.Cluster> clusters) {
+        int count = 0;
+
+        for (LocationClusterer.Cluster cluster : clusters) {
+            count += cluster.getSize();
+        }
+        return count;
+    }
+
+    @Test
+    public void duplicateCoordinatesTest() {
+        LocationClusterer clusterer = new LocationClusterer(64);
+        assertTrue(clusterer.add(buildLocation("Raleigh", 35.7721, -78.6386)));
+        assertFalse(clusterer.add(buildLocation("Raleigh", 35.7721, -78.6386)));
+        assertTrue(clusterer.add(buildLocation("Durham", 35.9940, -78.8986)));
+        assertEquals(2, clusterer.size());
+
+        // growing the coordinate set keeps every key
+        for (int i = 0; i < 1000; i++) {
+            clusterer.add(buildLocation("Grid", i / 100.0, i % 100));
+        }
+        assertEquals(1002, clusterer.size());
+        assertFalse(clusterer.add(buildLocation("Grid", 9.99, 99)));
+
+        clusterer.clear();
+        assertEquals(0, clusterer.size());
+        assertTrue(clusterer.add(buildLocation("Raleigh", 35.7721, -78.6386)));
+    }
+
+    @Test
+    public void zoomTest() {
+        LocationClusterer clusterer = new LocationClusterer(64);
+        clusterer.add(buildLocation("Raleigh", 35.7721, -78.6386));
+        clusterer.add(buildLocation("Durham", 35.9940, -78.8986));
+        clusterer.add(buildLocation("Zurich", 47.36667, 8.55));
+
+        // Raleigh and Durham share a cell when zoomed out, the centroid is between them
+        List<LocationClusterer.Cluster> clusters = clusterer.getClusters(2, -85, -180, 85, 180);
+        assertEquals(2, clusters.size());
+        assertEquals(3, countLocations(clusters));
+
+        for (LocationClusterer.Cluster cluster : clusters) {
+
+            if (cluster.getSize() == 2) {
+                assertEquals((35.7721 + 35.9940) / 2, cluster.getLatitude(), 1e-9);
+                assertEquals((-78.6386 + -78.8986) / 2, cluster.getLongitude(), 1e-9);
+            }
+        }
+
+        // every location is it's own cluster when zoomed in
+        clusters = clusterer.getClusters(14, -85, -180, 85, 180);
+        assertEquals(3, clusters.size());
+
+        // zoom levels past the maximum are clamped
+        assertEquals(3, clusterer.getClusters(30, -85, -180, 85, 180).size());
+    }
+
+    @Test
+    public void viewportTest() {
+        LocationClusterer clusterer = new LocationClusterer(64);
+        clusterer.add(buildLocation("Raleigh", 35.7721, -78.6386));
+        clusterer.add(buildLocation("Zurich", 47.36667, 8.55));
+        clusterer.add(buildLocation("Suva", -18.1416, 178.4419));
+        clusterer.add(buildLocation("Honolulu", 21.3069, -157.8583));
+
+        List<LocationClusterer.Cluster> clusters = clusterer.getClusters(10, 30, -90, 40, -70);
+        assertEquals(1, clusters.size());
+        assertEquals("Raleigh", clusters.get(0).getLocation().getCity());
+
+        // viewport crossing the antimeridian
+        clusters = clusterer.getClusters(10, -30, 170, 30, -150);
+        assertEquals(2, clusters.size());
+
+        // clusters are recomputed once new locations are added
+        clusterer.add(buildLocation("Durham", 35.9940, -78.8986));
+        assertEquals(2, clusterer.getClusters(10, 30, -90, 40, -70).size());
+    }
+}
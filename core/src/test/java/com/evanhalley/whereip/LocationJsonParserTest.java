@@ -0,0 +1,104 @@
+package com.evanhalley.whereip;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LocationJsonParserTest {
+
+    private static final String LOCATION_JSON = "{\n\t\"statusCode\" : \"OK\",\n" +
+            "\t\"statusMessage\" : \"\",\n\t\"ipAddress\" : \"108.197.13.169\",\n" +
+            "\t\"countryCode\" : \"US\",\n\t\"countryName\" : \"United States\",\n" +
+            "\t\"regionName\" : \"North Carolina\",\n\t\"cityName\" : \"Raleigh\",\n" +
+            "\t\"zipCode\" : \"27601\",\n\t\"latitude\" : \"35.7721\",\n" +
+            "\t\"longitude\" : \"-78.6386\",\n\t\"timeZone\" : \"-04:00\"\n}";
+
+    private final LocationJsonParser mParser = new LocationJsonParser();
+
+    private static InputStream toStream(String json) {
+        return new ByteArrayInputStream(json.getBytes(Charset.forName("UTF-8")));
+    }
+
+    @Test
+    public void parseTest() throws IOException {
+        Location location = mParser.parse(toStream(LOCATION_JSON), "108.197.13.169");
+        assertEquals("108.197.13.169", location.getIpAddress());
+        assertEquals("Raleigh", location.getCity());
+        assertEquals("United States", location.getCountryName());
+        assertEquals(Double.parseDouble("35.7721"), location.getLatitude(), 0);
+        assertEquals(Double.parseDouble("-78.6386"), location.getLongitude(), 0);
+    }
+
+    @Test
+    public void parserReuseTest() throws IOException {
+        mParser.parse(toStream(LOCATION_JSON), "108.197.13.169");
+        Location location = mParser.parse(toStream(LOCATION_JSON
+                .replace("Raleigh", "Z\u00fcrich").replace("United States", "Switzerland")
+                .replace("\"35.7721\"", "47.36667").replace("\"-78.6386\"", "8.55")),
+                "108.197.13.169");
+        assertEquals("Z\u00fcrich", location.getCity());
+        assertEquals("Switzerland", location.getCountryName());
+        assertEquals(47.36667, location.getLatitude(), 0);
+        assertEquals(8.55, location.getLongitude(), 0);
+    }
+
+    @Test
+    public void escapesTest() throws IOException {
+        Location location = mParser.parse(toStream(LOCATION_JSON
+                .replace("Raleigh", "Winston\\/Salem \\\"NC\\\" \\u00e9")
+                .replace("\"zipCode\" : \"27601\"", "\"extra\" : {\"a\" : [1, \"}\"]}")),
+                "108.197.13.169");
+        assertEquals("Winston/Salem \"NC\" \u00e9", location.getCity());
+    }
+
+    @Test
+    public void parseDoubleTest() throws IOException {
+        String[] values = {"0", "-0.5", "90", "-180.000000", "12.3456789012345", "1.5e1",
+                "0.000000000000000000000001"};
+
+        for (String value : values) {
+            Location location = mParser.parse(toStream(LOCATION_JSON
+                    .replace("\"-78.6386\"", "\"" + value + "\"")), "108.197.13.169");
+            assertEquals(Double.parseDouble(value), location.getLongitude(), 0);
+        }
+    }
+
+    @Test
+    public void badStatusTest() throws IOException {
+
+        // parsing stops at the status code, the rest of the response is never read
+        assertNull(mParser.parse(toStream("{\"statusCode\":\"ERROR\",\"statusMessage\":" +
+                "\"Invalid API key.\", this is not JSON"), "108.197.13.169"));
+        assertNull(mParser.parse(toStream("{}"), "108.197.13.169"));
+    }
+
+    @Test(expected = InvalidLocationException.class)
+    public void invalidLocationTest() throws IOException {
+        mParser.parse(toStream("{\"statusCode\":\"OK\",\"statusMessage\":\"\"," +
+                "\"ipAddress\":\"10.0.0.1\",\"countryCode\":\"-\",\"countryName\":\"-\"," +
+                "\"regionName\":\"-\",\"cityName\":\"-\",\"zipCode\":\"-\",\"latitude\":\"0\"," +
+                "\"longitude\":\"0\",\"timeZone\":\"-\"}"), "10.0.0.1");
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedTest() throws IOException {
+        mParser.parse(toStream(LOCATION_JSON.substring(0, 100)), "108.197.13.169");
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidNumberTest() throws IOException {
+        mParser.parse(toStream(LOCATION_JSON.replace("\"35.7721\"", "\"north\"")),
+                "108.197.13.169");
+    }
+
+    @Test(expected = IOException.class)
+    public void missingCityTest() throws IOException {
+        mParser.parse(toStream(LOCATION_JSON.replace("cityName", "city")), "108.197.13.169");
+    }
+}
@@ -0,0 +1,291 @@
+package com.evanhalley.whereip;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.QueueDispatcher;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class LookupClientTest {
+
+    private static final String API_KEY = "test_key";
+
+    private static final String LOCATION_JSON = "{\"statusCode\":\"OK\",\"statusMessage\":\"\"," +
+            "\"ipAddress\":\"108.197.13.169\",\"countryCode\":\"US\"," +
+            "\"countryName\":\"United States\",\"regionName\":\"North Carolina\"," +
+            "\"cityName\":\"Raleigh\",\"zipCode\":\"27601\",\"latitude\":\"35.7721\"," +
+            "\"longitude\":\"-78.6386\",\"timeZone\":\"-04:00\"}";
+
+    private static final String INVALID_LOCATION_JSON = "{\"statusCode\":\"OK\"," +
+            "\"statusMessage\":\"\",\"ipAddress\":\"41.0.0.1\",\"countryCode\":\"-\"," +
+            "\"countryName\":\"-\",\"regionName\":\"-\",\"cityName\":\"-\",\"zipCode\":\"-\"," +
+            "\"latitude\":\"0\",\"longitude\":\"0\",\"timeZone\":\"-\"}";
+
+    private MockWebServer mServer;
+    private LookupClient mClient;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+        mClient = new LookupClient(mServer.getUrl("/v3/ip-city/").toString() +
+                "?key=|KEY|&ip=|IP|&format=json");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void getLocationByIpTest() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(LOCATION_JSON));
+        Location location = mClient.getLocationByIp("108.197.13.169", API_KEY);
+        assertEquals("Raleigh", location.getCity());
+        assertEquals("United States", location.getCountryName());
+        assertEquals(35.7721, location.getLatitude(), 0.00001);
+        assertEquals(-78.6386, location.getLongitude(), 0.00001);
+
+        RecordedRequest request = mServer.takeRequest();
+        assertEquals("/v3/ip-city/?key=test_key&ip=108.197.13.169&format=json",
+                request.getPath());
+    }
+
+    @Test
+    public void connectionReuseTest() throws Exception {
+        int lookups = 50;
+
+        for (int i = 0; i < lookups; i++) {
+            mServer.enqueue(new MockResponse().setBody(LOCATION_JSON));
+        }
+
+        for (int i = 0; i < lookups; i++) {
+            mClient.getLocationByIp("108.197.13.169", API_KEY);
+        }
+
+        // the sequence number counts requests made on the same connection, every lookup
+        //   should have been served over the first connection
+        for (int i = 0; i < lookups; i++) {
+            assertEquals(i, mServer.takeRequest().getSequenceNumber());
+        }
+        assertEquals(1, mClient.getHttpClient().getConnectionPool().getConnectionCount());
+    }
+
+    @Test
+    public void connectionReuseAfterErrorTest() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(500).setBody("error"));
+        mServer.enqueue(new MockResponse().setBody(LOCATION_JSON));
+
+        try {
+            mClient.getLocationByIp("108.197.13.169", API_KEY);
+            fail("Expected the 500 response to fail the lookup");
+        } catch (IOException e) {
+            // expected
+        }
+        mClient.getLocationByIp("108.197.13.169", API_KEY);
+
+        assertEquals(0, mServer.takeRequest().getSequenceNumber());
+        assertEquals(1, mServer.takeRequest().getSequenceNumber());
+    }
+
+    @Test
+    public void getLocationByIp6Test() throws Exception {
+        mClient.setCache(new LocationCache(100, 60000));
+        mServer.enqueue(new MockResponse().setBody(LOCATION_JSON));
+        mServer.enqueue(new MockResponse().setBody(LOCATION_JSON));
+        assertEquals("Raleigh", mClient.getLocationByIp("2001:DB8:0:0::1", API_KEY).getCity());
+        // IPv4 mapped addresses are looked up as IPv4
+        assertEquals("Raleigh", mClient.getLocationByIp("::ffff:108.197.13.169", API_KEY)
+                .getCity());
+
+        // the canonical form is sent
+        assertEquals("/v3/ip-city/?key=test_key&ip=2001:db8::1&format=json",
+                mServer.takeRequest().getPath());
+        assertEquals("/v3/ip-city/?key=test_key&ip=108.197.13.169&format=json",
+                mServer.takeRequest().getPath());
+        // only the IPv4 lookup was cached
+        assertEquals(1, mClient.getCache().getMissCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getLocationByIp6MalformedTest() throws Exception {
+        mClient.getLocationByIp("2001:db8:::1", API_KEY);
+    }
+
+    @Test
+    public void cachedLookupTest() throws Exception {
+        mClient.setCache(new LocationCache(100, 60000));
+        mServer.enqueue(new MockResponse().setBody(LOCATION_JSON));
+        mServer.enqueue(new MockResponse().setBody(INVALID_LOCATION_JSON));
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("Raleigh", mClient.getLocationByIp("108.197.13.169", API_KEY).getCity());
+
+            try {
+                mClient.getLocationByIp("41.0.0.1", API_KEY);
+                fail("Expected an invalid location");
+            } catch (InvalidLocationException e) {
+                // expected
+            }
+        }
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(4, mClient.getCache().getHitCount());
+        assertEquals(2, mClient.getCache().getMissCount());
+    }
+
+    @Test(expected = InvalidLocationException.class)
+    public void getLocationByIpInvalidLocationTest() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(INVALID_LOCATION_JSON));
+        mClient.getLocationByIp("41.0.0.1", API_KEY);
+    }
+
+    @Test
+    public void getLocationByIpReservedTest() throws Exception {
+
+        try {
+            mClient.getLocationByIp("192.168.1.1", API_KEY);
+            fail("Expected the lookup to fail");
+        } catch (InvalidLocationException e) {
+            // expected
+        }
+        assertEquals(0, mServer.getRequestCount());
+        assertEquals(1, mClient.getMetrics().snapshot()
+                .getCount(LookupMetrics.Outcome.NOT_FOUND));
+    }
+
+    @Test
+    public void getLocationByIpBadStatusTest() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(
+                LOCATION_JSON.replace("\"statusCode\":\"OK\"", "\"statusCode\":\"ERROR\"")));
+        assertNull(mClient.getLocationByIp("108.197.13.169", API_KEY));
+    }
+
+    @Test
+    public void metricsTest() throws Exception {
+        mClient.setCache(new LocationCache(100, 60000));
+        mServer.enqueue(new MockResponse().setBody(LOCATION_JSON));
+        mServer.enqueue(new MockResponse().setBody(INVALID_LOCATION_JSON));
+        mServer.enqueue(new MockResponse().setResponseCode(503));
+        mServer.enqueue(new MockResponse().setBody("{\"statusCode\":"));
+        mClient.getLocationByIp("108.197.13.169", API_KEY);
+        mClient.getLocationByIp("108.197.13.169", API_KEY);
+        String[] failing = {"41.0.0.1", "41.0.0.2", "41.0.0.3"};
+
+        for (String ipAddress : failing) {
+
+            try {
+                mClient.getLocationByIp(ipAddress, API_KEY);
+                fail("Expected the lookup to fail");
+            } catch (IOException | InvalidLocationException e) {
+                // expected
+            }
+        }
+        LookupMetrics.Snapshot snapshot = mClient.getMetrics().snapshot();
+        assertEquals(2, snapshot.getCount(LookupMetrics.Outcome.LOCATED));
+        assertEquals(1, snapshot.getCount(LookupMetrics.Outcome.NOT_FOUND));
+        assertEquals(1, snapshot.getCount(LookupMetrics.Outcome.BAD_STATUS));
+        assertEquals(1, snapshot.getCount(LookupMetrics.Outcome.PARSE_ERROR));
+        assertEquals(0, snapshot.getCount(LookupMetrics.Outcome.NETWORK_ERROR));
+        assertEquals(1, snapshot.getCacheHitCount());
+        assertEquals(0, snapshot.getInFlight());
+        assertEquals(5, snapshot.getLatency(LookupMetrics.Phase.TOTAL).getCount());
+        assertEquals(4, snapshot.getLatency(LookupMetrics.Phase.CONNECT).getCount());
+        // every parsed body, the error response is not parsed
+        assertEquals(3, snapshot.getLatency(LookupMetrics.Phase.TRANSFER).getCount());
+        assertEquals(3, snapshot.getLatency(LookupMetrics.Phase.PARSE).getCount());
+    }
+
+    @Test
+    public void metricsNetworkErrorTest() throws Exception {
+        mServer.shutdown();
+
+        try {
+            mClient.getLocationByIp("108.197.13.169", API_KEY);
+            fail("Expected the lookup to fail");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(1, mClient.getMetrics().snapshot()
+                .getCount(LookupMetrics.Outcome.NETWORK_ERROR));
+    }
+
+    @Test
+    public void sharedLookupTest() throws Exception {
+        // every response is slow enough for the concurrent lookups to overlap
+        mServer.setDispatcher(new QueueDispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                Thread.sleep(500);
+                return super.dispatch(request);
+            }
+        });
+        mServer.enqueue(new MockResponse().setBody(LOCATION_JSON));
+        mServer.enqueue(new MockResponse().setResponseCode(503));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            // without a cache, every concurrent lookup of the address shares one request
+            mClient.setCache(null);
+            List<Future<Location>> lookups = lookUpConcurrently(executor, 4);
+
+            for (Future<Location> lookup : lookups) {
+                assertEquals("Raleigh", lookup.get().getCity());
+            }
+            assertEquals(1, mServer.getRequestCount());
+            assertEquals(3, mClient.getMetrics().snapshot().getSharedCount());
+
+            // a failure reaches every caller, the next lookup tries again
+            lookups = lookUpConcurrently(executor, 4);
+
+            for (Future<Location> lookup : lookups) {
+
+                try {
+                    lookup.get();
+                    fail("Expected the lookup to fail");
+                } catch (ExecutionException e) {
+                    assertEquals(LookupMetrics.Outcome.BAD_STATUS,
+                            ((LookupException) e.getCause()).getOutcome());
+                }
+            }
+            assertEquals(2, mServer.getRequestCount());
+            mServer.enqueue(new MockResponse().setBody(LOCATION_JSON));
+            assertEquals("Raleigh", mClient.getLocationByIp("108.197.13.169", API_KEY).getCity());
+            assertEquals(3, mServer.getRequestCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Future<Location>> lookUpConcurrently(ExecutorService executor, int count)
+            throws InterruptedException {
+        List<Future<Location>> lookups = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            lookups.add(executor.submit(new Callable<Location>() {
+                @Override
+                public Location call() throws Exception {
+                    return mClient.getLocationByIp("108.197.13.169", API_KEY);
+                }
+            }));
+            // the first lookup is in flight before the others start
+            Thread.sleep(i == 0 ? 100 : 0);
+        }
+        return lookups;
+    }
+}
@@ -0,0 +1,126 @@
+package com.evanhalley.whereip;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LookupEngineTest {
+
+    private static final long LATENCY_MS = 50;
+
+    private LookupEngine mEngine;
+
+    @After
+    public void tearDown() {
+
+        if (mEngine != null) {
+            mEngine.shutdown();
+        }
+    }
+
+    @Test
+    public void boundedParallelLookupTest() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        mEngine = new LookupEngine(new LookupEngine.Resolver() {
+            @Override
+            public Location resolve(String ipAddress) throws Exception {
+                int current = inFlight.incrementAndGet();
+
+                synchronized (maxInFlight) {
+                    maxInFlight.set(Math.max(maxInFlight.get(), current));
+                }
+                Thread.sleep(LATENCY_MS);
+                inFlight.decrementAndGet();
+                return new Location.Builder()
+                        .setCity("Raleigh")
+                        .setCountryName("United States")
+                        .setIpAddress(ipAddress)
+                        .build();
+            }
+        }, 8);
+
+        final Set<String> resolved = Collections.synchronizedSet(new HashSet<String>());
+        long start = System.currentTimeMillis();
+        mEngine.lookup(IpRange.fromAddresses("10.0.0.0", "10.0.0.63"),
+                new LookupEngine.Listener() {
+                    @Override
+                    public void onLocationResolved(String ipAddress, Location location) {
+                        resolved.add(location.getIpAddress());
+                    }
+
+                    @Override
+                    public void onLookupFailed(String ipAddress, Exception e) {
+                    }
+                });
+        long elapsed = System.currentTimeMillis() - start;
+
+        // 64 lookups, 8 at a time, should take about 8 round trips instead of 64
+        assertEquals(64, resolved.size());
+        assertEquals(0, inFlight.get());
+        assertEquals(8, maxInFlight.get());
+        assertTrue("Elapsed " + elapsed + "ms", elapsed < LATENCY_MS * 32);
+    }
+
+    @Test
+    public void lookupFailureTest() throws Exception {
+        mEngine = new LookupEngine(new LookupEngine.Resolver() {
+            @Override
+            public Location resolve(String ipAddress) throws Exception {
+                throw new RuntimeException("Invalid location");
+            }
+        }, 2);
+
+        final AtomicInteger failures = new AtomicInteger();
+        mEngine.lookup(IpRange.fromAddresses("10.0.0.0", "10.0.0.9"),
+                new LookupEngine.Listener() {
+                    @Override
+                    public void onLocationResolved(String ipAddress, Location location) {
+                    }
+
+                    @Override
+                    public void onLookupFailed(String ipAddress, Exception e) {
+                        failures.incrementAndGet();
+                    }
+                });
+        assertEquals(10, failures.get());
+    }
+
+    @Test
+    public void rateLimiterTest() throws Exception {
+        RateLimiter rateLimiter = new RateLimiter(100);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < 21; i++) {
+            rateLimiter.acquire();
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        // the first permit is immediate, the next 20 are spaced 10ms apart
+        assertTrue("Elapsed " + elapsedMs + "ms", elapsedMs >= 190);
+    }
+
+    @Test
+    public void rateLimiterBurstTest() throws Exception {
+        RateLimiter rateLimiter = new RateLimiter(20, 5);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < 5; i++) {
+            rateLimiter.acquire();
+        }
+        long burstMs = (System.nanoTime() - start) / 1000000;
+        rateLimiter.acquire();
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        // the burst is immediate, the permit after it waits for the bucket to refill
+        assertTrue("Burst " + burstMs + "ms", burstMs < 40);
+        assertTrue("Elapsed " + elapsedMs + "ms", elapsedMs >= 40);
+    }
+}
@@ -0,0 +1,197 @@
+package com.evanhalley.whereip;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class LookupHelperTest {
+
+    @Test
+    public void validateIpTest() {
+        assertEquals(true, LookupHelper.validateIpAddress("0.0.0.0"));
+        assertEquals(true, LookupHelper.validateIpAddress("255.255.255.255"));
+        assertEquals(false, LookupHelper.validateIpAddress("0.0.0"));
+        assertEquals(false, LookupHelper.validateIpAddress("0.0.0.300"));
+        assertEquals(false, LookupHelper.validateIpAddress("Evan Halley"));
+        assertEquals(false, LookupHelper.validateIpAddress("255255255255"));
+    }
+
+    @Test
+    public void toBinaryStringTest() {
+        assertEquals("11111111", LookupHelper.toBinaryString(255, 8));
+        assertEquals("00000000", LookupHelper.toBinaryString(0, 8));
+        assertEquals("00001111", LookupHelper.toBinaryString(15, 8));
+        assertEquals("001111", LookupHelper.toBinaryString(15, 6));
+        assertEquals("1111", LookupHelper.toBinaryString(15, 4));
+    }
+
+    @Test
+    public void ipStringToNumberTest() {
+        assertEquals(0, LookupHelper.ipStringToNumber("0.0.0.0"));
+        assertEquals(255, LookupHelper.ipStringToNumber("0.0.0.255"));
+        assertEquals(1824853417, LookupHelper.ipStringToNumber("108.197.13.169"));
+        assertEquals(4294967295L, LookupHelper.ipStringToNumber("255.255.255.255"));
+    }
+
+    @Test
+    public void ipNumberToStringTest() {
+        assertEquals("0.0.0.0", LookupHelper.ipNumberToString(0));
+        assertEquals("0.0.0.255", LookupHelper.ipNumberToString(255));
+        assertEquals("108.197.13.169", LookupHelper.ipNumberToString(1824853417));
+        assertEquals("255.255.255.255", LookupHelper.ipNumberToString(4294967295L));
+    }
+
+    @Test
+    public void validateIpLeadingZerosTest() {
+        assertEquals(true, LookupHelper.validateIpAddress("010.001.00.9"));
+        assertEquals(false, LookupHelper.validateIpAddress("0.0.0.0000"));
+        assertEquals(false, LookupHelper.validateIpAddress("256.0.0.0"));
+        assertEquals(false, LookupHelper.validateIpAddress("1..2.3"));
+        assertEquals(false, LookupHelper.validateIpAddress("1.2.3.4."));
+        assertEquals(false, LookupHelper.validateIpAddress(".1.2.3"));
+        assertEquals(false, LookupHelper.validateIpAddress("1.2.3.4.5"));
+        assertEquals(false, LookupHelper.validateIpAddress(""));
+        assertEquals(false, LookupHelper.validateIpAddress(null));
+    }
+
+    @Test
+    public void parseIpAddressTest() {
+        assertEquals(1824853417, LookupHelper.parseIpAddress("ip=108.197.13.169&", 3, 17));
+        assertEquals(-1, LookupHelper.parseIpAddress("ip=108.197.13.169&", 3, 18));
+        assertEquals(-1, LookupHelper.parseIpAddress("108.197.13.1690", 0, 15));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ipStringToNumberMalformedTest() {
+        LookupHelper.ipStringToNumber("108.197.13.300");
+    }
+
+    @Test
+    public void formatIpAddressTest() {
+        char[] buffer = new char[LookupHelper.MAX_IP_ADDRESS_LENGTH + 2];
+        int length = LookupHelper.formatIpAddress(1824853417, buffer, 2);
+        assertEquals("108.197.13.169", new String(buffer, 2, length));
+        length = LookupHelper.formatIpAddress(4294967295L, buffer, 2);
+        assertEquals("255.255.255.255", new String(buffer, 2, length));
+
+        StringBuilder builder = new StringBuilder();
+        LookupHelper.appendIpAddress(167772161, builder);
+        assertEquals("10.0.0.1", builder.toString());
+        builder.setLength(0);
+        LookupHelper.appendIpAddress(0, builder);
+        assertEquals("0.0.0.0", builder.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ipNumberToStringOutOfRangeTest() {
+        LookupHelper.ipNumberToString(4294967296L);
+    }
+
+    @Test
+    public void getIpAddressesInRangeTest() {
+        List<String> addresses = LookupHelper.getIpAddressesInRange("0.0.0.0", "0.0.1.0");
+        assertEquals(257, addresses.size());
+        addresses = LookupHelper.getIpAddressesInRange("0.0.0.0", "0.1.0.0");
+        assertEquals(65537, addresses.size());
+        addresses = LookupHelper.getIpAddressesInRange("0.1.0.0", "0.0.0.0");
+        assertEquals(65537, addresses.size());
+        addresses = LookupHelper.getIpAddressesInRange("192.168.1.0", "192.168.1.255");
+        assertEquals(256, addresses.size());
+        addresses = LookupHelper.getIpAddressesInRange("192.168.1.0", "192.168.1.0");
+        assertEquals(1, addresses.size());
+    }
+
+    @Test
+    public void cidrToRangeTest() {
+        assertEquals(IpRange.fromAddresses("10.0.0.0", "10.0.0.255"),
+                LookupHelper.cidrToRange("10.0.0.0/24"));
+        assertEquals(IpRange.fromAddresses("10.0.0.0", "10.0.0.255"),
+                LookupHelper.cidrToRange("10.0.0.77/24"));
+        assertEquals(IpRange.fromAddresses("0.0.0.0", "255.255.255.255"),
+                LookupHelper.cidrToRange("1.2.3.4/0"));
+        assertEquals(IpRange.fromAddresses("1.2.3.4", "1.2.3.4"),
+                LookupHelper.cidrToRange("1.2.3.4/32"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cidrToRangeTestInvalidPrefix() {
+        LookupHelper.cidrToRange("10.0.0.0/33");
+    }
+
+    @Test
+    public void parseIpRangesTest() {
+        List<IpRange> ranges = LookupHelper.parseIpRanges(
+                " 10.0.1.0/24, 10.0.0.5-10.0.0.1;10.0.0.6 10.0.0.200-10.0.1.10\n192.168.1.1");
+        assertEquals(3, ranges.size());
+        assertEquals(IpRange.fromAddresses("10.0.0.1", "10.0.0.6"), ranges.get(0));
+        assertEquals(IpRange.fromAddresses("10.0.0.200", "10.0.1.255"), ranges.get(1));
+        assertEquals(IpRange.fromAddresses("192.168.1.1", "192.168.1.1"), ranges.get(2));
+        assertEquals(6 + 312 + 1, LookupHelper.countIpAddresses(ranges));
+    }
+
+    @Test
+    public void parseIpRangesTestIp6() {
+        List<Ip6Range> ip6Ranges = new ArrayList<>();
+        List<IpRange> ranges = LookupHelper.parseIpRanges(
+                "10.0.0.0/24, 2001:db8::/32 ::1-::5;10.0.0.255", ip6Ranges);
+        assertEquals(Collections.singletonList(IpRange.fromAddresses("10.0.0.0", "10.0.0.255")),
+                ranges);
+        assertEquals(2, ip6Ranges.size());
+        assertEquals(Ip6Range.fromAddresses(Ip6Address.fromString("::1"),
+                Ip6Address.fromString("::5")), ip6Ranges.get(1));
+        assertEquals(Long.MAX_VALUE, LookupHelper.countIp6Addresses(ip6Ranges));
+
+        // a list of only IPv6 entries is not empty
+        ip6Ranges.clear();
+        assertEquals(0, LookupHelper.parseIpRanges("2001:db8::1", ip6Ranges).size());
+        assertEquals(1, LookupHelper.countIp6Addresses(ip6Ranges));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseIpRangesTestIp6NotAccepted() {
+        LookupHelper.parseIpRanges("10.0.0.0/24, 2001:db8::/32");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseIpRangesTestMalformed() {
+        LookupHelper.parseIpRanges("10.0.0.0/24, 10.0.0.1-");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseIpRangesTestEmpty() {
+        LookupHelper.parseIpRanges(" , ");
+    }
+
+    @Test
+    public void subtractIpRangesTest() {
+        List<IpRange> ranges = LookupHelper.parseIpRanges("10.0.0.0-10.0.0.100, 10.0.1.0/24");
+        List<IpRange> excluded = LookupHelper.parseIpRanges(
+                "9.0.0.0-10.0.0.9, 10.0.0.20-10.0.0.29, 10.0.0.90-10.0.1.9, 10.0.1.255");
+        List<IpRange> remainder = LookupHelper.subtractIpRanges(ranges, excluded);
+        assertEquals(3, remainder.size());
+        assertEquals(IpRange.fromAddresses("10.0.0.10", "10.0.0.19"), remainder.get(0));
+        assertEquals(IpRange.fromAddresses("10.0.0.30", "10.0.0.89"), remainder.get(1));
+        assertEquals(IpRange.fromAddresses("10.0.1.10", "10.0.1.254"), remainder.get(2));
+
+        assertEquals(0, LookupHelper.subtractIpRanges(ranges, ranges).size());
+        assertEquals(ranges, LookupHelper.subtractIpRanges(ranges, excluded.subList(0, 0)));
+        assertEquals(ranges, LookupHelper.subtractIpRanges(ranges,
+                LookupHelper.parseIpRanges("0.0.0.0/8, 11.0.0.0/8")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getLocationByIpTestInvalidIp() throws Exception {
+        LookupHelper.getLocationByIp(
+                null, "3204fdf2d16fc5fd10a5b8a1dae82b1a1fee4f039c8e4fd240ceafd8e9505caa");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getLocationByIpTestInvalidApiKey() throws Exception {
+        LookupHelper.getLocationByIp(
+                null, "3204fdf2d16fc5fd10a5b8a1dae82b1a1fee4f039c8e4fd240ceafd8e9505caa");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,57 @@
+package com.evanhalley.whereip;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LookupMetricsTest {
+
+    @Test
+    public void lookupTest() {
+        LookupMetrics metrics = new LookupMetrics();
+        long first = metrics.lookupStarted();
+        long second = metrics.lookupStarted();
+        assertEquals(2, metrics.getInFlight());
+
+        metrics.lookupFinished(first, LookupMetrics.Outcome.LOCATED);
+        metrics.lookupFinished(second, LookupMetrics.Outcome.NETWORK_ERROR);
+        metrics.recordPhase(LookupMetrics.Phase.CONNECT, 2000000);
+        metrics.recordCacheHit();
+
+        LookupMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(0, snapshot.getInFlight());
+        assertEquals(2, snapshot.getMaxInFlight());
+        assertEquals(1, snapshot.getCount(LookupMetrics.Outcome.LOCATED));
+        assertEquals(1, snapshot.getCount(LookupMetrics.Outcome.NETWORK_ERROR));
+        assertEquals(0, snapshot.getCount(LookupMetrics.Outcome.PARSE_ERROR));
+        assertEquals(1, snapshot.getCacheHitCount());
+        assertEquals(2, snapshot.getLatency(LookupMetrics.Phase.TOTAL).getCount());
+        assertEquals(2000000, snapshot.getLatency(LookupMetrics.Phase.CONNECT).getMax());
+        assertEquals(0, snapshot.getLatency(LookupMetrics.Phase.PARSE).getCount());
+    }
+
+    @Test
+    public void startScanTest() throws InterruptedException {
+        LookupMetrics metrics = new LookupMetrics();
+        metrics.lookupFinished(metrics.lookupStarted(), LookupMetrics.Outcome.LOCATED);
+        metrics.addScanned(10);
+        long inFlight = metrics.lookupStarted();
+
+        metrics.startScan();
+        metrics.addScanned(3);
+        Thread.sleep(10);
+        LookupMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(0, snapshot.getCount(LookupMetrics.Outcome.LOCATED));
+        assertEquals(0, snapshot.getLatency(LookupMetrics.Phase.TOTAL).getCount());
+        assertEquals(1, snapshot.getInFlight());
+        assertEquals(1, snapshot.getMaxInFlight());
+        assertEquals(3, snapshot.getScannedCount());
+        assertTrue(snapshot.getElapsedNanos() >= 10000000);
+        assertTrue(snapshot.getAddressesPerSecond() > 0);
+        assertTrue(snapshot.toString().contains("scanned=3"));
+
+        metrics.lookupFinished(inFlight, LookupMetrics.Outcome.FAILED);
+        assertEquals(1, metrics.snapshot().getCount(LookupMetrics.Outcome.FAILED));
+    }
+}
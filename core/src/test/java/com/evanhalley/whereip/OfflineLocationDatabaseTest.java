@@ -0,0 +1,109 @@
+package com.evanhalley.whereip;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class OfflineLocationDatabaseTest {
+
+    private static final String CSV =
+            "\"0\",\"16777215\",\"-\",\"-\",\"-\",\"-\",\"0.000000\",\"0.000000\"\n" +
+            "\"16777216\",\"16777471\",\"AU\",\"Australia\",\"Queensland\",\"Brisbane\"," +
+                    "\"-27.467940\",\"153.028090\"\n" +
+            "\"1824853248\",\"1824853503\",\"US\",\"United States\",\"North Carolina\"," +
+                    "\"Raleigh\",\"35.772100\",\"-78.638600\"\n" +
+            "\"1824853504\",\"1824853759\",\"US\",\"United States\",\"District of Columbia\"," +
+                    "\"Washington, D.C.\",\"38.895110\",\"-77.036370\"\n" +
+            "\"4294967040\",\"4294967295\",\"US\",\"United States\",\"North Carolina\"," +
+                    "\"Raleigh\",\"35.772100\",\"-78.638600\"\n";
+
+    private File mFile;
+    private OfflineLocationDatabase mDatabase;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("ip_locations", ".db");
+        assertEquals(4, OfflineLocationDatabase.importCsv(new StringReader(CSV), mFile));
+        mDatabase = new OfflineLocationDatabase(mFile);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mDatabase.close();
+        mFile.delete();
+    }
+
+    @Test
+    public void getLocationByIpTest() {
+        Location location = mDatabase.getLocationByIp("108.197.13.169");
+        assertEquals("108.197.13.169", location.getIpAddress());
+        assertEquals("Raleigh", location.getCity());
+        assertEquals("United States", location.getCountryName());
+        assertEquals(35.7721, location.getLatitude(), 0.0001);
+        assertEquals(-78.6386, location.getLongitude(), 0.0001);
+
+        assertEquals("Washington, D.C.", mDatabase.getLocationByIp("108.197.14.0").getCity());
+        assertEquals("Brisbane", mDatabase.getLocationByIp("1.0.0.255").getCity());
+        assertEquals("Raleigh", mDatabase.getLocationByIp("255.255.255.255").getCity());
+    }
+
+    @Test
+    public void getLocationByIpMissingTest() {
+        assertNull(mDatabase.getLocationByIp("0.0.0.1"));
+        assertNull(mDatabase.getLocationByIp("1.0.1.0"));
+        assertNull(mDatabase.getLocationByIp("108.197.15.0"));
+        assertNull(mDatabase.getLocationByIp("255.255.254.255"));
+    }
+
+    @Test
+    public void getRangeCountTest() {
+        assertEquals(4, mDatabase.getRangeCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void importUnsortedTest() throws IOException {
+        String csv = "\"16777216\",\"16777471\",\"AU\",\"Australia\",\"Queensland\"," +
+                "\"Brisbane\",\"-27.467940\",\"153.028090\"\n" +
+                "\"0\",\"255\",\"AU\",\"Australia\",\"Queensland\"," +
+                "\"Brisbane\",\"-27.467940\",\"153.028090\"\n";
+        File file = File.createTempFile("ip_locations", ".db");
+
+        try {
+            OfflineLocationDatabase.importCsv(new StringReader(csv), file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void openInvalidFileTest() throws IOException {
+        File file = File.createTempFile("ip_locations", ".db");
+
+        try {
+            new OfflineLocationDatabase(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void splitCsvLineTest() {
+        List<String> fields = new ArrayList<>();
+        OfflineLocationDatabase.splitCsvLine("\"a\",\"b, c\",d,\"e \"\"f\"\"\",", fields);
+        assertEquals(5, fields.size());
+        assertEquals("a", fields.get(0));
+        assertEquals("b, c", fields.get(1));
+        assertEquals("d", fields.get(2));
+        assertEquals("e \"f\"", fields.get(3));
+        assertEquals("", fields.get(4));
+    }
+}
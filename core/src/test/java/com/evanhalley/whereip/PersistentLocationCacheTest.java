@@ -0,0 +1,218 @@
+package com.evanhalley.whereip;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PersistentLocationCacheTest {
+
+    private static final long TIME_TO_LIVE_MS = 60000;
+
+    /**
+     * Keeps the records in a byte array, like a file that outlives the cache instance
+     */
+    private static class MemoryStorage implements PersistentLocationCache.Storage {
+
+        private byte[] mBytes;
+        private volatile int mWriteCount;
+
+        @Override
+        public synchronized InputStream openInput() {
+            return mBytes == null ? null : new ByteArrayInputStream(mBytes);
+        }
+
+        @Override
+        public synchronized OutputStream openOutput(final boolean append) {
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+
+                    synchronized (MemoryStorage.this) {
+
+                        if (append && mBytes != null) {
+                            byte[] bytes = Arrays.copyOf(mBytes, mBytes.length + size());
+                            System.arraycopy(toByteArray(), 0, bytes, mBytes.length, size());
+                            mBytes = bytes;
+                        } else {
+                            mBytes = toByteArray();
+                        }
+                        // counted once the bytes are stored, tests poll it before reloading
+                        mWriteCount++;
+                    }
+                }
+            };
+        }
+    }
+
+    private static Location buildLocation(String ipAddress) {
+        return new Location.Builder()
+                .setCity("Raleigh")
+                .setCountryName("United States")
+                .setIpAddress(ipAddress)
+                .setLatitude(35.7721)
+                .setLongitude(-78.6386)
+                .build();
+    }
+
+    @Test
+    public void reopenTest() throws IOException {
+        MemoryStorage storage = new MemoryStorage();
+        PersistentLocationCache cache = new PersistentLocationCache(storage, TIME_TO_LIVE_MS,
+                100, 60000);
+        cache.put(1824853417, buildLocation("108.197.13.169"));
+        cache.putInvalid(167772161);
+        cache.close();
+
+        cache = new PersistentLocationCache(storage, TIME_TO_LIVE_MS, 100, 60000);
+        assertEquals(2, cache.size());
+        Location location = cache.get(1824853417).getLocation();
+        assertEquals("108.197.13.169", location.getIpAddress());
+        assertEquals("Raleigh", location.getCity());
+        assertEquals("United States", location.getCountryName());
+        assertEquals(35.7721, location.getLatitude(), 0);
+        assertEquals(-78.6386, location.getLongitude(), 0);
+        assertTrue(cache.get(167772161).isInvalid());
+        assertNull(cache.get(1));
+        cache.close();
+    }
+
+    @Test
+    public void appendTest() throws IOException {
+        MemoryStorage storage = new MemoryStorage();
+        PersistentLocationCache cache = new PersistentLocationCache(storage, TIME_TO_LIVE_MS,
+                100, 60000);
+        cache.put(1, buildLocation("0.0.0.1"));
+        cache.close();
+
+        cache = new PersistentLocationCache(storage, TIME_TO_LIVE_MS, 100, 60000);
+        cache.put(4294967295L, buildLocation("255.255.255.255"));
+        cache.close();
+
+        cache = new PersistentLocationCache(storage, TIME_TO_LIVE_MS, 100, 60000);
+        assertEquals("0.0.0.1", cache.get(1).getLocation().getIpAddress());
+        assertEquals("255.255.255.255", cache.get(4294967295L).getLocation().getIpAddress());
+        cache.close();
+    }
+
+    @Test
+    public void writeBehindBatchTest() throws Exception {
+        MemoryStorage storage = new MemoryStorage();
+        PersistentLocationCache cache = new PersistentLocationCache(storage, TIME_TO_LIVE_MS,
+                10, 60000);
+
+        for (int i = 0; i < 9; i++) {
+            cache.put(i, buildLocation(LookupHelper.ipNumberToString(i)));
+        }
+        Thread.sleep(100);
+        assertEquals(0, storage.mWriteCount);
+
+        // the tenth entry fills the batch and triggers a background write
+        cache.put(9, buildLocation("0.0.0.9"));
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (storage.mWriteCount == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, storage.mWriteCount);
+
+        // simulate process death, the cache is never closed
+        cache = new PersistentLocationCache(storage, TIME_TO_LIVE_MS, 10, 60000);
+        assertEquals(10, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void flushIntervalTest() throws Exception {
+        MemoryStorage storage = new MemoryStorage();
+        PersistentLocationCache cache = new PersistentLocationCache(storage, TIME_TO_LIVE_MS,
+                100, 20);
+        cache.put(1, buildLocation("0.0.0.1"));
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (storage.mWriteCount == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, new PersistentLocationCache(storage, TIME_TO_LIVE_MS, 100, 60000).size());
+        cache.close();
+    }
+
+    @Test
+    public void expiryTest() throws Exception {
+        MemoryStorage storage = new MemoryStorage();
+        PersistentLocationCache cache = new PersistentLocationCache(storage, 50, 100, 60000);
+        cache.put(1, buildLocation("0.0.0.1"));
+        cache.close();
+        Thread.sleep(60);
+
+        cache = new PersistentLocationCache(storage, 50, 100, 60000);
+        assertEquals(0, cache.size());
+        assertNull(cache.get(1));
+        cache.close();
+    }
+
+    @Test
+    public void truncatedRecordTest() throws IOException {
+        MemoryStorage storage = new MemoryStorage();
+        PersistentLocationCache cache = new PersistentLocationCache(storage, TIME_TO_LIVE_MS,
+                100, 60000);
+        cache.put(1, buildLocation("0.0.0.1"));
+        cache.put(2, buildLocation("0.0.0.2"));
+        cache.close();
+
+        // the process died while writing the last record
+        storage.mBytes = Arrays.copyOf(storage.mBytes, storage.mBytes.length - 5);
+        cache = new PersistentLocationCache(storage, TIME_TO_LIVE_MS, 100, 60000);
+        assertEquals(1, cache.size());
+        cache.put(3, buildLocation("0.0.0.3"));
+        cache.close();
+
+        cache = new PersistentLocationCache(storage, TIME_TO_LIVE_MS, 100, 60000);
+        assertEquals(2, cache.size());
+        assertEquals("0.0.0.3", cache.get(3).getLocation().getIpAddress());
+        cache.close();
+    }
+
+    @Test
+    public void fileStorageReplaceTest() throws IOException {
+        File file = File.createTempFile("locations", ".cache");
+        File tempFile = new File(file.getPath() + ".tmp");
+
+        try {
+            PersistentLocationCache.FileStorage storage =
+                    new PersistentLocationCache.FileStorage(file);
+            OutputStream out = storage.openOutput(false);
+            out.write(new byte[] {1, 2, 3});
+            out.close();
+            assertEquals(3, file.length());
+
+            // the stored bytes stay intact until the replacement is complete
+            out = storage.openOutput(false);
+            out.write(new byte[] {4, 5});
+            out.flush();
+            assertEquals(3, file.length());
+            out.close();
+            assertEquals(2, file.length());
+            assertFalse(tempFile.exists());
+
+            out = storage.openOutput(true);
+            out.write(6);
+            out.close();
+            assertEquals(3, file.length());
+        } finally {
+            file.delete();
+            tempFile.delete();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.evanhalley.whereip;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RangeBisectorTest {
+
+    /**
+     * Locates 10.0.0.0 - 10.0.127.255 in Raleigh and 10.0.128.0 - 10.0.255.255 in Brisbane
+     */
+    private static class TwoBlockResolver implements LookupEngine.Resolver {
+
+        private static final long BOUNDARY = LookupHelper.ipStringToNumber("10.0.128.0");
+
+        @Override
+        public Location resolve(String ipAddress) throws Exception {
+            boolean raleigh = LookupHelper.ipStringToNumber(ipAddress) < BOUNDARY;
+            return new Location.Builder()
+                    .setIpAddress(ipAddress)
+                    .setCity(raleigh ? "Raleigh" : "Brisbane")
+                    .setCountryName(raleigh ? "United States" : "Australia")
+                    .setLatitude(raleigh ? 35.7721 : -27.4679)
+                    .setLongitude(raleigh ? -78.6386 : 153.0281)
+                    .build();
+        }
+    }
+
+    private static class CountingListener implements RangeBisector.Listener {
+
+        final Set<String> mMeasured = new HashSet<>();
+        long mInferred;
+        int mFailures;
+
+        @Override
+        public void onLocationMeasured(String ipAddress, Location location) {
+            mMeasured.add(ipAddress);
+        }
+
+        @Override
+        public void onRangeInferred(IpRange ipRange, Location location) {
+            mInferred += ipRange.size();
+        }
+
+        @Override
+        public void onLookupFailed(String ipAddress, Exception e) {
+            mFailures++;
+        }
+    }
+
+    @Test
+    public void singleBlockTest() throws InterruptedException {
+        RangeBisector bisector = new RangeBisector(new TwoBlockResolver());
+        CountingListener listener = new CountingListener();
+        long lookups = bisector.bisect(IpRange.fromAddresses("10.0.0.0", "10.0.127.255"), listener);
+
+        assertEquals(2, lookups);
+        assertTrue(listener.mMeasured.contains("10.0.0.0"));
+        assertTrue(listener.mMeasured.contains("10.0.127.255"));
+        assertEquals(32766, listener.mInferred);
+        assertEquals(32766, bisector.getInferredCount());
+    }
+
+    @Test
+    public void twoBlockTest() throws InterruptedException {
+        RangeBisector bisector = new RangeBisector(new TwoBlockResolver());
+        CountingListener listener = new CountingListener();
+        IpRange range = IpRange.fromAddresses("10.0.0.0", "10.0.255.255");
+        long lookups = bisector.bisect(range, listener);
+
+        // every address is either measured or inferred, the boundary is found by bisection
+        assertEquals(range.size(), lookups + listener.mInferred);
+        assertTrue("Lookups " + lookups, lookups < 40);
+        assertTrue(listener.mMeasured.contains("10.0.127.255"));
+        assertTrue(listener.mMeasured.contains("10.0.128.0"));
+    }
+
+    @Test
+    public void singleAddressTest() throws InterruptedException {
+        RangeBisector bisector = new RangeBisector(new TwoBlockResolver());
+        CountingListener listener = new CountingListener();
+        assertEquals(1, bisector.bisect(IpRange.fromAddresses("10.0.0.1", "10.0.0.1"), listener));
+        assertEquals(0, listener.mInferred);
+    }
+
+    @Test
+    public void notFoundTest() throws InterruptedException {
+        RangeBisector bisector = new RangeBisector(new LookupEngine.Resolver() {
+            @Override
+            public Location resolve(String ipAddress) throws Exception {
+                throw new InvalidLocationException(ipAddress);
+            }
+        });
+        CountingListener listener = new CountingListener();
+
+        // both ends have no location, so neither do the addresses between them
+        assertEquals(2, bisector.bisect(IpRange.fromAddresses("10.0.0.0", "10.0.0.15"), listener));
+        assertEquals(2, listener.mMeasured.size());
+        assertEquals(0, listener.mFailures);
+        assertEquals(14, listener.mInferred);
+    }
+
+    @Test
+    public void failedLookupsTest() throws InterruptedException {
+        RangeBisector bisector = new RangeBisector(new LookupEngine.Resolver() {
+            @Override
+            public Location resolve(String ipAddress) throws Exception {
+                throw new IOException("Connection reset");
+            }
+        });
+        CountingListener listener = new CountingListener();
+
+        // failed lookups never share a result, so every address is looked up
+        assertEquals(16, bisector.bisect(IpRange.fromAddresses("10.0.0.0", "10.0.0.15"), listener));
+        assertEquals(16, listener.mFailures);
+        assertEquals(0, listener.mInferred);
+    }
+
+    @Test
+    public void noStatusTest() throws InterruptedException {
+        RangeBisector bisector = new RangeBisector(new LookupEngine.Resolver() {
+            @Override
+            public Location resolve(String ipAddress) throws Exception {
+                return null;
+            }
+        });
+        CountingListener listener = new CountingListener();
+
+        // a null location is a failure, not an address without a location
+        assertEquals(16, bisector.bisect(IpRange.fromAddresses("10.0.0.0", "10.0.0.15"), listener));
+        assertEquals(16, listener.mFailures);
+        assertEquals(0, listener.mInferred);
+    }
+
+    @Test(expected = InterruptedException.class)
+    public void interruptedTest() throws InterruptedException {
+        RangeBisector bisector = new RangeBisector(new LookupEngine.Resolver() {
+            @Override
+            public Location resolve(String ipAddress) throws Exception {
+                throw new InterruptedException();
+            }
+        });
+        bisector.bisect(IpRange.fromAddresses("10.0.0.0", "10.0.0.15"), new CountingListener());
+    }
+}
@@ -0,0 +1,62 @@
+package com.evanhalley.whereip;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReservedIpRangesTest {
+
+    @Test
+    public void containsTest() {
+        assertTrue(contains("0.0.0.0"));
+        assertTrue(contains("10.1.2.3"));
+        assertTrue(contains("100.64.0.1"));
+        assertTrue(contains("127.0.0.1"));
+        assertTrue(contains("169.254.10.10"));
+        assertTrue(contains("172.16.0.0"));
+        assertTrue(contains("172.31.255.255"));
+        assertTrue(contains("192.168.1.1"));
+        assertTrue(contains("198.19.255.255"));
+        assertTrue(contains("224.0.0.251"));
+        assertTrue(contains("255.255.255.255"));
+
+        assertFalse(contains("1.0.0.0"));
+        assertFalse(contains("9.255.255.255"));
+        assertFalse(contains("11.0.0.0"));
+        assertFalse(contains("100.128.0.0"));
+        assertFalse(contains("172.32.0.0"));
+        assertFalse(contains("192.0.1.1"));
+        assertFalse(contains("108.197.13.169"));
+        assertFalse(contains("223.255.255.255"));
+    }
+
+    @Test
+    public void getRangesTest() {
+        List<IpRange> ranges = ReservedIpRanges.getRanges();
+        assertEquals(ranges, LookupHelper.mergeIpRanges(ranges));
+        // multicast and the reserved block after it are adjacent
+        assertEquals(IpRange.fromAddresses("224.0.0.0", "255.255.255.255"),
+                ranges.get(ranges.size() - 1));
+    }
+
+    @Test
+    public void subtractTest() {
+        List<IpRange> ranges = LookupHelper.parseIpRanges(
+                "9.255.255.0-11.0.0.255, 192.168.0.0/16, 108.197.13.0/24, 223.255.255.255-224.0.0.5");
+        List<IpRange> remaining = ReservedIpRanges.subtract(ranges);
+        assertEquals(Arrays.asList(
+                IpRange.fromAddresses("9.255.255.0", "9.255.255.255"),
+                IpRange.fromAddresses("11.0.0.0", "11.0.0.255"),
+                IpRange.fromAddresses("108.197.13.0", "108.197.13.255"),
+                IpRange.fromAddresses("223.255.255.255", "223.255.255.255")), remaining);
+    }
+
+    private static boolean contains(String ipAddress) {
+        return ReservedIpRanges.contains(LookupHelper.ipStringToNumber(ipAddress));
+    }
+}
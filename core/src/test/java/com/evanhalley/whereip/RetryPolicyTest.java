@@ -0,0 +1,46 @@
+package com.evanhalley.whereip;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void isRetryableTest() {
+        RetryPolicy policy = new RetryPolicy(3, 100, 1000);
+        assertTrue(policy.isRetryable(new IOException("Connection reset")));
+        assertTrue(policy.isRetryable(new LookupException(LookupMetrics.Outcome.BAD_STATUS,
+                "503", null, true)));
+        assertFalse(policy.isRetryable(new LookupException(LookupMetrics.Outcome.PARSE_ERROR,
+                "Malformed", null, false)));
+        assertFalse(policy.isRetryable(new InvalidLocationException("10.0.0.1")));
+        assertFalse(policy.isRetryable(new InterruptedException()));
+    }
+
+    @Test
+    public void getDelayNanosTest() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+        Random random = new Random(42);
+        long[] bounds = {100, 200, 400, 800, 1000, 1000, 1000};
+        boolean jittered = false;
+
+        for (int retry = 1; retry <= bounds.length; retry++) {
+            long bound = TimeUnit.MILLISECONDS.toNanos(bounds[retry - 1]);
+
+            for (int i = 0; i < 100; i++) {
+                long delay = policy.getDelayNanos(retry, random);
+                assertTrue(delay >= 0 && delay < bound);
+                jittered |= delay < bound / 2;
+            }
+        }
+        assertTrue(jittered);
+        assertEquals(0, new RetryPolicy(3, 0, 0).getDelayNanos(2, random));
+    }
+}
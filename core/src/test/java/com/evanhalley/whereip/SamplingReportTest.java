@@ -0,0 +1,69 @@
+package com.evanhalley.whereip;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SamplingReportTest {
+
+    private static Location buildLocation(String ipAddress, String city) {
+        return new Location.Builder()
+                .setIpAddress(ipAddress)
+                .setCity(city)
+                .setCountryName("United States")
+                .setLatitude(35.7721)
+                .setLongitude(-78.6386)
+                .build();
+    }
+
+    @Test
+    public void getBlocksTest() {
+        StratifiedSampler sampler = new StratifiedSampler(24, 4, 0);
+        SamplingReport report = new SamplingReport(sampler,
+                LookupHelper.parseIpRanges("8.8.8.0/24, 8.8.9.0-8.8.9.99"));
+        report.addLocated("8.8.8.1", buildLocation("8.8.8.1", "Raleigh"));
+        report.addLocated("8.8.8.70", buildLocation("8.8.8.70", "Cary"));
+        report.addLocated("8.8.8.130", buildLocation("8.8.8.130", "Raleigh"));
+        report.addNotFound("8.8.8.200");
+        report.addFailed("8.8.9.20");
+
+        List<SamplingReport.BlockDistribution> blocks = report.getBlocks();
+        assertEquals(2, blocks.size());
+
+        SamplingReport.BlockDistribution block = blocks.get(0);
+        assertEquals(IpRange.fromAddresses("8.8.8.0", "8.8.8.255"), block.getBlock());
+        assertEquals(256, block.getAddressCount());
+        assertEquals(4, block.getSampleCount());
+        assertEquals(3, block.getLocatedCount());
+        assertEquals(1, block.getNotFoundCount());
+        assertEquals(4 / 256.0, block.getCoverage(), 0);
+        assertEquals("Raleigh", block.getDominantLocation().getCity());
+        assertEquals("8.8.8.1", block.getDominantLocation().getIpAddress());
+        assertEquals(2, block.getLocations().get(0).getCount());
+        assertEquals("Cary", block.getLocations().get(1).getLocation().getCity());
+        assertEquals(2 / 3.0, block.getDominantShare(), 0.000001);
+        assertEquals(SamplingReport.wilsonLowerBound(2, 3), block.getConfidence(), 0);
+
+        // only the covered part of a block counts towards it's coverage
+        block = blocks.get(1);
+        assertEquals(100, block.getAddressCount());
+        assertEquals(1, block.getFailedCount());
+        assertEquals(0.01, block.getCoverage(), 0.000001);
+        assertNull(block.getDominantLocation());
+        assertEquals(0, block.getConfidence(), 0);
+    }
+
+    @Test
+    public void wilsonLowerBoundTest() {
+        assertEquals(0, SamplingReport.wilsonLowerBound(0, 0), 0);
+        assertEquals(0, SamplingReport.wilsonLowerBound(0, 10), 0);
+        assertEquals(0.5101, SamplingReport.wilsonLowerBound(4, 4), 0.0001);
+        assertEquals(0.9630, SamplingReport.wilsonLowerBound(100, 100), 0.0001);
+        // more agreeing samples give more confidence
+        assertEquals(true, SamplingReport.wilsonLowerBound(8, 8)
+                > SamplingReport.wilsonLowerBound(4, 4));
+    }
+}
@@ -0,0 +1,227 @@
+package com.evanhalley.whereip;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ScanJobTest {
+
+    /**
+     * Keeps the checkpoint in a byte array, like a file that outlives the process
+     */
+    private static class MemoryStorage implements PersistentLocationCache.Storage {
+
+        private byte[] mBytes;
+
+        @Override
+        public synchronized InputStream openInput() {
+            return mBytes == null ? null : new ByteArrayInputStream(mBytes);
+        }
+
+        @Override
+        public synchronized OutputStream openOutput(boolean append) {
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+
+                    synchronized (MemoryStorage.this) {
+                        mBytes = toByteArray();
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Resolves every address to the same location, failing every lookup once the process has
+     *   been "killed"
+     */
+    private static class CountingResolver implements LookupEngine.Resolver {
+
+        final ConcurrentHashMap<String, AtomicInteger> mLookups = new ConcurrentHashMap<>();
+        final AtomicInteger mLookupCount = new AtomicInteger();
+        final int mKillAfter;
+
+        CountingResolver(int killAfter) {
+            mKillAfter = killAfter;
+        }
+
+        @Override
+        public Location resolve(String ipAddress) throws Exception {
+
+            if (mLookupCount.incrementAndGet() > mKillAfter) {
+                throw new IOException("Process killed");
+            }
+            mLookups.putIfAbsent(ipAddress, new AtomicInteger());
+            mLookups.get(ipAddress).incrementAndGet();
+            return new Location.Builder()
+                    .setCity("Raleigh")
+                    .setCountryName("United States")
+                    .setIpAddress(ipAddress)
+                    .build();
+        }
+    }
+
+    private static void runScan(final ScanJob job, LookupEngine engine)
+            throws InterruptedException {
+        List<IpRange> remaining = job.getRemainingRanges();
+
+        for (int i = 0; i < remaining.size(); i++) {
+            engine.lookup(remaining.get(i), new LookupEngine.Listener() {
+                @Override
+                public void onLocationResolved(String ipAddress, Location location) {
+                    job.markCompleted(LookupHelper.ipStringToNumber(ipAddress));
+                }
+
+                @Override
+                public void onLookupFailed(String ipAddress, Exception e) {
+                }
+            });
+        }
+    }
+
+    @Test
+    public void remainingRangesTest() throws IOException {
+        MemoryStorage storage = new MemoryStorage();
+        List<IpRange> ranges = LookupHelper.parseIpRanges("10.0.0.0/24, 10.0.2.0-10.0.2.9");
+        ScanJob job = ScanJob.create(storage, ranges, false, 1000);
+        assertEquals(266, job.getTotalCount());
+        assertEquals(ranges, job.getRemainingRanges());
+
+        job.markCompleted(IpRange.fromAddresses("10.0.0.0", "10.0.0.99"));
+        job.markCompleted(LookupHelper.ipStringToNumber("10.0.0.150"));
+        job.markCompleted(IpRange.fromAddresses("10.0.0.200", "10.0.0.255"));
+        job.markCompleted(IpRange.fromAddresses("10.0.2.0", "10.0.2.4"));
+        job.markCompleted(IpRange.fromAddresses("10.0.0.200", "10.0.0.201"));
+        assertEquals(100 + 1 + 56 + 5, job.getCompletedCount());
+
+        List<IpRange> remaining = job.getRemainingRanges();
+        assertEquals(3, remaining.size());
+        assertEquals(IpRange.fromAddresses("10.0.0.100", "10.0.0.149"), remaining.get(0));
+        assertEquals(IpRange.fromAddresses("10.0.0.151", "10.0.0.199"), remaining.get(1));
+        assertEquals(IpRange.fromAddresses("10.0.2.5", "10.0.2.9"), remaining.get(2));
+
+        // nothing was checkpointed since the job was created
+        assertEquals(ranges, ScanJob.resume(storage, 1000).getRemainingRanges());
+
+        job.checkpoint();
+        ScanJob resumed = ScanJob.resume(storage, 1000);
+        assertEquals(job.getCompletedCount(), resumed.getCompletedCount());
+        assertEquals(remaining, resumed.getRemainingRanges());
+        assertFalse(resumed.isSmartRange());
+
+        // a finished job is not resumed
+        resumed.markCompleted(IpRange.fromAddresses("10.0.0.0", "10.0.0.255"));
+        resumed.markCompleted(IpRange.fromAddresses("10.0.2.0", "10.0.2.9"));
+        assertTrue(resumed.isComplete());
+        assertEquals(0, resumed.getRemainingRanges().size());
+        assertNull(ScanJob.resume(storage, 1000));
+    }
+
+    @Test
+    public void largeScanTest() throws IOException {
+        MemoryStorage storage = new MemoryStorage();
+        // half the address space, the job only keeps the completed intervals
+        ScanJob job = ScanJob.create(storage, LookupHelper.parseIpRanges("0.0.0.0/1"), false,
+                1000);
+        assertEquals(1L << 31, job.getTotalCount());
+
+        job.markCompleted(IpRange.fromAddresses("0.0.0.0", "0.255.255.255"));
+        job.markCompleted(IpRange.fromAddresses("1.0.0.10", "1.0.0.20"));
+        job.markCompleted(IpRange.fromAddresses("1.0.0.30", "1.0.0.40"));
+        // joins the first two intervals
+        job.markCompleted(IpRange.fromAddresses("0.255.255.200", "1.0.0.15"));
+        assertEquals(0x01000000 + 21 + 11, job.getCompletedCount());
+        assertEquals(Arrays.asList(IpRange.fromAddresses("1.0.0.21", "1.0.0.29"),
+                IpRange.fromAddresses("1.0.0.41", "127.255.255.255")), job.getRemainingRanges());
+
+        job.checkpoint();
+        assertTrue(storage.mBytes.length < 100);
+        ScanJob resumed = ScanJob.resume(storage, 1000);
+        assertEquals(job.getCompletedCount(), resumed.getCompletedCount());
+        assertEquals(job.getRemainingRanges(), resumed.getRemainingRanges());
+
+        resumed.markCompleted(IpRange.fromAddresses("1.0.0.21", "1.0.0.29"));
+        assertEquals(Arrays.asList(IpRange.fromAddresses("1.0.0.41", "127.255.255.255")),
+                resumed.getRemainingRanges());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void outsideRangeTest() throws IOException {
+        ScanJob job = ScanJob.create(new MemoryStorage(),
+                LookupHelper.parseIpRanges("10.0.0.0/24"), false, 1000);
+        job.markCompleted(IpRange.fromAddresses("10.0.0.250", "10.0.1.5"));
+    }
+
+    @Test
+    public void truncatedCheckpointTest() throws IOException {
+        MemoryStorage storage = new MemoryStorage();
+        ScanJob.create(storage, LookupHelper.parseIpRanges("10.0.0.0/24"), true, 1000);
+        assertTrue(ScanJob.resume(storage, 1000).isSmartRange());
+        storage.mBytes = Arrays.copyOf(storage.mBytes, storage.mBytes.length - 3);
+        assertNull(ScanJob.resume(storage, 1000));
+    }
+
+    @Test
+    public void killAndResumeTest() throws Exception {
+        MemoryStorage storage = new MemoryStorage();
+        int batchSize = 100;
+        int concurrency = 4;
+        int killAfter = 1234;
+        List<IpRange> ranges = LookupHelper.parseIpRanges("10.0.0.0/22, 10.1.0.0/24");
+
+        // first run, every lookup fails once the process is "killed"
+        ScanJob job = ScanJob.create(storage, ranges, false, batchSize);
+        CountingResolver firstResolver = new CountingResolver(killAfter);
+        LookupEngine firstEngine = new LookupEngine(firstResolver, concurrency);
+        runScan(job, firstEngine);
+        firstEngine.shutdown();
+        assertEquals(killAfter, firstResolver.mLookups.size());
+
+        // the relaunched service resumes from the last checkpoint, not from the first address
+        ScanJob resumed = ScanJob.resume(storage, batchSize);
+        long checkpointed = resumed.getCompletedCount();
+        assertEquals(killAfter / batchSize * batchSize, checkpointed);
+
+        CountingResolver secondResolver = new CountingResolver(Integer.MAX_VALUE);
+        LookupEngine secondEngine = new LookupEngine(secondResolver, concurrency);
+        runScan(resumed, secondEngine);
+        secondEngine.shutdown();
+        assertTrue(resumed.isComplete());
+        assertEquals(resumed.getTotalCount() - checkpointed, secondResolver.mLookups.size());
+
+        // every address was resolved, the ones after the last checkpoint at most twice
+        int repeated = 0;
+
+        for (int i = 0; i < ranges.size(); i++) {
+            IpRange.Cursor cursor = ranges.get(i).cursor();
+
+            while (cursor.moveToNext()) {
+                String ipAddress = cursor.getIpAddress();
+                boolean first = firstResolver.mLookups.containsKey(ipAddress);
+                boolean second = secondResolver.mLookups.containsKey(ipAddress);
+                assertTrue(first || second);
+
+                if (first && second) {
+                    repeated++;
+                }
+            }
+        }
+        assertEquals(killAfter - checkpointed, repeated);
+        assertNull(ScanJob.resume(storage, batchSize));
+    }
+}
@@ -0,0 +1,108 @@
+package com.evanhalley.whereip;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+    @Test
+    public void sharedTest() throws Exception {
+        final SingleFlight<String> singleFlight = new SingleFlight<>();
+        final AtomicInteger loadCount = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+
+        try {
+            Callable<String> lookup = new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return singleFlight.get(1, new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            loadCount.incrementAndGet();
+                            release.await();
+                            return "Raleigh";
+                        }
+                    });
+                }
+            };
+            Future<String> first = executor.submit(lookup);
+
+            while (singleFlight.getInFlightCount() == 0) {
+                Thread.sleep(1);
+            }
+            Future<String> second = executor.submit(lookup);
+            Future<String> third = executor.submit(lookup);
+            Thread.sleep(50);
+            release.countDown();
+            assertEquals("Raleigh", first.get(5, TimeUnit.SECONDS));
+            assertEquals("Raleigh", second.get(5, TimeUnit.SECONDS));
+            assertEquals("Raleigh", third.get(5, TimeUnit.SECONDS));
+            assertEquals(1, loadCount.get());
+            assertEquals(0, singleFlight.getInFlightCount());
+
+            // the completed load is forgotten
+            assertEquals("Raleigh", lookup.call());
+            assertEquals(2, loadCount.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void exceptionTest() throws Exception {
+        final SingleFlight<String> singleFlight = new SingleFlight<>();
+        final IOException failure = new IOException("Connection reset");
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            Callable<String> lookup = new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return singleFlight.get(1, new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            release.await();
+                            throw failure;
+                        }
+                    });
+                }
+            };
+            Future<String> first = executor.submit(lookup);
+
+            while (singleFlight.getInFlightCount() == 0) {
+                Thread.sleep(1);
+            }
+            Future<String> second = executor.submit(lookup);
+            Thread.sleep(50);
+            release.countDown();
+
+            for (Future<String> future : Arrays.asList(first, second)) {
+
+                try {
+                    future.get(5, TimeUnit.SECONDS);
+                    fail("Expected the load to fail");
+                } catch (ExecutionException e) {
+                    assertSame(failure, e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
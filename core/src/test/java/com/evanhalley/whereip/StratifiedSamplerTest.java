@@ -0,0 +1,110 @@
+package com.evanhalley.whereip;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StratifiedSamplerTest {
+
+    private static List<String> sample(StratifiedSampler sampler, String ipRanges) {
+        List<String> ipAddresses = new ArrayList<>();
+        Iterator<String> iterator = sampler.sample(LookupHelper.parseIpRanges(ipRanges));
+
+        while (iterator.hasNext()) {
+            ipAddresses.add(iterator.next());
+        }
+        return ipAddresses;
+    }
+
+    @Test
+    public void sampleTest() {
+        StratifiedSampler sampler = new StratifiedSampler(24, 4, 7);
+        List<String> ipAddresses = sample(sampler, "8.8.0.0/22");
+        assertEquals(16, ipAddresses.size());
+        assertEquals(16, new HashSet<>(ipAddresses).size());
+
+        // one address from each quarter of each block
+        for (int i = 0; i < ipAddresses.size(); i++) {
+            long ipNumber = LookupHelper.ipStringToNumber(ipAddresses.get(i));
+            assertEquals(0x08080000L + (i / 4) * 256, ipNumber & 0xFFFFFF00L);
+            assertEquals(i % 4, (ipNumber & 0xFF) / 64);
+        }
+    }
+
+    @Test
+    public void sampleTestDeterministic() {
+        List<String> first = sample(new StratifiedSampler(24, 3, 7), "8.8.0.0/20");
+        assertEquals(first, sample(new StratifiedSampler(24, 3, 7), "8.8.0.0/20"));
+        assertFalse(first.equals(sample(new StratifiedSampler(24, 3, 8), "8.8.0.0/20")));
+
+        // a block samples the same addresses whatever else is scanned
+        assertEquals(first.subList(0, 3), sample(new StratifiedSampler(24, 3, 7), "8.8.0.0/24"));
+    }
+
+    @Test
+    public void sampleTestSmallBlocks() {
+        StratifiedSampler sampler = new StratifiedSampler(24, 4, 7);
+        // blocks with fewer addresses than samples are looked up in full
+        assertEquals(Arrays.asList("8.8.8.1", "8.8.8.2", "8.8.9.7"),
+                sample(sampler, "8.8.8.1-8.8.8.2, 8.8.9.7"));
+    }
+
+    @Test
+    public void sampleTestFragments() {
+        StratifiedSampler sampler = new StratifiedSampler(24, 2, 7);
+        // both fragments belong to one block, the samples come from their addresses only
+        List<String> ipAddresses = sample(sampler, "8.8.8.0-8.8.8.9, 8.8.8.250-8.8.8.255");
+        assertEquals(2, ipAddresses.size());
+        Set<String> covered = new HashSet<>(sample(new StratifiedSampler(24, 256, 0),
+                "8.8.8.0-8.8.8.9, 8.8.8.250-8.8.8.255"));
+        assertEquals(16, covered.size());
+        assertTrue(covered.containsAll(ipAddresses));
+        // the first of two strata is the first 8 covered addresses
+        assertTrue(LookupHelper.ipStringToNumber(ipAddresses.get(0))
+                < LookupHelper.ipStringToNumber("8.8.8.8"));
+    }
+
+    @Test
+    public void countSamplesTest() {
+        StratifiedSampler sampler = new StratifiedSampler(24, 16, 7);
+        // a rough map of a /8 takes a million lookups instead of 16 million
+        assertEquals(65536 * 16, sampler.countSamples(LookupHelper.parseIpRanges("8.0.0.0/8")));
+        assertEquals(16 + 2, sampler.countSamples(LookupHelper.parseIpRanges(
+                "8.8.8.0/24, 8.8.9.1-8.8.9.2")));
+        assertEquals(0, sampler.countSamples(Collections.<IpRange>emptyList()));
+        // every address of the space
+        assertEquals(16, new StratifiedSampler(0, 16, 7).countSamples(
+                LookupHelper.parseIpRanges("0.0.0.0/0")));
+    }
+
+    @Test
+    public void sampleTestWholeSpace() {
+        List<String> ipAddresses = sample(new StratifiedSampler(0, 4, 7), "0.0.0.0/0");
+        assertEquals(4, ipAddresses.size());
+        assertTrue(LookupHelper.ipStringToNumber(ipAddresses.get(3)) >= 0xC0000000L);
+    }
+
+    @Test
+    public void getBlockTest() {
+        StratifiedSampler sampler = new StratifiedSampler(12, 1, 0);
+        assertEquals(IpRange.fromAddresses("172.16.0.0", "172.31.255.255"),
+                sampler.getBlock(LookupHelper.ipStringToNumber("172.20.1.2")));
+        assertEquals(IpRange.fromAddresses("0.0.0.0", "255.255.255.255"),
+                new StratifiedSampler(0, 1, 0).getBlock(12345));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorTestInvalidPrefix() {
+        new StratifiedSampler(33, 1, 0);
+    }
+}